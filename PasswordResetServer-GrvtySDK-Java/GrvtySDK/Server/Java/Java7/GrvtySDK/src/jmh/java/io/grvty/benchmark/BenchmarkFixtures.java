@@ -0,0 +1,94 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.benchmark;
+
+import io.grvty.sdk.totp.GDataTotp.GTAccountInterface;
+import io.grvty.sdk.totp.GDataTotp.GTKeyInterface;
+import io.grvty.security.utils.time.GSecTime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Shared fixtures for the benchmarks. Benchmarks run against a fixed clock so
+ * that hit tokens stay valid for the whole run.
+ */
+final class BenchmarkFixtures {
+    /** Tue, 14 Nov 2023 22:13:20 GMT */
+    static final long TIME = 1700000000L;
+
+    private BenchmarkFixtures() {}
+
+    /**
+     * A clock that always returns the same time
+     * @param seconds seconds since epoch
+     * @return fixed clock
+     */
+    static GSecTime fixedClock(final long seconds) {
+        return new GSecTime() {
+            @Override
+            public long currentTimeSeconds() {
+                return seconds;
+            }
+        };
+    }
+
+    /**
+     * Deterministic pseudo random key material
+     * @param random source of the key bytes
+     * @param length key length in bytes
+     * @return key bytes
+     */
+    static byte[] randomKey(Random random, int length) {
+        byte[] key = new byte[length];
+        random.nextBytes(key);
+        return key;
+    }
+
+    /**
+     * Key as stored by a host application
+     */
+    static final class Key implements GTKeyInterface {
+        private final byte[] key;
+        private final byte[] unique;
+
+        Key(byte[] key, byte[] unique) {
+            this.key = key;
+            this.unique = unique;
+        }
+
+        @Override
+        public byte[] getUniqueVal() {
+            return this.unique;
+        }
+
+        @Override
+        public byte[] getOtpKey() {
+            return this.key;
+        }
+    }
+
+    /**
+     * Account that accepts every attempt, so repeated hits are not turned
+     * into replay failures by the data layer
+     */
+    static final class Account implements GTAccountInterface {
+        private final List<GTKeyInterface> keys = new ArrayList<>();
+
+        void addKey(GTKeyInterface key) {
+            this.keys.add(key);
+        }
+
+        @Override
+        public List<GTKeyInterface> getKeys() {
+            return this.keys;
+        }
+
+        @Override
+        public boolean addOtpToken(long period, String token, boolean valid) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.benchmark;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * A commons-logging Log with every level enabled that drops all messages.
+ * Selected with -Dorg.apache.commons.logging.Log=io.grvty.benchmark.DiscardingTraceLog
+ */
+public class DiscardingTraceLog implements Log {
+    private static volatile Object sink;
+
+    public DiscardingTraceLog(String name) {
+    }
+
+    private static void discard(Object message) {
+        // keep the message reachable so that building it is not optimized away
+        sink = message;
+    }
+
+    @Override public boolean isTraceEnabled() { return true; }
+    @Override public boolean isDebugEnabled() { return true; }
+    @Override public boolean isInfoEnabled() { return true; }
+    @Override public boolean isWarnEnabled() { return true; }
+    @Override public boolean isErrorEnabled() { return true; }
+    @Override public boolean isFatalEnabled() { return true; }
+    @Override public void trace(Object message) { discard(message); }
+    @Override public void trace(Object message, Throwable t) { discard(message); }
+    @Override public void debug(Object message) { discard(message); }
+    @Override public void debug(Object message, Throwable t) { discard(message); }
+    @Override public void info(Object message) { discard(message); }
+    @Override public void info(Object message, Throwable t) { discard(message); }
+    @Override public void warn(Object message) { discard(message); }
+    @Override public void warn(Object message, Throwable t) { discard(message); }
+    @Override public void error(Object message) { discard(message); }
+    @Override public void error(Object message, Throwable t) { discard(message); }
+    @Override public void fatal(Object message) { discard(message); }
+    @Override public void fatal(Object message, Throwable t) { discard(message); }
+}
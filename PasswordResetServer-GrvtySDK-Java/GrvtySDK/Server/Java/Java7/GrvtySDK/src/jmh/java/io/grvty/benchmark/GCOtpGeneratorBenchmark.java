@@ -0,0 +1,76 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.benchmark;
+
+import io.grvty.security.crypto.Utilities;
+import io.grvty.security.crypto.otp.GCHmacAlgorithm;
+import io.grvty.security.crypto.otp.GCHmacKey;
+import io.grvty.security.crypto.otp.GCOtpGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of generating a single token for each HMAC algorithm, through the
+ * JCA Mac path, the precomputed midstate path and the allocation-free int path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class GCOtpGeneratorBenchmark {
+    @Param({"HmacSHA1", "HmacSHA256", "HmacSHA512"})
+    public String algorithm;
+
+    private GCOtpGenerator generator;
+    private Key key;
+    private GCHmacKey hmacKey;
+    private byte[] unique;
+    private byte[] data;
+    private long period;
+
+    @Setup
+    public void setup() {
+        GCHmacAlgorithm hmac = GCHmacAlgorithm.valueOf(this.algorithm);
+        byte[] raw = BenchmarkFixtures.randomKey(new Random(42), hmac.getDigestLength());
+        this.generator = new GCOtpGenerator(hmac, 8);
+        this.key = new SecretKeySpec(raw, hmac.getAlgorithm());
+        this.hmacKey = GCHmacKey.newInstance(hmac, raw);
+        this.unique = "user_1234567890".getBytes();
+        this.period = BenchmarkFixtures.TIME / 30;
+        this.data = Utilities.join(this.unique, ByteBuffer.allocate(8).putLong(this.period).array());
+    }
+
+    @Benchmark
+    public String generateOtpMac() throws GeneralSecurityException {
+        return this.generator.generateOtp(this.key, this.data);
+    }
+
+    @Benchmark
+    public String generateOtpPrecomputed() {
+        return this.generator.generateOtp(this.hmacKey, this.data);
+    }
+
+    @Benchmark
+    public int generateOtpValue() {
+        return this.generator.generateOtpValue(this.hmacKey, this.period, this.unique);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.benchmark;
+
+import io.grvty.security.GSecOtpValidator;
+import io.grvty.security.GSecTotpKey;
+import io.grvty.security.crypto.GSecTotpCounter;
+import io.grvty.security.crypto.otp.GCHmacAlgorithm;
+import io.grvty.security.crypto.otp.GCHmacKey;
+import io.grvty.security.crypto.otp.GCOtpGenerator;
+import io.grvty.security.crypto.otp.GCTotpCounter;
+import io.grvty.security.crypto.otp.GCTotpGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of validating a token against one device for window sizes 0 to 10
+ * (the same number of previous and next periods). A hit matches the oldest
+ * period of the window, the last one checked; a miss checks the whole window.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class GSecOtpValidatorBenchmark {
+    @Param({"0", "1", "2", "5", "10"})
+    public int window;
+
+    @Param({"true", "false"})
+    public boolean hit;
+
+    private GSecOtpValidator validator;
+    private GSecTotpKey device;
+    private long time;
+    private int token;
+    private String tokenText;
+
+    @Setup
+    public void setup() {
+        GCHmacAlgorithm hmac = GCHmacAlgorithm.HmacSHA256;
+        byte[] raw = BenchmarkFixtures.randomKey(new Random(42), hmac.getDigestLength());
+        byte[] unique = "user_1234567890".getBytes();
+        GCOtpGenerator otpGenerator = new GCOtpGenerator(hmac, 8);
+        GCTotpCounter totpCounter = new GCTotpCounter(0, 30, BenchmarkFixtures.fixedClock(BenchmarkFixtures.TIME));
+        GCTotpGenerator generator = new GCTotpGenerator(otpGenerator, totpCounter);
+        this.validator = new GSecOtpValidator(generator, new GSecTotpCounter(this.window, this.window));
+        this.device = new GSecTotpKey(new SecretKeySpec(raw, hmac.getAlgorithm()), unique, GCHmacKey.newInstance(hmac, raw));
+        this.time = totpCounter.totpCount();
+        int valid = otpGenerator.generateOtpValue(GCHmacKey.newInstance(hmac, raw), this.time - this.window, unique);
+        this.token = this.hit ? valid : (valid + 1) % 100000000;
+        this.tokenText = otpGenerator.formatOtp(this.token);
+    }
+
+    @Benchmark
+    public boolean validateOtpTokenInt() {
+        return this.validator.validateOtpToken(this.device, this.token, this.time);
+    }
+
+    @Benchmark
+    public boolean validateOtpTokenString() throws GeneralSecurityException {
+        return this.validator.validateOtpToken(this.device, this.tokenText, this.time);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.benchmark;
+
+import io.grvty.sdk.totp.GDataTotp;
+import io.grvty.sdk.totp.TotpValidator;
+import io.grvty.security.GSecOtpValidator;
+import io.grvty.security.crypto.GSecTotpCounter;
+import io.grvty.security.crypto.otp.GCHmacAlgorithm;
+import io.grvty.security.crypto.otp.GCHmacKey;
+import io.grvty.security.crypto.otp.GCOtpGenerator;
+import io.grvty.security.crypto.otp.GCTotpCounter;
+import io.grvty.security.crypto.otp.GCTotpGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the full TotpValidator path (key unwrapping, every device, the
+ * default window of one previous and one next period) for accounts with 1, 5
+ * and 50 devices. A hit matches the last device, a miss checks all devices.
+ * Logging runs at the commons-logging default, see TotpValidatorTraceBenchmark
+ * for the same benchmarks with trace logging enabled.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TotpValidatorBenchmark {
+    @Param({"1", "5", "50"})
+    public int devices;
+
+    @Param({"true", "false"})
+    public boolean hit;
+
+    private TotpValidator totpValidator;
+    private BenchmarkFixtures.Account account;
+    private String token;
+
+    @Setup
+    public void setup() {
+        GCHmacAlgorithm hmac = GCHmacAlgorithm.HmacSHA256;
+        Random random = new Random(42);
+        byte[] appSecret = BenchmarkFixtures.randomKey(random, hmac.getDigestLength());
+        byte[] unique = "user_1234567890".getBytes();
+
+        GCOtpGenerator otpGenerator = new GCOtpGenerator(hmac, 8);
+        GCTotpCounter totpCounter = new GCTotpCounter(0, 30, BenchmarkFixtures.fixedClock(BenchmarkFixtures.TIME));
+        GCTotpGenerator generator = new GCTotpGenerator(otpGenerator, totpCounter);
+        GSecOtpValidator validator = new GSecOtpValidator(generator, new GSecTotpCounter(1, 1));
+        GDataTotp totpDataRepository = new GDataTotp(appSecret, hmac);
+        this.totpValidator = new TotpValidator(validator, totpDataRepository, totpCounter);
+
+        this.account = new BenchmarkFixtures.Account();
+        byte[] raw = null;
+        for (int i = 0; i < this.devices; i++) {
+            raw = BenchmarkFixtures.randomKey(random, hmac.getDigestLength());
+            this.account.addKey(new BenchmarkFixtures.Key(totpDataRepository.wrapKey(raw), unique));
+        }
+        int valid = otpGenerator.generateOtpValue(GCHmacKey.newInstance(hmac, raw), totpCounter.totpCount(), unique);
+        this.token = otpGenerator.formatOtp(this.hit ? valid : (valid + 1) % 100000000);
+    }
+
+    @Benchmark
+    public boolean validateOtpToken() throws GeneralSecurityException {
+        return this.totpValidator.validateOtpToken(this.account, this.token);
+    }
+}
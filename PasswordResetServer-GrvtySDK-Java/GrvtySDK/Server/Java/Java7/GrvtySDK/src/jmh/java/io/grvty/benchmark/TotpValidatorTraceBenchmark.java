@@ -0,0 +1,15 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.benchmark;
+
+import org.openjdk.jmh.annotations.Fork;
+
+/**
+ * TotpValidatorBenchmark with trace logging enabled. Messages are built but
+ * discarded by DiscardingTraceLog, so the results show the cost of producing
+ * the log messages rather than the cost of writing them.
+ */
+@Fork(value = 2, jvmArgsAppend = {"-Dorg.apache.commons.logging.Log=io.grvty.benchmark.DiscardingTraceLog"})
+public class TotpValidatorTraceBenchmark extends TotpValidatorBenchmark {
+}
@@ -5,17 +5,40 @@
 package io.grvty;
 
 import io.grvty.sdk.totp.GDataTotp;
+import io.grvty.sdk.totp.TotpAttemptLog;
+import io.grvty.sdk.totp.TotpAttemptRecorder;
+import io.grvty.sdk.totp.TotpFanOut;
+import io.grvty.sdk.totp.TotpSingleFlight;
 import io.grvty.sdk.totp.TotpValidator;
+import io.grvty.security.GSecAttemptThrottle;
+import io.grvty.security.GSecDeviceHints;
+import io.grvty.security.GSecDriftStore;
+import io.grvty.security.GSecKeyCache;
+import io.grvty.security.GSecKeyVault;
+import io.grvty.security.GSecNegativeCache;
 import io.grvty.security.GSecOtpValidator;
+import io.grvty.security.GSecReplayStore;
+import io.grvty.security.GSecTokenCache;
+import io.grvty.security.GSecTokenIndex;
 import io.grvty.security.alerts.*;
 import io.grvty.security.crypto.GSecTotpCounter;
 import io.grvty.security.crypto.otp.GCHmacAlgorithm;
 import io.grvty.security.crypto.otp.GCOtpGenerator;
 import io.grvty.security.crypto.otp.GCTotpCounter;
 import io.grvty.security.crypto.otp.GCTotpGenerator;
+import io.grvty.security.crypto.otp.GCTotpTicker;
+import io.grvty.security.diagnostics.GSecDiagnosticDelegate;
+import io.grvty.security.diagnostics.GSecDiagnosticService;
+import io.grvty.security.utils.time.GSecTime;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.security.Provider;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The main interface the GRVTY Password Reset System Server SDK to validate OTP tokens.
@@ -29,6 +52,34 @@ public class GrvtyTotpSDK {
     private static final int DEFAULT_DIGITS = 8;
     private static final int DEFAULT_PERIOD_PLUS = 1;
     private static final int DEFAULT_PERIOD_MINUS = 1;
+    private static final int DEFAULT_KEY_CACHE_SIZE = 0;  // 0 disables the key cache
+    private static final long DEFAULT_KEY_CACHE_TTL = 300;
+    private static final int DEFAULT_TOKEN_CACHE_SIZE = 0;  // 0 disables the token cache
+    private static final int DEFAULT_DRIFT_STORE_SIZE = 0;  // 0 disables drift tracking
+    private static final int DEFAULT_ASYNC_VALIDATION_THREADS = 0;  // 0 uses the shared pool
+    private static final int ASYNC_VALIDATION_QUEUE_PER_THREAD = 256;
+    private static final long DEFAULT_CLOCK_TICK_MILLIS = 0;  // 0 reads the system time on every call
+    private static final boolean DEFAULT_PERIOD_TICKER = false;
+    private static final int DEFAULT_REPLAY_STORE_SIZE = 0;  // 0 leaves replay protection to the data layer
+    private static final int DEFAULT_MAX_ATTEMPTS = 0;  // 0 does not limit attempts
+    private static final long DEFAULT_ATTEMPT_WINDOW = 300;
+    private static final int THROTTLE_MAX_ACCOUNTS = 1 << 20;
+    private static final boolean DEFAULT_COALESCE_VALIDATIONS = false;
+    private static final int COALESCE_LOCK_STRIPES = 1024;
+    private static final int DEFAULT_NEGATIVE_CACHE_SIZE = 0;  // 0 checks every token
+    private static final int DEFAULT_DEVICE_HINTS_SIZE = 0;  // 0 checks devices in the account's order
+    private static final int DEFAULT_FAN_OUT_THRESHOLD = 0;  // 0 always checks devices serially
+    private static final int DEFAULT_FAN_OUT_PARALLELISM = 0;  // 0 uses one thread per processor
+    private static final int FAN_OUT_QUEUE_PER_THREAD = 64;
+    private static final int DEFAULT_TOKEN_INDEX_THRESHOLD = 0;  // 0 always checks the devices
+    private static final int DEFAULT_TOKEN_INDEX_SIZE = 1024;
+    private static final int DEFAULT_KEY_VAULT_SIZE = 0;  // 0 keeps unwrapped keys on the heap
+    private static final int DEFAULT_KEY_VAULT_UNIQUE_LENGTH = 64;
+    private static final int DEFAULT_ATTEMPT_QUEUE_SIZE = 0;  // 0 records every attempt on the validating thread
+    private static final int DEFAULT_ATTEMPT_BATCH_SIZE = 256;
+    private static final int ATTEMPT_LOG_MAX_TOKENS = 1 << 20;
+    private static final int ALERT_QUEUE_CAPACITY = 1024;
+    private static final long ALERT_COALESCE_MILLIS = 60000;
 
     private byte[] appSecret;
     private long epochStart;
@@ -37,6 +88,28 @@ public class GrvtyTotpSDK {
     private int previousPeriods;
     private int nextPeriods;
     private GCHmacAlgorithm hmacAlgorithm;
+    private int keyCacheSize;
+    private long keyCacheTtl;
+    private int tokenCacheSize;
+    private int driftStoreSize;
+    private int asyncValidationThreads;
+    private long clockTickMillis;
+    private boolean periodTicker;
+    private int replayStoreSize;
+    private int maxAttempts;
+    private long attemptWindow;
+    private boolean coalesceValidations;
+    private int negativeCacheSize;
+    private int deviceHintsSize;
+    private int fanOutThreshold;
+    private int fanOutParallelism;
+    private int tokenIndexThreshold;
+    private int tokenIndexSize;
+    private int keyVaultSize;
+    private int keyVaultUniqueLength;
+    private int attemptQueueSize;
+    private int attemptBatchSize;
+    private File attemptLog;
 
     /**
      * The default initializer. The system requires an app secret to be set to be
@@ -47,6 +120,28 @@ public class GrvtyTotpSDK {
      * - int previousPeriods: 1
      * - int nextPeriods: 1
      * - GCHmacAlgorithm hmacAlgorithm: HmacSHA256
+     * - int keyCacheSize: 0 (disabled)
+     * - long keyCacheTtl: 300
+     * - int tokenCacheSize: 0 (disabled)
+     * - int driftStoreSize: 0 (disabled)
+     * - int asyncValidationThreads: 0 (shared pool, one thread per processor)
+     * - long clockTickMillis: 0 (system time is read on every call)
+     * - boolean periodTicker: false
+     * - int replayStoreSize: 0 (disabled)
+     * - int maxAttempts: 0 (disabled)
+     * - long attemptWindow: 300
+     * - boolean coalesceValidations: false
+     * - int negativeCacheSize: 0 (disabled)
+     * - int deviceHintsSize: 0 (disabled)
+     * - int fanOutThreshold: 0 (disabled)
+     * - int fanOutParallelism: 0 (one thread per processor)
+     * - int tokenIndexThreshold: 0 (disabled)
+     * - int tokenIndexSize: 1024
+     * - int keyVaultSize: 0 (disabled)
+     * - int keyVaultUniqueLength: 64
+     * - int attemptQueueSize: 0 (disabled)
+     * - int attemptBatchSize: 256
+     * - File attemptLog: null (attempts are recorded with the data layer)
      * @param appSecret application key
      */
     public GrvtyTotpSDK(byte[] appSecret) {
@@ -63,10 +158,33 @@ public class GrvtyTotpSDK {
         this.previousPeriods = DEFAULT_PERIOD_MINUS;
         this.nextPeriods = DEFAULT_PERIOD_PLUS;
         this.hmacAlgorithm = GCHmacAlgorithm.DEFAULT;
+        this.keyCacheSize = DEFAULT_KEY_CACHE_SIZE;
+        this.keyCacheTtl = DEFAULT_KEY_CACHE_TTL;
+        this.tokenCacheSize = DEFAULT_TOKEN_CACHE_SIZE;
+        this.driftStoreSize = DEFAULT_DRIFT_STORE_SIZE;
+        this.asyncValidationThreads = DEFAULT_ASYNC_VALIDATION_THREADS;
+        this.clockTickMillis = DEFAULT_CLOCK_TICK_MILLIS;
+        this.periodTicker = DEFAULT_PERIOD_TICKER;
+        this.replayStoreSize = DEFAULT_REPLAY_STORE_SIZE;
+        this.maxAttempts = DEFAULT_MAX_ATTEMPTS;
+        this.attemptWindow = DEFAULT_ATTEMPT_WINDOW;
+        this.coalesceValidations = DEFAULT_COALESCE_VALIDATIONS;
+        this.negativeCacheSize = DEFAULT_NEGATIVE_CACHE_SIZE;
+        this.deviceHintsSize = DEFAULT_DEVICE_HINTS_SIZE;
+        this.fanOutThreshold = DEFAULT_FAN_OUT_THRESHOLD;
+        this.fanOutParallelism = DEFAULT_FAN_OUT_PARALLELISM;
+        this.tokenIndexThreshold = DEFAULT_TOKEN_INDEX_THRESHOLD;
+        this.tokenIndexSize = DEFAULT_TOKEN_INDEX_SIZE;
+        this.keyVaultSize = DEFAULT_KEY_VAULT_SIZE;
+        this.keyVaultUniqueLength = DEFAULT_KEY_VAULT_UNIQUE_LENGTH;
+        this.attemptQueueSize = DEFAULT_ATTEMPT_QUEUE_SIZE;
+        this.attemptBatchSize = DEFAULT_ATTEMPT_BATCH_SIZE;
     }
 
     /**
-     * From the chosen configuration build the GRVTY TOTP Validation System
+     * From the chosen configuration build the GRVTY TOTP Validation System.
+     * Threads, executors and the attempt log created for the validator are
+     * released by TotpValidator.shutdown.
      * @return token validator
      */
     public TotpValidator build() {
@@ -99,21 +217,188 @@ public class GrvtyTotpSDK {
             throw new IllegalArgumentException(String.format("int nextPeriods is %s. Must be between -1 and 11.", this.nextPeriods));
         }
 
-        GCOtpGenerator generator1 = new GCOtpGenerator(this.hmacAlgorithm, this.tokenLength);
-        GCTotpCounter totpCounter = new GCTotpCounter(this.epochStart, this.periodLength);
+        if (this.keyCacheSize < 0) {
+            throw new IllegalArgumentException(String.format("int keyCacheSize is %s. Must be a non-negative number.", this.keyCacheSize));
+        }
+        if (this.keyCacheTtl < 1) {
+            throw new IllegalArgumentException(String.format("long keyCacheTtl is %s. Must be a positive integer.", this.keyCacheTtl));
+        }
+        if (this.tokenCacheSize < 0) {
+            throw new IllegalArgumentException(String.format("int tokenCacheSize is %s. Must be a non-negative number.", this.tokenCacheSize));
+        }
+        if (this.driftStoreSize < 0 || this.driftStoreSize > (1 << 30)) {
+            throw new IllegalArgumentException(String.format("int driftStoreSize is %s. Must be between -1 and 2^30 + 1.", this.driftStoreSize));
+        }
+        if (this.asyncValidationThreads < 0) {
+            throw new IllegalArgumentException(String.format("int asyncValidationThreads is %s. Must be a non-negative number.", this.asyncValidationThreads));
+        }
+        if (this.clockTickMillis < 0 || this.clockTickMillis > 1000) {
+            throw new IllegalArgumentException(String.format("long clockTickMillis is %s. Must be between -1 and 1001.", this.clockTickMillis));
+        }
+        if (this.replayStoreSize < 0 || this.replayStoreSize > (1 << 28)) {
+            throw new IllegalArgumentException(String.format("int replayStoreSize is %s. Must be between -1 and 2^28 + 1.", this.replayStoreSize));
+        }
+        if (this.maxAttempts < 0 || this.maxAttempts > 10000) {
+            throw new IllegalArgumentException(String.format("int maxAttempts is %s. Must be between -1 and 10001.", this.maxAttempts));
+        }
+        if (this.attemptWindow < 1 || this.attemptWindow > 86400) {
+            throw new IllegalArgumentException(String.format("long attemptWindow is %s. Must be between 0 and 86401.", this.attemptWindow));
+        }
+        if (this.negativeCacheSize < 0 || this.negativeCacheSize > (1 << 28)) {
+            throw new IllegalArgumentException(String.format("int negativeCacheSize is %s. Must be between -1 and 2^28 + 1.", this.negativeCacheSize));
+        }
+        if (this.deviceHintsSize < 0 || this.deviceHintsSize > (1 << 28)) {
+            throw new IllegalArgumentException(String.format("int deviceHintsSize is %s. Must be between -1 and 2^28 + 1.", this.deviceHintsSize));
+        }
+        if (this.fanOutThreshold < 0 || this.fanOutThreshold == 1) {
+            throw new IllegalArgumentException(String.format("int fanOutThreshold is %s. Must be 0 or greater than 1.", this.fanOutThreshold));
+        }
+        if (this.fanOutParallelism < 0 || this.fanOutParallelism == 1 || this.fanOutParallelism > 256) {
+            throw new IllegalArgumentException(String.format("int fanOutParallelism is %s. Must be 0 or between 1 and 257.", this.fanOutParallelism));
+        }
+        if (this.tokenIndexThreshold < 0 || this.tokenIndexThreshold == 1) {
+            throw new IllegalArgumentException(String.format("int tokenIndexThreshold is %s. Must be 0 or greater than 1.", this.tokenIndexThreshold));
+        }
+        if (this.tokenIndexSize < 1 || this.tokenIndexSize > (1 << 20)) {
+            throw new IllegalArgumentException(String.format("int tokenIndexSize is %s. Must be between 0 and 2^20 + 1.", this.tokenIndexSize));
+        }
+        if (this.keyVaultSize < 0 || this.keyVaultSize > (1 << 28)) {
+            throw new IllegalArgumentException(String.format("int keyVaultSize is %s. Must be between -1 and 2^28 + 1.", this.keyVaultSize));
+        }
+        if (this.keyVaultUniqueLength < 1 || this.keyVaultUniqueLength > 1024) {
+            throw new IllegalArgumentException(String.format("int keyVaultUniqueLength is %s. Must be between 0 and 1025.", this.keyVaultUniqueLength));
+        }
+        if (this.attemptQueueSize < 0 || this.attemptQueueSize > (1 << 20)) {
+            throw new IllegalArgumentException(String.format("int attemptQueueSize is %s. Must be between -1 and 2^20 + 1.", this.attemptQueueSize));
+        }
+        if (this.attemptBatchSize < 1 || this.attemptBatchSize > 65536) {
+            throw new IllegalArgumentException(String.format("int attemptBatchSize is %s. Must be between 0 and 65537.", this.attemptBatchSize));
+        }
+        if (this.attemptLog != null && this.attemptQueueSize == 0) {
+            throw new IllegalArgumentException("File attemptLog requires an attemptQueueSize greater than 0.");
+        }
+
+        Provider provider = GCOtpGenerator.resolveProvider(this.hmacAlgorithm);
+
+        GCOtpGenerator generator1 = new GCOtpGenerator(this.hmacAlgorithm, this.tokenLength, provider);
+        GSecTime clock = this.clockTickMillis > 0 ? GSecTime.newCoarseInstance(this.clockTickMillis) : null;
+        GCTotpCounter totpCounter = this.periodTicker
+                ? new GCTotpTicker(this.epochStart, this.periodLength, clock) : new GCTotpCounter(this.epochStart, this.periodLength, clock);
+        TotpValidator.Options options = new TotpValidator.Options();
+        if (clock != null) {
+            options.addResource(stopping(clock));
+        }
+        if (this.periodTicker) {
+            options.addResource(stopping((GCTotpTicker) totpCounter));
+        }
         GCTotpGenerator generator = new GCTotpGenerator(generator1, totpCounter);
         GSecTotpCounter totpCounter1 = new GSecTotpCounter(this.previousPeriods, this.nextPeriods);
-        GSecOtpValidator validator = new GSecOtpValidator(generator, totpCounter1);
-        GDataTotp totpDataRepository = new GDataTotp(this.appSecret, hmacAlgorithm);
-        TotpValidator totpValidator = new TotpValidator(validator, totpDataRepository, totpCounter);
+        GSecTokenCache tokenCache = this.tokenCacheSize > 0 ? new GSecTokenCache(totpCounter1.getWindowSize(), this.tokenCacheSize) : null;
+        GSecDriftStore driftStore = this.driftStoreSize > 0 ? new GSecDriftStore(this.driftStoreSize) : null;
+        GSecOtpValidator validator = new GSecOtpValidator(generator, totpCounter1, tokenCache, driftStore);
+        if (this.periodTicker && tokenCache != null) {
+            ((GCTotpTicker) totpCounter).addPeriodListener(validator);
+        }
+        GSecReplayStore replayStore = this.replayStoreSize > 0 ? new GSecReplayStore(totpCounter1, this.replayStoreSize) : null;
+        if (this.periodTicker && replayStore != null) {
+            ((GCTotpTicker) totpCounter).addPeriodListener(replayStore);
+        }
+        GSecAttemptThrottle attemptThrottle = this.maxAttempts > 0
+                ? new GSecAttemptThrottle(this.maxAttempts, TimeUnit.SECONDS.toMillis(this.attemptWindow), THROTTLE_MAX_ACCOUNTS) : null;
+        GSecNegativeCache negativeCache = this.negativeCacheSize > 0 ? new GSecNegativeCache(this.negativeCacheSize) : null;
+        if (this.periodTicker && negativeCache != null) {
+            ((GCTotpTicker) totpCounter).addPeriodListener(negativeCache);
+        }
+        GSecDeviceHints deviceHints = this.deviceHintsSize > 0 ? new GSecDeviceHints(this.deviceHintsSize) : null;
+        TotpFanOut fanOut = null;
+        if (this.fanOutThreshold > 0) {
+            int parallelism = this.fanOutParallelism > 0 ? this.fanOutParallelism : Math.max(2, Runtime.getRuntime().availableProcessors());
+            ExecutorService fanOutExecutor = TotpValidator.newValidationExecutor(parallelism - 1, (parallelism - 1) * FAN_OUT_QUEUE_PER_THREAD);
+            options.addResource(stopping(fanOutExecutor));
+            fanOut = new TotpFanOut(fanOutExecutor, this.fanOutThreshold, parallelism);
+        }
+        GSecTokenIndex tokenIndex = this.tokenIndexThreshold > 0
+                ? new GSecTokenIndex(generator, totpCounter1, this.tokenIndexThreshold, this.tokenIndexSize) : null;
+        if (this.periodTicker && tokenIndex != null) {
+            ((GCTotpTicker) totpCounter).addPeriodListener(tokenIndex);
+        }
+        TotpSingleFlight singleFlight = this.coalesceValidations ? new TotpSingleFlight(COALESCE_LOCK_STRIPES) : null;
+        GSecKeyCache keyCache = this.keyCacheSize > 0 ? new GSecKeyCache(this.keyCacheSize, this.keyCacheTtl) : null;
+        GSecKeyVault keyVault = this.keyVaultSize > 0 ? new GSecKeyVault(this.hmacAlgorithm, this.keyVaultSize, this.keyVaultUniqueLength) : null;
+        if (keyVault != null && tokenCache != null) {
+            keyVault.addRemovalListener(tokenCache);
+        }
+        if (keyVault != null && tokenIndex != null) {
+            keyVault.addRemovalListener(tokenIndex);
+        }
+        GDataTotp totpDataRepository = new GDataTotp(this.appSecret, hmacAlgorithm, keyCache, keyVault);
+        ExecutorService validationExecutor = null;
+        if (this.asyncValidationThreads > 0) {
+            validationExecutor = TotpValidator.newValidationExecutor(this.asyncValidationThreads, this.asyncValidationThreads * ASYNC_VALIDATION_QUEUE_PER_THREAD);
+            options.addResource(stopping(validationExecutor));
+        }
+        TotpAttemptRecorder attemptRecorder = null;
+        if (this.attemptQueueSize > 0) {
+            TotpAttemptRecorder.Sink sink = TotpAttemptRecorder.ACCOUNTS;
+            if (this.attemptLog != null) {
+                try {
+                    TotpAttemptLog attemptLog = new TotpAttemptLog(this.attemptLog, this.previousPeriods + this.nextPeriods, ATTEMPT_LOG_MAX_TOKENS);
+                    options.addResource(attemptLog);
+                    sink = attemptLog;
+                } catch (IOException e) {
+                    throw new IllegalArgumentException(String.format("Attempt log %s cannot be opened.", this.attemptLog), e);
+                }
+            }
+            attemptRecorder = new TotpAttemptRecorder(sink, this.attemptQueueSize, this.attemptBatchSize);
+        }
+        options.setValidationExecutor(validationExecutor);
+        options.setReplayStore(replayStore);
+        options.setAttemptThrottle(attemptThrottle);
+        options.setSingleFlight(singleFlight);
+        options.setNegativeCache(negativeCache);
+        options.setDeviceHints(deviceHints);
+        options.setFanOut(fanOut);
+        options.setTokenIndex(tokenIndex);
+        options.setAttemptRecorder(attemptRecorder);
+        TotpValidator totpValidator = new TotpValidator(validator, totpDataRepository, totpCounter, options);
         Package aPackage = GrvtyTotpSDK.class.getPackage();
         String version = String.format("%s:%s:%s", aPackage.getImplementationVendor(), aPackage.getImplementationTitle(), aPackage.getImplementationVersion());
         String hmacAlgorithmName = String.format("HmacSHA%s", appSecret.length * 8);
-        String parameters = String.format("appSecret=byte[%s] {...}, hmacAlgorithm=%s, tokenLength=%s, epochStart=%s, periodLength=%s, previousPeriods=%s, nextPeriods=%s", appSecret.length, hmacAlgorithmName, tokenLength, epochStart, periodLength, previousPeriods, nextPeriods);
+        String parameters = String.format("appSecret=byte[%s] {...}, hmacAlgorithm=%s, tokenLength=%s, epochStart=%s, periodLength=%s, previousPeriods=%s, nextPeriods=%s, provider=%s, keyCacheSize=%s, keyCacheTtl=%s, tokenCacheSize=%s, driftStoreSize=%s, asyncValidationThreads=%s, clockTickMillis=%s, periodTicker=%s, replayStoreSize=%s, maxAttempts=%s, attemptWindow=%s, coalesceValidations=%s, negativeCacheSize=%s, deviceHintsSize=%s, fanOutThreshold=%s, fanOutParallelism=%s, tokenIndexThreshold=%s, tokenIndexSize=%s, keyVaultSize=%s, keyVaultUniqueLength=%s, attemptQueueSize=%s, attemptBatchSize=%s, attemptLog=%s", appSecret.length, hmacAlgorithmName, tokenLength, epochStart, periodLength, previousPeriods, nextPeriods, provider.getName(), keyCacheSize, keyCacheTtl, tokenCacheSize, driftStoreSize, asyncValidationThreads, clockTickMillis, periodTicker, replayStoreSize, maxAttempts, attemptWindow, coalesceValidations, negativeCacheSize, deviceHintsSize, fanOutThreshold, fanOutParallelism, tokenIndexThreshold, tokenIndexSize, keyVaultSize, keyVaultUniqueLength, attemptQueueSize, attemptBatchSize, attemptLog);
         log.info(String.format("%s created new TotpValidator with parameters: %s", version, parameters));
         return totpValidator;
     }
 
+    /*
+     * The resources a validator owns, released by TotpValidator.shutdown
+     */
+    private static Closeable stopping(final GSecTime clock) {
+        return new Closeable() {
+            @Override
+            public void close() {
+                clock.stop();
+            }
+        };
+    }
+
+    private static Closeable stopping(final GCTotpTicker ticker) {
+        return new Closeable() {
+            @Override
+            public void close() {
+                ticker.stop();
+            }
+        };
+    }
+
+    private static Closeable stopping(final ExecutorService executor) {
+        return new Closeable() {
+            @Override
+            public void close() {
+                executor.shutdown();
+            }
+        };
+    }
+
     /**
      * Set GSecAlertDelegate. The delegate is used to receive security alerts
      * generated by the GrvtyTotpSDK at runtime.
@@ -126,6 +411,33 @@ public class GrvtyTotpSDK {
         GSecAlertService.setSecurityAlertDelegate(delegate);
     }
 
+    /**
+     * Set a GSecAlertDelegate that is called on a background thread, so a slow
+     * delegate never delays validations. Alerts are queued (up to 1024, the
+     * oldest are dropped when full) and repeated alerts of the same type and
+     * domain are coalesced within one minute.
+     * @param delegate GSecAlertDelegate
+     * @return the dispatcher in front of the delegate, for its counters and shutdown
+     */
+    public static GSecAlertDispatcher setGrvtyAsyncSecurityAlertDelegate(GSecAlertDelegate delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("GSecAlertDelegate delegate must not be null");
+        }
+        GSecAlertDispatcher dispatcher = new GSecAlertDispatcher(delegate, ALERT_QUEUE_CAPACITY, ALERT_COALESCE_MILLIS, GSecAlertDispatcher.OverflowPolicy.DROP_OLDEST);
+        GSecAlertService.setSecurityAlertDelegate(dispatcher);
+        return dispatcher;
+    }
+
+    /**
+     * Set GSecDiagnosticDelegate. The delegate receives diagnostic events from
+     * the validation path. Events carry only primitive values, never tokens or
+     * key material. Passing null disables diagnostics.
+     * @param delegate GSecDiagnosticDelegate or null
+     */
+    public static void setGrvtyDiagnosticDelegate(GSecDiagnosticDelegate delegate) {
+        GSecDiagnosticService.setDiagnosticDelegate(delegate);
+    }
+
     /**
      * Set the start time that the validation system should use. The start
      * time is specified as a positive integer representing an offset from
@@ -205,4 +517,292 @@ public class GrvtyTotpSDK {
         }
         this.appSecret = appSecret;
     }
-}
\ No newline at end of file
+
+    /**
+     * Number of unwrapped device keys to keep in memory. Cached keys keep
+     * their precomputed HMAC state between validation attempts. 0 disables the cache.
+     * @param keyCacheSize maximum number of cached keys
+     */
+    public void setKeyCacheSize(int keyCacheSize) {
+        if (keyCacheSize < 0) {
+            throw new IllegalArgumentException(String.format("int keyCacheSize is %s. Must be a non-negative number.", keyCacheSize));
+        }
+        this.keyCacheSize = keyCacheSize;
+    }
+
+    /**
+     * Time in seconds that an unwrapped device key may stay cached
+     * @param keyCacheTtl time to live of cached keys
+     */
+    public void setKeyCacheTtl(long keyCacheTtl) {
+        if (keyCacheTtl < 1) {
+            throw new IllegalArgumentException(String.format("long keyCacheTtl is %s. Must be a positive integer.", keyCacheTtl));
+        }
+        this.keyCacheTtl = keyCacheTtl;
+    }
+
+    /**
+     * Number of devices to cache generated tokens for. Tokens are cached per
+     * time period and dropped once the period leaves the time window. 0 disables the cache.
+     * @param tokenCacheSize maximum number of devices with cached tokens
+     */
+    public void setTokenCacheSize(int tokenCacheSize) {
+        if (tokenCacheSize < 0) {
+            throw new IllegalArgumentException(String.format("int tokenCacheSize is %s. Must be a non-negative number.", tokenCacheSize));
+        }
+        this.tokenCacheSize = tokenCacheSize;
+    }
+
+    /**
+     * Number of devices to remember the matching period offset for. Devices
+     * with skewed clocks are then checked at their usual offset first. 0 disables
+     * drift tracking.
+     * @param driftStoreSize number of slots in the drift store
+     */
+    public void setDriftStoreSize(int driftStoreSize) {
+        if (driftStoreSize < 0 || driftStoreSize > (1 << 30)) {
+            throw new IllegalArgumentException(String.format("int driftStoreSize is %s. Must be between -1 and 2^30 + 1.", driftStoreSize));
+        }
+        this.driftStoreSize = driftStoreSize;
+    }
+
+    /**
+     * Number of threads that run the HMAC work of asynchronous validations.
+     * The pool is bounded, validations that do not fit into its queue fail.
+     * 0 uses a pool with one thread per processor that is shared by all validators.
+     * @param asyncValidationThreads number of validation threads
+     */
+    public void setAsyncValidationThreads(int asyncValidationThreads) {
+        if (asyncValidationThreads < 0) {
+            throw new IllegalArgumentException(String.format("int asyncValidationThreads is %s. Must be a non-negative number.", asyncValidationThreads));
+        }
+        this.asyncValidationThreads = asyncValidationThreads;
+    }
+
+    /**
+     * Read the system time on a ticker thread every clockTickMillis milliseconds
+     * instead of on every validation. Validations then use the cached time,
+     * which may lag by up to one tick. 0 reads the system time on every call.
+     * @param clockTickMillis interval between clock readings in milliseconds
+     */
+    public void setClockTickMillis(long clockTickMillis) {
+        if (clockTickMillis < 0 || clockTickMillis > 1000) {
+            throw new IllegalArgumentException(String.format("long clockTickMillis is %s. Must be between -1 and 1001.", clockTickMillis));
+        }
+        this.clockTickMillis = clockTickMillis;
+    }
+
+    /**
+     * Compute the current time period on a ticker thread at each period boundary
+     * instead of on every validation. With a token cache the ticker also evicts
+     * expired periods and computes the tokens of the next period for cached devices.
+     * @param periodTicker true to use a period ticker
+     */
+    public void setPeriodTicker(boolean periodTicker) {
+        this.periodTicker = periodTicker;
+    }
+
+    /**
+     * Number of accepted tokens to remember in process. A remembered token is
+     * rejected before any HMAC is computed until the period it matched leaves
+     * the time window. The data layer's addOtpToken still sees every attempt.
+     * While the store is full, valid tokens that cannot be remembered are
+     * rejected. 0 leaves replay protection to the data layer.
+     * @param replayStoreSize maximum number of remembered tokens
+     */
+    public void setReplayStoreSize(int replayStoreSize) {
+        if (replayStoreSize < 0 || replayStoreSize > (1 << 28)) {
+            throw new IllegalArgumentException(String.format("int replayStoreSize is %s. Must be between -1 and 2^28 + 1.", replayStoreSize));
+        }
+        this.replayStoreSize = replayStoreSize;
+    }
+
+    /**
+     * Maximum number of validation attempts per account within the attempt
+     * window. Excess attempts are rejected before any key is unwrapped or HMAC
+     * computed and raise an "otpAttemptsThrottled" security alert. Accounts
+     * implementing GTAccountIdInterface are limited before their keys are
+     * fetched, other accounts are identified by their first key.
+     * 0 does not limit attempts.
+     * @param maxAttempts maximum number of attempts per account
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 0 || maxAttempts > 10000) {
+            throw new IllegalArgumentException(String.format("int maxAttempts is %s. Must be between -1 and 10001.", maxAttempts));
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Length of the sliding window attempts are counted in, see setMaxAttempts
+     * @param attemptWindow window length in seconds
+     */
+    public void setAttemptWindow(long attemptWindow) {
+        if (attemptWindow < 1 || attemptWindow > 86400) {
+            throw new IllegalArgumentException(String.format("long attemptWindow is %s. Must be between 0 and 86401.", attemptWindow));
+        }
+        this.attemptWindow = attemptWindow;
+    }
+
+    /**
+     * Coalesce concurrent validations of the same token for the same account
+     * into one computation and record the attempts of an account one at a time,
+     * so that of several concurrent uses of a valid token exactly the first
+     * recorded one is accepted by a replay safe data layer or replay store.
+     * @param coalesceValidations true to coalesce validations
+     */
+    public void setCoalesceValidations(boolean coalesceValidations) {
+        this.coalesceValidations = coalesceValidations;
+    }
+
+    /**
+     * Number of wrong tokens to remember for the current time period. Sending
+     * a remembered token again is rejected without computing any HMAC, the
+     * attempt is still recorded with the data layer. Tokens are remembered
+     * per set of devices, so adding, removing or replacing a device forgets
+     * them. Accounts that stream their devices are always checked. 0 checks
+     * every token.
+     * @param negativeCacheSize maximum number of remembered wrong tokens
+     */
+    public void setNegativeCacheSize(int negativeCacheSize) {
+        if (negativeCacheSize < 0 || negativeCacheSize > (1 << 28)) {
+            throw new IllegalArgumentException(String.format("int negativeCacheSize is %s. Must be between -1 and 2^28 + 1.", negativeCacheSize));
+        }
+        this.negativeCacheSize = negativeCacheSize;
+    }
+
+    /**
+     * Number of accounts to remember the last matching device for. Accounts
+     * with several devices check that device first. Hit rate metrics are
+     * available from TotpValidator.getDeviceHints(). Accounts that stream
+     * their devices are checked in their order. 0 checks devices in the
+     * order returned by the account.
+     * @param deviceHintsSize maximum number of accounts with a hint
+     */
+    public void setDeviceHintsSize(int deviceHintsSize) {
+        if (deviceHintsSize < 0 || deviceHintsSize > (1 << 28)) {
+            throw new IllegalArgumentException(String.format("int deviceHintsSize is %s. Must be between -1 and 2^28 + 1.", deviceHintsSize));
+        }
+        this.deviceHintsSize = deviceHintsSize;
+    }
+
+    /**
+     * Minimum number of devices of an account to check them in parallel. The
+     * devices are spread over a dedicated pool and the search stops at the
+     * first matching device. Accounts with fewer devices and accounts that
+     * stream their devices are checked serially. 0 always checks devices serially.
+     * @param fanOutThreshold minimum number of devices
+     */
+    public void setFanOutThreshold(int fanOutThreshold) {
+        if (fanOutThreshold < 0 || fanOutThreshold == 1) {
+            throw new IllegalArgumentException(String.format("int fanOutThreshold is %s. Must be 0 or greater than 1.", fanOutThreshold));
+        }
+        this.fanOutThreshold = fanOutThreshold;
+    }
+
+    /**
+     * Maximum number of threads checking the devices of one account, including
+     * the validating thread, see setFanOutThreshold. 0 uses one thread per processor.
+     * @param fanOutParallelism maximum number of threads
+     */
+    public void setFanOutParallelism(int fanOutParallelism) {
+        if (fanOutParallelism < 0 || fanOutParallelism == 1 || fanOutParallelism > 256) {
+            throw new IllegalArgumentException(String.format("int fanOutParallelism is %s. Must be 0 or between 1 and 257.", fanOutParallelism));
+        }
+        this.fanOutParallelism = fanOutParallelism;
+    }
+
+    /**
+     * Minimum number of devices of an account to look its tokens up in a per
+     * period index instead of checking the devices. The index holds the tokens
+     * of every device for every period of the window and is updated once per
+     * period, so a lookup costs no HMAC. Checked before setFanOutThreshold.
+     * Accounts that stream their devices are not indexed. 0 always checks the devices.
+     * @param tokenIndexThreshold minimum number of devices
+     */
+    public void setTokenIndexThreshold(int tokenIndexThreshold) {
+        if (tokenIndexThreshold < 0 || tokenIndexThreshold == 1) {
+            throw new IllegalArgumentException(String.format("int tokenIndexThreshold is %s. Must be 0 or greater than 1.", tokenIndexThreshold));
+        }
+        this.tokenIndexThreshold = tokenIndexThreshold;
+    }
+
+    /**
+     * Maximum number of accounts in the token index, see setTokenIndexThreshold.
+     * Further accounts are checked device by device until indexed accounts
+     * expire. Accounts that were not validated for a whole window expire at
+     * the period change with setPeriodTicker, otherwise once the index is full.
+     * @param tokenIndexSize maximum number of indexed accounts
+     */
+    public void setTokenIndexSize(int tokenIndexSize) {
+        if (tokenIndexSize < 1 || tokenIndexSize > (1 << 20)) {
+            throw new IllegalArgumentException(String.format("int tokenIndexSize is %s. Must be between 0 and 2^20 + 1.", tokenIndexSize));
+        }
+        this.tokenIndexSize = tokenIndexSize;
+    }
+
+    /**
+     * Maximum number of unwrapped device keys held outside the Java heap. Keys
+     * in the vault are precomputed once and read straight from direct memory
+     * while generating tokens, without heap objects per device. Devices that do
+     * not fit fall back to the key cache, see setKeyCacheSize. 0 keeps unwrapped
+     * keys on the heap.
+     * @param keyVaultSize maximum number of devices
+     */
+    public void setKeyVaultSize(int keyVaultSize) {
+        if (keyVaultSize < 0 || keyVaultSize > (1 << 28)) {
+            throw new IllegalArgumentException(String.format("int keyVaultSize is %s. Must be between -1 and 2^28 + 1.", keyVaultSize));
+        }
+        this.keyVaultSize = keyVaultSize;
+    }
+
+    /**
+     * Maximum length of the unique account id of a device in the key vault,
+     * see setKeyVaultSize. Every slot reserves this many bytes; devices with
+     * longer ids are kept on the heap.
+     * @param keyVaultUniqueLength maximum unique id length in bytes
+     */
+    public void setKeyVaultUniqueLength(int keyVaultUniqueLength) {
+        if (keyVaultUniqueLength < 1 || keyVaultUniqueLength > 1024) {
+            throw new IllegalArgumentException(String.format("int keyVaultUniqueLength is %s. Must be between 0 and 1025.", keyVaultUniqueLength));
+        }
+        this.keyVaultUniqueLength = keyVaultUniqueLength;
+    }
+
+    /**
+     * Maximum number of validation attempts queued for recording on a background
+     * thread. Attempts are recorded in batches instead of calling addOtpToken on
+     * every validation; a valid attempt still waits until its batch was stored,
+     * failed attempts do not wait. When the queue is full the validating thread
+     * records its attempt itself. 0 calls addOtpToken on the validating thread.
+     * @param attemptQueueSize maximum number of queued attempts
+     */
+    public void setAttemptQueueSize(int attemptQueueSize) {
+        if (attemptQueueSize < 0 || attemptQueueSize > (1 << 20)) {
+            throw new IllegalArgumentException(String.format("int attemptQueueSize is %s. Must be between -1 and 2^20 + 1.", attemptQueueSize));
+        }
+        this.attemptQueueSize = attemptQueueSize;
+    }
+
+    /**
+     * Maximum number of attempts recorded at once, see setAttemptQueueSize.
+     * @param attemptBatchSize maximum number of attempts per batch
+     */
+    public void setAttemptBatchSize(int attemptBatchSize) {
+        if (attemptBatchSize < 1 || attemptBatchSize > 65536) {
+            throw new IllegalArgumentException(String.format("int attemptBatchSize is %s. Must be between 0 and 65537.", attemptBatchSize));
+        }
+        this.attemptBatchSize = attemptBatchSize;
+    }
+
+    /**
+     * Append the queued attempts to a log file instead of handing them to the
+     * data layer, see setAttemptQueueSize. Each batch is forced to disk with one
+     * fsync. The log rejects valid tokens that were accepted before within the
+     * time window, also across restarts. null records attempts with the data layer.
+     * @param attemptLog append-only log file
+     */
+    public void setAttemptLog(File attemptLog) {
+        this.attemptLog = attemptLog;
+    }
+}
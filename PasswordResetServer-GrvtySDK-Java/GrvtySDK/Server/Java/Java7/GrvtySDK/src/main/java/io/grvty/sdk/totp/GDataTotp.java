@@ -3,15 +3,20 @@
  */
 package io.grvty.sdk.totp;
 
+import io.grvty.security.GSecKeyCache;
+import io.grvty.security.GSecKeyVault;
+import io.grvty.security.GSecSecretKey;
 import io.grvty.security.GSecTotpKey;
 import io.grvty.security.crypto.Utilities;
 import io.grvty.security.crypto.otp.GCHmacAlgorithm;
+import io.grvty.security.crypto.otp.GCHmacKey;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import javax.crypto.spec.SecretKeySpec;
 import java.security.Key;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -58,10 +63,88 @@ public class GDataTotp {
         byte[] getOtpKey();
     }
 
+    /**
+     * Optionally implemented by accounts to identify themselves. Accounts that
+     * do not implement it are identified by the unique id of their first key.
+     */
+    public interface GTAccountIdInterface {
+        /**
+         * Get the unique account id
+         * @return the account id (e.g. username)
+         */
+        byte[] getUniqueVal();
+    }
+
+    /**
+     * Optionally implemented by accounts that can read their devices one at a
+     * time, e.g. from a database cursor. The validator then uses iterateKeys
+     * instead of getKeys, fetches and unwraps devices only as it checks them
+     * and stops at the first matching device. If the iterator implements
+     * AutoCloseable it is closed once the validator no longer needs it.
+     * Device hints, fan out, the token index and the negative cache need
+     * every device before the first is checked and are not used for these accounts.
+     */
+    public interface GTStreamingAccountInterface {
+        /**
+         * Iterate the devices registered to this account
+         * @return iterator of the user's registered devices
+         */
+        Iterator<GTKeyInterface> iterateKeys();
+    }
+
+    /**
+     * Asynchronous variant of GTAccountInterface for host applications whose
+     * database access is non-blocking. Implementations must not block the
+     * calling thread, the returned futures are completed once the data is available.
+     * The methods are named apart from GTAccountInterface so that one class can
+     * implement both interfaces.
+     */
+    public interface GTAsyncAccountInterface {
+        /**
+         * Get a List of all devices registered to this account
+         * @return future of the user's registered devices
+         */
+        TotpFuture<List<GTKeyInterface>> getKeysAsync();
+
+        /**
+         * Add a token attempting a validation attempt to the account
+         * @param period the current time step
+         * @param token the token that was used for the validation attempt
+         * @param valid if the token was successfully validated
+         * @return future of the result, see GTAccountInterface.addOtpToken
+         */
+        TotpFuture<Boolean> addOtpTokenAsync(long period, String token, boolean valid);
+    }
+
     private final byte[] appSecret;
     GCHmacAlgorithm hmacAlgorithm;
+    private final GSecKeyCache keyCache;
+    private final GSecKeyVault keyVault;
 
     public GDataTotp(byte[] appSecret, GCHmacAlgorithm hmacAlgorithm) {
+        this(appSecret, hmacAlgorithm, null);
+    }
+
+    /**
+     * Initializer with an optional cache of unwrapped device keys
+     * @param appSecret application key
+     * @param hmacAlgorithm hmac algorithm of the device keys
+     * @param keyCache cache of unwrapped keys, null to unwrap the keys on every validation
+     */
+    public GDataTotp(byte[] appSecret, GCHmacAlgorithm hmacAlgorithm, GSecKeyCache keyCache) {
+        this(appSecret, hmacAlgorithm, keyCache, null);
+    }
+
+    /**
+     * Initializer with an optional off-heap vault of unwrapped device keys. Devices
+     * are looked up in the vault first; devices that do not fit into it are
+     * unwrapped onto the heap and cached in the key cache if one is configured.
+     * @param appSecret application key
+     * @param hmacAlgorithm hmac algorithm of the device keys
+     * @param keyCache cache of unwrapped keys, null to unwrap the keys on every validation
+     * @param keyVault off-heap store of unwrapped keys, null to keep unwrapped keys on the heap
+     */
+    public GDataTotp(byte[] appSecret, GCHmacAlgorithm hmacAlgorithm, GSecKeyCache keyCache, GSecKeyVault keyVault) {
         if (appSecret == null) {
             throw new IllegalArgumentException("byte[] appSecret must not be null.");
         }
@@ -73,6 +156,8 @@ public class GDataTotp {
         }
         this.appSecret = appSecret;
         this.hmacAlgorithm = hmacAlgorithm;
+        this.keyCache = keyCache;
+        this.keyVault = keyVault;
     }
 
     public byte[] wrapKey(byte[] key) {
@@ -85,13 +170,76 @@ public class GDataTotp {
         return Utilities.secureKey(this.appSecret, key);
     }
 
+    /**
+     * Unwrap device keys, see unwrapDevice
+     * @param totpKeys registered devices
+     * @return unwrapped device keys, release each with GSecTotpKey.release
+     */
     public List<GSecTotpKey> unwrapDevices(List<GTKeyInterface> totpKeys) {
         List<GSecTotpKey> result = new ArrayList<>();
         for (GTKeyInterface gtKey : totpKeys) {
-            Key key = new SecretKeySpec(Utilities.unwrapKey(this.appSecret, gtKey.getOtpKey()), this.hmacAlgorithm.getAlgorithm());
-            byte[] accountId = gtKey.getUniqueVal();
-            result.add(new GSecTotpKey(key, accountId));
+            result.add(unwrapDevice(gtKey));
         }
         return result;
     }
+
+    /**
+     * Unwrap a single device key. If a key vault or key cache is configured the
+     * stored key is returned, so that its precomputed HMAC state is reused between attempts.
+     * Keys from the key cache are shared with other threads; release the key with
+     * GSecTotpKey.release once it is no longer used.
+     * @param gtKey registered device
+     * @return unwrapped device key
+     */
+    public GSecTotpKey unwrapDevice(GTKeyInterface gtKey) {
+        byte[] wrappedKey = gtKey.getOtpKey();
+        byte[] accountId = gtKey.getUniqueVal();
+        if (this.keyVault != null) {
+            GSecTotpKey stored = this.keyVault.get(wrappedKey, accountId);
+            if (stored != null) {
+                return stored;
+            }
+            byte[] rawKey = Utilities.unwrapKey(this.appSecret, wrappedKey);
+            try {
+                stored = this.keyVault.put(wrappedKey, accountId, rawKey);
+            } finally {
+                Arrays.fill(rawKey, (byte) 0);
+            }
+            if (stored != null) {
+                return stored;
+            }
+        }
+        if (this.keyCache != null) {
+            GSecTotpKey cached = this.keyCache.get(wrappedKey, accountId);
+            if (cached != null) {
+                return cached;
+            }
+            accountId = accountId.clone();
+        }
+        byte[] rawKey = Utilities.unwrapKey(this.appSecret, wrappedKey);
+        GCHmacKey hmacKey = GCHmacKey.newInstance(this.hmacAlgorithm, rawKey);
+        // the key takes ownership of rawKey so that it can be zeroed later
+        Key key = new GSecSecretKey(rawKey, this.hmacAlgorithm.getAlgorithm());
+        GSecTotpKey device = new GSecTotpKey(key, accountId, hmacKey);
+        if (this.keyCache != null) {
+            this.keyCache.put(wrappedKey, accountId, device);
+        }
+        return device;
+    }
+
+    /**
+     * Get the off-heap vault of unwrapped keys
+     * @return key vault or null if unwrapped keys are kept on the heap
+     */
+    public GSecKeyVault getKeyVault() {
+        return this.keyVault;
+    }
+
+    /**
+     * Get the cache of unwrapped keys
+     * @return key cache or null if keys are not cached
+     */
+    public GSecKeyCache getKeyCache() {
+        return this.keyCache;
+    }
 }
@@ -0,0 +1,154 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.sdk.totp;
+
+import static io.grvty.sdk.totp.GDataTotp.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * An in-memory account for tests and prototypes. It implements both the
+ * synchronous and the asynchronous account interface and rejects a valid token
+ * that was already used successfully in the same time period. Asynchronous
+ * results are completed on the given executor to simulate a non-blocking
+ * database, or immediately if no executor is given.
+ */
+public class GTInMemoryAccount implements GTAccountInterface, GTAsyncAccountInterface, GTAccountIdInterface {
+    private final byte[] uniqueVal;
+    private final Executor executor;
+    private final List<GTKeyInterface> keys = new ArrayList<>();
+    private final List<Attempt> attempts = new ArrayList<>();
+    private final Set<Attempt> usedTokens = new HashSet<>();
+
+    /**
+     * Create an account whose futures complete immediately
+     * @param uniqueVal unique account id (e.g. username)
+     */
+    public GTInMemoryAccount(byte[] uniqueVal) {
+        this(uniqueVal, null);
+    }
+
+    /**
+     * Create an account whose futures complete on the given executor
+     * @param uniqueVal unique account id (e.g. username)
+     * @param executor executor that completes the futures, null to complete them immediately
+     */
+    public GTInMemoryAccount(byte[] uniqueVal, Executor executor) {
+        if (uniqueVal == null) {
+            throw new IllegalArgumentException("byte[] uniqueVal must not be null");
+        }
+        this.uniqueVal = uniqueVal.clone();
+        this.executor = executor;
+    }
+
+    /**
+     * Register a device
+     * @param wrappedKey encrypted device secret key, see TotpValidator.wrapKey
+     */
+    public synchronized void addKey(final byte[] wrappedKey) {
+        if (wrappedKey == null) {
+            throw new IllegalArgumentException("byte[] wrappedKey must not be null");
+        }
+        final byte[] otpKey = wrappedKey.clone();
+        this.keys.add(new GTKeyInterface() {
+            @Override
+            public byte[] getUniqueVal() {
+                return GTInMemoryAccount.this.uniqueVal;
+            }
+
+            @Override
+            public byte[] getOtpKey() {
+                return otpKey;
+            }
+        });
+    }
+
+    @Override
+    public byte[] getUniqueVal() {
+        return this.uniqueVal;
+    }
+
+    /**
+     * Get the number of recorded validation attempts
+     * @return number of attempts
+     */
+    public synchronized int getAttemptCount() {
+        return this.attempts.size();
+    }
+
+    @Override
+    public synchronized List<GTKeyInterface> getKeys() {
+        return Collections.unmodifiableList(new ArrayList<>(this.keys));
+    }
+
+    @Override
+    public synchronized boolean addOtpToken(long period, String token, boolean valid) {
+        Attempt attempt = new Attempt(period, token);
+        this.attempts.add(attempt);
+        return !valid || this.usedTokens.add(attempt);
+    }
+
+    @Override
+    public TotpFuture<List<GTKeyInterface>> getKeysAsync() {
+        final TotpFuture<List<GTKeyInterface>> future = new TotpFuture<>();
+        complete(new Runnable() {
+            @Override
+            public void run() {
+                future.complete(getKeys());
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public TotpFuture<Boolean> addOtpTokenAsync(final long period, final String token, final boolean valid) {
+        final TotpFuture<Boolean> future = new TotpFuture<>();
+        complete(new Runnable() {
+            @Override
+            public void run() {
+                future.complete(addOtpToken(period, token, valid));
+            }
+        });
+        return future;
+    }
+
+    private void complete(Runnable task) {
+        if (this.executor == null) {
+            task.run();
+        } else {
+            this.executor.execute(task);
+        }
+    }
+
+    /*
+     * A recorded token, equal if period and token are equal
+     */
+    private static final class Attempt {
+        private final long period;
+        private final String token;
+
+        Attempt(long period, String token) {
+            this.period = period;
+            this.token = token;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Attempt)) return false;
+            Attempt other = (Attempt) o;
+            return this.period == other.period && this.token.equals(other.token);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (int) (this.period ^ (this.period >>> 32)) + this.token.hashCode();
+        }
+    }
+}
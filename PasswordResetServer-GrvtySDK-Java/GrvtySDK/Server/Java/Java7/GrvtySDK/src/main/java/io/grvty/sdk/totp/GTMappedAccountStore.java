@@ -0,0 +1,718 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.sdk.totp;
+
+import static io.grvty.sdk.totp.GDataTotp.*;
+import io.grvty.security.GSecStripedTable;
+import io.grvty.security.crypto.Utilities;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * A local persistent store of accounts and their wrapped device keys in one
+ * memory-mapped file, as a reference implementation of the account interfaces
+ * and a fast local tier for edge nodes.
+ *
+ * The file holds a header, an open addressing index from a hash of the unique
+ * account id to the account's newest record, fixed size records and a ring
+ * of accepted tokens. Each
+ * record holds one wrapped key, the unique account id and the number of the
+ * account's previous record, so the keys of an account form a chain starting
+ * at the index.
+ *
+ * Appends are crash safe: the record and its CRC are forced to disk before
+ * its commit marker is, and only committed records are indexed. The header
+ * holds a checkpoint of how many records the index on disk reflects, so
+ * opening the file only re-indexes the records appended after the last
+ * checkpoint instead of loading the whole store. A torn record at the end of
+ * the log is discarded.
+ *
+ * Any number of threads may read while one appends; appends are serialized
+ * and hold the write lock only to publish the new record.
+ *
+ * Accepted tokens are checked for replays in memory and written through to
+ * the ring before they are accepted, so replays are also rejected after a
+ * restart. A ring slot is reused once its token expired; a token is refused
+ * if the ring has no expired slot left.
+ */
+public class GTMappedAccountStore implements Closeable {
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final long MAGIC = 0x4754414343545331L;  // "GTACCTS1"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_LENGTH = 64;
+    private static final int HEADER_CRC = 32;
+    private static final int CHECKPOINT_A = 40;
+    private static final int CHECKPOINT_B = 52;
+    private static final int INDEX_ENTRY_LENGTH = 16;
+    private static final int COMMITTED = 0x4b455931;  // "KEY1"
+    private static final int RECORD_CRC = 4;
+    private static final int RECORD_PREV = 8;
+    private static final int RECORD_UNIQUE_LENGTH = 12;
+    private static final int RECORD_KEY_LENGTH = 14;
+    private static final int RECORD_DATA = 16;
+    private static final int CHECKPOINT_INTERVAL = 64;
+    private static final int REPLAY_STRIPES = 64;
+    private static final int REPLAY_SLOT_LENGTH = 16;
+    private static final GSecStripedTable.Expiry EXPIRY = new GSecStripedTable.Expiry() {
+        @Override
+        public boolean isExpired(long key, long value, long period) {
+            return value < period;
+        }
+    };
+
+    private final File file;
+    private final int maxRecords;
+    private final int maxUniqueLength;
+    private final int keyLength;
+    private final int replayPeriods;
+    private final int indexCapacity;
+    private final int recordLength;
+    private final long recordsOffset;
+    private final long replayOffset;
+    private final int replaySlots;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object appendLock = new Object();
+    private final GSecStripedTable usedTokens;
+    private final Object replayLock = new Object();
+    private int replayNext;
+    private int count;
+    private int checkpointSeq;
+    private int checkpointCount;
+    private int recovered;
+    private volatile boolean closed;
+
+    /**
+     * Open a store, creating the file if it does not exist
+     * @param file store file
+     * @param maxRecords maximum number of keys
+     * @param maxUniqueLength maximum length of a unique account id
+     * @param keyLength length of the wrapped keys, the HMAC digest length
+     * @param replayPeriods number of periods after an attempt during which its
+     *                      token is rejected as replayed, previousPeriods + nextPeriods
+     * @throws IOException if the file cannot be read or was created with other parameters
+     */
+    public GTMappedAccountStore(File file, int maxRecords, int maxUniqueLength, int keyLength, int replayPeriods) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("File file must not be null");
+        }
+        if (maxRecords < 1 || maxRecords > (1 << 24)) {
+            throw new IllegalArgumentException(String.format("int maxRecords is %s. Must be between 0 and 2^24 + 1.", maxRecords));
+        }
+        if (maxUniqueLength < 1 || maxUniqueLength > 1024) {
+            throw new IllegalArgumentException(String.format("int maxUniqueLength is %s. Must be between 0 and 1025.", maxUniqueLength));
+        }
+        if (keyLength < 1 || keyLength > 1024) {
+            throw new IllegalArgumentException(String.format("int keyLength is %s. Must be between 0 and 1025.", keyLength));
+        }
+        if (replayPeriods < 0 || replayPeriods > 1000) {
+            throw new IllegalArgumentException(String.format("int replayPeriods is %s. Must be between -1 and 1001.", replayPeriods));
+        }
+        this.file = file;
+        this.maxRecords = maxRecords;
+        this.maxUniqueLength = maxUniqueLength;
+        this.keyLength = keyLength;
+        this.replayPeriods = replayPeriods;
+        this.indexCapacity = Integer.highestOneBit(maxRecords * 2 - 1) << 1;
+        this.recordLength = (RECORD_DATA + maxUniqueLength + keyLength + 7) & ~7;
+        this.recordsOffset = HEADER_LENGTH + (long) this.indexCapacity * INDEX_ENTRY_LENGTH;
+        this.replayOffset = this.recordsOffset + (long) maxRecords * this.recordLength;
+        this.replaySlots = this.indexCapacity;
+        long length = this.replayOffset + (long) this.replaySlots * REPLAY_SLOT_LENGTH;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("The store file would be %s bytes. Must be less than 2^31 bytes.", length));
+        }
+        // headroom so the tokens of a full ring fit however they spread over the stripes
+        this.usedTokens = new GSecStripedTable(REPLAY_STRIPES, Math.max(this.replaySlots * 2, REPLAY_STRIPES * 16));
+        this.raf = new RandomAccessFile(file, "rw");
+        try {
+            boolean created = this.raf.length() == 0;
+            if (created) {
+                this.raf.setLength(length);
+            } else if (this.raf.length() != length) {
+                throw new IOException(String.format("%s is %s bytes. Must be %s bytes for these parameters.", file, this.raf.length(), length));
+            }
+            this.buffer = this.raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            this.buffer.order(ByteOrder.BIG_ENDIAN);
+            if (created) {
+                writeHeader();
+            } else {
+                readHeader();
+            }
+            recover();
+            loadUsedTokens();
+        } catch (IOException | RuntimeException e) {
+            this.raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Register a device
+     * @param uniqueVal unique account id (e.g. username)
+     * @param wrappedKey encrypted device secret key, see TotpValidator.wrapKey
+     * @return false if the store is full
+     */
+    public boolean addKey(byte[] uniqueVal, byte[] wrappedKey) {
+        if (uniqueVal == null) {
+            throw new IllegalArgumentException("byte[] uniqueVal must not be null");
+        }
+        if (wrappedKey == null) {
+            throw new IllegalArgumentException("byte[] wrappedKey must not be null");
+        }
+        if (uniqueVal.length > this.maxUniqueLength) {
+            throw new IllegalArgumentException(String.format("byte[] uniqueVal length is %s. Must be at most %s.", uniqueVal.length, this.maxUniqueLength));
+        }
+        if (wrappedKey.length != this.keyLength) {
+            throw new IllegalArgumentException(String.format("byte[] wrappedKey length is %s. Must be %s.", wrappedKey.length, this.keyLength));
+        }
+        synchronized (this.appendLock) {
+            checkOpen();
+            int record;
+            int previous;
+            Lock read = this.lock.readLock();
+            read.lock();
+            try {
+                record = this.count;
+                previous = newest(uniqueVal);
+            } finally {
+                read.unlock();
+            }
+            if (record == this.maxRecords) {
+                return false;
+            }
+            // the record is not reachable until it is indexed, readers need no lock
+            writeRecord(record, previous, uniqueVal, wrappedKey);
+            try {
+                force(recordOffset(record), this.recordLength);
+                this.buffer.putInt(recordOffset(record), COMMITTED);
+                force(recordOffset(record), 4);
+            } catch (IOException e) {
+                throw new IllegalStateException(String.format("%s cannot be written to disk.", this.file), e);
+            }
+            Lock write = this.lock.writeLock();
+            write.lock();
+            try {
+                index(record);
+                this.count = record + 1;
+            } finally {
+                write.unlock();
+            }
+            if (this.count - this.checkpointCount >= CHECKPOINT_INTERVAL) {
+                checkpoint();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Get an account
+     * @param uniqueVal unique account id (e.g. username)
+     * @return the account or null if it has no keys
+     */
+    public Account getAccount(byte[] uniqueVal) {
+        if (uniqueVal == null) {
+            throw new IllegalArgumentException("byte[] uniqueVal must not be null");
+        }
+        Lock read = this.lock.readLock();
+        read.lock();
+        try {
+            checkOpen();
+            return newest(uniqueVal) < 0 ? null : new Account(uniqueVal.clone());
+        } finally {
+            read.unlock();
+        }
+    }
+
+    /**
+     * Get the number of stored keys
+     * @return number of keys
+     */
+    public int size() {
+        Lock read = this.lock.readLock();
+        read.lock();
+        try {
+            return this.count;
+        } finally {
+            read.unlock();
+        }
+    }
+
+    /**
+     * Get the number of keys that were re-indexed when the store was opened
+     * @return number of keys appended after the last checkpoint
+     */
+    public int getRecovered() {
+        return this.recovered;
+    }
+
+    /**
+     * Record the current number of keys in the header, so the next open does
+     * not need to re-index them
+     */
+    public void sync() {
+        synchronized (this.appendLock) {
+            checkOpen();
+            checkpoint();
+        }
+    }
+
+    /**
+     * Write a checkpoint and close the file. The mapping is released once it
+     * is garbage collected.
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this.appendLock) {
+            if (this.closed) {
+                return;
+            }
+            checkpoint();
+            Lock write = this.lock.writeLock();
+            write.lock();
+            try {
+                this.closed = true;
+            } finally {
+                write.unlock();
+            }
+            this.raf.close();
+        }
+    }
+
+    /**
+     * An account of the store. Keys are read from the mapped file on every call,
+     * so devices registered later are seen without getting the account again.
+     */
+    public final class Account implements GTAccountInterface, GTAccountIdInterface, GTStreamingAccountInterface {
+        private final byte[] uniqueVal;
+        private final long hash;
+
+        private Account(byte[] uniqueVal) {
+            this.uniqueVal = uniqueVal;
+            this.hash = Utilities.hash64(uniqueVal);
+        }
+
+        @Override
+        public byte[] getUniqueVal() {
+            return this.uniqueVal;
+        }
+
+        /**
+         * Get the devices registered to this account, the most recently registered first
+         * @return user's registered devices
+         */
+        @Override
+        public List<GTKeyInterface> getKeys() {
+            List<GTKeyInterface> keys = new ArrayList<>();
+            Iterator<GTKeyInterface> iterator = iterateKeys();
+            while (iterator.hasNext()) {
+                keys.add(iterator.next());
+            }
+            return keys;
+        }
+
+        /**
+         * Iterate the devices registered to this account, the most recently
+         * registered first. Devices registered after the call are not included.
+         * @return iterator of the user's registered devices
+         */
+        @Override
+        public Iterator<GTKeyInterface> iterateKeys() {
+            int newest;
+            Lock read = lock.readLock();
+            read.lock();
+            try {
+                checkOpen();
+                newest = newest(this.uniqueVal);
+            } finally {
+                read.unlock();
+            }
+            return new KeyIterator(newest);
+        }
+
+        /**
+         * Reject a valid token that was already accepted within replayPeriods periods
+         * @param period the current time step
+         * @param token the token that was used for the validation attempt
+         * @param valid if the token was successfully validated
+         * @return false if the token was replayed or cannot be remembered or persisted
+         */
+        @Override
+        public boolean addOtpToken(long period, String token, boolean valid) {
+            if (!valid) {
+                return true;
+            }
+            final long current = period;
+            final long until = period + replayPeriods;
+            final boolean[] used = new boolean[1];
+            long key = Utilities.mix64(this.hash + Utilities.hash64(token.getBytes(US_ASCII)));
+            usedTokens.sweepStripe(key, period, EXPIRY);
+            long stored = usedTokens.update(key, new GSecStripedTable.Updater() {
+                @Override
+                public long update(long key, long value) {
+                    if (value != GSecStripedTable.ABSENT && value >= current) {
+                        used[0] = true;
+                        return value;
+                    }
+                    return until;
+                }
+            });
+            // a full table cannot reject replays, so the attempt is refused
+            if (used[0] || stored != until) {
+                return false;
+            }
+            if (persistUsedToken(key, until, period)) {
+                return true;
+            }
+            usedTokens.update(key, new GSecStripedTable.Updater() {
+                @Override
+                public long update(long key, long value) {
+                    return value == until ? GSecStripedTable.ABSENT : value;
+                }
+            });
+            return false;
+        }
+    }
+
+    /*
+     * Walks the chain of an account's records, which are never modified once
+     * committed, so no lock is needed
+     */
+    private final class KeyIterator implements Iterator<GTKeyInterface> {
+        private int next;
+
+        KeyIterator(int newest) {
+            this.next = newest;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next >= 0;
+        }
+
+        @Override
+        public GTKeyInterface next() {
+            if (this.next < 0) {
+                throw new NoSuchElementException();
+            }
+            int offset = recordOffset(this.next);
+            final byte[] uniqueVal = read(offset + RECORD_DATA, buffer.getShort(offset + RECORD_UNIQUE_LENGTH));
+            final byte[] otpKey = read(offset + RECORD_DATA + maxUniqueLength, buffer.getShort(offset + RECORD_KEY_LENGTH));
+            this.next = buffer.getInt(offset + RECORD_PREV);
+            return new GTKeyInterface() {
+                @Override
+                public byte[] getUniqueVal() {
+                    return uniqueVal;
+                }
+
+                @Override
+                public byte[] getOtpKey() {
+                    return otpKey;
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Keys cannot be removed from a GTMappedAccountStore.");
+        }
+    }
+
+    /*
+     * Header: magic, format version, the store parameters and their CRC,
+     * followed by two alternating checkpoints of (sequence, count, CRC)
+     */
+    private void writeHeader() {
+        this.buffer.putLong(0, MAGIC);
+        this.buffer.putInt(8, FORMAT_VERSION);
+        this.buffer.putInt(12, this.maxRecords);
+        this.buffer.putInt(16, this.maxUniqueLength);
+        this.buffer.putInt(20, this.keyLength);
+        this.buffer.putInt(24, this.indexCapacity);
+        this.buffer.putInt(28, this.recordLength);
+        this.buffer.putInt(HEADER_CRC, crc(0, HEADER_CRC));
+        writeCheckpoint(CHECKPOINT_A, 1, 0);
+        this.checkpointSeq = 1;
+        this.buffer.force();
+    }
+
+    private void readHeader() throws IOException {
+        if (this.buffer.getLong(0) != MAGIC || this.buffer.getInt(HEADER_CRC) != crc(0, HEADER_CRC)) {
+            throw new IOException(String.format("%s is not a valid account store.", this.file));
+        }
+        if (this.buffer.getInt(8) != FORMAT_VERSION || this.buffer.getInt(12) != this.maxRecords
+                || this.buffer.getInt(16) != this.maxUniqueLength || this.buffer.getInt(20) != this.keyLength) {
+            throw new IOException(String.format("%s was created with format %s, maxRecords %s, maxUniqueLength %s and keyLength %s.", this.file,
+                    this.buffer.getInt(8), this.buffer.getInt(12), this.buffer.getInt(16), this.buffer.getInt(20)));
+        }
+        // a checkpoint torn by a crash fails its CRC, the other one is used
+        for (int offset : new int[]{CHECKPOINT_A, CHECKPOINT_B}) {
+            int seq = this.buffer.getInt(offset);
+            if (this.buffer.getInt(offset + 8) == crc(offset, 8) && seq > this.checkpointSeq) {
+                this.checkpointSeq = seq;
+                this.checkpointCount = this.buffer.getInt(offset + 4);
+            }
+        }
+        if (this.checkpointSeq == 0) {
+            throw new IOException(String.format("%s has no valid checkpoint.", this.file));
+        }
+    }
+
+    /*
+     * Index the committed records after the checkpoint and discard a torn record
+     */
+    private void recover() {
+        int record = this.checkpointCount;
+        while (record < this.maxRecords && this.buffer.getInt(recordOffset(record)) == COMMITTED
+                && this.buffer.getInt(recordOffset(record) + RECORD_CRC) == crc(recordOffset(record) + RECORD_PREV, this.recordLength - RECORD_PREV)) {
+            index(record);
+            record++;
+        }
+        this.count = record;
+        if (record < this.maxRecords && this.buffer.getInt(recordOffset(record)) != 0) {
+            this.buffer.putInt(recordOffset(record), 0);
+            repairIndex();
+            this.buffer.force();
+        }
+        this.recovered = record - this.checkpointCount;
+        if (this.recovered > 0) {
+            checkpoint();
+        }
+    }
+
+    /*
+     * A committed record that fails its CRC was corrupted after it was indexed,
+     * so the index is rebuilt if it points at discarded records
+     */
+    private void repairIndex() {
+        boolean stale = false;
+        for (int i = 0; i < this.indexCapacity && !stale; i++) {
+            stale = this.buffer.getInt(HEADER_LENGTH + i * INDEX_ENTRY_LENGTH + 8) > this.count;
+        }
+        if (!stale) {
+            return;
+        }
+        for (int i = 0; i < this.indexCapacity * INDEX_ENTRY_LENGTH; i += 8) {
+            this.buffer.putLong(HEADER_LENGTH + i, 0L);
+        }
+        for (int record = 0; record < this.count; record++) {
+            index(record);
+        }
+    }
+
+    private void checkpoint() {
+        if (this.count == this.checkpointCount) {
+            return;
+        }
+        // the index and records the checkpoint covers must be on disk first
+        this.buffer.force();
+        this.checkpointSeq++;
+        writeCheckpoint(this.checkpointSeq % 2 == 1 ? CHECKPOINT_A : CHECKPOINT_B, this.checkpointSeq, this.count);
+        this.buffer.force();
+        this.checkpointCount = this.count;
+    }
+
+    private void writeCheckpoint(int offset, int seq, int count) {
+        this.buffer.putInt(offset, seq);
+        this.buffer.putInt(offset + 4, count);
+        this.buffer.putInt(offset + 8, crc(offset, 8));
+    }
+
+    private void writeRecord(int record, int previous, byte[] uniqueVal, byte[] wrappedKey) {
+        int offset = recordOffset(record);
+        byte[] data = new byte[this.recordLength - RECORD_PREV];
+        data[0] = (byte) (previous >>> 24);
+        data[1] = (byte) (previous >>> 16);
+        data[2] = (byte) (previous >>> 8);
+        data[3] = (byte) previous;
+        data[4] = (byte) (uniqueVal.length >>> 8);
+        data[5] = (byte) uniqueVal.length;
+        data[6] = (byte) (wrappedKey.length >>> 8);
+        data[7] = (byte) wrappedKey.length;
+        System.arraycopy(uniqueVal, 0, data, RECORD_DATA - RECORD_PREV, uniqueVal.length);
+        System.arraycopy(wrappedKey, 0, data, RECORD_DATA - RECORD_PREV + this.maxUniqueLength, wrappedKey.length);
+        this.buffer.putInt(offset, 0);
+        for (int i = 0; i < data.length; i++) {
+            this.buffer.put(offset + RECORD_PREV + i, data[i]);
+        }
+        this.buffer.putInt(offset + RECORD_CRC, crc(data));
+    }
+
+    /*
+     * Point the index entry of a record's account at the record unless it
+     * already points at a newer one, so re-indexing is idempotent
+     */
+    private void index(int record) {
+        int offset = recordOffset(record);
+        byte[] uniqueVal = read(offset + RECORD_DATA, this.buffer.getShort(offset + RECORD_UNIQUE_LENGTH));
+        long hash = Utilities.hash64(uniqueVal);
+        int entry = find(hash, uniqueVal);
+        if (this.buffer.getInt(entry + 8) - 1 < record) {
+            this.buffer.putLong(entry, hash);
+            this.buffer.putInt(entry + 8, record + 1);
+        }
+    }
+
+    /*
+     * @return the newest record of an account or -1
+     */
+    private int newest(byte[] uniqueVal) {
+        return this.buffer.getInt(find(Utilities.hash64(uniqueVal), uniqueVal) + 8) - 1;
+    }
+
+    /*
+     * @return offset of the account's index entry, or of the empty entry it would take
+     */
+    private int find(long hash, byte[] uniqueVal) {
+        int mask = this.indexCapacity - 1;
+        for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+            int entry = HEADER_LENGTH + i * INDEX_ENTRY_LENGTH;
+            int record = this.buffer.getInt(entry + 8) - 1;
+            if (record < 0) {
+                return entry;
+            }
+            if (this.buffer.getLong(entry) == hash && holds(record, uniqueVal)) {
+                return entry;
+            }
+        }
+    }
+
+    private boolean holds(int record, byte[] uniqueVal) {
+        int offset = recordOffset(record);
+        if (this.buffer.getShort(offset + RECORD_UNIQUE_LENGTH) != uniqueVal.length) {
+            return false;
+        }
+        for (int i = 0; i < uniqueVal.length; i++) {
+            if (this.buffer.get(offset + RECORD_DATA + i) != uniqueVal[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] read(int offset, int length) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = this.buffer.get(offset + i);
+        }
+        return result;
+    }
+
+    /*
+     * Remember the tokens of the ring, expired ones are swept from a stripe
+     * by the first attempt that touches it in the current period
+     */
+    private void loadUsedTokens() throws IOException {
+        for (int slot = 0; slot < this.replaySlots; slot++) {
+            long offset = replaySlotOffset(slot);
+            final long key = this.buffer.getLong((int) offset);
+            final long until = this.buffer.getLong((int) offset + 8);
+            if (key == 0 && until == 0) {
+                continue;
+            }
+            long stored = this.usedTokens.update(key, new GSecStripedTable.Updater() {
+                @Override
+                public long update(long key, long value) {
+                    return value == GSecStripedTable.ABSENT ? until : Math.max(value, until);
+                }
+            });
+            if (stored == GSecStripedTable.ABSENT) {
+                throw new IOException(String.format("%s holds more used tokens than can be remembered.", this.file));
+            }
+        }
+    }
+
+    /*
+     * Write an accepted token to the next ring slot whose token expired
+     * @return false if every slot holds an unexpired token, the slot cannot be
+     *         forced to disk or the store is closed
+     */
+    private boolean persistUsedToken(long key, long until, long period) {
+        synchronized (this.replayLock) {
+            Lock read = this.lock.readLock();
+            read.lock();
+            try {
+                if (this.closed) {
+                    return false;
+                }
+                for (int i = 0; i < this.replaySlots; i++) {
+                    int slot = this.replayNext;
+                    this.replayNext = slot + 1 == this.replaySlots ? 0 : slot + 1;
+                    int offset = (int) replaySlotOffset(slot);
+                    long slotKey = this.buffer.getLong(offset);
+                    long slotUntil = this.buffer.getLong(offset + 8);
+                    if ((slotKey != 0 || slotUntil != 0) && slotUntil >= period) {
+                        continue;
+                    }
+                    this.buffer.putLong(offset, key);
+                    this.buffer.putLong(offset + 8, until);
+                    force(offset, REPLAY_SLOT_LENGTH);
+                    return true;
+                }
+                return false;
+            } catch (IOException e) {
+                return false;
+            } finally {
+                read.unlock();
+            }
+        }
+    }
+
+    /*
+     * MappedByteBuffer.force writes back the whole mapping and Java 7 has no
+     * ranged force, so a range is written through the channel, which shares
+     * the page cache with the store's mapping, and the file is synced. A
+     * mapping per range is not released until it is garbage collected and
+     * would pile up towards the limit of mappings per process.
+     */
+    private void force(long offset, int length) throws IOException {
+        FileChannel channel = this.raf.getChannel();
+        ByteBuffer range = ByteBuffer.wrap(read((int) offset, length));
+        while (range.hasRemaining()) {
+            channel.write(range, offset + range.position());
+        }
+        channel.force(false);
+    }
+
+    private long replaySlotOffset(int slot) {
+        return this.replayOffset + (long) slot * REPLAY_SLOT_LENGTH;
+    }
+
+    private int recordOffset(int record) {
+        return (int) (this.recordsOffset + (long) record * this.recordLength);
+    }
+
+    private int crc(int offset, int length) {
+        return crc(read(offset, length));
+    }
+
+    private static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException(String.format("%s is closed.", this.file));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.sdk.totp;
+
+import static io.grvty.sdk.totp.GDataTotp.*;
+
+/**
+ * A single validation attempt of a batch: the account and the user provided token.
+ */
+public class TotpAttempt {
+    private final GTAccountInterface account;
+    private final String token;
+
+    /**
+     * Create a validation attempt
+     * @param account the account to check the TOTP token for
+     * @param token user provided TOTP token
+     */
+    public TotpAttempt(GTAccountInterface account, String token) {
+        if (account == null) {
+            throw new IllegalArgumentException("GTAccountInterface must not be null");
+        }
+        this.account = account;
+        this.token = token;
+    }
+
+    /**
+     * Get the account of the attempt
+     * @return account
+     */
+    public GTAccountInterface getAccount() {
+        return account;
+    }
+
+    /**
+     * Get the user provided token
+     * @return token
+     */
+    public String getToken() {
+        return token;
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.sdk.totp;
+
+import static io.grvty.sdk.totp.GDataTotp.*;
+import io.grvty.security.GSecStripedTable;
+import io.grvty.security.crypto.Utilities;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of validation attempts, a sink for TotpAttemptRecorder.
+ * Each batch is appended with one write and forced to disk with one fsync, so
+ * the attempts of a batch share the cost of making them durable. An attempt is
+ * accepted once it is on disk.
+ *
+ * The log rejects replayed tokens: a valid token that was accepted for the
+ * same account within replayPeriods periods is refused. The accepted tokens
+ * are kept in memory and read back from the log when it is opened, so replay
+ * protection survives a restart. Valid attempts of accounts that do not
+ * implement GTAccountIdInterface are decided by their addOtpToken.
+ *
+ * Each record is its length, a CRC of its body and the body: time, period,
+ * accepted flag, unique account id and token. A record torn by a crash fails
+ * its CRC and is cut off when the log is opened again. A batch whose write or
+ * fsync fails is cut off right away; if that fails too, the log refuses all
+ * further batches.
+ */
+public class TotpAttemptLog implements TotpAttemptRecorder.Sink, Closeable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int RECORD_HEADER = 8;
+    private static final int BODY_FIXED = 8 + 8 + 1 + 2 + 2;
+    private static final byte[] NO_UNIQUE_VAL = new byte[0];
+    private static final int REPLAY_STRIPES = 64;
+    private static final GSecStripedTable.Expiry EXPIRY = new GSecStripedTable.Expiry() {
+        @Override
+        public boolean isExpired(long key, long value, long period) {
+            return value < period;
+        }
+    };
+
+    /*
+     * Called for every intact record of a log
+     */
+    private interface Visitor {
+        void visit(Entry entry);
+    }
+
+    /**
+     * An attempt read back from a log
+     */
+    public static final class Entry {
+        private final long time;
+        private final long period;
+        private final boolean valid;
+        private final byte[] uniqueVal;
+        private final String token;
+
+        private Entry(long time, long period, boolean valid, byte[] uniqueVal, String token) {
+            this.time = time;
+            this.period = period;
+            this.valid = valid;
+            this.uniqueVal = uniqueVal;
+            this.token = token;
+        }
+
+        /**
+         * Get the time the attempt was recorded
+         * @return milliseconds since the epoch
+         */
+        public long getTime() {
+            return this.time;
+        }
+
+        /**
+         * Get the time period of the attempt
+         * @return time step
+         */
+        public long getPeriod() {
+            return this.period;
+        }
+
+        /**
+         * Check if the token was successfully validated and accepted
+         * @return true if the token was valid and not replayed
+         */
+        public boolean isValid() {
+            return this.valid;
+        }
+
+        /**
+         * Get the unique account id, empty if the account does not implement GTAccountIdInterface
+         * @return unique account id
+         */
+        public byte[] getUniqueVal() {
+            return this.uniqueVal;
+        }
+
+        /**
+         * Get the token that was used for the attempt
+         * @return token
+         */
+        public String getToken() {
+            return this.token;
+        }
+    }
+
+    private final int replayPeriods;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final GSecStripedTable usedTokens;
+    private IOException failure;
+
+    /**
+     * Open a log for appending, creating the file if it does not exist. A torn
+     * record at the end of the file is cut off.
+     * @param file log file
+     * @param replayPeriods number of periods after an attempt during which its
+     *                      token is rejected as replayed, previousPeriods + nextPeriods
+     * @param maxTokens maximum number of remembered tokens. While full, valid
+     *                  tokens that cannot be remembered are rejected
+     * @throws IOException if the file cannot be opened
+     */
+    public TotpAttemptLog(File file, int replayPeriods, int maxTokens) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("File file must not be null");
+        }
+        if (replayPeriods < 0 || replayPeriods > 1000) {
+            throw new IllegalArgumentException(String.format("int replayPeriods is %s. Must be between -1 and 1001.", replayPeriods));
+        }
+        if (maxTokens < 1) {
+            throw new IllegalArgumentException(String.format("int maxTokens is %s. Must be a positive integer.", maxTokens));
+        }
+        this.replayPeriods = replayPeriods;
+        this.usedTokens = new GSecStripedTable(REPLAY_STRIPES, maxTokens);
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = this.raf.getChannel();
+        try {
+            long end = scan(this.channel, new Visitor() {
+                @Override
+                public void visit(Entry entry) {
+                    if (entry.valid && entry.uniqueVal.length > 0) {
+                        remember(key(entry.uniqueVal, entry.token.getBytes(UTF_8)), entry.period + TotpAttemptLog.this.replayPeriods);
+                    }
+                }
+            });
+            if (end < this.channel.size()) {
+                this.channel.truncate(end);
+                this.channel.force(true);
+            }
+            this.channel.position(end);
+        } catch (IOException e) {
+            this.raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Append a batch and force it to disk
+     * @param attempts the attempts
+     * @param accepted set to true once the batch is on disk for every attempt
+     *                 except valid attempts with a replayed token
+     * @throws IOException if the batch could not be written
+     */
+    @Override
+    public synchronized void write(List<TotpAttemptRecorder.Attempt> attempts, boolean[] accepted) throws IOException {
+        if (this.failure != null) {
+            throw new IOException("The attempt log failed to cut off a failed batch.", this.failure);
+        }
+        List<byte[]> uniqueVals = new ArrayList<>(attempts.size());
+        List<byte[]> tokens = new ArrayList<>(attempts.size());
+        boolean[] stored = new boolean[attempts.size()];
+        long[] keys = new long[attempts.size()];
+        int length = 0;
+        for (int i = 0; i < attempts.size(); i++) {
+            TotpAttemptRecorder.Attempt attempt = attempts.get(i);
+            byte[] uniqueVal = attempt.getAccount() instanceof GTAccountIdInterface
+                    ? ((GTAccountIdInterface) attempt.getAccount()).getUniqueVal() : NO_UNIQUE_VAL;
+            byte[] token = attempt.getToken().getBytes(UTF_8);
+            if (uniqueVal.length > Short.MAX_VALUE || token.length > Short.MAX_VALUE) {
+                forget(keys);
+                throw new IOException(String.format("The attempt of period %s is too long for the log.", attempt.getPeriod()));
+            }
+            uniqueVals.add(uniqueVal);
+            tokens.add(token);
+            length += RECORD_HEADER + BODY_FIXED + uniqueVal.length + token.length;
+            stored[i] = !attempt.isValid() || accept(attempt, uniqueVal, token, keys, i);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (int i = 0; i < attempts.size(); i++) {
+            TotpAttemptRecorder.Attempt attempt = attempts.get(i);
+            int start = buffer.position();
+            buffer.putInt(BODY_FIXED + uniqueVals.get(i).length + tokens.get(i).length);
+            buffer.putInt(0);
+            buffer.putLong(attempt.getTime());
+            buffer.putLong(attempt.getPeriod());
+            buffer.put((byte) (attempt.isValid() && stored[i] ? 1 : 0));
+            buffer.putShort((short) uniqueVals.get(i).length);
+            buffer.put(uniqueVals.get(i));
+            buffer.putShort((short) tokens.get(i).length);
+            buffer.put(tokens.get(i));
+            buffer.putInt(start + 4, crc(buffer.array(), start + RECORD_HEADER, buffer.position() - start - RECORD_HEADER));
+        }
+        buffer.flip();
+        long end;
+        try {
+            end = this.channel.position();
+        } catch (IOException | RuntimeException e) {
+            forget(keys);
+            throw e;
+        }
+        try {
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+            this.channel.force(false);
+        } catch (IOException | RuntimeException e) {
+            forget(keys);
+            cutOff(end, e);
+            throw e;
+        }
+        System.arraycopy(stored, 0, accepted, 0, accepted.length);
+    }
+
+    /*
+     * Decide about a valid attempt. Tokens of accounts with a unique id are
+     * checked against the accepted tokens, including the earlier attempts of
+     * the batch, and remembered.
+     * @param keys receives the key of a remembered token
+     */
+    private boolean accept(TotpAttemptRecorder.Attempt attempt, byte[] uniqueVal, byte[] token, long[] keys, int index) {
+        if (uniqueVal.length == 0) {
+            try {
+                return attempt.getAccount().addOtpToken(attempt.getPeriod(), attempt.getToken(), true);
+            } catch (RuntimeException e) {
+                return false;
+            }
+        }
+        final long period = attempt.getPeriod();
+        final long until = period + this.replayPeriods;
+        final boolean[] used = new boolean[1];
+        long key = key(uniqueVal, token);
+        // tokens whose replay periods are over are forgotten one stripe at a time
+        this.usedTokens.sweepStripe(key, period, EXPIRY);
+        long stored = this.usedTokens.update(key, new GSecStripedTable.Updater() {
+            @Override
+            public long update(long key, long current) {
+                if (current != GSecStripedTable.ABSENT && current >= period) {
+                    used[0] = true;
+                    return current;
+                }
+                return until;
+            }
+        });
+        // a token that cannot be remembered could be replayed, so it is refused
+        if (used[0] || stored != until) {
+            return false;
+        }
+        keys[index] = key;
+        return true;
+    }
+
+    /**
+     * Get the length of the log
+     * @return bytes
+     * @throws IOException if the length cannot be read
+     */
+    public synchronized long size() throws IOException {
+        return this.channel.size();
+    }
+
+    /*
+     * Remove the bytes of a failed batch so that later batches do not follow a
+     * torn record, which would be cut off with them when the log is opened
+     */
+    private void cutOff(long end, Exception cause) {
+        try {
+            this.channel.truncate(end);
+            this.channel.position(end);
+        } catch (IOException | RuntimeException e) {
+            cause.addSuppressed(e);
+            this.failure = e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    /*
+     * The tokens of a batch that is not on disk were not accepted
+     */
+    private void forget(long[] keys) {
+        for (long key : keys) {
+            if (key != 0) {
+                this.usedTokens.remove(key);
+            }
+        }
+    }
+
+    /*
+     * Remember a token read back from the log until the given period
+     */
+    private void remember(long key, final long until) {
+        this.usedTokens.update(key, new GSecStripedTable.Updater() {
+            @Override
+            public long update(long key, long current) {
+                return Math.max(current, until);
+            }
+        });
+    }
+
+    private static long key(byte[] uniqueVal, byte[] token) {
+        return Utilities.mix64(Utilities.hash64(uniqueVal) + Utilities.hash64(token));
+    }
+
+    /**
+     * Close the log file
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        this.raf.close();
+    }
+
+    /**
+     * Read the attempts of a log, stopping at a torn record
+     * @param file log file
+     * @return the attempts in the order they were appended
+     * @throws IOException if the file cannot be read
+     */
+    public static List<Entry> read(File file) throws IOException {
+        final List<Entry> entries = new ArrayList<>();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            scan(raf.getChannel(), new Visitor() {
+                @Override
+                public void visit(Entry entry) {
+                    entries.add(entry);
+                }
+            });
+        } finally {
+            raf.close();
+        }
+        return entries;
+    }
+
+    /*
+     * Walk the records from the start of the file
+     * @param visitor receives the records
+     * @return end of the last intact record
+     */
+    private static long scan(FileChannel channel, Visitor visitor) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        while (position + RECORD_HEADER <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            int length = header.getInt(0);
+            if (length < BODY_FIXED || position + RECORD_HEADER + length > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(channel, body, position + RECORD_HEADER);
+            if (crc(body.array(), 0, length) != header.getInt(4)) {
+                break;
+            }
+            visitor.visit(entry(body));
+            position += RECORD_HEADER + length;
+        }
+        return position;
+    }
+
+    private static Entry entry(ByteBuffer body) {
+        body.flip();
+        long time = body.getLong();
+        long period = body.getLong();
+        boolean valid = body.get() != 0;
+        byte[] uniqueVal = new byte[body.getShort()];
+        body.get(uniqueVal);
+        byte[] token = new byte[body.getShort()];
+        body.get(token);
+        return new Entry(time, period, valid, uniqueVal, new String(token, UTF_8));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of the attempt log.");
+            }
+        }
+    }
+
+    private static int crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+}
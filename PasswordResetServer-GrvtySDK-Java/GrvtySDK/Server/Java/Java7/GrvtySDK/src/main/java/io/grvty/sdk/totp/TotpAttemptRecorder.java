@@ -0,0 +1,417 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.sdk.totp;
+
+import static io.grvty.sdk.totp.GDataTotp.*;
+import io.grvty.security.diagnostics.GSecDiagnosticEvent;
+import io.grvty.security.diagnostics.GSecDiagnosticService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records validation attempts on a background thread instead of calling the
+ * data layer on every validation. Attempts are put into a bounded queue and
+ * handed to a sink in batches; attempts that arrive while a batch is being
+ * stored form the next batch, so under load many attempts share one write.
+ *
+ * A valid attempt decides whether a token is accepted, so its validation waits
+ * until the batch holding it was stored and uses the sink's answer, at most
+ * awaitMillis; a valid attempt that was not stored in time is not accepted.
+ * Failed attempts are not waited for. When the queue is full, or after
+ * shutdown, the validating thread stores its attempt itself.
+ */
+public final class TotpAttemptRecorder {
+    private static Log log = LogFactory.getLog(TotpAttemptRecorder.class);
+    private static final long DEFAULT_AWAIT_MILLIS = 10000;
+
+    /**
+     * Stores batches of attempts
+     */
+    public interface Sink {
+        /**
+         * Store attempts in the order they were recorded. Called by one thread at a time.
+         * @param attempts the attempts
+         * @param accepted set to true for every attempt the sink accepted, only
+         *                 valid attempts that are accepted succeed
+         * @throws IOException if the batch could not be stored, its valid attempts then fail
+         */
+        void write(List<Attempt> attempts, boolean[] accepted) throws IOException;
+    }
+
+    /**
+     * Hands every attempt to its account's addOtpToken, so the data layer's
+     * replay protection decides about valid attempts
+     */
+    public static final Sink ACCOUNTS = new Sink() {
+        @Override
+        public void write(List<Attempt> attempts, boolean[] accepted) {
+            for (int i = 0; i < attempts.size(); i++) {
+                Attempt attempt = attempts.get(i);
+                try {
+                    accepted[i] = attempt.account.addOtpToken(attempt.period, attempt.token, attempt.valid);
+                } catch (RuntimeException e) {
+                    log.error("adding token to database failed", e);
+                }
+            }
+        }
+    };
+
+    /**
+     * A recorded validation attempt
+     */
+    public static final class Attempt {
+        private final GTAccountInterface account;
+        private final long period;
+        private final String token;
+        private final boolean valid;
+        private final long time;
+        private final CountDownLatch stored;
+        private volatile boolean accepted;
+
+        Attempt(GTAccountInterface account, long period, String token, boolean valid) {
+            this.account = account;
+            this.period = period;
+            this.token = token;
+            this.valid = valid;
+            this.time = System.currentTimeMillis();
+            this.stored = valid ? new CountDownLatch(1) : null;
+        }
+
+        /**
+         * Get the account of the attempt
+         * @return account
+         */
+        public GTAccountInterface getAccount() {
+            return this.account;
+        }
+
+        /**
+         * Get the time period of the attempt
+         * @return time step
+         */
+        public long getPeriod() {
+            return this.period;
+        }
+
+        /**
+         * Get the token that was used for the attempt
+         * @return token
+         */
+        public String getToken() {
+            return this.token;
+        }
+
+        /**
+         * Check if the token was successfully validated
+         * @return true if the token was valid
+         */
+        public boolean isValid() {
+            return this.valid;
+        }
+
+        /**
+         * Get the time the attempt was recorded
+         * @return milliseconds since the epoch
+         */
+        public long getTime() {
+            return this.time;
+        }
+
+        private void complete(boolean accepted) {
+            this.accepted = accepted;
+            if (this.stored != null) {
+                this.stored.countDown();
+            }
+        }
+    }
+
+    private final Sink sink;
+    private final BlockingQueue<Attempt> queue;
+    private final int batchSize;
+    private final long awaitMillis;
+    private final Object writeLock = new Object();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong overflowed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushMicros = new AtomicLong();
+    private final AtomicLong lastFlushMicros = new AtomicLong();
+    private final AtomicLong maxFlushMicros = new AtomicLong();
+
+    /**
+     * Create a recorder that waits up to 10 seconds for a valid attempt to be
+     * stored and start its thread
+     * @param sink stores the attempts, e.g. ACCOUNTS or a TotpAttemptLog
+     * @param queueSize maximum number of queued attempts
+     * @param batchSize maximum number of attempts stored at once
+     */
+    public TotpAttemptRecorder(Sink sink, int queueSize, int batchSize) {
+        this(sink, queueSize, batchSize, DEFAULT_AWAIT_MILLIS);
+    }
+
+    /**
+     * Create a recorder and start its thread
+     * @param sink stores the attempts, e.g. ACCOUNTS or a TotpAttemptLog
+     * @param queueSize maximum number of queued attempts
+     * @param batchSize maximum number of attempts stored at once
+     * @param awaitMillis maximum time a validation waits for its valid attempt to be stored
+     */
+    public TotpAttemptRecorder(Sink sink, int queueSize, int batchSize, long awaitMillis) {
+        if (sink == null) {
+            throw new IllegalArgumentException("Sink sink must not be null");
+        }
+        if (queueSize < 1) {
+            throw new IllegalArgumentException(String.format("int queueSize is %s. Must be a positive integer.", queueSize));
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException(String.format("int batchSize is %s. Must be a positive integer.", batchSize));
+        }
+        if (awaitMillis < 1) {
+            throw new IllegalArgumentException(String.format("long awaitMillis is %s. Must be a positive integer.", awaitMillis));
+        }
+        this.sink = sink;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.awaitMillis = awaitMillis;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, "grvty-totp-attempts");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Record an attempt and, if it is valid, wait until it was stored
+     * @param account the account of the attempt
+     * @param period the current time step
+     * @param token the token that was used for the validation attempt
+     * @param valid if the token was successfully validated
+     * @return for valid attempts true if the sink accepted the attempt, true for failed attempts
+     */
+    public boolean record(GTAccountInterface account, long period, String token, boolean valid) {
+        return await(submit(account, period, token, valid));
+    }
+
+    /**
+     * Record an attempt without waiting for it to be stored. Submitting many
+     * attempts before awaiting them lets them share one batch.
+     * @param account the account of the attempt
+     * @param period the current time step
+     * @param token the token that was used for the validation attempt
+     * @param valid if the token was successfully validated
+     * @return the attempt, see await
+     */
+    public Attempt submit(GTAccountInterface account, long period, String token, boolean valid) {
+        if (account == null) {
+            throw new IllegalArgumentException("GTAccountInterface account must not be null");
+        }
+        Attempt attempt = new Attempt(account, period, token, valid);
+        this.recorded.incrementAndGet();
+        if (!this.running) {
+            write(Collections.singletonList(attempt));
+        } else if (!this.queue.offer(attempt)) {
+            this.overflowed.incrementAndGet();
+            write(Collections.singletonList(attempt));
+        } else if (!this.running && this.queue.remove(attempt)) {
+            // shut down concurrently, the thread may have stopped draining
+            write(Collections.singletonList(attempt));
+        }
+        return attempt;
+    }
+
+    /**
+     * Wait until a valid attempt was stored, at most awaitMillis. Failed
+     * attempts are not waited for.
+     * @param attempt attempt returned by submit
+     * @return for valid attempts true if the sink accepted the attempt, false if
+     *         it did not, it was not stored in time or the thread was
+     *         interrupted; true for failed attempts
+     */
+    public boolean await(Attempt attempt) {
+        if (attempt.stored == null) {
+            return true;
+        }
+        try {
+            if (!attempt.stored.await(this.awaitMillis, TimeUnit.MILLISECONDS)) {
+                this.timedOut.incrementAndGet();
+                log.warn(String.format("A valid attempt was not stored within %s ms and is not accepted", this.awaitMillis));
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return attempt.accepted;
+    }
+
+    /**
+     * Stop the recorder thread. Queued attempts are stored first unless the
+     * thread does not finish within the timeout; the thread is then
+     * interrupted and the attempts still queued are not stored, their valid
+     * attempts are not accepted. Attempts recorded afterwards are stored by
+     * the validating thread.
+     * @param timeoutMillis maximum time to wait for the queue to drain
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void shutdown(long timeoutMillis) throws InterruptedException {
+        this.running = false;
+        this.thread.join(timeoutMillis);
+        if (this.thread.isAlive()) {
+            this.thread.interrupt();
+            abandon();
+        }
+    }
+
+    /**
+     * Get the number of recorded attempts
+     * @return recorded attempts
+     */
+    public long getRecordedCount() {
+        return this.recorded.get();
+    }
+
+    /**
+     * Get the number of attempts stored by the validating thread because the queue was full
+     * @return overflowed attempts
+     */
+    public long getOverflowCount() {
+        return this.overflowed.get();
+    }
+
+    /**
+     * Get the number of attempts the sink failed to store
+     * @return failed attempts
+     */
+    public long getFailedCount() {
+        return this.failed.get();
+    }
+
+    /**
+     * Get the number of valid attempts that were not stored within awaitMillis
+     * @return timed out attempts
+     */
+    public long getTimedOutCount() {
+        return this.timedOut.get();
+    }
+
+    /**
+     * Get the number of batches handed to the sink
+     * @return flushes
+     */
+    public long getFlushCount() {
+        return this.flushes.get();
+    }
+
+    /**
+     * Get the time the sink took for all batches
+     * @return microseconds
+     */
+    public long getFlushMicros() {
+        return this.flushMicros.get();
+    }
+
+    /**
+     * Get the time the sink took for the last batch
+     * @return microseconds
+     */
+    public long getLastFlushMicros() {
+        return this.lastFlushMicros.get();
+    }
+
+    /**
+     * Get the longest time the sink took for a batch
+     * @return microseconds
+     */
+    public long getMaxFlushMicros() {
+        return this.maxFlushMicros.get();
+    }
+
+    /**
+     * Get the number of queued attempts
+     * @return queue length
+     */
+    public int getQueueSize() {
+        return this.queue.size();
+    }
+
+    private void flush() {
+        List<Attempt> batch = new ArrayList<>(Math.min(this.batchSize, 1024));
+        while (this.running || !this.queue.isEmpty()) {
+            Attempt attempt;
+            try {
+                attempt = this.queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                this.running = false;
+                abandon();
+                return;
+            }
+            if (attempt == null) {
+                continue;
+            }
+            batch.add(attempt);
+            this.queue.drainTo(batch, this.batchSize - 1);
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /*
+     * Complete the attempts left in the queue when the thread stops early
+     */
+    private void abandon() {
+        List<Attempt> stranded = new ArrayList<>();
+        this.queue.drainTo(stranded);
+        if (stranded.isEmpty()) {
+            return;
+        }
+        this.failed.addAndGet(stranded.size());
+        log.error(String.format("%s queued attempts were not stored", stranded.size()));
+        for (Attempt attempt : stranded) {
+            attempt.complete(false);
+        }
+    }
+
+    private void write(List<Attempt> batch) {
+        boolean[] accepted = new boolean[batch.size()];
+        long start = System.nanoTime();
+        synchronized (this.writeLock) {
+            try {
+                this.sink.write(batch, accepted);
+            } catch (IOException | RuntimeException e) {
+                accepted = new boolean[batch.size()];
+                this.failed.addAndGet(batch.size());
+                log.error(String.format("storing %s attempts failed", batch.size()), e);
+            }
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        this.flushes.incrementAndGet();
+        this.flushMicros.addAndGet(micros);
+        this.lastFlushMicros.set(micros);
+        long max = this.maxFlushMicros.get();
+        while (micros > max && !this.maxFlushMicros.compareAndSet(max, micros)) {
+            max = this.maxFlushMicros.get();
+        }
+        GSecDiagnosticService.event(GSecDiagnosticEvent.ATTEMPTS_FLUSHED, batch.size(), micros);
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).complete(accepted[i]);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.sdk.totp;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Searches the devices of large accounts in parallel. Helper tasks on the
+ * executor and the calling thread claim devices one at a time from a shared
+ * counter, so devices are still checked roughly in order, and all of them stop
+ * claiming as soon as one device matched. The calling thread never waits for
+ * helpers that have not started, so a saturated executor only makes the
+ * search serial.
+ */
+public final class TotpFanOut {
+    /**
+     * Checks one element of the search
+     */
+    public interface Probe {
+        /**
+         * Check an element. Called concurrently for different indices.
+         * @param index index of the element
+         * @return true if the element matches and the search can stop
+         */
+        boolean probe(int index);
+    }
+
+    private final Executor executor;
+    private final int threshold;
+    private final int parallelism;
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong helpers = new AtomicLong();
+
+    /**
+     * Create a fan out
+     * @param executor runs the helper tasks
+     * @param threshold minimum number of elements to search in parallel
+     * @param parallelism maximum number of threads per search, including the calling thread
+     */
+    public TotpFanOut(Executor executor, int threshold, int parallelism) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor executor must not be null");
+        }
+        if (threshold < 2) {
+            throw new IllegalArgumentException(String.format("int threshold is %s. Must be greater than 1.", threshold));
+        }
+        if (parallelism < 2) {
+            throw new IllegalArgumentException(String.format("int parallelism is %s. Must be greater than 1.", parallelism));
+        }
+        this.executor = executor;
+        this.threshold = threshold;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Get the minimum number of elements to search in parallel
+     * @return threshold
+     */
+    public int getThreshold() {
+        return this.threshold;
+    }
+
+    /**
+     * Find a matching element
+     * @param size number of elements
+     * @param probe checks the elements
+     * @return index of a matching element or -1
+     */
+    public int find(int size, Probe probe) {
+        this.searches.incrementAndGet();
+        Search search = new Search(size, probe);
+        int tasks = Math.min(this.parallelism, size) - 1;
+        for (int i = 0; i < tasks; i++) {
+            try {
+                this.executor.execute(search);
+                this.helpers.incrementAndGet();
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+        try {
+            search.work();
+        } finally {
+            search.close();
+        }
+        if (search.failure != null) {
+            throw search.failure;
+        }
+        return search.found.get();
+    }
+
+    /**
+     * Get the number of parallel searches
+     * @return number of searches
+     */
+    public long getSearches() {
+        return this.searches.get();
+    }
+
+    /**
+     * Get the number of helper tasks handed to the executor
+     * @return number of helper tasks
+     */
+    public long getHelpers() {
+        return this.helpers.get();
+    }
+
+    private static final class Search implements Runnable {
+        private final int size;
+        private final Probe probe;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger found = new AtomicInteger(-1);
+        private volatile boolean stopped;
+        private RuntimeException failure;
+        private int active;
+        private boolean closed;
+
+        Search(int size, Probe probe) {
+            this.size = size;
+            this.probe = probe;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (this.closed) {
+                    return;
+                }
+                this.active++;
+            }
+            try {
+                work();
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    if (this.failure == null) {
+                        this.failure = e;
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    this.active--;
+                    notifyAll();
+                }
+            }
+        }
+
+        void work() {
+            try {
+                while (!this.stopped) {
+                    int index = this.next.getAndIncrement();
+                    if (index >= this.size) {
+                        return;
+                    }
+                    if (this.probe.probe(index)) {
+                        this.found.compareAndSet(-1, index);
+                        this.stopped = true;
+                    }
+                }
+            } catch (RuntimeException e) {
+                this.stopped = true;
+                throw e;
+            }
+        }
+
+        /*
+         * Keep helpers from starting and wait for the running ones
+         */
+        synchronized void close() {
+            this.closed = true;
+            boolean interrupted = false;
+            while (this.active > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.sdk.totp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of an asynchronous operation that is completed explicitly by its
+ * producer. Listeners are notified exactly once when the result is set, either
+ * on the completing thread or, if the future is already done, on the thread
+ * that adds the listener. Listeners should be short and must not block.
+ * @param <T> type of the result
+ */
+public class TotpFuture<T> implements Future<T> {
+    /**
+     * Receives the completion of a TotpFuture
+     * @param <T> type of the result
+     */
+    public interface Listener<T> {
+        /**
+         * Called once the future is done
+         * @param future the completed future
+         */
+        void done(TotpFuture<T> future);
+    }
+
+    private T result;
+    private Throwable failure;
+    private boolean done;
+    private boolean cancelled;
+    private List<Listener<T>> listeners = new ArrayList<>();
+
+    /**
+     * Create an already completed future
+     * @param result result of the future
+     * @param <T> type of the result
+     * @return completed future
+     */
+    public static <T> TotpFuture<T> completed(T result) {
+        TotpFuture<T> future = new TotpFuture<>();
+        future.complete(result);
+        return future;
+    }
+
+    /**
+     * Create an already failed future
+     * @param failure cause of the failure
+     * @param <T> type of the result
+     * @return failed future
+     */
+    public static <T> TotpFuture<T> failed(Throwable failure) {
+        TotpFuture<T> future = new TotpFuture<>();
+        future.fail(failure);
+        return future;
+    }
+
+    /**
+     * Set the result of the future
+     * @param result result of the future
+     * @return true if this call completed the future, false if it was already done
+     */
+    public boolean complete(T result) {
+        List<Listener<T>> notify;
+        synchronized (this) {
+            if (this.done) {
+                return false;
+            }
+            this.result = result;
+            notify = finish();
+        }
+        notifyListeners(notify);
+        return true;
+    }
+
+    /**
+     * Complete the future with a failure
+     * @param failure cause of the failure
+     * @return true if this call completed the future, false if it was already done
+     */
+    public boolean fail(Throwable failure) {
+        if (failure == null) {
+            throw new IllegalArgumentException("Throwable failure must not be null");
+        }
+        List<Listener<T>> notify;
+        synchronized (this) {
+            if (this.done) {
+                return false;
+            }
+            this.failure = failure;
+            notify = finish();
+        }
+        notifyListeners(notify);
+        return true;
+    }
+
+    /**
+     * Register a listener. It is called immediately if the future is already done.
+     * @param listener listener to notify on completion
+     */
+    public void addListener(Listener<T> listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener listener must not be null");
+        }
+        synchronized (this) {
+            if (!this.done) {
+                this.listeners.add(listener);
+                return;
+            }
+        }
+        listener.done(this);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        List<Listener<T>> notify;
+        synchronized (this) {
+            if (this.done) {
+                return false;
+            }
+            this.cancelled = true;
+            this.failure = new CancellationException();
+            notify = finish();
+        }
+        notifyListeners(notify);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return this.done;
+    }
+
+    /**
+     * Check if the future completed with a failure, including cancellation
+     * @return true if the future failed
+     */
+    public synchronized boolean isFailed() {
+        return this.done && this.failure != null;
+    }
+
+    /**
+     * Get the result of a completed future without blocking
+     * @return result of the future
+     * @throws IllegalStateException if the future is not done
+     * @throws ExecutionException if the future failed
+     */
+    public synchronized T getNow() throws ExecutionException {
+        if (!this.done) {
+            throw new IllegalStateException("TotpFuture is not done");
+        }
+        return report();
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!this.done) {
+            wait();
+        }
+        return report();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!this.done) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return report();
+    }
+
+    /*
+     * Mark the future done and take the listeners to notify. Must hold the lock.
+     */
+    private List<Listener<T>> finish() {
+        this.done = true;
+        notifyAll();
+        List<Listener<T>> notify = this.listeners;
+        this.listeners = null;
+        return notify;
+    }
+
+    private void notifyListeners(List<Listener<T>> notify) {
+        for (Listener<T> listener : notify) {
+            listener.done(this);
+        }
+    }
+
+    private T report() throws ExecutionException {
+        if (this.cancelled) {
+            throw (CancellationException) this.failure;
+        }
+        if (this.failure != null) {
+            throw new ExecutionException(this.failure);
+        }
+        return this.result;
+    }
+}
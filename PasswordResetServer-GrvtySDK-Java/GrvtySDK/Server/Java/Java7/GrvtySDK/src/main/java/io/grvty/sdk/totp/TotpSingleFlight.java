@@ -0,0 +1,176 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.sdk.totp;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent identical validations. While a validation of a token
+ * for an account is in flight, further validations of the same token for the
+ * same account and time period wait for its result instead of unwrapping the
+ * keys and computing the HMACs again. Flights are matched on the account id
+ * bytes, not just on their hash, so accounts whose hashes collide never share
+ * a result.
+ *
+ * Also provides striped per account locks that TotpValidator holds while it
+ * records an attempt, so attempts of one account reach the replay store and
+ * the data layer one at a time.
+ */
+public final class TotpSingleFlight {
+    /**
+     * The shared computation
+     */
+    public interface Call {
+        /**
+         * Run the computation
+         * @return result
+         */
+        long call();
+    }
+
+    private final ConcurrentHashMap<Key, Flight> flights = new ConcurrentHashMap<>();
+    private final Object[] locks;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+
+    /**
+     * Create a single flight group
+     * @param lockStripes number of per account locks, rounded up to a power of two
+     */
+    public TotpSingleFlight(int lockStripes) {
+        if (lockStripes < 1 || lockStripes > (1 << 16)) {
+            throw new IllegalArgumentException(String.format("int lockStripes is %s. Must be between 0 and 2^16 + 1.", lockStripes));
+        }
+        int count = 1;
+        while (count < lockStripes) {
+            count <<= 1;
+        }
+        this.locks = new Object[count];
+        for (int i = 0; i < count; i++) {
+            this.locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Run a computation unless an identical one is in flight, in which case
+     * its result is returned. If the computation in flight fails, the waiting
+     * callers run their own.
+     * @param account hash of the unique account id, see Utilities.hash64
+     * @param accountId unique account id, must not be modified while the call runs
+     * @param token numeric token value
+     * @param time current time period
+     * @param call the computation
+     * @return result of the computation
+     */
+    public long call(long account, byte[] accountId, int token, long time, Call call) {
+        if (accountId == null) {
+            throw new IllegalArgumentException("byte[] accountId must not be null.");
+        }
+        this.calls.incrementAndGet();
+        Key key = new Key(account, accountId, token, time);
+        Flight flight = new Flight();
+        Flight current = this.flights.putIfAbsent(key, flight);
+        if (current != null) {
+            this.joined.incrementAndGet();
+            if (current.await()) {
+                return current.result;
+            }
+            return call.call();
+        }
+        try {
+            flight.result = call.call();
+            flight.succeeded = true;
+            return flight.result;
+        } finally {
+            this.flights.remove(key, flight);
+            flight.done.countDown();
+        }
+    }
+
+    /**
+     * Get the lock of an account. Accounts whose hashes collide share a lock.
+     * @param account hash of the unique account id, see Utilities.hash64
+     * @return lock object
+     */
+    public Object lock(long account) {
+        return this.locks[(int) (account ^ (account >>> 32)) & (this.locks.length - 1)];
+    }
+
+    /**
+     * Get the number of computations requested
+     * @return number of calls
+     */
+    public long getCalls() {
+        return this.calls.get();
+    }
+
+    /**
+     * Get the number of calls that reused a computation in flight
+     * @return number of joined calls
+     */
+    public long getJoined() {
+        return this.joined.get();
+    }
+
+    private static final class Flight {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private long result;
+        private boolean succeeded;
+
+        /*
+         * Wait for the result without giving up on interrupts
+         * @return true if the computation succeeded
+         */
+        boolean await() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        this.done.await();
+                        return this.succeeded;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private static final class Key {
+        private final long account;
+        private final byte[] accountId;
+        private final int token;
+        private final long time;
+
+        Key(long account, byte[] accountId, int token, long time) {
+            this.account = account;
+            this.accountId = accountId;
+            this.token = token;
+            this.time = time;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return this.account == other.account && this.token == other.token && this.time == other.time
+                    && Arrays.equals(this.accountId, other.accountId);
+        }
+
+        @Override
+        public int hashCode() {
+            long hash = this.account * 31 + this.token;
+            hash = hash * 31 + this.time;
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+}
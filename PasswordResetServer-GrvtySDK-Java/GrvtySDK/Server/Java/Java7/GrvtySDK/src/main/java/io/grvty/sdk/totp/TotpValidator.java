@@ -4,36 +4,209 @@
 package io.grvty.sdk.totp;
 
 import static io.grvty.sdk.totp.GDataTotp.*;
+import io.grvty.security.GSecAttemptThrottle;
+import io.grvty.security.GSecDeviceHints;
+import io.grvty.security.GSecNegativeCache;
 import io.grvty.security.GSecOtpValidator;
+import io.grvty.security.GSecReplayStore;
+import io.grvty.security.GSecStripedTable;
+import io.grvty.security.GSecTokenIndex;
 import io.grvty.security.GSecTotpKey;
-import io.grvty.security.crypto.otp.GCHmacAlgorithm;
+import io.grvty.security.crypto.Utilities;
+import io.grvty.security.crypto.otp.GCOtpTokenParser;
 import io.grvty.security.crypto.otp.GCTotpCounter;
+import io.grvty.security.diagnostics.GSecDiagnosticEvent;
+import io.grvty.security.diagnostics.GSecDiagnosticService;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TotpValidator {
     private static Log log = LogFactory.getLog(TotpValidator.class);
-    /*
-     * A general TOTP token validator. Checks if the token has at least
-     * 1 digit and is composed of only digits.
-     */
-    private final static Pattern patternToken = Pattern.compile("[0-9]+");
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
 
     private final GSecOtpValidator validator;
     private final GDataTotp totpDataRepository;
     private final GCTotpCounter totpCounter;
+    private final Executor validationExecutor;
+    private final GSecReplayStore replayStore;
+    private final GSecAttemptThrottle attemptThrottle;
+    private final TotpSingleFlight singleFlight;
+    private final GSecNegativeCache negativeCache;
+    private final GSecDeviceHints deviceHints;
+    private final TotpFanOut fanOut;
+    private final GSecTokenIndex tokenIndex;
+    private final TotpAttemptRecorder attemptRecorder;
+    private final List<Closeable> resources;
 
     public TotpValidator(GSecOtpValidator validator, GDataTotp totpDataRepository, GCTotpCounter totpCounter) {
+        this(validator, totpDataRepository, totpCounter, new Options());
+    }
+
+    /**
+     * Create a validator with optional components, see Options
+     * @param validator validator of single devices
+     * @param totpDataRepository unwraps the device keys
+     * @param totpCounter current time period
+     * @param options optional components, copied when the validator is created
+     */
+    public TotpValidator(GSecOtpValidator validator, GDataTotp totpDataRepository, GCTotpCounter totpCounter, Options options) {
         if (validator == null) { throw new IllegalArgumentException("GSecOtpValidator validator must not be null"); }
         if (totpDataRepository == null) { throw new IllegalArgumentException("GDataTotp totpDataRepository must not be null"); }
         if (totpCounter == null) { throw new IllegalArgumentException("GCTotpCounter totpCounter must not be null"); }
+        if (options == null) { throw new IllegalArgumentException("Options options must not be null"); }
         this.validator = validator;
         this.totpDataRepository = totpDataRepository;
         this.totpCounter = totpCounter;
+        this.validationExecutor = options.validationExecutor;
+        this.replayStore = options.replayStore;
+        this.attemptThrottle = options.attemptThrottle;
+        this.singleFlight = options.singleFlight;
+        this.negativeCache = options.negativeCache;
+        this.deviceHints = options.deviceHints;
+        this.fanOut = options.fanOut;
+        this.tokenIndex = options.tokenIndex;
+        this.attemptRecorder = options.attemptRecorder;
+        this.resources = new ArrayList<>(options.resources);
+    }
+
+    /**
+     * The optional components of a validator. Every component is disabled
+     * unless it is set.
+     */
+    public static final class Options {
+        private Executor validationExecutor;
+        private GSecReplayStore replayStore;
+        private GSecAttemptThrottle attemptThrottle;
+        private TotpSingleFlight singleFlight;
+        private GSecNegativeCache negativeCache;
+        private GSecDeviceHints deviceHints;
+        private TotpFanOut fanOut;
+        private GSecTokenIndex tokenIndex;
+        private TotpAttemptRecorder attemptRecorder;
+        private final List<Closeable> resources = new ArrayList<>();
+
+        /**
+         * Run the HMAC work of asynchronous validations on the given executor
+         * @param validationExecutor bounded CPU pool for asynchronous validations,
+         *                           null to use a shared pool with one thread per processor
+         */
+        public void setValidationExecutor(Executor validationExecutor) {
+            this.validationExecutor = validationExecutor;
+        }
+
+        /**
+         * Remember accepted tokens per account in process and reject them when
+         * used again before any HMAC is computed. The data layer's addOtpToken
+         * is still called for every attempt.
+         * @param replayStore store of accepted tokens, null to leave replay protection to the data layer
+         */
+        public void setReplayStore(GSecReplayStore replayStore) {
+            this.replayStore = replayStore;
+        }
+
+        /**
+         * Limit the attempts per account. Throttled attempts are rejected before
+         * any key is unwrapped or HMAC computed, and are recorded with the data
+         * layer as invalid.
+         * @param attemptThrottle per account attempt limit, null to not limit attempts
+         */
+        public void setAttemptThrottle(GSecAttemptThrottle attemptThrottle) {
+            this.attemptThrottle = attemptThrottle;
+        }
+
+        /**
+         * Coalesce concurrent validations of the same token for the same
+         * account into one computation and record the attempts of an account
+         * one at a time. Of several concurrent uses of a valid token the one
+         * recorded first is accepted.
+         * @param singleFlight coalesces concurrent validations, null to run every validation on its own
+         */
+        public void setSingleFlight(TotpSingleFlight singleFlight) {
+            this.singleFlight = singleFlight;
+        }
+
+        /**
+         * Remember tokens that matched no device of an account in the current
+         * time period. Sending such a token again is rejected without computing
+         * any HMAC and still recorded with the data layer.
+         * @param negativeCache tokens known to be invalid in the current period, null to check every token
+         */
+        public void setNegativeCache(GSecNegativeCache negativeCache) {
+            this.negativeCache = negativeCache;
+        }
+
+        /**
+         * Check the device that last matched for an account first
+         * @param deviceHints last matching device per account, null to check devices in the account's order
+         */
+        public void setDeviceHints(GSecDeviceHints deviceHints) {
+            this.deviceHints = deviceHints;
+        }
+
+        /**
+         * Check the devices of accounts with many devices in parallel. Accounts
+         * below the fan out threshold are checked serially.
+         * @param fanOut parallel device search, null to always check devices serially
+         */
+        public void setFanOut(TotpFanOut fanOut) {
+            this.fanOut = fanOut;
+        }
+
+        /**
+         * Look tokens of accounts with very many devices up in a per period
+         * index instead of checking the devices. Accounts below the index
+         * threshold, or that do not fit into the index, are checked as before.
+         * @param tokenIndex reverse index from token to device, null to always check the devices
+         */
+        public void setTokenIndex(GSecTokenIndex tokenIndex) {
+            this.tokenIndex = tokenIndex;
+        }
+
+        /**
+         * Record attempts in batches on a background thread instead of calling
+         * addOtpToken on the validating thread. A valid attempt still waits
+         * until it was stored; failed attempts do not wait. Asynchronous
+         * validations keep using addOtpTokenAsync.
+         * @param attemptRecorder write-behind attempt recorder, null to call addOtpToken for every attempt
+         */
+        public void setAttemptRecorder(TotpAttemptRecorder attemptRecorder) {
+            this.attemptRecorder = attemptRecorder;
+        }
+
+        /**
+         * Hand a resource to the validator that it closes on shutdown, e.g. an
+         * attempt log or the threads of the components built for it. Resources
+         * are closed in the reverse order they were added.
+         * @param resource resource owned by the validator
+         */
+        public void addResource(Closeable resource) {
+            if (resource == null) {
+                throw new IllegalArgumentException("Closeable resource must not be null");
+            }
+            this.resources.add(resource);
+        }
     }
 
     /**
@@ -43,38 +216,648 @@ public class TotpValidator {
      * @return true if the user provided TOTP token is valid, false if otherwise
      */
     public boolean validateOtpToken(GTAccountInterface account, String token) throws GeneralSecurityException {
-        log.trace(String.format("Validating token: %s with account: %s", token, account));
+        if (account == null) {
+            throw new IllegalArgumentException("GTAccountInterface must not be null");
+        }
+        return validateOtpToken(account, GCOtpTokenParser.parse(token, this.validator.getDigits()), token);
+    }
+
+    /**
+     * Check if a TOTP token is valid
+     * @param account the account to check the TOTP token for
+     * @param token user provided TOTP token
+     * @return true if the user provided TOTP token is valid, false if otherwise
+     */
+    public boolean validateOtpToken(GTAccountInterface account, CharSequence token) throws GeneralSecurityException {
+        if (account == null) {
+            throw new IllegalArgumentException("GTAccountInterface must not be null");
+        }
+        int value = GCOtpTokenParser.parse(token, this.validator.getDigits());
+        return validateOtpToken(account, value, value == GCOtpTokenParser.UNMATCHABLE ? token.toString() : null);
+    }
+
+    /**
+     * Check if a TOTP token is valid
+     * @param account the account to check the TOTP token for
+     * @param token characters of the user provided TOTP token
+     * @return true if the user provided TOTP token is valid, false if otherwise
+     */
+    public boolean validateOtpToken(GTAccountInterface account, char[] token) throws GeneralSecurityException {
         if (account == null) {
             throw new IllegalArgumentException("GTAccountInterface must not be null");
         }
         if (token == null) {
-            log.trace(String.format("Validation failed due to token being null"));
+            return validateOtpToken(account, GCOtpTokenParser.INVALID, null);
+        }
+        int value = GCOtpTokenParser.parse(token, 0, token.length, this.validator.getDigits());
+        return validateOtpToken(account, value, value == GCOtpTokenParser.UNMATCHABLE ? new String(token) : null);
+    }
+
+    /**
+     * Check if an ASCII encoded TOTP token is valid
+     * @param account the account to check the TOTP token for
+     * @param token buffer holding the user provided TOTP token
+     * @param offset start of the token
+     * @param length number of bytes of the token
+     * @return true if the user provided TOTP token is valid, false if otherwise
+     */
+    public boolean validateOtpToken(GTAccountInterface account, byte[] token, int offset, int length) throws GeneralSecurityException {
+        if (account == null) {
+            throw new IllegalArgumentException("GTAccountInterface must not be null");
+        }
+        int value = GCOtpTokenParser.parse(token, offset, length, this.validator.getDigits());
+        return validateOtpToken(account, value, value == GCOtpTokenParser.UNMATCHABLE ? new String(token, offset, length, US_ASCII) : null);
+    }
+
+    /**
+     * Check if an ASCII encoded TOTP token is valid. The token is read from the
+     * buffer's position to its limit, the position is not changed.
+     * @param account the account to check the TOTP token for
+     * @param token buffer holding the user provided TOTP token
+     * @return true if the user provided TOTP token is valid, false if otherwise
+     */
+    public boolean validateOtpToken(GTAccountInterface account, ByteBuffer token) throws GeneralSecurityException {
+        if (account == null) {
+            throw new IllegalArgumentException("GTAccountInterface must not be null");
+        }
+        int value = GCOtpTokenParser.parse(token, this.validator.getDigits());
+        return validateOtpToken(account, value, value == GCOtpTokenParser.UNMATCHABLE ? US_ASCII.decode(token.duplicate()).toString() : null);
+    }
+
+    /*
+     * Validate a parsed token.
+     * @param account the account to check the TOTP token for
+     * @param tokenValue numeric token value, GCOtpTokenParser.INVALID or GCOtpTokenParser.UNMATCHABLE
+     * @param token text form of the token, null if it should be derived from the numeric value
+     * @return true if the user provided TOTP token is valid, false if otherwise
+     */
+    private boolean validateOtpToken(GTAccountInterface account, int tokenValue, String token) {
+        if (tokenValue == GCOtpTokenParser.INVALID) {
+            if (log.isTraceEnabled()) {
+                log.trace(String.format("Validation failed due to the token not being %s digits", this.validator.getDigits()));
+            }
+            GSecDiagnosticService.event(GSecDiagnosticEvent.TOKEN_MALFORMED, this.validator.getDigits(), 0);
             return false;
         }
-        if (token.length() != this.validator.getDigits()) {
-            log.trace(String.format("Validation failed due to token being the wrong size. Token length is %s. Must be %s", "", token.length(), this.validator.getDigits()));
+
+        long time = this.totpCounter.totpCount();
+        if (throttled(account, time)) {
+            return recordAttempt(account, time, tokenValue, token, false);
+        }
+        AccountDevices accountDevices = newAccountDevices(account);
+        long period;
+        try {
+            period = matchToken(accountDevices, tokenValue, time);
+        } finally {
+            accountDevices.close();
+        }
+        return recordMatch(account, accountDevices, time, tokenValue, token, period);
+    }
+
+    /**
+     * Check many TOTP tokens at once. The current time period is computed once
+     * for the whole batch and the keys of an account are fetched and unwrapped
+     * at most once no matter how many attempts it has. Each attempt passes the
+     * same attempt limit, single flight and replay checks as validateOtpToken.
+     * All attempts are validated before any of them is recorded, then they are
+     * handed to addOtpToken in batch order. With an attempt recorder the
+     * attempts of the batch are stored together.
+     * @param attempts validation attempts
+     * @return per attempt, true if the user provided TOTP token is valid, false if otherwise
+     */
+    public boolean[] validateOtpTokens(List<TotpAttempt> attempts) {
+        if (attempts == null) {
+            throw new IllegalArgumentException("List<TotpAttempt> attempts must not be null");
+        }
+        int digits = this.validator.getDigits();
+        int size = attempts.size();
+        int[] tokenValues = new int[size];
+        long[] periods = new long[size];
+        AccountDevices[] matched = new AccountDevices[size];
+        boolean[] results = new boolean[size];
+        long time = this.totpCounter.totpCount();
+
+        Map<GTAccountInterface, AccountDevices> devices = new IdentityHashMap<>();
+        try {
+            for (int i = 0; i < size; i++) {
+                TotpAttempt attempt = attempts.get(i);
+                if (attempt == null) {
+                    throw new IllegalArgumentException(String.format("TotpAttempt at index %s must not be null", i));
+                }
+                tokenValues[i] = GCOtpTokenParser.parse(attempt.getToken(), digits);
+                periods[i] = GSecOtpValidator.NO_MATCH;
+                if (tokenValues[i] == GCOtpTokenParser.INVALID) {
+                    continue;
+                }
+                GTAccountInterface account = attempt.getAccount();
+                if (throttled(account, time)) {
+                    continue;
+                }
+                AccountDevices accountDevices = devices.get(account);
+                if (accountDevices == null) {
+                    accountDevices = newAccountDevices(account);
+                    devices.put(account, accountDevices);
+                }
+                matched[i] = accountDevices;
+                periods[i] = matchToken(accountDevices, tokenValues[i], time);
+            }
+        } finally {
+            for (AccountDevices accountDevices : devices.values()) {
+                accountDevices.close();
+            }
+        }
+
+        TotpAttemptRecorder.Attempt[] recorded = this.attemptRecorder != null ? new TotpAttemptRecorder.Attempt[size] : null;
+        for (int i = 0; i < size; i++) {
+            if (tokenValues[i] == GCOtpTokenParser.INVALID) {
+                if (log.isTraceEnabled()) {
+                    log.trace(String.format("Validation failed due to the token not being %s digits", digits));
+                }
+                GSecDiagnosticService.event(GSecDiagnosticEvent.TOKEN_MALFORMED, digits, 0);
+                continue;
+            }
+            TotpAttempt attempt = attempts.get(i);
+            if (recorded != null) {
+                recorded[i] = submitMatch(attempt.getAccount(), matched[i], time, tokenValues[i], attempt.getToken(), periods[i]);
+            } else {
+                results[i] = recordMatch(attempt.getAccount(), matched[i], time, tokenValues[i], attempt.getToken(), periods[i]);
+            }
+        }
+        if (recorded != null) {
+            for (int i = 0; i < size; i++) {
+                if (recorded[i] != null) {
+                    results[i] = attemptRecorded(time, this.attemptRecorder.await(recorded[i]) && recorded[i].isValid());
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Check a TOTP token without blocking on the data layer. The keys are
+     * requested from the account, the HMAC work runs on the validation
+     * executor once they arrive and the attempt is recorded through the
+     * account's addOtpTokenAsync. The returned future fails if the
+     * account's futures fail or the validation executor is saturated; in the
+     * latter case the attempt is not recorded.
+     * @param account the account to check the TOTP token for
+     * @param token user provided TOTP token
+     * @return future that is true if the user provided TOTP token is valid, false if otherwise
+     */
+    public TotpFuture<Boolean> validateOtpTokenAsync(final GTAsyncAccountInterface account, final String token) {
+        if (account == null) {
+            throw new IllegalArgumentException("GTAsyncAccountInterface must not be null");
+        }
+        final int tokenValue = GCOtpTokenParser.parse(token, this.validator.getDigits());
+        if (tokenValue == GCOtpTokenParser.INVALID) {
+            if (log.isTraceEnabled()) {
+                log.trace(String.format("Validation failed due to the token not being %s digits", this.validator.getDigits()));
+            }
+            GSecDiagnosticService.event(GSecDiagnosticEvent.TOKEN_MALFORMED, this.validator.getDigits(), 0);
+            return TotpFuture.completed(false);
+        }
+        final long time = this.totpCounter.totpCount();
+        final TotpFuture<Boolean> result = new TotpFuture<>();
+        if (throttled(account, time)) {
+            recordAttempt(account, time, tokenValue, token, false, result);
+            return result;
+        }
+        account.getKeysAsync().addListener(new TotpFuture.Listener<List<GTKeyInterface>>() {
+            @Override
+            public void done(TotpFuture<List<GTKeyInterface>> keys) {
+                final List<GTKeyInterface> totpKeys;
+                try {
+                    totpKeys = keys.getNow();
+                } catch (ExecutionException e) {
+                    result.fail(e.getCause());
+                    return;
+                } catch (CancellationException e) {
+                    result.fail(e);
+                    return;
+                }
+                if (tokenValue == GCOtpTokenParser.UNMATCHABLE) {
+                    // no HMAC work, still counts as an attempt
+                    recordAttempt(account, time, tokenValue, token, checkToken(account, totpKeys, tokenValue, time), result);
+                    return;
+                }
+                try {
+                    getValidationExecutor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                boolean valid = checkToken(account, totpKeys, tokenValue, time);
+                                recordAttempt(account, time, tokenValue, token, valid, result);
+                            } catch (RuntimeException e) {
+                                result.fail(e);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    result.fail(e);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Create a bounded pool of daemon threads for the HMAC work of asynchronous
+     * validations. Work that does not fit into the queue is rejected and fails
+     * its validation instead of blocking the data layer's threads.
+     * @param threads number of threads
+     * @param queueSize maximum number of queued validations
+     * @return validation executor
+     */
+    public static ExecutorService newValidationExecutor(int threads, int queueSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException(String.format("int threads is %s. Must be positive.", threads));
+        }
+        if (queueSize < 1) {
+            throw new IllegalArgumentException(String.format("int queueSize is %s. Must be positive.", queueSize));
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "grvty-totp-validation-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private Executor getValidationExecutor() {
+        return this.validationExecutor != null ? this.validationExecutor : DefaultExecutor.INSTANCE;
+    }
+
+    /*
+     * Shared validation executor, created on first use
+     */
+    private static final class DefaultExecutor {
+        private static final int QUEUE_SIZE_PER_THREAD = 256;
+        private static final Executor INSTANCE;
+
+        static {
+            int threads = Runtime.getRuntime().availableProcessors();
+            INSTANCE = newValidationExecutor(threads, threads * QUEUE_SIZE_PER_THREAD);
+        }
+    }
+
+    /*
+     * Hand a validated attempt to the asynchronous data layer and complete the result
+     */
+    private void recordAttempt(GTAsyncAccountInterface account, final long time, int tokenValue, String token,
+                               final boolean valid, final TotpFuture<Boolean> result) {
+        if (token == null) {
+            token = this.validator.formatOtp(tokenValue);
+        }
+        account.addOtpTokenAsync(time, token, valid).addListener(new TotpFuture.Listener<Boolean>() {
+            @Override
+            public void done(TotpFuture<Boolean> stored) {
+                boolean accepted;
+                try {
+                    accepted = Boolean.TRUE.equals(stored.getNow());
+                } catch (ExecutionException e) {
+                    result.fail(e.getCause());
+                    return;
+                } catch (CancellationException e) {
+                    result.fail(e);
+                    return;
+                }
+                boolean recorded = accepted && valid;
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("adding token to database: %s", recorded ? "SUCCESS" : "FAIL"));
+                }
+                GSecDiagnosticService.event(GSecDiagnosticEvent.ATTEMPT_RECORDED, time, recorded ? 1 : 0);
+                result.complete(recorded);
+            }
+        });
+    }
+
+    /*
+     * The devices of an account, streamed if the account supports it
+     */
+    private AccountDevices newAccountDevices(GTAccountInterface account) {
+        if (account instanceof GTStreamingAccountInterface) {
+            return new AccountDevices(account, ((GTStreamingAccountInterface) account).iterateKeys());
+        }
+        return new AccountDevices(account, account.getKeys());
+    }
+
+    /*
+     * Check a parsed token against keys that were fetched asynchronously
+     * @return true if the token is valid and was not used before
+     */
+    private boolean checkToken(Object account, List<GTKeyInterface> keys, int tokenValue, long time) {
+        AccountDevices accountDevices = new AccountDevices(account, keys);
+        try {
+            return checkToken(accountDevices, tokenValue, time);
+        } finally {
+            accountDevices.close();
+        }
+    }
+
+    /*
+     * Check a parsed token against an account and remember it if it is accepted
+     * @return true if the token is valid and was not used before
+     */
+    private boolean checkToken(AccountDevices accountDevices, int tokenValue, long time) {
+        long period = matchToken(accountDevices, tokenValue, time);
+        return period != GSecOtpValidator.NO_MATCH && markUsed(accountDevices, tokenValue, period, time);
+    }
+
+    /*
+     * Attempt limit of an account with an id, checked before its keys are fetched
+     * @return true if the attempt is rejected
+     */
+    private boolean throttled(Object account, long time) {
+        if (this.attemptThrottle == null || !(account instanceof GTAccountIdInterface)) {
             return false;
         }
-        if (!patternToken.matcher(token).matches()) {
-            log.trace(String.format("Validation failed due to token containing an invalid character"));
+        byte[] accountId = ((GTAccountIdInterface) account).getUniqueVal();
+        return accountId != null && throttled(Utilities.hash64(accountId), time);
+    }
+
+    private boolean throttled(long accountHash, long time) {
+        if (this.attemptThrottle.tryAcquire(accountHash)) {
             return false;
         }
+        if (log.isTraceEnabled()) {
+            log.trace(String.format("Validation failed due to too many attempts for the account, time:%s", time));
+        }
+        GSecDiagnosticService.event(GSecDiagnosticEvent.TOKEN_THROTTLED, time, 0);
+        return true;
+    }
 
-        long time = this.totpCounter.totpCount();
-        boolean valid = false;
-        List<GSecTotpKey> gSecTotpKeys = this.totpDataRepository.unwrapDevices(account.getKeys());
-        log.trace(String.format("%s keys (devices) found for account: %s", gSecTotpKeys.size(), account));
-        for (GSecTotpKey device : gSecTotpKeys) {
-            boolean b = this.validator.validateOtpToken(device, token, time);
-            log.trace(String.format("Validation for device:%s, token:%s, time:%s. %s", device, token, time, b ? "SUCCEEDED" : "FAILED"));
-            if (b) {
-                valid = true;
-                break;
-            }
-        }
-        log.debug(String.format("token validation: %s", valid ? "SUCCESS" : "FAIL"));
-        valid = account.addOtpToken(time, token, valid) && valid;
-        log.debug(String.format("adding token to database: %s", valid ? "SUCCESS" : "FAIL"));
+    /*
+     * Attempt limit of an account identified by its first key, then replay
+     * check and every device. Concurrent identical checks share one
+     * computation if a single flight group is configured.
+     * @return the matching period or GSecOtpValidator.NO_MATCH
+     */
+    private long matchToken(final AccountDevices accountDevices, final int tokenValue, final long time) {
+        if (this.attemptThrottle != null && accountDevices.accountId != null
+                && !(accountDevices.account instanceof GTAccountIdInterface)
+                && throttled(accountDevices.accountHash, time)) {
+            return GSecOtpValidator.NO_MATCH;
+        }
+        // truncated HMAC values are 31 bit, larger tokens can never match
+        if (tokenValue == GCOtpTokenParser.UNMATCHABLE) {
+            return GSecOtpValidator.NO_MATCH;
+        }
+        if (this.singleFlight == null || accountDevices.accountId == null) {
+            return matchUnusedToken(accountDevices, tokenValue, time);
+        }
+        return this.singleFlight.call(accountDevices.accountHash, accountDevices.accountId, tokenValue, time, new TotpSingleFlight.Call() {
+            @Override
+            public long call() {
+                return matchUnusedToken(accountDevices, tokenValue, time);
+            }
+        });
+    }
+
+    private long matchUnusedToken(AccountDevices accountDevices, int tokenValue, long time) {
+        if (this.replayStore != null && accountDevices.accountId != null
+                && this.replayStore.isUsed(accountDevices.accountHash, tokenValue, time)) {
+            traceReplayed(time);
+            return GSecOtpValidator.NO_MATCH;
+        }
+        // the signature of streamed devices would fetch every device before checking any
+        boolean negativeCheck = this.negativeCache != null && accountDevices.accountId != null && !accountDevices.streamed;
+        if (negativeCheck && this.negativeCache.isKnownInvalid(accountDevices.signature(), tokenValue, time)) {
+            if (log.isTraceEnabled()) {
+                log.trace(String.format("Validation failed due to the token being rejected before in this period, time:%s", time));
+            }
+            GSecDiagnosticService.event(GSecDiagnosticEvent.TOKEN_KNOWN_INVALID, time, 0);
+            return GSecOtpValidator.NO_MATCH;
+        }
+        long period = matchDevices(accountDevices, tokenValue, time);
+        if (negativeCheck && period == GSecOtpValidator.NO_MATCH) {
+            this.negativeCache.markInvalid(accountDevices.signature(), tokenValue, time);
+        }
+        return period;
+    }
+
+    /*
+     * Remember an accepted token in the replay store
+     * @return false if the token was used before
+     */
+    private boolean markUsed(AccountDevices accountDevices, int tokenValue, long period, long time) {
+        if (this.replayStore != null && accountDevices.accountId != null
+                && !this.replayStore.markUsed(accountDevices.accountHash, tokenValue, period, time)) {
+            traceReplayed(time);
+            return false;
+        }
+        return true;
+    }
+
+    private void traceReplayed(long time) {
+        if (log.isTraceEnabled()) {
+            log.trace(String.format("Validation failed due to the token being used before, time:%s", time));
+        }
+        GSecDiagnosticService.event(GSecDiagnosticEvent.TOKEN_REPLAYED, time, 0);
+    }
+
+    /*
+     * Check a parsed token against every device of an account, the device
+     * that matched last first if device hints are configured. The token
+     * index, device hints and fan out need every device up front, so streamed
+     * devices are checked one at a time in the account's order instead.
+     * @return the matching period or GSecOtpValidator.NO_MATCH
+     */
+    private long matchDevices(final AccountDevices accountDevices, final int tokenValue, final long time) {
+        if (this.tokenIndex != null && accountDevices.accountId != null && !accountDevices.streamed
+                && accountDevices.key(this.tokenIndex.getThreshold() - 1) != null) {
+            long period = matchIndex(accountDevices, tokenValue, time);
+            if (period != GSecStripedTable.ABSENT) {
+                return period;
+            }
+        }
+        boolean hints = this.deviceHints != null && accountDevices.accountId != null && !accountDevices.streamed
+                && accountDevices.key(1) != null;
+        long hint = hints ? this.deviceHints.get(accountDevices.accountHash) : GSecDeviceHints.NONE;
+        final int first = hint == GSecDeviceHints.NONE ? -1 : accountDevices.indexOf(hint);
+        long period = GSecOtpValidator.NO_MATCH;
+        int matched = -1;
+        int checked = 0;
+        if (this.fanOut != null && !accountDevices.streamed && accountDevices.key(this.fanOut.getThreshold() - 1) != null) {
+            final GSecTotpKey[] devices = accountDevices.unwrappedDevices();
+            final long[] periods = new long[devices.length];
+            final AtomicInteger count = new AtomicInteger();
+            int n = this.fanOut.find(devices.length, new TotpFanOut.Probe() {
+                @Override
+                public boolean probe(int n) {
+                    int i = deviceOrder(n, first);
+                    if (devices[i] == null) {
+                        devices[i] = totpDataRepository.unwrapDevice(accountDevices.key(i));
+                    }
+                    count.incrementAndGet();
+                    periods[i] = validator.matchOtpToken(devices[i], tokenValue, time);
+                    boolean b = periods[i] != GSecOtpValidator.NO_MATCH;
+                    if (log.isTraceEnabled()) {
+                        log.trace(String.format("Validation for device:%s, time:%s. %s", i, time, b ? "SUCCEEDED" : "FAILED"));
+                    }
+                    return b;
+                }
+            });
+            accountDevices.setUnwrappedDevices(devices);
+            matched = n < 0 ? -1 : deviceOrder(n, first);
+            period = n < 0 ? GSecOtpValidator.NO_MATCH : periods[matched];
+            checked = count.get();
+        } else {
+            for (int n = 0; ; n++) {
+                int i = deviceOrder(n, first);
+                GSecTotpKey device = accountDevices.device(i);
+                if (device == null) {
+                    break;
+                }
+                checked++;
+                period = this.validator.matchOtpToken(device, tokenValue, time);
+                boolean b = period != GSecOtpValidator.NO_MATCH;
+                if (log.isTraceEnabled()) {
+                    log.trace(String.format("Validation for device:%s, time:%s. %s", i, time, b ? "SUCCEEDED" : "FAILED"));
+                }
+                if (b) {
+                    matched = i;
+                    break;
+                }
+            }
+        }
+        if (log.isTraceEnabled()) {
+            log.trace(String.format("%s keys (devices) checked for account: %s", checked, accountDevices.account));
+        }
+        GSecDiagnosticService.event(GSecDiagnosticEvent.DEVICES_FOUND, checked, 0);
+        boolean valid = period != GSecOtpValidator.NO_MATCH;
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("token validation: %s", valid ? "SUCCESS" : "FAIL"));
+        }
+        GSecDiagnosticService.event(GSecDiagnosticEvent.TOKEN_VALIDATED, time, valid ? 1 : 0);
+        if (hints && valid) {
+            long tag = matched == first ? hint : GSecDeviceHints.tag(accountDevices.key(matched).getOtpKey());
+            this.deviceHints.matched(accountDevices.accountHash, hint, tag, matched);
+        }
+        return period;
+    }
+
+    /*
+     * Look a token up in the token index, which builds or moves the account's
+     * index if necessary
+     * @return the matching period, GSecOtpValidator.NO_MATCH, or
+     *         GSecStripedTable.ABSENT if the account is not indexed
+     */
+    private long matchIndex(final AccountDevices accountDevices, int tokenValue, long time) {
+        final int size = accountDevices.size();
+        long period = this.tokenIndex.match(accountDevices.accountHash, accountDevices.signature(), tokenValue, time,
+                new GSecTokenIndex.Devices() {
+                    @Override
+                    public int size() {
+                        return size;
+                    }
+
+                    @Override
+                    public GSecTotpKey device(int index) {
+                        return accountDevices.device(index);
+                    }
+                });
+        if (period == GSecStripedTable.ABSENT) {
+            return period;
+        }
+        boolean valid = period != GSecTokenIndex.NO_MATCH;
+        if (log.isTraceEnabled()) {
+            log.trace(String.format("Index lookup for %s keys (devices) of account: %s, time:%s. %s", size, accountDevices.account, time,
+                    valid ? "SUCCEEDED" : "FAILED"));
+        }
+        GSecDiagnosticService.event(GSecDiagnosticEvent.TOKEN_INDEXED, time, valid ? 1 : 0);
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("token validation: %s", valid ? "SUCCESS" : "FAIL"));
+        }
+        GSecDiagnosticService.event(GSecDiagnosticEvent.TOKEN_VALIDATED, time, valid ? 1 : 0);
+        return valid ? period : GSecOtpValidator.NO_MATCH;
+    }
+
+    /*
+     * The hinted device, then the others in the account's order
+     * @param n position in the search
+     * @param first index of the hinted device or -1
+     * @return index of the device
+     */
+    private static int deviceOrder(int n, int first) {
+        return first < 0 || n > first ? n : n == 0 ? first : n - 1;
+    }
+
+    /*
+     * Remember a matching token in the replay store and hand the attempt to
+     * the data layer. With a single flight group the attempts of an account
+     * are recorded one at a time, so of concurrent uses of a token only the
+     * first recorded one is accepted. An attempt recorder is only handed the
+     * attempt under the lock; waiting for it to be stored happens outside.
+     * @param accountDevices the checked devices, null if the attempt was throttled
+     * @param period the matching period or GSecOtpValidator.NO_MATCH
+     * @return true if the attempt was valid and the data layer accepted it
+     */
+    private boolean recordMatch(GTAccountInterface account, AccountDevices accountDevices, long time, int tokenValue, String token, long period) {
+        if (this.attemptRecorder != null) {
+            TotpAttemptRecorder.Attempt attempt = submitMatch(account, accountDevices, time, tokenValue, token, period);
+            return attemptRecorded(time, this.attemptRecorder.await(attempt) && attempt.isValid());
+        }
+        if (this.singleFlight == null || accountDevices == null || accountDevices.accountId == null) {
+            return recordAttempt(account, time, tokenValue, token, period != GSecOtpValidator.NO_MATCH && markUsed(accountDevices, tokenValue, period, time));
+        }
+        synchronized (this.singleFlight.lock(accountDevices.accountHash)) {
+            return recordAttempt(account, time, tokenValue, token, period != GSecOtpValidator.NO_MATCH && markUsed(accountDevices, tokenValue, period, time));
+        }
+    }
+
+    /*
+     * Like recordMatch, but queues the attempt with the attempt recorder so
+     * the attempts of a batch are stored together. The recorder stores
+     * attempts in the order they are submitted.
+     * @return the queued attempt, valid if the token matched and was not used before
+     */
+    private TotpAttemptRecorder.Attempt submitMatch(GTAccountInterface account, AccountDevices accountDevices, long time, int tokenValue,
+                                                    String token, long period) {
+        token = formatToken(tokenValue, token);
+        if (this.singleFlight == null || accountDevices == null || accountDevices.accountId == null) {
+            return this.attemptRecorder.submit(account, time, token, period != GSecOtpValidator.NO_MATCH && markUsed(accountDevices, tokenValue, period, time));
+        }
+        synchronized (this.singleFlight.lock(accountDevices.accountHash)) {
+            return this.attemptRecorder.submit(account, time, token, period != GSecOtpValidator.NO_MATCH && markUsed(accountDevices, tokenValue, period, time));
+        }
+    }
+
+    /*
+     * Hand a validated attempt to the data layer
+     * @param token text form of the token, null if it should be derived from the numeric value
+     * @return true if the attempt was valid and the data layer accepted it
+     */
+    private boolean recordAttempt(GTAccountInterface account, long time, int tokenValue, String token, boolean valid) {
+        token = formatToken(tokenValue, token);
+        if (this.attemptRecorder != null) {
+            return attemptRecorded(time, this.attemptRecorder.record(account, time, token, valid) && valid);
+        }
+        return attemptRecorded(time, account.addOtpToken(time, token, valid) && valid);
+    }
+
+    /*
+     * @param token text form of the token, null if it should be derived from the numeric value
+     */
+    private String formatToken(int tokenValue, String token) {
+        return token != null ? token : this.validator.formatOtp(tokenValue);
+    }
+
+    /*
+     * Report a recorded attempt
+     * @return true if the attempt was valid and stored
+     */
+    private static boolean attemptRecorded(long time, boolean valid) {
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("adding token to database: %s", valid ? "SUCCESS" : "FAIL"));
+        }
+        GSecDiagnosticService.event(GSecDiagnosticEvent.ATTEMPT_RECORDED, time, valid ? 1 : 0);
         return valid;
     }
 
@@ -85,6 +868,50 @@ public class TotpValidator {
         return this.totpDataRepository.wrapKey(key);
     }
 
+    /**
+     * Stop the validator. Queued attempts of the attempt recorder are stored
+     * first, then the resources handed to the validator, see
+     * Options.addResource, are closed. The validator must not be used afterwards.
+     * @param timeoutMillis maximum time to wait for the queued attempts to be stored
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void shutdown(long timeoutMillis) throws InterruptedException {
+        if (this.attemptRecorder != null) {
+            this.attemptRecorder.shutdown(timeoutMillis);
+        }
+        for (int i = this.resources.size() - 1; i >= 0; i--) {
+            try {
+                this.resources.get(i).close();
+            } catch (IOException | RuntimeException e) {
+                log.error("closing a validator resource failed", e);
+            }
+        }
+    }
+
+    /**
+     * Get the device hints, see GSecDeviceHints for hit rate metrics
+     * @return device hints or null if devices are checked in the account's order
+     */
+    public GSecDeviceHints getDeviceHints() {
+        return this.deviceHints;
+    }
+
+    /**
+     * Get the token index
+     * @return token index or null if the devices are always checked
+     */
+    public GSecTokenIndex getTokenIndex() {
+        return this.tokenIndex;
+    }
+
+    /**
+     * Get the attempt recorder, see TotpAttemptRecorder for queue and flush metrics
+     * @return attempt recorder or null if addOtpToken is called for every attempt
+     */
+    public TotpAttemptRecorder getAttemptRecorder() {
+        return this.attemptRecorder;
+    }
+
     /**
      * Get the TOTP Counter
      * @return GCTotpCounter
@@ -100,4 +927,165 @@ public class TotpValidator {
     public long getPeriodLength() {
         return totpCounter.getPeriodLength();
     }
+
+    /*
+     * The keys of one account. Keys are fetched from a streaming account and
+     * unwrapped one at a time on first use, so matching can stop at the first
+     * matching device without touching the others.
+     */
+    private final class AccountDevices {
+        private final Object account;
+        private final List<GTKeyInterface> keys;
+        private Iterator<GTKeyInterface> source;
+        private final byte[] accountId;
+        private final long accountHash;
+        private final boolean streamed;
+        private final List<GSecTotpKey> devices = new ArrayList<>();
+        private long signature;
+        private boolean signed;
+
+        AccountDevices(Object account, List<GTKeyInterface> keys) {
+            this(account, keys == null ? Collections.<GTKeyInterface>emptyList() : keys, null);
+        }
+
+        AccountDevices(Object account, Iterator<GTKeyInterface> keys) {
+            this(account, new ArrayList<GTKeyInterface>(), keys);
+        }
+
+        private AccountDevices(Object account, List<GTKeyInterface> keys, Iterator<GTKeyInterface> source) {
+            this.account = account;
+            this.keys = keys;
+            this.source = source;
+            if (account instanceof GTAccountIdInterface) {
+                this.accountId = ((GTAccountIdInterface) account).getUniqueVal();
+            } else {
+                GTKeyInterface first = key(0);
+                this.accountId = first == null ? null : first.getUniqueVal();
+            }
+            this.accountHash = this.accountId == null ? 0 : Utilities.hash64(this.accountId);
+            this.streamed = source != null;
+        }
+
+        /*
+         * Get a key, fetching it from the stream if necessary
+         * @return the key or null if the account has fewer keys
+         */
+        GTKeyInterface key(int index) {
+            while (this.source != null && this.keys.size() <= index) {
+                if (this.source.hasNext()) {
+                    this.keys.add(this.source.next());
+                } else {
+                    closeSource();
+                }
+            }
+            return index < this.keys.size() ? this.keys.get(index) : null;
+        }
+
+        /*
+         * Get an unwrapped device key
+         * @return the device or null if the account has fewer keys
+         */
+        GSecTotpKey device(int index) {
+            GTKeyInterface key = key(index);
+            if (key == null) {
+                return null;
+            }
+            while (this.devices.size() <= index) {
+                this.devices.add(null);
+            }
+            GSecTotpKey device = this.devices.get(index);
+            if (device == null) {
+                device = totpDataRepository.unwrapDevice(key);
+                this.devices.set(index, device);
+            }
+            return device;
+        }
+
+        /*
+         * Get the devices unwrapped so far, fetching all keys
+         * @return one element per key, null for keys that are not unwrapped yet
+         */
+        GSecTotpKey[] unwrappedDevices() {
+            GSecTotpKey[] result = new GSecTotpKey[size()];
+            for (int i = 0; i < this.devices.size(); i++) {
+                result[i] = this.devices.get(i);
+            }
+            return result;
+        }
+
+        /*
+         * Get the number of keys, fetching all keys
+         */
+        int size() {
+            while (key(this.keys.size()) != null) {
+                // fetch the remaining keys
+            }
+            return this.keys.size();
+        }
+
+        /*
+         * Identifies the account's current set of devices, fetching all keys.
+         * Changes when a device is added, removed or replaced.
+         */
+        long signature() {
+            if (!this.signed) {
+                long signature = this.accountHash;
+                for (int i = 0; key(i) != null; i++) {
+                    signature = Utilities.mix64(signature + GSecDeviceHints.tag(this.keys.get(i).getOtpKey()));
+                }
+                this.signature = signature;
+                this.signed = true;
+            }
+            return this.signature;
+        }
+
+        void setUnwrappedDevices(GSecTotpKey[] devices) {
+            this.devices.clear();
+            Collections.addAll(this.devices, devices);
+        }
+
+        /*
+         * Find a device by its tag
+         * @return index of the device or -1
+         */
+        int indexOf(long tag) {
+            for (int i = 0; key(i) != null; i++) {
+                if (GSecDeviceHints.tag(this.keys.get(i).getOtpKey()) == tag) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /*
+         * Stop streaming keys and release the unwrapped devices, which may be
+         * shared through the key cache
+         */
+        void close() {
+            closeSource();
+            for (GSecTotpKey device : this.devices) {
+                if (device != null) {
+                    device.release();
+                }
+            }
+            this.devices.clear();
+        }
+
+        /*
+         * Stop streaming keys. A closeable key iterator is closed.
+         */
+        private void closeSource() {
+            Iterator<GTKeyInterface> source = this.source;
+            this.source = null;
+            if (source instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) source).close();
+                } catch (Exception e) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(String.format("closing the keys of account %s failed: %s", this.account, e.getClass().getName()));
+                    }
+                }
+            }
+        }
+    }
 }
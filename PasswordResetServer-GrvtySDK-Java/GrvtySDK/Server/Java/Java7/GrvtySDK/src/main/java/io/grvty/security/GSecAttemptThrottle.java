@@ -0,0 +1,184 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security;
+
+import io.grvty.security.alerts.GSecAlert;
+import io.grvty.security.alerts.GSecAlertService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of validation attempts per account so that guessing
+ * tokens cannot make the server compute HMACs at will. Attempts are counted
+ * with a sliding window: the count of the previous window is weighted by how
+ * much of it still overlaps the sliding window and added to the count of the
+ * current window. Every attempt is counted, including rejected ones, so an
+ * account stays throttled for as long as the guessing goes on.
+ *
+ * The first rejected attempt of an account in a window raises an
+ * "otpAttemptsThrottled" security alert.
+ *
+ * Accounts are identified by Utilities.hash64 of their id, which is not
+ * collision resistant. Accounts whose ids collide share a counter, so guessing
+ * at one of them also throttles the other.
+ *
+ * The counters of at most maxAccounts accounts are kept. Counters older
+ * than the previous window are removed from a stripe of the table by the
+ * first attempt that touches it in a new window. While a stripe is full, the
+ * counter of a new account replaces a sampled counter with no more recent
+ * attempts than the new one, so spraying attempts over many ids cannot push
+ * out the counter of an account under attack. If every sampled counter has
+ * more attempts, the attempt is rejected and an "otpThrottleFull" security
+ * alert is raised once per window.
+ */
+public class GSecAttemptThrottle {
+    private static Log log = LogFactory.getLog(GSecAttemptThrottle.class);
+    private static final int STRIPES = 64;
+    private static final int MAX_COUNT = 0x7fff;
+    private static final long WINDOW_MASK = 0x7fffffffL;
+    private static final long ALERTED = 1L << 31;
+    private static final GSecStripedTable.Expiry EXPIRY = new GSecStripedTable.Expiry() {
+        @Override
+        public boolean isExpired(long key, long value, long window) {
+            return ((window - (value >>> 32)) & WINDOW_MASK) > 1;
+        }
+    };
+
+    private final int maxAttempts;
+    private final long windowMillis;
+    private final int maxAccounts;
+    private final long startNanos = System.nanoTime();
+    private final GSecStripedTable table;
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong fullWindow = new AtomicLong(-1);
+
+    /**
+     * Create a throttle
+     * @param maxAttempts maximum number of attempts per account in a sliding window
+     * @param windowMillis length of the window in milliseconds
+     * @param maxAccounts maximum number of accounts with a counter
+     */
+    public GSecAttemptThrottle(int maxAttempts, long windowMillis, int maxAccounts) {
+        if (maxAttempts < 1 || maxAttempts >= MAX_COUNT) {
+            throw new IllegalArgumentException(String.format("int maxAttempts is %s. Must be between 0 and %s.", maxAttempts, MAX_COUNT));
+        }
+        if (windowMillis < 1) {
+            throw new IllegalArgumentException(String.format("long windowMillis is %s. Must be a positive integer.", windowMillis));
+        }
+        this.maxAttempts = maxAttempts;
+        this.windowMillis = windowMillis;
+        this.maxAccounts = maxAccounts;
+        this.table = new GSecStripedTable(STRIPES, maxAccounts);
+    }
+
+    /**
+     * Count an attempt of an account
+     * @param account hash of the unique account id, see Utilities.hash64
+     * @return true if the attempt is admitted, false if the account is throttled
+     */
+    public boolean tryAcquire(long account) {
+        return tryAcquire(account, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startNanos));
+    }
+
+    /**
+     * Count an attempt of an account at the given time
+     * @param account hash of the unique account id, see Utilities.hash64
+     * @param nowMillis non-negative monotonic time in milliseconds
+     * @return true if the attempt is admitted, false if the account is throttled
+     */
+    public boolean tryAcquire(long account, long nowMillis) {
+        final long window = (nowMillis / this.windowMillis) & WINDOW_MASK;
+        final long elapsed = nowMillis % this.windowMillis;
+        // the unmasked window number never decreases
+        this.table.sweepStripe(account, nowMillis / this.windowMillis, EXPIRY);
+        final boolean[] result = new boolean[2];
+        GSecStripedTable.Ranker ranker = new GSecStripedTable.Ranker() {
+            @Override
+            public long rank(long key, long value) {
+                // attempts in the current and the previous window
+                long age = (window - (value >>> 32)) & WINDOW_MASK;
+                if (age == 0) {
+                    return ((value >>> 16) & MAX_COUNT) + (value & MAX_COUNT);
+                }
+                return age == 1 ? value & MAX_COUNT : 0;
+            }
+        };
+        long value = this.table.update(account, new GSecStripedTable.Updater() {
+            @Override
+            public long update(long key, long current) {
+                long previousCount = 0;
+                long count = 0;
+                long alerted = 0;
+                if (current != GSecStripedTable.ABSENT) {
+                    long age = (window - (current >>> 32)) & WINDOW_MASK;
+                    if (age == 0) {
+                        previousCount = (current >>> 16) & MAX_COUNT;
+                        count = current & MAX_COUNT;
+                        alerted = current & ALERTED;
+                    } else if (age == 1) {
+                        previousCount = current & MAX_COUNT;
+                    }
+                }
+                long weighted = previousCount * (GSecAttemptThrottle.this.windowMillis - elapsed) / GSecAttemptThrottle.this.windowMillis;
+                boolean admitted = weighted + count < GSecAttemptThrottle.this.maxAttempts;
+                result[0] = admitted;
+                result[1] = !admitted && alerted == 0;
+                if (!admitted) {
+                    alerted = ALERTED;
+                }
+                return window << 32 | alerted | previousCount << 16 | Math.min(count + 1, MAX_COUNT);
+            }
+        }, ranker);
+        if (value == GSecStripedTable.ABSENT) {
+            // stripe is full of accounts with more attempts, fail closed
+            this.throttled.incrementAndGet();
+            long last = this.fullWindow.get();
+            if (last != window && this.fullWindow.compareAndSet(last, window)) {
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Attempt throttle is full, maxAccounts:%s", this.maxAccounts));
+                }
+                GSecAlertService.sendSecurityAlert(new GSecAlert("WARNING", "io.grvty.security", "otpThrottleFull",
+                        String.format("No room to count the attempts of a new account among %s accounts", this.maxAccounts)));
+            }
+            return false;
+        }
+        if (!result[0]) {
+            this.throttled.incrementAndGet();
+            if (result[1]) {
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Throttling validation attempts of an account, maxAttempts:%s, windowMillis:%s", this.maxAttempts, this.windowMillis));
+                }
+                GSecAlertService.sendSecurityAlert(new GSecAlert("WARNING", "io.grvty.security", "otpAttemptsThrottled",
+                        String.format("More than %s validation attempts for one account within %s ms", this.maxAttempts, this.windowMillis)));
+            }
+        }
+        return result[0];
+    }
+
+    /**
+     * Get the number of rejected attempts since the throttle was created
+     * @return number of rejected attempts
+     */
+    public long getThrottled() {
+        return this.throttled.get();
+    }
+
+    /**
+     * Forget all counters
+     */
+    public void clear() {
+        this.table.clear();
+    }
+
+    /**
+     * Get the number of accounts with a counter
+     * @return number of accounts
+     */
+    public int size() {
+        return this.table.size();
+    }
+}
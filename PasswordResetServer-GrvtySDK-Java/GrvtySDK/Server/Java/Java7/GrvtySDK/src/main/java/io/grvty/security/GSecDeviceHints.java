@@ -0,0 +1,126 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security;
+
+import io.grvty.security.crypto.Utilities;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the device that last matched for each account, so that accounts
+ * with several devices check the device the user actually carries first.
+ * Devices are identified by a tag derived from their wrapped key, which is
+ * known without unwrapping the key.
+ *
+ * When the table is full it is cleared, hints are only an optimization.
+ */
+public class GSecDeviceHints {
+    /** no hint is known for the account */
+    public static final long NONE = 0;
+    private static final int STRIPES = 64;
+
+    private final GSecStripedTable table;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong devicesSkipped = new AtomicLong();
+
+    /**
+     * Create a hint table
+     * @param maxAccounts maximum number of accounts with a hint
+     */
+    public GSecDeviceHints(int maxAccounts) {
+        this.table = new GSecStripedTable(STRIPES, maxAccounts);
+    }
+
+    /**
+     * Get the tag of a device
+     * @param wrappedKey wrapped key of the device
+     * @return device tag, never NONE
+     */
+    public static long tag(byte[] wrappedKey) {
+        return Utilities.hash64(wrappedKey) | 1;
+    }
+
+    /**
+     * Get the device that last matched for an account
+     * @param account hash of the unique account id, see Utilities.hash64
+     * @return device tag or NONE
+     */
+    public long get(long account) {
+        long hint = this.table.get(account);
+        return hint == GSecStripedTable.ABSENT ? NONE : hint;
+    }
+
+    /**
+     * Record the device that matched for an account
+     * @param account hash of the unique account id, see Utilities.hash64
+     * @param hint the tag returned by get for this validation
+     * @param matched tag of the matching device
+     * @param position index of the matching device in the account's own order
+     */
+    public void matched(long account, long hint, long matched, int position) {
+        if (hint != NONE && hint == matched) {
+            this.hits.incrementAndGet();
+            this.devicesSkipped.addAndGet(position);
+            return;
+        }
+        this.misses.incrementAndGet();
+        if (!this.table.put(account, matched)) {
+            this.table.clear();
+            this.table.put(account, matched);
+        }
+    }
+
+    /**
+     * Get the number of matches on the hinted device
+     * @return number of hits
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Get the number of matches on a device other than the hinted one, or
+     * without a hint
+     * @return number of misses
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Get the fraction of matches on the hinted device
+     * @return hit rate between 0 and 1
+     */
+    public double getHitRate() {
+        long hits = this.hits.get();
+        long total = hits + this.misses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Get the number of devices that were not checked because the hinted
+     * device was checked first. Each skipped device saves one HMAC per period
+     * of the time window, fewer with a token cache.
+     * @return number of skipped devices
+     */
+    public long getDevicesSkipped() {
+        return this.devicesSkipped.get();
+    }
+
+    /**
+     * Forget all hints
+     */
+    public void clear() {
+        this.table.clear();
+    }
+
+    /**
+     * Get the number of accounts with a hint
+     * @return number of accounts
+     */
+    public int size() {
+        return this.table.size();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers the time period offset at which each device last matched
+ * (RFC 6238 section 6, resynchronization). Devices with skewed clocks keep
+ * matching at the same offset, so the validator checks that offset first.
+ *
+ * The store is a direct mapped table of longs: the upper 56 bits of the device
+ * fingerprint tag a slot and the lowest byte holds the offset. Devices that
+ * collide on a slot overwrite each other, which only costs the ordering hint.
+ * Reads and writes are lock-free.
+ */
+public class GSecDriftStore {
+    private static final long TAG_MASK = ~0xffL;
+
+    private final AtomicLongArray slots;
+    private final int mask;
+
+    /**
+     * Create a drift store
+     * @param capacity number of slots, rounded up to a power of two
+     */
+    public GSecDriftStore(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException(String.format("int capacity is %s. Must be between 1 and 2^30.", capacity));
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicLongArray(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Get the last matching offset of a device
+     * @param fingerprint device fingerprint
+     * @return time period offset, 0 if unknown
+     */
+    public int get(long fingerprint) {
+        long slot = this.slots.get(index(fingerprint));
+        if ((slot & TAG_MASK) != (fingerprint & TAG_MASK)) {
+            return 0;
+        }
+        return (byte) slot;
+    }
+
+    /**
+     * Record the offset at which a device matched
+     * @param fingerprint device fingerprint
+     * @param offset time period offset
+     */
+    public void put(long fingerprint, int offset) {
+        if (offset < Byte.MIN_VALUE || offset > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("int offset is %s. Must fit in a byte.", offset));
+        }
+        this.slots.lazySet(index(fingerprint), (fingerprint & TAG_MASK) | (offset & 0xffL));
+    }
+
+    private int index(long fingerprint) {
+        return (int) (fingerprint >>> 8) & this.mask;
+    }
+}
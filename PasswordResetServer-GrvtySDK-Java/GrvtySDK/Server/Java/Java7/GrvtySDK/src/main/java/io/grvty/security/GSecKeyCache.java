@@ -0,0 +1,179 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded cache of unwrapped device keys. Entries are keyed by the wrapped
+ * key bytes and the unique account id stored by the host application. The least
+ * recently used entry is evicted once the cache is full and entries older than
+ * the time to live are dropped on lookup. The key material of evicted entries
+ * is zeroed.
+ *
+ * Keys are shared between threads: get and put retain the key for the caller,
+ * who releases it once its validation is done. An evicted key is retired and
+ * only zeroed when its last user released it, so a validation never computes
+ * tokens with zeroed key material.
+ */
+public class GSecKeyCache {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<CacheKey, CachedKey> entries;
+
+    /**
+     * Create a key cache
+     * @param maxEntries maximum number of cached keys
+     * @param ttlSeconds time in seconds a cached key may be used for
+     */
+    public GSecKeyCache(int maxEntries, long ttlSeconds) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException(String.format("int maxEntries is %s. Must be a positive integer.", maxEntries));
+        }
+        if (ttlSeconds < 1) {
+            throw new IllegalArgumentException(String.format("long ttlSeconds is %s. Must be a positive integer.", ttlSeconds));
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.entries = new LinkedHashMap<CacheKey, CachedKey>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, CachedKey> eldest) {
+                if (size() > GSecKeyCache.this.maxEntries) {
+                    eldest.getValue().retire();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get a cached unwrapped key. The key is retained for the caller, see
+     * GSecTotpKey.release.
+     * @param wrappedKey wrapped device key as stored by the host
+     * @param uniqueVal unique account id of the device
+     * @return the unwrapped key or null if it is not cached
+     */
+    public synchronized GSecTotpKey get(byte[] wrappedKey, byte[] uniqueVal) {
+        CacheKey lookup = new CacheKey(wrappedKey, uniqueVal);
+        CachedKey entry = this.entries.get(lookup);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.created > this.ttlNanos) {
+            this.entries.remove(lookup);
+            entry.retire();
+            return null;
+        }
+        entry.key.retain();
+        return entry.key;
+    }
+
+    /**
+     * Cache an unwrapped key. The wrapped key and unique id are copied. The key
+     * is retained for the caller, see GSecTotpKey.release.
+     * @param wrappedKey wrapped device key as stored by the host
+     * @param uniqueVal unique account id of the device
+     * @param key the unwrapped key
+     */
+    public synchronized void put(byte[] wrappedKey, byte[] uniqueVal, GSecTotpKey key) {
+        CacheKey cacheKey = new CacheKey(wrappedKey.clone(), uniqueVal.clone());
+        CachedKey previous = this.entries.remove(cacheKey);
+        if (previous != null) {
+            previous.cacheKey.destroy();
+            if (previous.key != key) {
+                previous.key.retire();
+            }
+        }
+        key.retain();
+        long now = System.nanoTime();
+        this.entries.put(cacheKey, new CachedKey(cacheKey, key, now));
+        evictExpired(now);
+    }
+
+    /**
+     * Remove all entries and zero their key material once they are released
+     */
+    public synchronized void clear() {
+        Iterator<Map.Entry<CacheKey, CachedKey>> iterator = this.entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            CachedKey entry = iterator.next().getValue();
+            iterator.remove();
+            entry.retire();
+        }
+    }
+
+    /*
+     * Drop expired entries from the least recently used end of the cache
+     */
+    private void evictExpired(long now) {
+        Iterator<Map.Entry<CacheKey, CachedKey>> iterator = this.entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            CachedKey entry = iterator.next().getValue();
+            if (now - entry.created <= this.ttlNanos) {
+                return;
+            }
+            iterator.remove();
+            entry.retire();
+        }
+    }
+
+    /**
+     * Get the number of cached keys
+     * @return number of cached keys
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    private static final class CachedKey {
+        private final CacheKey cacheKey;
+        private final GSecTotpKey key;
+        private final long created;
+
+        CachedKey(CacheKey cacheKey, GSecTotpKey key, long created) {
+            this.cacheKey = cacheKey;
+            this.key = key;
+            this.created = created;
+        }
+
+        void retire() {
+            this.cacheKey.destroy();
+            this.key.retire();
+        }
+    }
+
+    private static final class CacheKey {
+        private final byte[] wrappedKey;
+        private final byte[] uniqueVal;
+        private final int hash;
+
+        CacheKey(byte[] wrappedKey, byte[] uniqueVal) {
+            this.wrappedKey = wrappedKey;
+            this.uniqueVal = uniqueVal;
+            this.hash = 31 * Arrays.hashCode(wrappedKey) + Arrays.hashCode(uniqueVal);
+        }
+
+        void destroy() {
+            Arrays.fill(this.wrappedKey, (byte) 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CacheKey)) return false;
+            CacheKey other = (CacheKey) o;
+            return this.hash == other.hash && Arrays.equals(this.wrappedKey, other.wrappedKey) && Arrays.equals(this.uniqueVal, other.uniqueVal);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
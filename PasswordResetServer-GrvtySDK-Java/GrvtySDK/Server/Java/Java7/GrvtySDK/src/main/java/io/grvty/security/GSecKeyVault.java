@@ -0,0 +1,272 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security;
+
+import io.grvty.security.crypto.Utilities;
+import io.grvty.security.crypto.otp.GCHmacAlgorithm;
+import io.grvty.security.crypto.otp.GCHmacKeySlots;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Unwrapped device keys held outside the Java heap. Each device occupies one
+ * slot: its precomputed HMAC key in GCHmacKeySlots, and its unique id and
+ * wrapped key in parallel direct buffers, which identify the device on lookup.
+ * The only heap state is a primitive table from a hash of the device to its
+ * slot, so millions of resident devices cost no per device heap objects.
+ *
+ * Devices handed out by get generate tokens straight from their slot without
+ * materializing a Key. The raw key is only needed to fill a slot and is not
+ * retained. Removing a device or clearing the vault zeroes its slots; a
+ * validation still using a removed device fails with an IllegalStateException.
+ * Removal listeners are told afterwards so they can drop the state they keep
+ * for removed keys.
+ */
+public class GSecKeyVault {
+    private static final int STRIPES = 64;
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final GCHmacKeySlots slots;
+    private final int capacity;
+    private final int maxUniqueLength;
+    private final int wrappedKeyLength;
+    // per slot: unique id length as a short, followed by the unique id
+    private final ByteBuffer[] uniques;
+    private final ByteBuffer[] wrappedKeys;
+    private final GSecStripedTable table;
+    private final List<RemovalListener> removalListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Told when keys leave the vault
+     */
+    public interface RemovalListener {
+        /**
+         * Keys were removed from the vault. Keys handed out before for which
+         * GCHmacKey.isRemoved returns true no longer generate tokens.
+         */
+        void keysRemoved();
+    }
+
+    /**
+     * Create an empty vault
+     * @param hmac HMAC algorithm of the device keys
+     * @param capacity maximum number of devices
+     * @param maxUniqueLength maximum length of a unique account id, devices with
+     *                        longer ids are not stored
+     */
+    public GSecKeyVault(GCHmacAlgorithm hmac, int capacity, int maxUniqueLength) {
+        if (hmac == null) {
+            throw new IllegalArgumentException("GCHmacAlgorithm hmac must not be null");
+        }
+        if (capacity < 1 || capacity > (1 << 28)) {
+            throw new IllegalArgumentException(String.format("int capacity is %s. Must be between 0 and 2^28 + 1.", capacity));
+        }
+        if (maxUniqueLength < 1 || maxUniqueLength > 1024) {
+            throw new IllegalArgumentException(String.format("int maxUniqueLength is %s. Must be between 0 and 1025.", maxUniqueLength));
+        }
+        this.slots = new GCHmacKeySlots(hmac, capacity);
+        this.capacity = capacity;
+        this.maxUniqueLength = maxUniqueLength;
+        // wrapped keys are as long as the digest, see GDataTotp.wrapKey
+        this.wrappedKeyLength = hmac.getDigestLength();
+        int pages = (capacity + PAGE_MASK) >>> PAGE_BITS;
+        this.uniques = new ByteBuffer[pages];
+        this.wrappedKeys = new ByteBuffer[pages];
+        this.table = new GSecStripedTable(STRIPES, capacity);
+    }
+
+    /**
+     * Tell a listener when keys are removed
+     * @param listener removal listener
+     */
+    public void addRemovalListener(RemovalListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("RemovalListener listener must not be null");
+        }
+        this.removalListeners.add(listener);
+    }
+
+    /**
+     * Get a device from the vault
+     * @param wrappedKey wrapped device key as stored by the host
+     * @param uniqueVal unique account id of the device
+     * @return the device or null if it is not in the vault
+     */
+    public GSecTotpKey get(byte[] wrappedKey, byte[] uniqueVal) {
+        long ref = this.table.get(key(wrappedKey, uniqueVal));
+        if (ref == GSecStripedTable.ABSENT || !holds(GCHmacKeySlots.slot(ref), wrappedKey, uniqueVal)) {
+            return null;
+        }
+        return new GSecTotpKey(null, uniqueVal, this.slots.key(ref));
+    }
+
+    /**
+     * Store a device in the vault
+     * @param wrappedKey wrapped device key as stored by the host
+     * @param uniqueVal unique account id of the device
+     * @param rawKey unwrapped device key, not retained
+     * @return the stored device, or null if it could not be stored because the
+     *         vault is full or the unique id is too long
+     */
+    public synchronized GSecTotpKey put(byte[] wrappedKey, byte[] uniqueVal, byte[] rawKey) {
+        if (wrappedKey.length != this.wrappedKeyLength || uniqueVal.length > this.maxUniqueLength) {
+            return null;
+        }
+        long key = key(wrappedKey, uniqueVal);
+        long ref = this.table.get(key);
+        if (ref != GSecStripedTable.ABSENT) {
+            // a different device with the same hash keeps the entry
+            return holds(GCHmacKeySlots.slot(ref), wrappedKey, uniqueVal) ? new GSecTotpKey(null, uniqueVal, this.slots.key(ref)) : null;
+        }
+        ref = this.slots.put(rawKey);
+        if (ref == GCHmacKeySlots.NONE) {
+            return null;
+        }
+        int slot = GCHmacKeySlots.slot(ref);
+        allocatePage(slot >>> PAGE_BITS);
+        ByteBuffer uniques = this.uniques[slot >>> PAGE_BITS];
+        int offset = (slot & PAGE_MASK) * (2 + this.maxUniqueLength);
+        uniques.putShort(offset, (short) uniqueVal.length);
+        for (int i = 0; i < uniqueVal.length; i++) {
+            uniques.put(offset + 2 + i, uniqueVal[i]);
+        }
+        ByteBuffer wrappedKeys = this.wrappedKeys[slot >>> PAGE_BITS];
+        offset = (slot & PAGE_MASK) * this.wrappedKeyLength;
+        for (int i = 0; i < wrappedKey.length; i++) {
+            wrappedKeys.put(offset + i, wrappedKey[i]);
+        }
+        if (ref == GSecStripedTable.ABSENT || !this.table.put(key, ref)) {
+            zero(slot);
+            this.slots.remove(ref);
+            return null;
+        }
+        return new GSecTotpKey(null, uniqueVal, this.slots.key(ref));
+    }
+
+    /**
+     * Remove a device from the vault and zero its slot
+     * @param wrappedKey wrapped device key as stored by the host
+     * @param uniqueVal unique account id of the device
+     * @return true if the device was in the vault
+     */
+    public boolean remove(byte[] wrappedKey, byte[] uniqueVal) {
+        synchronized (this) {
+            long key = key(wrappedKey, uniqueVal);
+            long ref = this.table.get(key);
+            if (ref == GSecStripedTable.ABSENT || !holds(GCHmacKeySlots.slot(ref), wrappedKey, uniqueVal)) {
+                return false;
+            }
+            this.table.remove(key);
+            this.slots.remove(ref);
+            zero(GCHmacKeySlots.slot(ref));
+        }
+        keysRemoved();
+        return true;
+    }
+
+    /**
+     * Remove all devices and zero every slot
+     */
+    public void clear() {
+        synchronized (this) {
+            this.table.clear();
+            this.slots.clear();
+            for (ByteBuffer page : this.uniques) {
+                zero(page);
+            }
+            for (ByteBuffer page : this.wrappedKeys) {
+                zero(page);
+            }
+        }
+        keysRemoved();
+    }
+
+    /*
+     * Listeners are told outside the vault's lock, they may call back into the vault
+     */
+    private void keysRemoved() {
+        for (RemovalListener listener : this.removalListeners) {
+            listener.keysRemoved();
+        }
+    }
+
+    /**
+     * Get the number of devices in the vault
+     * @return number of devices
+     */
+    public int size() {
+        return this.slots.size();
+    }
+
+    /**
+     * Get the maximum number of devices
+     * @return capacity
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /*
+     * Check that a slot holds a device. A slot that is reused concurrently may
+     * be misread, the device handed out then fails on use since its slot version changed.
+     */
+    private boolean holds(int slot, byte[] wrappedKey, byte[] uniqueVal) {
+        ByteBuffer uniques = this.uniques[slot >>> PAGE_BITS];
+        ByteBuffer wrappedKeys = this.wrappedKeys[slot >>> PAGE_BITS];
+        if (uniques == null || wrappedKeys == null || wrappedKey.length != this.wrappedKeyLength) {
+            return false;
+        }
+        int offset = (slot & PAGE_MASK) * (2 + this.maxUniqueLength);
+        if (uniques.getShort(offset) != uniqueVal.length) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0; i < uniqueVal.length; i++) {
+            diff |= uniques.get(offset + 2 + i) ^ uniqueVal[i];
+        }
+        offset = (slot & PAGE_MASK) * this.wrappedKeyLength;
+        for (int i = 0; i < wrappedKey.length; i++) {
+            diff |= wrappedKeys.get(offset + i) ^ wrappedKey[i];
+        }
+        return diff == 0;
+    }
+
+    private void allocatePage(int page) {
+        if (this.uniques[page] == null) {
+            // the last page only holds the remaining slots
+            int slots = Math.min(PAGE_SIZE, this.capacity - (page << PAGE_BITS));
+            this.uniques[page] = ByteBuffer.allocateDirect(slots * (2 + this.maxUniqueLength));
+            this.wrappedKeys[page] = ByteBuffer.allocateDirect(slots * this.wrappedKeyLength);
+        }
+    }
+
+    private void zero(int slot) {
+        ByteBuffer uniques = this.uniques[slot >>> PAGE_BITS];
+        int offset = (slot & PAGE_MASK) * (2 + this.maxUniqueLength);
+        for (int i = 0; i < 2 + this.maxUniqueLength; i++) {
+            uniques.put(offset + i, (byte) 0);
+        }
+        ByteBuffer wrappedKeys = this.wrappedKeys[slot >>> PAGE_BITS];
+        offset = (slot & PAGE_MASK) * this.wrappedKeyLength;
+        for (int i = 0; i < this.wrappedKeyLength; i++) {
+            wrappedKeys.put(offset + i, (byte) 0);
+        }
+    }
+
+    private static void zero(ByteBuffer page) {
+        if (page != null) {
+            for (int i = 0; i < page.capacity(); i++) {
+                page.put(i, (byte) 0);
+            }
+        }
+    }
+
+    private static long key(byte[] wrappedKey, byte[] uniqueVal) {
+        return Utilities.mix64(Utilities.hash64(wrappedKey) + Utilities.mix64(Utilities.hash64(uniqueVal)));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security;
+
+import io.grvty.security.crypto.Utilities;
+import io.grvty.security.crypto.otp.GCTotpPeriodListener;
+
+/**
+ * Remembers tokens that matched no device of an account in the current time
+ * period, so that resending the same wrong token does not repeat the HMAC
+ * sweep over every device and the whole window. Which tokens match an account
+ * only changes with the time period, so entries of older periods never
+ * match. They are removed from a stripe of the table by the first request
+ * that touches it in a new period, and from every stripe when the period
+ * changes if the cache is a period listener of a GCTotpTicker.
+ *
+ * A hit only tells the caller what it was already told when the token was
+ * first rejected, so answering early does not reveal anything about the keys.
+ */
+public class GSecNegativeCache implements GCTotpPeriodListener {
+    private static final int STRIPES = 64;
+    private static final GSecStripedTable.Expiry EXPIRY = new GSecStripedTable.Expiry() {
+        @Override
+        public boolean isExpired(long key, long value, long time) {
+            return value < time;
+        }
+    };
+
+    private final GSecStripedTable table;
+
+    /**
+     * Create a negative cache
+     * @param maxEntries maximum number of remembered tokens. When full, new
+     *                   tokens are not remembered until the period changes
+     */
+    public GSecNegativeCache(int maxEntries) {
+        this.table = new GSecStripedTable(STRIPES, maxEntries);
+    }
+
+    /**
+     * Check if a token is known to match no device of an account
+     * @param account hash of the unique account id and its devices
+     * @param token numeric token value
+     * @param time current time period
+     * @return true if the token was rejected before in this time period
+     */
+    public boolean isKnownInvalid(long account, int token, long time) {
+        long key = key(account, token);
+        this.table.sweepStripe(key, time, EXPIRY);
+        return this.table.get(key) == time;
+    }
+
+    /**
+     * Remember that a token matched no device of an account
+     * @param account hash of the unique account id and its devices
+     * @param token numeric token value
+     * @param time current time period
+     */
+    public void markInvalid(long account, int token, long time) {
+        long key = key(account, token);
+        this.table.sweepStripe(key, time, EXPIRY);
+        this.table.put(key, time);
+    }
+
+    /**
+     * Drop the tokens of the previous periods
+     * @param period the new current time period
+     */
+    @Override
+    public void periodChanged(long period) {
+        this.table.sweep(period, EXPIRY);
+    }
+
+    /**
+     * Forget all tokens
+     */
+    public void clear() {
+        this.table.clear();
+    }
+
+    /**
+     * Get the number of remembered tokens
+     * @return number of tokens
+     */
+    public int size() {
+        return this.table.size();
+    }
+
+    private static long key(long account, int token) {
+        return Utilities.mix64(account + Utilities.mix64(token & 0xffffffffL));
+    }
+}
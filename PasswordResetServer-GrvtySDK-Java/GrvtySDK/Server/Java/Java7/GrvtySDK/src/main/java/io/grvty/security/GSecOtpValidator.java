@@ -5,29 +5,57 @@ package io.grvty.security;
 
 import io.grvty.security.crypto.GSecTotpCounter;
 import io.grvty.security.crypto.Utilities;
+import io.grvty.security.crypto.otp.GCHmacKey;
+import io.grvty.security.crypto.otp.GCOtpTokenParser;
 import io.grvty.security.crypto.otp.GCTotpGenerator;
+import io.grvty.security.crypto.otp.GCTotpPeriodListener;
+import io.grvty.security.diagnostics.GSecDiagnosticEvent;
+import io.grvty.security.diagnostics.GSecDiagnosticService;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
-import java.security.Key;
-import java.util.regex.Pattern;
 
 /**
  * The main class that will validate Tokens. This class will validate
  * tokens based on the given configuration.
  */
-public class GSecOtpValidator {
+public class GSecOtpValidator implements GCTotpPeriodListener {
     private static Log log = LogFactory.getLog(GSecOtpValidator.class);
-    private final static Pattern patternToken = Pattern.compile("[0-9]+");
+    /** returned by matchOtpToken when the token did not match any period of the window */
+    public static final long NO_MATCH = -1;
 
     private final GCTotpGenerator generator;
     private final GSecTotpCounter totpCounter;
+    private final GSecTokenCache tokenCache;
+    private final GSecDriftStore driftStore;
 
     public GSecOtpValidator(GCTotpGenerator generator, GSecTotpCounter totpCounter) {
+        this(generator, totpCounter, null);
+    }
+
+    /**
+     * Initializer with an optional cache of generated tokens
+     * @param generator the configured GCTotpGenerator to use to generate tokens
+     * @param totpCounter the valid time window
+     * @param tokenCache cache of tokens per device and period, null to always compute the tokens
+     */
+    public GSecOtpValidator(GCTotpGenerator generator, GSecTotpCounter totpCounter, GSecTokenCache tokenCache) {
+        this(generator, totpCounter, tokenCache, null);
+    }
+
+    /**
+     * Initializer with an optional token cache and drift store
+     * @param generator the configured GCTotpGenerator to use to generate tokens
+     * @param totpCounter the valid time window
+     * @param tokenCache cache of tokens per device and period, null to always compute the tokens
+     * @param driftStore learned period offset per device, null to always check the window in the default order
+     */
+    public GSecOtpValidator(GCTotpGenerator generator, GSecTotpCounter totpCounter, GSecTokenCache tokenCache, GSecDriftStore driftStore) {
         this.generator = generator;
         this.totpCounter = totpCounter;
+        this.tokenCache = tokenCache;
+        this.driftStore = driftStore;
     }
 
     /**
@@ -49,28 +77,124 @@ public class GSecOtpValidator {
      * @return true/false if token is valid
      */
     public boolean validateOtpToken(GSecTotpKey gSecTotpKey, String token, long time) throws GeneralSecurityException {
-        if (token.length() != this.generator.getDigits()) {
-            log.trace(String.format("Token length is %s. Must be %s", token.length(), this.generator.getDigits()));
+        int value = GCOtpTokenParser.parse(token, this.generator.getDigits());
+        if (value == GCOtpTokenParser.INVALID) {
+            if (log.isTraceEnabled()) {
+                log.trace(String.format("Token must be %s digits without any spaces", this.generator.getDigits()));
+            }
+            GSecDiagnosticService.event(GSecDiagnosticEvent.TOKEN_MALFORMED, this.generator.getDigits(), 0);
             return false;
         }
-        if (!patternToken.matcher(token).matches()) {
-            log.info(String.format("Token:\"%s\" must be all digits without any spaces", token));
+        if (value == GCOtpTokenParser.UNMATCHABLE) {
+            if (log.isTraceEnabled()) {
+                log.trace(String.format("validation failed for period:%s, token out of range", time));
+            }
+            GSecDiagnosticService.event(GSecDiagnosticEvent.DEVICE_CHECKED, time, 0);
             return false;
         }
-        // validate user otp token
-        for (long count : this.totpCounter.validTotpCounts(time)) {
-            Key key = gSecTotpKey.getKey();
-            byte[] user = gSecTotpKey.getUnique();
-            byte[] period = Utilities.join(user, periodToBytes(count));
-            String tokenGenerated = generator.generateOtpToken(key, period);
+        return validateOtpToken(gSecTotpKey, value, time);
+    }
+
+    /**
+     * validate a user provided OTP token given as its numeric value.
+     * @param gSecTotpKey OTP key
+     * @param token numeric value of the OTP token to validate
+     * @param time time
+     * @return true/false if token is valid
+     */
+    public boolean validateOtpToken(GSecTotpKey gSecTotpKey, int token, long time) {
+        return matchOtpToken(gSecTotpKey, token, time) != NO_MATCH;
+    }
+
+    /**
+     * Find the time period a user provided OTP token belongs to. The window is
+     * walked without allocating: tokens are generated as ints and compared in
+     * constant time. If a drift store is configured the offset at which the
+     * device matched last time is checked first.
+     * @param gSecTotpKey OTP key
+     * @param token numeric value of the OTP token to validate
+     * @param time time
+     * @return the matching time period or NO_MATCH
+     */
+    public long matchOtpToken(GSecTotpKey gSecTotpKey, int token, long time) {
+        GCHmacKey key = gSecTotpKey.getHmacKey(this.generator.getHmacAlgorithm());
+        byte[] user = gSecTotpKey.getUnique();
+        GSecTokenCache.Device cached = null;
+        if (this.tokenCache != null) {
+            this.tokenCache.expire(this.totpCounter.oldestTotpCount(time));
+            cached = this.tokenCache.device(key, user);
+        }
+        int drift = 0;
+        if (this.driftStore != null) {
+            drift = this.driftStore.get(gSecTotpKey.getFingerprint(this.generator.getHmacAlgorithm()));
+            if (!this.totpCounter.isOffsetInWindow(drift)) {
+                drift = 0;
+            }
+        }
+        int windowSize = this.totpCounter.getWindowSize();
+        for (int i = 0; i < windowSize; i++) {
+            // the learned offset swaps places with offset 0, the rest keeps the default order
+            int offset = this.totpCounter.offsetAt(i);
+            if (i == 0) {
+                offset = drift;
+            } else if (offset == drift) {
+                offset = 0;
+            }
+            long count = Math.max(0, time + offset);
+            int tokenGenerated = cached == null ? GSecTokenCache.MISS : cached.get(count);
+            if (tokenGenerated == GSecTokenCache.MISS) {
+                tokenGenerated = this.generator.generateOtpValue(key, count, user);
+                if (cached != null) {
+                    cached.put(count, tokenGenerated);
+                }
+            }
             boolean equalConstantTime = Utilities.isEqualConstantTime(tokenGenerated, token);
-            log.trace(String.format("OTPTokenValidation(key=%s, token=%s, period=%s)=%s", gSecTotpKey, token, count, equalConstantTime ? "SUCCEEDED" : "FAILED"));
+            if (log.isTraceEnabled()) {
+                log.trace(String.format("OTPTokenValidation(period=%s)=%s", count, equalConstantTime ? "SUCCEEDED" : "FAILED"));
+            }
             if (equalConstantTime) {
-                return true;
+                GSecDiagnosticService.event(GSecDiagnosticEvent.DEVICE_CHECKED, time, 1);
+                if (this.driftStore != null && offset != drift) {
+                    this.driftStore.put(gSecTotpKey.getFingerprint(this.generator.getHmacAlgorithm()), offset);
+                }
+                return count;
             }
         }
-        log.trace(String.format("validation failed for key:%s", gSecTotpKey));
-        return false;
+        if (log.isTraceEnabled()) {
+            log.trace(String.format("validation failed for period:%s", time));
+        }
+        GSecDiagnosticService.event(GSecDiagnosticEvent.DEVICE_CHECKED, time, 0);
+        return NO_MATCH;
+    }
+
+    /**
+     * Evict the token cache and compute the tokens of the period that entered
+     * the window for the cached devices. Register the validator with a
+     * GCTotpTicker to move this work off the validation path.
+     * @param period the new current time period
+     */
+    @Override
+    public void periodChanged(long period) {
+        if (this.tokenCache != null) {
+            this.tokenCache.expire(this.totpCounter.oldestTotpCount(period));
+            this.tokenCache.prewarm(this.totpCounter.newestTotpCount(period), this.generator);
+        }
+    }
+
+    /**
+     * Get the cache of generated tokens
+     * @return token cache or null if tokens are not cached
+     */
+    public GSecTokenCache getTokenCache() {
+        return this.tokenCache;
+    }
+
+    /**
+     * Get the store of learned period offsets
+     * @return drift store or null if offsets are not learned
+     */
+    public GSecDriftStore getDriftStore() {
+        return this.driftStore;
     }
 
     /**
@@ -82,11 +206,11 @@ public class GSecOtpValidator {
     }
 
     /**
-     * Convert a time period into bytes
-     * @param period otp time period
-     * @return period in bytes
+     * Convert a numeric OTP token value into its text form
+     * @param token numeric OTP token value
+     * @return OTP token
      */
-    private byte[] periodToBytes(long period) {
-        return ByteBuffer.allocate(8).putLong(period).array();
+    public String formatOtp(int token) {
+        return this.generator.formatOtp(token);
     }
 }
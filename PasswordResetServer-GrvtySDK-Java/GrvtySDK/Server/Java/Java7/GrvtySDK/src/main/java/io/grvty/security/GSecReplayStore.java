@@ -0,0 +1,127 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security;
+
+import io.grvty.security.crypto.GSecTotpCounter;
+import io.grvty.security.crypto.Utilities;
+import io.grvty.security.crypto.otp.GCTotpPeriodListener;
+
+/**
+ * An in-process record of the tokens that were accepted, so a token can be
+ * rejected as replayed before any HMAC is computed. Entries map a hash of the
+ * account and the token to the period the token matched and are dropped once
+ * that period leaves the TOTP window, so at most one entry per accepted token
+ * and window period is kept for each active account.
+ *
+ * A token is treated as used for as long as the period it matched is inside
+ * the window. A different period producing the same token within that time is
+ * rejected as well, which happens with negligible probability.
+ *
+ * Accounts are identified by Utilities.hash64 of their id, which is not
+ * collision resistant. Accounts whose ids collide share their entries, so a
+ * token accepted for one of them is rejected as replayed for the other. A
+ * collision can only cause a false rejection, never an acceptance.
+ *
+ * Tokens whose period left the window are removed from a stripe of the table
+ * by the first request that touches it in a new period. As a period listener
+ * of a GCTotpTicker the store expires every stripe when the period changes,
+ * ahead of the requests.
+ */
+public class GSecReplayStore implements GCTotpPeriodListener {
+    private static final int STRIPES = 64;
+    private static final GSecStripedTable.Expiry EXPIRY = new GSecStripedTable.Expiry() {
+        @Override
+        public boolean isExpired(long key, long value, long oldest) {
+            return value < oldest;
+        }
+    };
+
+    private final GSecTotpCounter window;
+    private final GSecStripedTable table;
+
+    /**
+     * Create a replay store
+     * @param window the TOTP window tokens are valid in
+     * @param maxEntries maximum number of remembered tokens. When full, new
+     *                   tokens cannot be remembered and are rejected
+     */
+    public GSecReplayStore(GSecTotpCounter window, int maxEntries) {
+        if (window == null) {
+            throw new IllegalArgumentException("GSecTotpCounter window must not be null");
+        }
+        this.window = window;
+        this.table = new GSecStripedTable(STRIPES, maxEntries);
+    }
+
+    /**
+     * Check if a token was already accepted for an account
+     * @param account hash of the unique account id, see Utilities.hash64
+     * @param token numeric token value
+     * @param time current time period
+     * @return true if the token was accepted before and its period is still in the window
+     */
+    public boolean isUsed(long account, int token, long time) {
+        long oldest = this.window.oldestTotpCount(time);
+        long key = key(account, token);
+        this.table.sweepStripe(key, oldest, EXPIRY);
+        long period = this.table.get(key);
+        return period != GSecStripedTable.ABSENT && period >= oldest;
+    }
+
+    /**
+     * Atomically remember an accepted token. Of several concurrent attempts
+     * with the same token only one succeeds.
+     * @param account hash of the unique account id, see Utilities.hash64
+     * @param token numeric token value
+     * @param period the period the token matched
+     * @param time current time period
+     * @return false if the token was already used or cannot be remembered
+     */
+    public boolean markUsed(long account, int token, final long period, long time) {
+        final long oldest = this.window.oldestTotpCount(time);
+        long key = key(account, token);
+        this.table.sweepStripe(key, oldest, EXPIRY);
+        final boolean[] used = new boolean[1];
+        long stored = this.table.update(key, new GSecStripedTable.Updater() {
+            @Override
+            public long update(long key, long current) {
+                if (current != GSecStripedTable.ABSENT && current >= oldest) {
+                    used[0] = true;
+                    return current;
+                }
+                return period;
+            }
+        });
+        // a token that is not remembered could be replayed, so it is refused
+        return !used[0] && stored != GSecStripedTable.ABSENT;
+    }
+
+    /**
+     * Drop the tokens of periods that left the window
+     * @param period the new current time period
+     */
+    @Override
+    public void periodChanged(long period) {
+        this.table.sweep(this.window.oldestTotpCount(period), EXPIRY);
+    }
+
+    /**
+     * Forget all tokens
+     */
+    public void clear() {
+        this.table.clear();
+    }
+
+    /**
+     * Get the number of remembered tokens
+     * @return number of tokens
+     */
+    public int size() {
+        return this.table.size();
+    }
+
+    private static long key(long account, int token) {
+        return Utilities.mix64(account + Utilities.mix64(token & 0xffffffffL));
+    }
+}
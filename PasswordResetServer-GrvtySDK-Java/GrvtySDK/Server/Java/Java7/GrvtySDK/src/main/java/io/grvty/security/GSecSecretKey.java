@@ -0,0 +1,78 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security;
+
+import javax.crypto.SecretKey;
+import java.util.Arrays;
+
+/**
+ * A secret key whose key material can be zeroed. Unlike SecretKeySpec the
+ * key bytes are owned by this object, destroy() overwrites them.
+ */
+public final class GSecSecretKey implements SecretKey {
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] key;
+    private final String algorithm;
+    private volatile boolean destroyed;
+
+    /**
+     * Create a key that takes ownership of the given bytes. The caller must not
+     * keep or modify the array after this call.
+     * @param key raw key bytes
+     * @param algorithm JCA algorithm name
+     */
+    public GSecSecretKey(byte[] key, String algorithm) {
+        if (key == null || key.length == 0) {
+            throw new IllegalArgumentException("byte[] key must not be null or empty.");
+        }
+        if (algorithm == null) {
+            throw new IllegalArgumentException("String algorithm must not be null.");
+        }
+        this.key = key;
+        this.algorithm = algorithm;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return this.algorithm;
+    }
+
+    @Override
+    public String getFormat() {
+        return "RAW";
+    }
+
+    @Override
+    public byte[] getEncoded() {
+        if (this.destroyed) {
+            throw new IllegalStateException("Key has been destroyed.");
+        }
+        return this.key.clone();
+    }
+
+    /**
+     * Zero the key material
+     */
+    public void destroy() {
+        this.destroyed = true;
+        Arrays.fill(this.key, (byte) 0);
+    }
+
+    /**
+     * Check if the key material has been zeroed
+     * @return true if destroy() was called
+     */
+    public boolean isDestroyed() {
+        return this.destroyed;
+    }
+
+    @Override
+    public String toString() {
+        return "GSecSecretKey{" +
+                "algorithm='" + algorithm + '\'' +
+                ", destroyed=" + destroyed +
+                '}';
+    }
+}
@@ -0,0 +1,439 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security;
+
+import io.grvty.security.crypto.Utilities;
+
+import java.util.Arrays;
+
+/**
+ * A bounded hash table from long keys to long values without boxing. The
+ * table is split into lock stripes, each an open addressing table with linear
+ * probing that grows up to its share of the maximum number of entries. Threads
+ * working on different stripes never contend.
+ *
+ * Entries that age out can be expired lazily: each stripe remembers the
+ * newest generation (e.g. time period) it was swept for, so expiring the
+ * stripe of every key that is touched, plus an optional sweep of all stripes
+ * from a background thread, keeps the table clean without any request
+ * sweeping the whole table.
+ *
+ * A new key whose stripe is full can take the place of an existing entry: a
+ * few entries next to the key's home slot are ranked and the lowest one is
+ * evicted if it does not rank above the new entry.
+ *
+ * Long.MIN_VALUE (ABSENT) cannot be stored as a value.
+ */
+public class GSecStripedTable {
+    /** value of keys that are not in the table */
+    public static final long ABSENT = Long.MIN_VALUE;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int EVICTION_SAMPLES = 8;
+
+    /**
+     * Computes the new value of a key under the stripe lock
+     */
+    public interface Updater {
+        /**
+         * Compute the new value of a key
+         * @param key the key
+         * @param value the current value or ABSENT
+         * @return the new value, ABSENT to remove the key
+         */
+        long update(long key, long value);
+    }
+
+    /**
+     * Decides which entries survive a sweep
+     */
+    public interface Retainer {
+        /**
+         * Check an entry
+         * @param key the key
+         * @param value the value
+         * @return true to keep the entry, false to remove it
+         */
+        boolean retain(long key, long value);
+    }
+
+    /**
+     * Decides which entries expired in a generation
+     */
+    public interface Expiry {
+        /**
+         * Check an entry
+         * @param key the key
+         * @param value the value
+         * @param generation the generation the table is swept for
+         * @return true to remove the entry
+         */
+        boolean isExpired(long key, long value, long generation);
+    }
+
+    /**
+     * Ranks entries when a full stripe needs room
+     */
+    public interface Ranker {
+        /**
+         * Rank an entry
+         * @param key the key
+         * @param value the value
+         * @return rank, lower ranked entries are evicted first
+         */
+        long rank(long key, long value);
+    }
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    /**
+     * Create a table
+     * @param stripes number of lock stripes, rounded up to a power of two
+     * @param maxEntries maximum number of entries, spread evenly over the stripes (rounded up per stripe)
+     */
+    public GSecStripedTable(int stripes, int maxEntries) {
+        if (stripes < 1 || stripes > (1 << 16)) {
+            throw new IllegalArgumentException(String.format("int stripes is %s. Must be between 0 and 2^16 + 1.", stripes));
+        }
+        if (maxEntries < 1 || maxEntries > (1 << 28)) {
+            throw new IllegalArgumentException(String.format("int maxEntries is %s. Must be between 0 and 2^28 + 1.", maxEntries));
+        }
+        int count = 1;
+        while (count < stripes) {
+            count <<= 1;
+        }
+        int perStripe = Math.max(1, (maxEntries + count - 1) / count);
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new Stripe(perStripe);
+        }
+        this.stripeMask = count - 1;
+    }
+
+    /**
+     * Get the value of a key
+     * @param key the key
+     * @return the value or ABSENT
+     */
+    public long get(long key) {
+        long hash = Utilities.mix64(key);
+        Stripe stripe = stripe(hash);
+        synchronized (stripe) {
+            int slot = stripe.find(key, hash);
+            return slot < 0 ? ABSENT : stripe.values[slot];
+        }
+    }
+
+    /**
+     * Set the value of a key
+     * @param key the key
+     * @param value the value, must not be ABSENT
+     * @return false if the key is new and its stripe is full
+     */
+    public boolean put(long key, final long value) {
+        if (value == ABSENT) {
+            throw new IllegalArgumentException("long value must not be ABSENT");
+        }
+        return update(key, new Updater() {
+            @Override
+            public long update(long key, long current) {
+                return value;
+            }
+        }) == value;
+    }
+
+    /**
+     * Remove a key
+     * @param key the key
+     * @return the removed value or ABSENT
+     */
+    public long remove(long key) {
+        long hash = Utilities.mix64(key);
+        Stripe stripe = stripe(hash);
+        synchronized (stripe) {
+            int slot = stripe.find(key, hash);
+            if (slot < 0) {
+                return ABSENT;
+            }
+            long value = stripe.values[slot];
+            stripe.delete(slot);
+            return value;
+        }
+    }
+
+    /**
+     * Atomically replace the value of a key with the result of the updater.
+     * The updater runs under the stripe lock and must be short.
+     * @param key the key
+     * @param updater computes the new value from the current one
+     * @return the value stored after the update, ABSENT if the key was removed,
+     *         not present, or new and its stripe is full
+     */
+    public long update(long key, Updater updater) {
+        return update(key, updater, null);
+    }
+
+    /**
+     * Atomically replace the value of a key with the result of the updater.
+     * If the key is new and its stripe is full, the lowest ranked of a few
+     * sampled entries is evicted to make room, unless it ranks above the new
+     * entry. The updater and the ranker run under the stripe lock and must be short.
+     * @param key the key
+     * @param updater computes the new value from the current one
+     * @param ranker ranks the entries that may be evicted, null to never evict
+     * @return the value stored after the update, ABSENT if the key was removed,
+     *         not present, or new and no entry could be evicted
+     */
+    public long update(long key, Updater updater, Ranker ranker) {
+        long hash = Utilities.mix64(key);
+        Stripe stripe = stripe(hash);
+        synchronized (stripe) {
+            int slot = stripe.find(key, hash);
+            long current = slot < 0 ? ABSENT : stripe.values[slot];
+            long value = updater.update(key, current);
+            if (value == ABSENT) {
+                if (slot >= 0) {
+                    stripe.delete(slot);
+                }
+                return ABSENT;
+            }
+            if (slot >= 0) {
+                stripe.values[slot] = value;
+                return value;
+            }
+            if (stripe.insert(key, hash, value)) {
+                return value;
+            }
+            if (ranker == null || !stripe.evict(hash, ranker.rank(key, value), ranker)) {
+                return ABSENT;
+            }
+            return stripe.insert(key, hash, value) ? value : ABSENT;
+        }
+    }
+
+    /**
+     * Remove every entry the retainer rejects. Stripes are swept one at a time.
+     * @param retainer decides which entries are kept
+     * @return number of removed entries
+     */
+    public int sweep(Retainer retainer) {
+        int removed = 0;
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                removed += stripe.sweep(retainer);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Remove the expired entries from the stripe of a key, unless the stripe
+     * was already swept for this or a newer generation
+     * @param key a key of the stripe
+     * @param generation the current generation, must not decrease
+     * @param expiry decides which entries expired
+     * @return number of removed entries
+     */
+    public int sweepStripe(long key, long generation, Expiry expiry) {
+        return sweep(stripe(Utilities.mix64(key)), generation, expiry);
+    }
+
+    /**
+     * Remove the expired entries from every stripe that was not yet swept for
+     * this or a newer generation. Stripes are swept one at a time.
+     * @param generation the current generation, must not decrease
+     * @param expiry decides which entries expired
+     * @return number of removed entries
+     */
+    public int sweep(long generation, Expiry expiry) {
+        int removed = 0;
+        for (Stripe stripe : this.stripes) {
+            removed += sweep(stripe, generation, expiry);
+        }
+        return removed;
+    }
+
+    /**
+     * Remove all entries
+     */
+    public void clear() {
+        sweep(new Retainer() {
+            @Override
+            public boolean retain(long key, long value) {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Get the number of entries
+     * @return number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    private Stripe stripe(long hash) {
+        return this.stripes[(int) (hash >>> 40) & this.stripeMask];
+    }
+
+    private static int sweep(Stripe stripe, final long generation, final Expiry expiry) {
+        synchronized (stripe) {
+            if (generation <= stripe.generation) {
+                return 0;
+            }
+            stripe.generation = generation;
+            if (stripe.size == 0) {
+                return 0;
+            }
+            return stripe.sweep(new Retainer() {
+                @Override
+                public boolean retain(long key, long value) {
+                    return !expiry.isExpired(key, value, generation);
+                }
+            });
+        }
+    }
+
+    /*
+     * Open addressing table with linear probing. A slot is empty if its value is ABSENT.
+     */
+    private static final class Stripe {
+        private final int maxEntries;
+        private long[] keys;
+        private long[] values;
+        private int size;
+        // newest generation the stripe was swept for
+        private long generation = Long.MIN_VALUE;
+
+        Stripe(int maxEntries) {
+            this.maxEntries = maxEntries;
+            allocate(Math.min(INITIAL_CAPACITY, capacityFor(maxEntries)));
+        }
+
+        int find(long key, long hash) {
+            int mask = this.keys.length - 1;
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                if (this.values[i] == ABSENT) {
+                    return -1;
+                }
+                if (this.keys[i] == key) {
+                    return i;
+                }
+            }
+        }
+
+        boolean insert(long key, long hash, long value) {
+            if (this.size >= this.maxEntries) {
+                return false;
+            }
+            if ((this.size + 1) * 2 > this.keys.length) {
+                resize(this.keys.length * 2);
+            }
+            int mask = this.keys.length - 1;
+            int i = (int) hash & mask;
+            while (this.values[i] != ABSENT) {
+                i = (i + 1) & mask;
+            }
+            this.keys[i] = key;
+            this.values[i] = value;
+            this.size++;
+            return true;
+        }
+
+        /*
+         * Backward shift deletion keeps every probe sequence intact without tombstones
+         */
+        void delete(int slot) {
+            int mask = this.keys.length - 1;
+            int hole = slot;
+            for (int i = (hole + 1) & mask; this.values[i] != ABSENT; i = (i + 1) & mask) {
+                int home = (int) Utilities.mix64(this.keys[i]) & mask;
+                // move the entry into the hole unless its home lies cyclically in (hole, i]
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    this.keys[hole] = this.keys[i];
+                    this.values[hole] = this.values[i];
+                    hole = i;
+                }
+            }
+            this.values[hole] = ABSENT;
+            this.size--;
+        }
+
+        /*
+         * Remove the lowest ranked of the entries that follow the home slot of
+         * a hash, unless it ranks above the given rank
+         */
+        boolean evict(long hash, long rank, Ranker ranker) {
+            int mask = this.keys.length - 1;
+            int victim = -1;
+            long lowest = rank;
+            int sampled = 0;
+            for (int n = 0, i = (int) hash & mask; n < this.keys.length && sampled < EVICTION_SAMPLES; n++, i = (i + 1) & mask) {
+                if (this.values[i] == ABSENT) {
+                    continue;
+                }
+                sampled++;
+                long entryRank = ranker.rank(this.keys[i], this.values[i]);
+                if (entryRank <= lowest) {
+                    lowest = entryRank;
+                    victim = i;
+                }
+            }
+            if (victim < 0) {
+                return false;
+            }
+            delete(victim);
+            return true;
+        }
+
+        /*
+         * Rebuilds the stripe from the retained entries, which also shrinks it
+         */
+        int sweep(Retainer retainer) {
+            long[] oldKeys = this.keys;
+            long[] oldValues = this.values;
+            int oldSize = this.size;
+            allocate(Math.max(Math.min(INITIAL_CAPACITY, capacityFor(this.maxEntries)), capacityFor(oldSize)));
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != ABSENT && retainer.retain(oldKeys[i], oldValues[i])) {
+                    insert(oldKeys[i], Utilities.mix64(oldKeys[i]), oldValues[i]);
+                }
+            }
+            return oldSize - this.size;
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = this.keys;
+            long[] oldValues = this.values;
+            allocate(capacity);
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != ABSENT) {
+                    insert(oldKeys[i], Utilities.mix64(oldKeys[i]), oldValues[i]);
+                }
+            }
+        }
+
+        private void allocate(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new long[capacity];
+            Arrays.fill(this.values, ABSENT);
+            this.size = 0;
+        }
+
+        /*
+         * Smallest power of two that keeps the load factor at or below 1/2
+         */
+        private static int capacityFor(int entries) {
+            return Integer.highestOneBit(Math.max(1, entries) * 2 - 1) << 1;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security;
+
+import io.grvty.security.crypto.otp.GCHmacKey;
+import io.grvty.security.crypto.otp.GCHmacKeySlots;
+import io.grvty.security.crypto.otp.GCTotpGenerator;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A cache of generated tokens per device and time period. A device's token
+ * only depends on its key, its unique id and the period, so repeated attempts
+ * within a period reuse the tokens instead of computing the HMACs again.
+ *
+ * Each device has a ring with one slot per period of the TOTP window. A slot
+ * packs the period and the token into a single long, so a reader either sees
+ * the token of the period it asks for or a miss. Devices are dropped strictly by
+ * period once none of their tokens are inside the window anymore.
+ *
+ * The cache keeps copies of the precomputed device keys. They are zeroed when
+ * a device is dropped, under the device's lock so prewarm never computes a
+ * token with a key that is being zeroed. Keys held in GCHmacKeySlots, e.g. by
+ * a GSecKeyVault, are not copied: such a device is identified by the key's
+ * slot and version and dropped once the key is removed from its slot.
+ */
+public class GSecTokenCache implements GSecKeyVault.RemovalListener {
+    /** returned by Device.get(long) when the token of a period is not cached */
+    public static final int MISS = -1;
+
+    private static final long EMPTY = -1L;
+
+    private final int windowSize;
+    private final int maxDevices;
+    private final ConcurrentHashMap<DeviceKey, Device> devices = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong oldestPeriod = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Create a token cache
+     * @param windowSize number of periods in the TOTP window
+     * @param maxDevices maximum number of devices to cache tokens for
+     */
+    public GSecTokenCache(int windowSize, int maxDevices) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException(String.format("int windowSize is %s. Must be a positive integer.", windowSize));
+        }
+        if (maxDevices < 1) {
+            throw new IllegalArgumentException(String.format("int maxDevices is %s. Must be a positive integer.", maxDevices));
+        }
+        this.windowSize = windowSize;
+        this.maxDevices = maxDevices;
+    }
+
+    /**
+     * Get the cached tokens of a device, creating an empty entry if the device
+     * is not cached yet.
+     * @param key precomputed device key
+     * @param unique unique account id of the device
+     * @return the device's cached tokens, null if the cache is full or the key
+     *         was removed from its slot
+     */
+    public Device device(GCHmacKey key, byte[] unique) {
+        DeviceKey lookup = new DeviceKey(key, unique);
+        Device device = this.devices.get(lookup);
+        if (device != null) {
+            return device;
+        }
+        if (this.size.incrementAndGet() > this.maxDevices) {
+            this.size.decrementAndGet();
+            return null;
+        }
+        if (key.isRemoved()) {
+            this.size.decrementAndGet();
+            return null;
+        }
+        // a slot key stays off the heap, it is only referenced
+        DeviceKey deviceKey = new DeviceKey(key.getSlots() != null ? key : key.copy(), unique.clone());
+        Device created = new Device(deviceKey, this.windowSize);
+        device = this.devices.putIfAbsent(deviceKey, created);
+        if (device != null) {
+            this.size.decrementAndGet();
+            deviceKey.destroy();
+            return device;
+        }
+        return created;
+    }
+
+    /**
+     * Drop every device that has no cached token for a period at or after the
+     * given period. Only the first call for a new oldest period sweeps the cache.
+     * @param period oldest period of the current TOTP window
+     */
+    public void expire(long period) {
+        long oldest = this.oldestPeriod.get();
+        if (period <= oldest || !this.oldestPeriod.compareAndSet(oldest, period)) {
+            return;
+        }
+        for (Device device : this.devices.values()) {
+            if (device.newestPeriod < period) {
+                drop(device);
+            }
+        }
+    }
+
+    /**
+     * Compute the token of a period for every cached device that does not have
+     * it yet, typically the period that just entered the TOTP window. Warmed
+     * tokens do not keep a device in the cache, it is still dropped once the
+     * periods it was used in leave the window.
+     * @param period time period to compute the tokens for
+     * @param generator token generator
+     */
+    public void prewarm(long period, GCTotpGenerator generator) {
+        for (Device device : this.devices.values()) {
+            synchronized (device) {
+                // a device dropped since the iteration started has a zeroed key
+                if (device.dropped || device.get(period) != MISS) {
+                    continue;
+                }
+                try {
+                    device.fill(period, generator.generateOtpValue(device.key.key, period, device.key.unique));
+                    continue;
+                } catch (IllegalStateException e) {
+                    // the key was removed from its slot since the listener ran
+                }
+            }
+            drop(device);
+        }
+    }
+
+    /**
+     * Drop the devices whose keys were removed from their slots
+     */
+    @Override
+    public void keysRemoved() {
+        for (Device device : this.devices.values()) {
+            if (device.key.key.isRemoved()) {
+                drop(device);
+            }
+        }
+    }
+
+    /**
+     * Drop all cached tokens
+     */
+    public void clear() {
+        for (Device device : this.devices.values()) {
+            drop(device);
+        }
+    }
+
+    /*
+     * Remove a device and zero its key copy once prewarm is done with it
+     */
+    private void drop(Device device) {
+        if (this.devices.remove(device.key, device)) {
+            this.size.decrementAndGet();
+            synchronized (device) {
+                device.dropped = true;
+                device.key.destroy();
+            }
+        }
+    }
+
+    /**
+     * Get the number of devices with cached tokens
+     * @return number of cached devices
+     */
+    public int size() {
+        return this.size.get();
+    }
+
+    /**
+     * The cached tokens of one device
+     */
+    public static final class Device {
+        private final DeviceKey key;
+        private final AtomicLongArray slots;
+        private volatile long newestPeriod = Long.MIN_VALUE;
+        // guarded by the device's lock
+        private boolean dropped;
+
+        Device(DeviceKey key, int windowSize) {
+            this.key = key;
+            this.slots = new AtomicLongArray(windowSize);
+            for (int i = 0; i < windowSize; i++) {
+                this.slots.set(i, EMPTY);
+            }
+        }
+
+        /**
+         * Get the cached token of a period
+         * @param period time period
+         * @return token or MISS
+         */
+        public int get(long period) {
+            long slot = this.slots.get(index(period));
+            // periods are compared by their low 32 bits, entries that far apart never share a slot
+            if (slot == EMPTY || (int) (slot >>> 32) != (int) period) {
+                return MISS;
+            }
+            return (int) slot;
+        }
+
+        /**
+         * Cache the token of a period
+         * @param period time period
+         * @param token token of the period
+         */
+        public void put(long period, int token) {
+            fill(period, token);
+            if (period > this.newestPeriod) {
+                this.newestPeriod = period;
+            }
+        }
+
+        void fill(long period, int token) {
+            this.slots.set(index(period), ((period & 0xffffffffL) << 32) | (token & 0xffffffffL));
+        }
+
+        private int index(long period) {
+            // periods are never negative
+            return (int) (period % this.slots.length());
+        }
+    }
+
+    /*
+     * Keys held in slots are compared by slot and version, so a lookup never
+     * reads their midstates
+     */
+    private static final class DeviceKey {
+        private final GCHmacKey key;
+        private final GCHmacKeySlots slots;
+        private final long ref;
+        private final byte[] unique;
+        private final int hash;
+
+        DeviceKey(GCHmacKey key, byte[] unique) {
+            this.key = key;
+            this.slots = key.getSlots();
+            this.ref = key.getReference();
+            this.unique = unique;
+            int keyHash = this.slots != null ? 31 * System.identityHashCode(this.slots) + (int) (this.ref ^ (this.ref >>> 32)) : key.hashCode();
+            this.hash = 31 * keyHash + Arrays.hashCode(unique);
+        }
+
+        void destroy() {
+            // a no-op for keys held in slots
+            this.key.destroy();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof DeviceKey)) return false;
+            DeviceKey other = (DeviceKey) o;
+            if (this.hash != other.hash || this.slots != other.slots || this.ref != other.ref) {
+                return false;
+            }
+            return (this.slots != null || this.key.equals(other.key)) && Arrays.equals(this.unique, other.unique);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security;
+
+import io.grvty.security.crypto.GSecTotpCounter;
+import io.grvty.security.crypto.Utilities;
+import io.grvty.security.crypto.otp.GCHmacKey;
+import io.grvty.security.crypto.otp.GCTotpGenerator;
+import io.grvty.security.crypto.otp.GCTotpPeriodListener;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A reverse index from token to device for accounts with very many devices.
+ * For each indexed account the tokens of every device for every period of the
+ * TOTP window are kept in an open addressing map from the int token to its
+ * (period, device) slot, so validating a token is one hash lookup instead of
+ * a sweep over all devices.
+ *
+ * The index of an account moves with the time period on its next lookup: the
+ * tokens of periods that left the window are removed and only the periods that
+ * entered it are computed, one HMAC per device and period. An index is rebuilt
+ * when the account's devices change and dropped once the account was not
+ * validated for a whole window. Idle indexes are dropped when the period
+ * changes if the index is a period listener of a GCTotpTicker; otherwise a
+ * lookup drops them only when the index is full and an account needs room.
+ *
+ * The index keeps copies of the precomputed device keys. They are zeroed when
+ * an index is dropped. Keys held in GCHmacKeySlots, e.g. by a GSecKeyVault,
+ * are referenced instead of copied, and an index is dropped once one of its
+ * keys is removed from its slot.
+ */
+public class GSecTokenIndex implements GCTotpPeriodListener, GSecKeyVault.RemovalListener {
+    /** returned by match when the token did not match any device */
+    public static final long NO_MATCH = -1;
+
+    /**
+     * The devices of an account, unwrapped on demand when an index is built
+     */
+    public interface Devices {
+        /**
+         * Get the number of devices
+         * @return number of devices
+         */
+        int size();
+
+        /**
+         * Get an unwrapped device key
+         * @param index index of the device
+         * @return device key
+         */
+        GSecTotpKey device(int index);
+    }
+
+    private final GCTotpGenerator generator;
+    private final GSecTotpCounter window;
+    private final int threshold;
+    private final int maxAccounts;
+    private final ConcurrentHashMap<Long, AccountIndex> accounts = new ConcurrentHashMap<>();
+    private final AtomicLong oldestPeriod = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Create a token index
+     * @param generator token generator
+     * @param window the TOTP window tokens are valid in
+     * @param threshold minimum number of devices of an indexed account
+     * @param maxAccounts maximum number of indexed accounts
+     */
+    public GSecTokenIndex(GCTotpGenerator generator, GSecTotpCounter window, int threshold, int maxAccounts) {
+        if (generator == null) {
+            throw new IllegalArgumentException("GCTotpGenerator generator must not be null");
+        }
+        if (window == null) {
+            throw new IllegalArgumentException("GSecTotpCounter window must not be null");
+        }
+        if (threshold < 2) {
+            throw new IllegalArgumentException(String.format("int threshold is %s. Must be greater than 1.", threshold));
+        }
+        if (maxAccounts < 1) {
+            throw new IllegalArgumentException(String.format("int maxAccounts is %s. Must be a positive integer.", maxAccounts));
+        }
+        this.generator = generator;
+        this.window = window;
+        this.threshold = threshold;
+        this.maxAccounts = maxAccounts;
+    }
+
+    /**
+     * Get the minimum number of devices of an indexed account
+     * @return threshold
+     */
+    public int getThreshold() {
+        return this.threshold;
+    }
+
+    /**
+     * Find the time period a token belongs to
+     * @param account hash of the unique account id, see Utilities.hash64
+     * @param signature identifies the account's current set of devices
+     * @param token numeric token value
+     * @param time current time period
+     * @param devices the account's devices, only used if the index has to be built
+     * @return the matching time period, NO_MATCH if no device matched, or
+     *         GSecStripedTable.ABSENT if the account cannot be indexed because the index is full
+     */
+    public long match(long account, long signature, int token, long time, Devices devices) {
+        AccountIndex index = this.accounts.get(account);
+        if (index == null || index.signature != signature) {
+            if (index == null && this.accounts.size() >= this.maxAccounts) {
+                // sweeping on the request thread only when an account needs room
+                expire(this.window.oldestTotpCount(time));
+                if (this.accounts.size() >= this.maxAccounts) {
+                    return GSecStripedTable.ABSENT;
+                }
+            }
+            AccountIndex created = new AccountIndex(signature, devices, this.window.getWindowSize());
+            boolean added = index == null ? this.accounts.putIfAbsent(account, created) == null : this.accounts.replace(account, index, created);
+            if (added) {
+                if (index != null) {
+                    synchronized (index) {
+                        index.destroy();
+                    }
+                }
+                index = created;
+            } else {
+                created.destroy();
+                index = this.accounts.get(account);
+                if (index == null || index.signature != signature) {
+                    return GSecStripedTable.ABSENT;
+                }
+            }
+        }
+        synchronized (index) {
+            if (index.destroyed) {
+                return GSecStripedTable.ABSENT;
+            }
+            index.moveTo(time);
+            return index.find(token);
+        }
+    }
+
+    /**
+     * Drop the indexes of accounts that were not validated for a whole window
+     * @param period the new current time period
+     */
+    @Override
+    public void periodChanged(long period) {
+        expire(this.window.oldestTotpCount(period));
+    }
+
+    /*
+     * Only the first call for a new oldest period sweeps the indexes
+     */
+    private void expire(long oldest) {
+        long previous = this.oldestPeriod.get();
+        if (oldest <= previous || !this.oldestPeriod.compareAndSet(previous, oldest)) {
+            return;
+        }
+        Iterator<AccountIndex> iterator = this.accounts.values().iterator();
+        while (iterator.hasNext()) {
+            AccountIndex index = iterator.next();
+            synchronized (index) {
+                if (index.time < oldest) {
+                    iterator.remove();
+                    index.destroy();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop the indexes holding keys that were removed from their slots, they
+     * are rebuilt on the account's next lookup
+     */
+    @Override
+    public void keysRemoved() {
+        Iterator<AccountIndex> iterator = this.accounts.values().iterator();
+        while (iterator.hasNext()) {
+            AccountIndex index = iterator.next();
+            synchronized (index) {
+                if (index.holdsRemovedKey()) {
+                    iterator.remove();
+                    index.destroy();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop all indexes
+     */
+    public void clear() {
+        Iterator<AccountIndex> iterator = this.accounts.values().iterator();
+        while (iterator.hasNext()) {
+            AccountIndex index = iterator.next();
+            iterator.remove();
+            synchronized (index) {
+                index.destroy();
+            }
+        }
+    }
+
+    /**
+     * Get the number of indexed accounts
+     * @return number of accounts
+     */
+    public int size() {
+        return this.accounts.size();
+    }
+
+    /*
+     * The tokens of one account's devices for every period of the window
+     */
+    private final class AccountIndex {
+        private final long signature;
+        private final GCHmacKey[] keys;
+        private final byte[][] uniques;
+        // period held by each ring slot, -1 if empty
+        private final long[] periods;
+        // tokens per ring slot and device
+        private final int[][] tokens;
+        private final IntIndex index;
+        private long time = Long.MIN_VALUE;
+        private boolean destroyed;
+
+        AccountIndex(long signature, Devices devices, int windowSize) {
+            int size = devices.size();
+            this.signature = signature;
+            this.keys = new GCHmacKey[size];
+            this.uniques = new byte[size][];
+            for (int i = 0; i < size; i++) {
+                GSecTotpKey device = devices.device(i);
+                GCHmacKey key = device.getHmacKey(generator.getHmacAlgorithm());
+                // a slot key stays off the heap, it is only referenced
+                this.keys[i] = key.getSlots() != null ? key : key.copy();
+                this.uniques[i] = device.getUnique().clone();
+            }
+            this.periods = new long[windowSize];
+            Arrays.fill(this.periods, -1);
+            this.tokens = new int[windowSize][size];
+            this.index = new IntIndex(windowSize * size);
+        }
+
+        /*
+         * Remove the periods that left the window and compute the ones that entered it
+         */
+        void moveTo(long time) {
+            if (time == this.time) {
+                return;
+            }
+            long oldest = window.oldestTotpCount(time);
+            long newest = window.newestTotpCount(time);
+            int windowSize = this.periods.length;
+            for (int slot = 0; slot < windowSize; slot++) {
+                long period = this.periods[slot];
+                if (period >= 0 && (period < oldest || period > newest)) {
+                    for (int device = 0; device < this.keys.length; device++) {
+                        this.index.remove(this.tokens[slot][device], slot * this.keys.length + device);
+                    }
+                    this.periods[slot] = -1;
+                }
+            }
+            for (long period = oldest; period <= newest; period++) {
+                int slot = (int) (period % windowSize);
+                if (this.periods[slot] == period) {
+                    continue;
+                }
+                for (int device = 0; device < this.keys.length; device++) {
+                    int token = generator.generateOtpValue(this.keys[device], period, this.uniques[device]);
+                    this.tokens[slot][device] = token;
+                    this.index.add(token, slot * this.keys.length + device);
+                }
+                this.periods[slot] = period;
+            }
+            this.time = time;
+        }
+
+        /*
+         * A lookup only narrows down the candidates, each is confirmed in constant time
+         */
+        long find(int token) {
+            long result = NO_MATCH;
+            for (int i = this.index.first(token); i >= 0; i = this.index.next(token, i)) {
+                int entry = this.index.value(i);
+                int slot = entry / this.keys.length;
+                int device = entry % this.keys.length;
+                if (Utilities.isEqualConstantTime(this.tokens[slot][device], token) && result == NO_MATCH) {
+                    result = this.periods[slot];
+                }
+            }
+            return result;
+        }
+
+        boolean holdsRemovedKey() {
+            for (GCHmacKey key : this.keys) {
+                if (key != null && key.isRemoved()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void destroy() {
+            this.destroyed = true;
+            for (GCHmacKey key : this.keys) {
+                if (key != null) {
+                    key.destroy();
+                }
+            }
+            Arrays.fill(this.periods, -1);
+            for (int[] slot : this.tokens) {
+                Arrays.fill(slot, 0);
+            }
+        }
+    }
+
+    /*
+     * Open addressing multimap from int tokens to int entries with linear
+     * probing. Equal tokens of different devices or periods get separate slots.
+     */
+    private static final class IntIndex {
+        private static final int EMPTY = -1;
+
+        private final int[] keys;
+        private final int[] values;
+        private final int mask;
+
+        IntIndex(int entries) {
+            int capacity = Integer.highestOneBit(Math.max(1, entries) * 2 - 1) << 1;
+            this.keys = new int[capacity];
+            this.values = new int[capacity];
+            Arrays.fill(this.values, EMPTY);
+            this.mask = capacity - 1;
+        }
+
+        void add(int key, int value) {
+            int i = home(key);
+            while (this.values[i] != EMPTY) {
+                i = (i + 1) & this.mask;
+            }
+            this.keys[i] = key;
+            this.values[i] = value;
+        }
+
+        /*
+         * Backward shift deletion keeps every probe sequence intact without tombstones
+         */
+        void remove(int key, int value) {
+            int hole = home(key);
+            while (this.values[hole] != EMPTY && (this.keys[hole] != key || this.values[hole] != value)) {
+                hole = (hole + 1) & this.mask;
+            }
+            if (this.values[hole] == EMPTY) {
+                return;
+            }
+            for (int i = (hole + 1) & this.mask; this.values[i] != EMPTY; i = (i + 1) & this.mask) {
+                int home = home(this.keys[i]);
+                // move the entry into the hole unless its home lies cyclically in (hole, i]
+                if (((i - home) & this.mask) >= ((i - hole) & this.mask)) {
+                    this.keys[hole] = this.keys[i];
+                    this.values[hole] = this.values[i];
+                    hole = i;
+                }
+            }
+            this.values[hole] = EMPTY;
+        }
+
+        /*
+         * @return first slot holding the key or -1
+         */
+        int first(int key) {
+            return scan(key, home(key));
+        }
+
+        /*
+         * @return next slot after the given one holding the key or -1
+         */
+        int next(int key, int slot) {
+            return scan(key, (slot + 1) & this.mask);
+        }
+
+        int value(int slot) {
+            return this.values[slot];
+        }
+
+        private int scan(int key, int from) {
+            for (int i = from; this.values[i] != EMPTY; i = (i + 1) & this.mask) {
+                if (this.keys[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int home(int key) {
+            return (int) Utilities.mix64(key & 0xffffffffL) & this.mask;
+        }
+    }
+}
@@ -3,15 +3,39 @@
  */
 package io.grvty.security;
 
+import io.grvty.security.crypto.Utilities;
+import io.grvty.security.crypto.otp.GCHmacAlgorithm;
+import io.grvty.security.crypto.otp.GCHmacKey;
+
 import java.security.Key;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class GSecTotpKey {
+    private static final int RETIRED = 1 << 30;
+    private static final int USERS = RETIRED - 1;
+
     private final Key key;
     private final byte[] unique;
+    private volatile GCHmacKey hmacKey;
+    private volatile long fingerprint;
+    private volatile boolean fingerprinted;
+    // number of users and the RETIRED flag
+    private final AtomicInteger state = new AtomicInteger();
 
     public GSecTotpKey(Key key, byte[] unique) {
+        this(key, unique, null);
+    }
+
+    /**
+     * Initializer with an already precomputed HMAC key
+     * @param key device key, may be null if the HMAC key is given, e.g. for keys held in a GSecKeyVault
+     * @param unique unique account id
+     * @param hmacKey precomputed form of the device key, may be null
+     */
+    public GSecTotpKey(Key key, byte[] unique, GCHmacKey hmacKey) {
         this.key = key;
         this.unique = unique;
+        this.hmacKey = hmacKey;
     }
 
     public Key getKey() {
@@ -21,4 +45,94 @@ public class GSecTotpKey {
     public byte[] getUnique() {
         return unique;
     }
+
+    /**
+     * Get a 64 bit fingerprint of the device (key and unique id) to identify it
+     * in compact in-process stores
+     * @param hmac HMAC algorithm the key is used with
+     * @return device fingerprint
+     */
+    public long getFingerprint(GCHmacAlgorithm hmac) {
+        if (!this.fingerprinted) {
+            this.fingerprint = Utilities.mix64(getHmacKey(hmac).fingerprint() ^ Utilities.hash64(this.unique));
+            this.fingerprinted = true;
+        }
+        return this.fingerprint;
+    }
+
+    /**
+     * Zero the key material held by this key. Keys that were not created as
+     * GSecSecretKey can not be zeroed, only their precomputed form is.
+     */
+    public void destroy() {
+        if (this.key instanceof GSecSecretKey) {
+            ((GSecSecretKey) this.key).destroy();
+        }
+        GCHmacKey result = this.hmacKey;
+        if (result != null) {
+            result.destroy();
+        }
+    }
+
+    /**
+     * Register a user of a shared key, so that retiring the key does not zero
+     * it while it is in use. Every call must be followed by a call to release.
+     */
+    public void retain() {
+        this.state.incrementAndGet();
+    }
+
+    /**
+     * Unregister a user of a shared key. The last user of a retired key zeroes
+     * it. Releasing a key without users has no effect.
+     */
+    public void release() {
+        for (;;) {
+            int state = this.state.get();
+            if ((state & USERS) == 0) {
+                return;
+            }
+            if (this.state.compareAndSet(state, state - 1)) {
+                if (state - 1 == RETIRED) {
+                    destroy();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Zero the key material once no user holds the key anymore. Called when a
+     * shared key is dropped, e.g. evicted from a GSecKeyCache, while
+     * validations on other threads may still compute tokens with it.
+     */
+    public void retire() {
+        for (;;) {
+            int state = this.state.get();
+            if ((state & RETIRED) != 0) {
+                return;
+            }
+            if (this.state.compareAndSet(state, state | RETIRED)) {
+                if (state == 0) {
+                    destroy();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the precomputed form of the device key. It is computed on first use
+     * if it was not supplied when this key was created.
+     * @param hmac HMAC algorithm the key is used with
+     * @return precomputed HMAC key
+     */
+    public GCHmacKey getHmacKey(GCHmacAlgorithm hmac) {
+        GCHmacKey result = this.hmacKey;
+        if (result == null || !result.getAlgorithm().getAlgorithm().equals(hmac.getAlgorithm())) {
+            result = GCHmacKey.newInstance(hmac, this.key);
+            this.hmacKey = result;
+        }
+        return result;
+    }
 }
@@ -19,19 +19,19 @@ public class GSecAlert {
         this.description = description;
     }
 
-    /*
-     * G
-     * @return
+    /**
+     * Get the severity of the alert
+     * @return alert level
      */
-    private String getLevel() {
+    public String getLevel() {
         return level;
     }
 
-    /*
-     *
-     * @return
+    /**
+     * Get the domain (package) that raised the alert
+     * @return alert domain
      */
-    private String getDomain() {
+    public String getDomain() {
         return domain;
     }
 
@@ -0,0 +1,275 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security.alerts;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A security alert delegate that hands alerts to another delegate on a
+ * background thread. Raising an alert never blocks: alerts are put into a
+ * bounded queue and, when the queue is full, the overflow policy decides which
+ * alert is dropped. Alerts with the same type and domain are coalesced: only
+ * the first one in each coalescing window is delivered. When the window
+ * expires the dispatcher thread delivers the last suppressed alert with the
+ * number of suppressed alerts in its description, so the count is reported
+ * even if no further alert of that type is raised.
+ */
+public final class GSecAlertDispatcher implements GSecAlertDelegate {
+    private static Log log = LogFactory.getLog(GSecAlertDispatcher.class);
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * What to do with an alert when the queue is full
+     */
+    public enum OverflowPolicy {
+        /** discard the alert that is being raised */
+        DROP_NEWEST,
+        /** discard the oldest queued alert to make room */
+        DROP_OLDEST
+    }
+
+    private final GSecAlertDelegate delegate;
+    private final BlockingQueue<GSecAlert> queue;
+    private final long coalesceNanos;
+    private final OverflowPolicy overflowPolicy;
+    private final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Create a dispatcher and start its thread
+     * @param delegate the delegate that receives the alerts
+     * @param capacity maximum number of queued alerts
+     * @param coalesceMillis length of the coalescing window in milliseconds, 0 disables coalescing
+     * @param overflowPolicy what to do when the queue is full
+     */
+    public GSecAlertDispatcher(GSecAlertDelegate delegate, int capacity, long coalesceMillis, OverflowPolicy overflowPolicy) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("GSecAlertDelegate delegate must not be null");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException(String.format("int capacity is %s. Must be a positive integer.", capacity));
+        }
+        if (coalesceMillis < 0) {
+            throw new IllegalArgumentException(String.format("long coalesceMillis is %s. Must be a non-negative number.", coalesceMillis));
+        }
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("OverflowPolicy overflowPolicy must not be null");
+        }
+        this.delegate = delegate;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.coalesceNanos = TimeUnit.MILLISECONDS.toNanos(coalesceMillis);
+        this.overflowPolicy = overflowPolicy;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "grvty-alert-dispatcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queue an alert for delivery. Never blocks.
+     * @param alert security alert
+     */
+    @Override
+    public void securityAlert(GSecAlert alert) {
+        if (alert == null) {
+            return;
+        }
+        this.received.incrementAndGet();
+        if (this.coalesceNanos > 0) {
+            alert = coalesce(alert);
+            if (alert == null) {
+                this.coalesced.incrementAndGet();
+                return;
+            }
+        }
+        if (this.queue.offer(alert)) {
+            return;
+        }
+        if (this.overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            while (!this.queue.offer(alert)) {
+                if (this.queue.poll() != null) {
+                    this.dropped.incrementAndGet();
+                }
+            }
+            return;
+        }
+        this.dropped.incrementAndGet();
+    }
+
+    /**
+     * Stop the dispatcher thread. Alerts still in the queue are delivered first
+     * unless the thread does not finish within the timeout.
+     * @param timeoutMillis maximum time to wait for the queue to drain
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void shutdown(long timeoutMillis) throws InterruptedException {
+        this.running = false;
+        this.thread.join(timeoutMillis);
+        if (this.thread.isAlive()) {
+            this.thread.interrupt();
+        }
+    }
+
+    /**
+     * Get the number of alerts raised
+     * @return received alerts
+     */
+    public long getReceivedCount() {
+        return this.received.get();
+    }
+
+    /**
+     * Get the number of alerts suppressed by coalescing
+     * @return coalesced alerts
+     */
+    public long getCoalescedCount() {
+        return this.coalesced.get();
+    }
+
+    /**
+     * Get the number of alerts dropped because the queue was full
+     * @return dropped alerts
+     */
+    public long getDroppedCount() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Get the number of alerts handed to the delegate
+     * @return delivered alerts
+     */
+    public long getDeliveredCount() {
+        return this.delivered.get();
+    }
+
+    /**
+     * Get the number of alerts for which the delegate threw an exception
+     * @return failed deliveries
+     */
+    public long getFailedCount() {
+        return this.failed.get();
+    }
+
+    /**
+     * Get the number of queued alerts
+     * @return queue length
+     */
+    public int getQueueSize() {
+        return this.queue.size();
+    }
+
+    /*
+     * Returns the alert to queue, possibly annotated with the number of
+     * suppressed alerts, or null if the alert falls into an open window
+     */
+    private GSecAlert coalesce(GSecAlert alert) {
+        String key = alert.getAlert() + '\u0000' + alert.getDomain();
+        long now = System.nanoTime();
+        Window window = this.windows.get(key);
+        if (window == null) {
+            Window created = new Window(now);
+            window = this.windows.putIfAbsent(key, created);
+            if (window == null) {
+                return alert;
+            }
+        }
+        long start = window.start.get();
+        if (now - start < this.coalesceNanos || !window.start.compareAndSet(start, now)) {
+            window.lastSuppressed = alert;
+            window.suppressed.incrementAndGet();
+            return null;
+        }
+        int suppressed = window.suppressed.getAndSet(0);
+        if (suppressed == 0) {
+            return alert;
+        }
+        return summary(alert, suppressed);
+    }
+
+    /*
+     * Deliver the suppressed counts of the windows that expired. Runs on the
+     * dispatcher thread, a window that a new alert reopens first is reported
+     * by that alert instead.
+     */
+    private void flushExpired(long now) {
+        for (Window window : this.windows.values()) {
+            long start = window.start.get();
+            if (now - start < this.coalesceNanos || window.suppressed.get() == 0 || !window.start.compareAndSet(start, now)) {
+                continue;
+            }
+            int suppressed = window.suppressed.getAndSet(0);
+            if (suppressed > 0) {
+                deliver(summary(window.lastSuppressed, suppressed));
+            }
+        }
+    }
+
+    private static GSecAlert summary(GSecAlert alert, int suppressed) {
+        return new GSecAlert(alert.getLevel(), alert.getDomain(), alert.getAlert(),
+                String.format("%s (%s similar alerts suppressed)", alert.getDescription(), suppressed));
+    }
+
+    private void dispatch() {
+        long pollNanos = this.coalesceNanos > 0 ? Math.min(this.coalesceNanos, POLL_NANOS) : POLL_NANOS;
+        long flushed = System.nanoTime();
+        while (this.running || !this.queue.isEmpty()) {
+            GSecAlert alert;
+            try {
+                alert = this.queue.poll(pollNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (alert != null) {
+                deliver(alert);
+            }
+            if (this.coalesceNanos > 0) {
+                long now = System.nanoTime();
+                if (now - flushed >= pollNanos) {
+                    flushExpired(now);
+                    flushed = now;
+                }
+            }
+        }
+    }
+
+    private void deliver(GSecAlert alert) {
+        try {
+            this.delegate.securityAlert(alert);
+            this.delivered.incrementAndGet();
+        } catch (RuntimeException e) {
+            this.failed.incrementAndGet();
+            log.error("security alert delegate failed", e);
+        }
+    }
+
+    private static final class Window {
+        private final AtomicLong start;
+        private final AtomicInteger suppressed = new AtomicInteger();
+        // the alert reported with the suppressed count
+        private volatile GSecAlert lastSuppressed;
+
+        Window(long start) {
+            this.start = new AtomicLong(start);
+        }
+    }
+}
@@ -7,7 +7,7 @@ package io.grvty.security.alerts;
  * The central switchboard to dispatch security alerts detected by the GRVTY system.
  */
 public class GSecAlertService {
-    private static GSecAlertDelegate securityAlertDelegate;
+    private static volatile GSecAlertDelegate securityAlertDelegate;
 
     // prevent the class from being instantiated
     private GSecAlertService() {}
@@ -46,4 +46,16 @@ public class GSecAlertService {
     public static boolean isAlertDelegateSet() {
         return securityAlertDelegate != null;
     }
+
+    /**
+     * Dispatch an alert to the current delegate. Alerts raised while no
+     * delegate is set are discarded.
+     * @param alert security alert
+     */
+    public static void sendSecurityAlert(GSecAlert alert) {
+        GSecAlertDelegate delegate = securityAlertDelegate;
+        if (delegate != null) {
+            delegate.securityAlert(alert);
+        }
+    }
 }
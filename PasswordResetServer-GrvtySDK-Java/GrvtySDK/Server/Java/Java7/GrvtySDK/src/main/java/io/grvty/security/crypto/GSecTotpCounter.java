@@ -37,27 +37,69 @@ public class GSecTotpCounter {
     public long[] validTotpCounts(long count) {
         // Possible integer overflow if the requirement for the plus/minus
         // periods to be between 0 and 10 is removed.
-        int[] drifts = new int[1 + this.plusPeriods + this.minusPeriods];
-        int x = 0;
-        drifts[x] = 0;
-        for (int i=1; i<=this.plusPeriods; i++) {
-            x++;
-            drifts[x] = i;
-        }
-        for (int i=1; i<=this.minusPeriods; i++) {
-            x++;
-            drifts[x] = -i;
+        long[] counts = new long[getWindowSize()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = totpCountAt(count, i);
         }
+        return counts;
+    }
 
-        long[] counts = new long[drifts.length];
+    /**
+     * Get the number of time periods in the TOTP window
+     * @return 1 + minus periods + plus periods
+     */
+    public int getWindowSize() {
+        return 1 + this.plusPeriods + this.minusPeriods;
+    }
 
-        int i = 0;
-        for (int offset : drifts) {
-            long actualPeriod = Math.max(0, count + offset);
-            counts[i] = actualPeriod;
-            i++;
+    /**
+     * Get the offset of the i-th period to check. The offsets are ordered
+     * 0, +1..+plusPeriods, -1..-minusPeriods.
+     * @param index position in the window, between 0 and getWindowSize() - 1
+     * @return time period offset
+     */
+    public int offsetAt(int index) {
+        if (index < 0 || index >= getWindowSize()) {
+            throw new IndexOutOfBoundsException(String.format("int index is %s. Must be between 0 and %s.", index, getWindowSize() - 1));
         }
-        return counts;
+        return index <= this.plusPeriods ? index : this.plusPeriods - index;
+    }
+
+    /**
+     * Get the i-th valid TOTP time period without allocating the whole window
+     * @param count current TOTP time period
+     * @param index position in the window, between 0 and getWindowSize() - 1
+     * @return valid time period
+     */
+    public long totpCountAt(long count, int index) {
+        return Math.max(0, count + offsetAt(index));
+    }
+
+    /**
+     * Check if a time period offset lies inside the window
+     * @param offset time period offset
+     * @return true if -minusPeriods &lt;= offset &lt;= plusPeriods
+     */
+    public boolean isOffsetInWindow(int offset) {
+        return offset >= -this.minusPeriods && offset <= this.plusPeriods;
+    }
+
+    /**
+     * Get the oldest valid TOTP time period
+     * @param count current TOTP time period
+     * @return oldest period of the window
+     */
+    public long oldestTotpCount(long count) {
+        return Math.max(0, count - this.minusPeriods);
+    }
+
+    /**
+     * Get the newest valid TOTP time period
+     * @param count current TOTP time period
+     * @return newest period of the window
+     */
+    public long newestTotpCount(long count) {
+        return count + this.plusPeriods;
     }
 
     /*
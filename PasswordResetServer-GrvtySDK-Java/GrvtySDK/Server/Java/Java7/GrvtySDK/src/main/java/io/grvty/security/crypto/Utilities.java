@@ -29,6 +29,16 @@ public class Utilities {
         return result == 0;
     }
 
+    /*
+     * Constant-time comparison of two numeric OTP tokens.
+     * @param a int
+     * @param b int
+     * @return if a and b are equal
+     */
+    public static boolean isEqualConstantTime(int a, int b) {
+        return (a ^ b) == 0;
+    }
+
     /*
      * Join two byte arrays. Specifically the device uniqueID (accountID)
      * and a TOTP time period
@@ -93,4 +103,36 @@ public class Utilities {
         if (key.length != appSecret.length) {throw new IllegalArgumentException(String.format("byte[] key is %s bytes. Must be %s bytes (length of byte[] appSecret).", key.length, appSecret.length));}
         return xor(appSecret, key);
     }
+
+    /*
+     * 64 bit hash of a byte array (FNV-1a followed by the MurmurHash3 finalizer).
+     * Used to derive compact in-process identifiers, it is not a cryptographic hash.
+     * Colliding inputs can be found, so the result must never be the only check
+     * that decides whether a token is accepted.
+     * @param data bytes to hash
+     * @return 64 bit hash
+     */
+    public static long hash64(byte[] data) {
+        if (data == null) {throw new NullPointerException("byte[] data must not be null.");}
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : data) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return mix64(hash);
+    }
+
+    /*
+     * MurmurHash3 64 bit finalizer. Spreads every input bit over the whole result.
+     * @param value value to mix
+     * @return mixed value
+     */
+    public static long mix64(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
 }
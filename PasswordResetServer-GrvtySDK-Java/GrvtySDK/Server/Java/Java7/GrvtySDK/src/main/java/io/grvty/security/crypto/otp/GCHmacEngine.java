@@ -0,0 +1,534 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security.crypto.otp;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * HMAC (RFC 2104) engine that starts from precomputed midstates. The inner and
+ * outer padded key blocks are compressed once per key (see GCHmacKey) and every
+ * following HMAC resumes from the stored chaining values, so a short TOTP message
+ * costs one inner and one outer compression.
+ *
+ * An engine holds mutable working state and must only be used by one thread.
+ */
+abstract class GCHmacEngine {
+    /** number of longs used to store one chaining state */
+    static final int STATE_LENGTH = 8;
+
+    private static final byte IPAD = 0x36;
+    private static final byte OPAD = 0x5c;
+
+    private final int blockLength;
+    private final int digestLength;
+    private final byte[] block;
+    private final byte[] digest;
+    private int blockOffset;
+    private long byteCount;
+
+    GCHmacEngine(int blockLength, int digestLength) {
+        this.blockLength = blockLength;
+        this.digestLength = digestLength;
+        this.block = new byte[blockLength];
+        this.digest = new byte[digestLength];
+    }
+
+    /**
+     * Create an engine for an HMAC algorithm
+     * @param hmac HMAC algorithm
+     * @return new engine
+     */
+    static GCHmacEngine newInstance(GCHmacAlgorithm hmac) {
+        switch (hmac) {
+            case HmacSHA1:
+                return new Sha1();
+            case HmacSHA512:
+                return new Sha512();
+            default:
+                return new Sha256();
+        }
+    }
+
+    /**
+     * Compute the inner and outer midstates of a key.
+     * @param key raw HMAC key
+     * @return inner chaining state followed by the outer chaining state
+     */
+    long[] precompute(byte[] key) {
+        byte[] k0 = new byte[this.blockLength];
+        if (key.length > this.blockLength) {
+            initialize();
+            this.blockOffset = 0;
+            this.byteCount = 0;
+            update(key, 0, key.length);
+            finish();
+            System.arraycopy(this.digest, 0, k0, 0, this.digestLength);
+        } else {
+            System.arraycopy(key, 0, k0, 0, key.length);
+        }
+        long[] midstate = new long[2 * STATE_LENGTH];
+        byte[] pad = new byte[this.blockLength];
+        for (int i = 0; i < this.blockLength; i++) {
+            pad[i] = (byte) (k0[i] ^ IPAD);
+        }
+        initialize();
+        compress(pad, 0);
+        storeState(midstate, 0);
+        for (int i = 0; i < this.blockLength; i++) {
+            pad[i] = (byte) (k0[i] ^ OPAD);
+        }
+        initialize();
+        compress(pad, 0);
+        storeState(midstate, STATE_LENGTH);
+        Arrays.fill(k0, (byte) 0);
+        Arrays.fill(pad, (byte) 0);
+        clear();
+        return midstate;
+    }
+
+    /**
+     * Start a new HMAC computation from the inner midstate of a key.
+     * @param midstate midstates from precompute(byte[])
+     */
+    void begin(long[] midstate) {
+        loadState(midstate, 0);
+        this.blockOffset = 0;
+        this.byteCount = this.blockLength;
+    }
+
+    /**
+     * Start a new HMAC computation from the inner midstate of a key held in a buffer.
+     * @param midstates buffer holding the midstates
+     * @param offset index of the key's midstates in the buffer
+     */
+    void begin(LongBuffer midstates, int offset) {
+        loadState(midstates, offset);
+        this.blockOffset = 0;
+        this.byteCount = this.blockLength;
+    }
+
+    /**
+     * Feed one byte of the message
+     * @param b message byte
+     */
+    void update(byte b) {
+        this.block[this.blockOffset++] = b;
+        this.byteCount++;
+        if (this.blockOffset == this.blockLength) {
+            compress(this.block, 0);
+            this.blockOffset = 0;
+        }
+    }
+
+    /**
+     * Feed part of the message
+     * @param data message bytes
+     * @param offset start of the message bytes
+     * @param length number of message bytes
+     */
+    void update(byte[] data, int offset, int length) {
+        while (length > 0) {
+            int n = Math.min(length, this.blockLength - this.blockOffset);
+            System.arraycopy(data, offset, this.block, this.blockOffset, n);
+            this.blockOffset += n;
+            this.byteCount += n;
+            offset += n;
+            length -= n;
+            if (this.blockOffset == this.blockLength) {
+                compress(this.block, 0);
+                this.blockOffset = 0;
+            }
+        }
+    }
+
+    /**
+     * Finish the HMAC computation using the outer midstate of the key that was
+     * passed to begin(long[]).
+     * @param midstate midstates from precompute(byte[])
+     * @return the HMAC. The array is reused by the next computation.
+     */
+    byte[] doFinal(long[] midstate) {
+        finish();
+        loadState(midstate, STATE_LENGTH);
+        this.blockOffset = 0;
+        this.byteCount = this.blockLength;
+        update(this.digest, 0, this.digestLength);
+        finish();
+        return this.digest;
+    }
+
+    /**
+     * Finish the HMAC computation using the outer midstate of the key that was
+     * passed to begin(LongBuffer, int).
+     * @param midstates buffer holding the midstates
+     * @param offset index of the key's midstates in the buffer
+     * @return the HMAC. The array is reused by the next computation.
+     */
+    byte[] doFinal(LongBuffer midstates, int offset) {
+        finish();
+        loadState(midstates, offset + STATE_LENGTH);
+        this.blockOffset = 0;
+        this.byteCount = this.blockLength;
+        update(this.digest, 0, this.digestLength);
+        finish();
+        return this.digest;
+    }
+
+    /**
+     * Get the length of the produced HMAC
+     * @return digest length in bytes
+     */
+    int getDigestLength() {
+        return this.digestLength;
+    }
+
+    /*
+     * Pad the buffered message (FIPS 180-4 section 5.1) and write the digest
+     */
+    private void finish() {
+        long bits = this.byteCount << 3;
+        int lengthOffset = this.blockLength - 8;
+        // SHA-512 uses a 128 bit length field; messages here never need the upper 64 bits
+        int lengthField = this.blockLength / 8;
+        this.block[this.blockOffset++] = (byte) 0x80;
+        if (this.blockOffset > this.blockLength - lengthField) {
+            Arrays.fill(this.block, this.blockOffset, this.blockLength, (byte) 0);
+            compress(this.block, 0);
+            this.blockOffset = 0;
+        }
+        Arrays.fill(this.block, this.blockOffset, lengthOffset, (byte) 0);
+        for (int i = 0; i < 8; i++) {
+            this.block[lengthOffset + i] = (byte) (bits >>> (56 - 8 * i));
+        }
+        compress(this.block, 0);
+        this.blockOffset = 0;
+        storeDigest(this.digest);
+    }
+
+    /*
+     * Zero the working buffers
+     */
+    private void clear() {
+        Arrays.fill(this.block, (byte) 0);
+        Arrays.fill(this.digest, (byte) 0);
+        this.blockOffset = 0;
+        this.byteCount = 0;
+    }
+
+    /** reset the chaining state to the hash function's initial value */
+    abstract void initialize();
+
+    /** process one message block */
+    abstract void compress(byte[] in, int offset);
+
+    /** load the chaining state from a midstate array */
+    abstract void loadState(long[] midstate, int offset);
+
+    /** load the chaining state from a midstate buffer */
+    abstract void loadState(LongBuffer midstates, int offset);
+
+    /** store the chaining state into a midstate array */
+    abstract void storeState(long[] midstate, int offset);
+
+    /** write the chaining state as the big-endian digest */
+    abstract void storeDigest(byte[] out);
+
+    private static final class Sha1 extends GCHmacEngine {
+        private final int[] h = new int[5];
+        private final int[] w = new int[80];
+
+        Sha1() {
+            super(64, 20);
+        }
+
+        @Override
+        void initialize() {
+            h[0] = 0x67452301;
+            h[1] = 0xefcdab89;
+            h[2] = 0x98badcfe;
+            h[3] = 0x10325476;
+            h[4] = 0xc3d2e1f0;
+        }
+
+        @Override
+        void compress(byte[] in, int offset) {
+            for (int t = 0; t < 16; t++) {
+                w[t] = readInt(in, offset + 4 * t);
+            }
+            for (int t = 16; t < 80; t++) {
+                w[t] = Integer.rotateLeft(w[t - 3] ^ w[t - 8] ^ w[t - 14] ^ w[t - 16], 1);
+            }
+            int a = h[0], b = h[1], c = h[2], d = h[3], e = h[4];
+            for (int t = 0; t < 80; t++) {
+                int f;
+                int k;
+                if (t < 20) {
+                    f = (b & c) | (~b & d);
+                    k = 0x5a827999;
+                } else if (t < 40) {
+                    f = b ^ c ^ d;
+                    k = 0x6ed9eba1;
+                } else if (t < 60) {
+                    f = (b & c) | (b & d) | (c & d);
+                    k = 0x8f1bbcdc;
+                } else {
+                    f = b ^ c ^ d;
+                    k = 0xca62c1d6;
+                }
+                int temp = Integer.rotateLeft(a, 5) + f + e + k + w[t];
+                e = d;
+                d = c;
+                c = Integer.rotateLeft(b, 30);
+                b = a;
+                a = temp;
+            }
+            h[0] += a;
+            h[1] += b;
+            h[2] += c;
+            h[3] += d;
+            h[4] += e;
+        }
+
+        @Override
+        void loadState(long[] midstate, int offset) {
+            for (int i = 0; i < 5; i++) {
+                h[i] = (int) midstate[offset + i];
+            }
+        }
+
+        @Override
+        void loadState(LongBuffer midstates, int offset) {
+            for (int i = 0; i < 5; i++) {
+                h[i] = (int) midstates.get(offset + i);
+            }
+        }
+
+        @Override
+        void storeState(long[] midstate, int offset) {
+            for (int i = 0; i < 5; i++) {
+                midstate[offset + i] = h[i];
+            }
+        }
+
+        @Override
+        void storeDigest(byte[] out) {
+            for (int i = 0; i < 5; i++) {
+                writeInt(out, 4 * i, h[i]);
+            }
+        }
+    }
+
+    private static final class Sha256 extends GCHmacEngine {
+        private static final int[] K = {
+                0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+                0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+                0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+                0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+                0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+                0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+                0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+                0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+        };
+        private final int[] h = new int[8];
+        private final int[] w = new int[64];
+
+        Sha256() {
+            super(64, 32);
+        }
+
+        @Override
+        void initialize() {
+            h[0] = 0x6a09e667;
+            h[1] = 0xbb67ae85;
+            h[2] = 0x3c6ef372;
+            h[3] = 0xa54ff53a;
+            h[4] = 0x510e527f;
+            h[5] = 0x9b05688c;
+            h[6] = 0x1f83d9ab;
+            h[7] = 0x5be0cd19;
+        }
+
+        @Override
+        void compress(byte[] in, int offset) {
+            for (int t = 0; t < 16; t++) {
+                w[t] = readInt(in, offset + 4 * t);
+            }
+            for (int t = 16; t < 64; t++) {
+                int s0 = Integer.rotateRight(w[t - 15], 7) ^ Integer.rotateRight(w[t - 15], 18) ^ (w[t - 15] >>> 3);
+                int s1 = Integer.rotateRight(w[t - 2], 17) ^ Integer.rotateRight(w[t - 2], 19) ^ (w[t - 2] >>> 10);
+                w[t] = w[t - 16] + s0 + w[t - 7] + s1;
+            }
+            int a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], f = h[5], g = h[6], hh = h[7];
+            for (int t = 0; t < 64; t++) {
+                int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+                int ch = (e & f) ^ (~e & g);
+                int temp1 = hh + s1 + ch + K[t] + w[t];
+                int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+                int maj = (a & b) ^ (a & c) ^ (b & c);
+                int temp2 = s0 + maj;
+                hh = g;
+                g = f;
+                f = e;
+                e = d + temp1;
+                d = c;
+                c = b;
+                b = a;
+                a = temp1 + temp2;
+            }
+            h[0] += a;
+            h[1] += b;
+            h[2] += c;
+            h[3] += d;
+            h[4] += e;
+            h[5] += f;
+            h[6] += g;
+            h[7] += hh;
+        }
+
+        @Override
+        void loadState(long[] midstate, int offset) {
+            for (int i = 0; i < 8; i++) {
+                h[i] = (int) midstate[offset + i];
+            }
+        }
+
+        @Override
+        void loadState(LongBuffer midstates, int offset) {
+            for (int i = 0; i < 8; i++) {
+                h[i] = (int) midstates.get(offset + i);
+            }
+        }
+
+        @Override
+        void storeState(long[] midstate, int offset) {
+            for (int i = 0; i < 8; i++) {
+                midstate[offset + i] = h[i];
+            }
+        }
+
+        @Override
+        void storeDigest(byte[] out) {
+            for (int i = 0; i < 8; i++) {
+                writeInt(out, 4 * i, h[i]);
+            }
+        }
+    }
+
+    private static final class Sha512 extends GCHmacEngine {
+        private static final long[] K = {
+                0x428a2f98d728ae22L, 0x7137449123ef65cdL, 0xb5c0fbcfec4d3b2fL, 0xe9b5dba58189dbbcL,
+                0x3956c25bf348b538L, 0x59f111f1b605d019L, 0x923f82a4af194f9bL, 0xab1c5ed5da6d8118L,
+                0xd807aa98a3030242L, 0x12835b0145706fbeL, 0x243185be4ee4b28cL, 0x550c7dc3d5ffb4e2L,
+                0x72be5d74f27b896fL, 0x80deb1fe3b1696b1L, 0x9bdc06a725c71235L, 0xc19bf174cf692694L,
+                0xe49b69c19ef14ad2L, 0xefbe4786384f25e3L, 0x0fc19dc68b8cd5b5L, 0x240ca1cc77ac9c65L,
+                0x2de92c6f592b0275L, 0x4a7484aa6ea6e483L, 0x5cb0a9dcbd41fbd4L, 0x76f988da831153b5L,
+                0x983e5152ee66dfabL, 0xa831c66d2db43210L, 0xb00327c898fb213fL, 0xbf597fc7beef0ee4L,
+                0xc6e00bf33da88fc2L, 0xd5a79147930aa725L, 0x06ca6351e003826fL, 0x142929670a0e6e70L,
+                0x27b70a8546d22ffcL, 0x2e1b21385c26c926L, 0x4d2c6dfc5ac42aedL, 0x53380d139d95b3dfL,
+                0x650a73548baf63deL, 0x766a0abb3c77b2a8L, 0x81c2c92e47edaee6L, 0x92722c851482353bL,
+                0xa2bfe8a14cf10364L, 0xa81a664bbc423001L, 0xc24b8b70d0f89791L, 0xc76c51a30654be30L,
+                0xd192e819d6ef5218L, 0xd69906245565a910L, 0xf40e35855771202aL, 0x106aa07032bbd1b8L,
+                0x19a4c116b8d2d0c8L, 0x1e376c085141ab53L, 0x2748774cdf8eeb99L, 0x34b0bcb5e19b48a8L,
+                0x391c0cb3c5c95a63L, 0x4ed8aa4ae3418acbL, 0x5b9cca4f7763e373L, 0x682e6ff3d6b2b8a3L,
+                0x748f82ee5defb2fcL, 0x78a5636f43172f60L, 0x84c87814a1f0ab72L, 0x8cc702081a6439ecL,
+                0x90befffa23631e28L, 0xa4506cebde82bde9L, 0xbef9a3f7b2c67915L, 0xc67178f2e372532bL,
+                0xca273eceea26619cL, 0xd186b8c721c0c207L, 0xeada7dd6cde0eb1eL, 0xf57d4f7fee6ed178L,
+                0x06f067aa72176fbaL, 0x0a637dc5a2c898a6L, 0x113f9804bef90daeL, 0x1b710b35131c471bL,
+                0x28db77f523047d84L, 0x32caab7b40c72493L, 0x3c9ebe0a15c9bebcL, 0x431d67c49c100d4cL,
+                0x4cc5d4becb3e42b6L, 0x597f299cfc657e2aL, 0x5fcb6fab3ad6faecL, 0x6c44198c4a475817L
+        };
+        private final long[] h = new long[8];
+        private final long[] w = new long[80];
+
+        Sha512() {
+            super(128, 64);
+        }
+
+        @Override
+        void initialize() {
+            h[0] = 0x6a09e667f3bcc908L;
+            h[1] = 0xbb67ae8584caa73bL;
+            h[2] = 0x3c6ef372fe94f82bL;
+            h[3] = 0xa54ff53a5f1d36f1L;
+            h[4] = 0x510e527fade682d1L;
+            h[5] = 0x9b05688c2b3e6c1fL;
+            h[6] = 0x1f83d9abfb41bd6bL;
+            h[7] = 0x5be0cd19137e2179L;
+        }
+
+        @Override
+        void compress(byte[] in, int offset) {
+            for (int t = 0; t < 16; t++) {
+                w[t] = ((long) readInt(in, offset + 8 * t) << 32) | (readInt(in, offset + 8 * t + 4) & 0xffffffffL);
+            }
+            for (int t = 16; t < 80; t++) {
+                long s0 = Long.rotateRight(w[t - 15], 1) ^ Long.rotateRight(w[t - 15], 8) ^ (w[t - 15] >>> 7);
+                long s1 = Long.rotateRight(w[t - 2], 19) ^ Long.rotateRight(w[t - 2], 61) ^ (w[t - 2] >>> 6);
+                w[t] = w[t - 16] + s0 + w[t - 7] + s1;
+            }
+            long a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], f = h[5], g = h[6], hh = h[7];
+            for (int t = 0; t < 80; t++) {
+                long s1 = Long.rotateRight(e, 14) ^ Long.rotateRight(e, 18) ^ Long.rotateRight(e, 41);
+                long ch = (e & f) ^ (~e & g);
+                long temp1 = hh + s1 + ch + K[t] + w[t];
+                long s0 = Long.rotateRight(a, 28) ^ Long.rotateRight(a, 34) ^ Long.rotateRight(a, 39);
+                long maj = (a & b) ^ (a & c) ^ (b & c);
+                long temp2 = s0 + maj;
+                hh = g;
+                g = f;
+                f = e;
+                e = d + temp1;
+                d = c;
+                c = b;
+                b = a;
+                a = temp1 + temp2;
+            }
+            h[0] += a;
+            h[1] += b;
+            h[2] += c;
+            h[3] += d;
+            h[4] += e;
+            h[5] += f;
+            h[6] += g;
+            h[7] += hh;
+        }
+
+        @Override
+        void loadState(long[] midstate, int offset) {
+            System.arraycopy(midstate, offset, h, 0, 8);
+        }
+
+        @Override
+        void loadState(LongBuffer midstates, int offset) {
+            for (int i = 0; i < 8; i++) {
+                h[i] = midstates.get(offset + i);
+            }
+        }
+
+        @Override
+        void storeState(long[] midstate, int offset) {
+            System.arraycopy(h, 0, midstate, offset, 8);
+        }
+
+        @Override
+        void storeDigest(byte[] out) {
+            for (int i = 0; i < 8; i++) {
+                writeInt(out, 8 * i, (int) (h[i] >>> 32));
+                writeInt(out, 8 * i + 4, (int) h[i]);
+            }
+        }
+    }
+
+    private static int readInt(byte[] in, int offset) {
+        return (in[offset] << 24) | ((in[offset + 1] & 0xff) << 16) | ((in[offset + 2] & 0xff) << 8) | (in[offset + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] out, int offset, int value) {
+        out[offset] = (byte) (value >>> 24);
+        out[offset + 1] = (byte) (value >>> 16);
+        out[offset + 2] = (byte) (value >>> 8);
+        out[offset + 3] = (byte) value;
+    }
+}
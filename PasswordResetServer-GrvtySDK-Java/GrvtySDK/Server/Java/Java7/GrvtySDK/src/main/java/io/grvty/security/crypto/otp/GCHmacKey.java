@@ -0,0 +1,255 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security.crypto.otp;
+
+import io.grvty.security.crypto.Utilities;
+
+import java.security.Key;
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * An HMAC key in precomputed form. Holds the compression midstates of the
+ * inner (key ^ ipad) and outer (key ^ opad) key blocks so that generating a
+ * token does not need to hash the padded key blocks again.
+ *
+ * The midstates are equivalent to the key itself and must be protected as such.
+ * They are either held by the key or in a slot of GCHmacKeySlots, outside the
+ * Java heap.
+ */
+public final class GCHmacKey {
+    private final GCHmacAlgorithm hmac;
+    private final long[] midstate;
+    private final GCHmacKeySlots slots;
+    private final int slot;
+    private final int version;
+
+    private GCHmacKey(GCHmacAlgorithm hmac, long[] midstate) {
+        this.hmac = hmac;
+        this.midstate = midstate;
+        this.slots = null;
+        this.slot = 0;
+        this.version = 0;
+    }
+
+    GCHmacKey(GCHmacAlgorithm hmac, GCHmacKeySlots slots, int slot, int version) {
+        this.hmac = hmac;
+        this.midstate = null;
+        this.slots = slots;
+        this.slot = slot;
+        this.version = version;
+    }
+
+    /**
+     * Precompute an HMAC key from raw key bytes
+     * @param hmac HMAC algorithm the key is used with
+     * @param key raw key bytes
+     * @return precomputed key
+     */
+    public static GCHmacKey newInstance(GCHmacAlgorithm hmac, byte[] key) {
+        if (hmac == null) {
+            throw new IllegalArgumentException("GCHmacAlgorithm hmac must not be null.");
+        }
+        if (key == null) {
+            throw new IllegalArgumentException("byte[] key must not be null.");
+        }
+        return new GCHmacKey(hmac, GCHmacEngine.newInstance(hmac).precompute(key));
+    }
+
+    /**
+     * Precompute an HMAC key from a JCA key
+     * @param hmac HMAC algorithm the key is used with
+     * @param key JCA key
+     * @return precomputed key
+     */
+    public static GCHmacKey newInstance(GCHmacAlgorithm hmac, Key key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key key must not be null.");
+        }
+        byte[] encoded = key.getEncoded();
+        if (encoded == null) {
+            throw new IllegalArgumentException("Key key does not support encoding.");
+        }
+        try {
+            return newInstance(hmac, encoded);
+        } finally {
+            Arrays.fill(encoded, (byte) 0);
+        }
+    }
+
+    /**
+     * Get the HMAC algorithm of this key
+     * @return HMAC algorithm
+     */
+    public GCHmacAlgorithm getAlgorithm() {
+        return this.hmac;
+    }
+
+    /**
+     * Get the key slots holding this key
+     * @return key slots, null if the key holds its midstates itself
+     */
+    public GCHmacKeySlots getSlots() {
+        return this.slots;
+    }
+
+    /**
+     * Get the reference of this key in its key slots. A slot and version
+     * identify a key without reading its midstates.
+     * @return reference as returned by GCHmacKeySlots.put, GCHmacKeySlots.NONE
+     *         if the key holds its midstates itself
+     */
+    public long getReference() {
+        return this.slots == null ? GCHmacKeySlots.NONE : ((long) this.version << 32) | this.slot;
+    }
+
+    /**
+     * Check if the key was removed from its slot and no longer generates tokens
+     * @return true if the key was removed, false for keys not held in slots
+     */
+    public boolean isRemoved() {
+        return this.slots != null && !this.slots.contains(getReference());
+    }
+
+    /**
+     * Zero the midstates. Tokens generated with a destroyed key are meaningless.
+     * A key held in GCHmacKeySlots is only zeroed when it is removed from its slot.
+     */
+    public void destroy() {
+        if (this.midstate != null) {
+            Arrays.fill(this.midstate, 0L);
+        }
+    }
+
+    /**
+     * Create an independent copy of this key. The copy of a key held in
+     * GCHmacKeySlots holds its midstates on the heap.
+     * @return copy of the key
+     */
+    public GCHmacKey copy() {
+        return new GCHmacKey(this.hmac, this.midstate != null ? this.midstate.clone() : this.slots.read(this.slot, this.version));
+    }
+
+    /**
+     * Get a 64 bit fingerprint of the key. Equal keys have equal fingerprints,
+     * different keys collide with negligible probability. For in-process lookups only.
+     * @return key fingerprint
+     */
+    public long fingerprint() {
+        long[] midstate = getMidstate();
+        try {
+            long result = 0;
+            for (long value : midstate) {
+                result = Utilities.mix64(result ^ value) + 0x9e3779b97f4a7c15L;
+            }
+            return result;
+        } finally {
+            release(midstate);
+        }
+    }
+
+    /*
+     * Compute the HMAC of a TOTP message, the big-endian period followed by the unique id
+     * @return the HMAC. The array is reused by the engine's next computation.
+     */
+    byte[] hmac(GCHmacEngine engine, long period, byte[] uniqueId) {
+        Lock lock = this.slots == null ? null : this.slots.lockSlot(this.slot, this.version);
+        try {
+            begin(engine);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                engine.update((byte) (period >>> shift));
+            }
+            engine.update(uniqueId, 0, uniqueId.length);
+            return doFinal(engine);
+        } finally {
+            if (lock != null) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /*
+     * Compute the HMAC of a message
+     * @return the HMAC. The array is reused by the engine's next computation.
+     */
+    byte[] hmac(GCHmacEngine engine, byte[] data) {
+        Lock lock = this.slots == null ? null : this.slots.lockSlot(this.slot, this.version);
+        try {
+            begin(engine);
+            engine.update(data, 0, data.length);
+            return doFinal(engine);
+        } finally {
+            if (lock != null) {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void begin(GCHmacEngine engine) {
+        if (this.midstate != null) {
+            engine.begin(this.midstate);
+        } else {
+            this.slots.begin(engine, this.slot);
+        }
+    }
+
+    private byte[] doFinal(GCHmacEngine engine) {
+        return this.midstate != null ? engine.doFinal(this.midstate) : this.slots.doFinal(engine, this.slot);
+    }
+
+    /*
+     * Inner chaining state followed by the outer chaining state. Keys held in
+     * slots return a copy that must be passed to release.
+     */
+    private long[] getMidstate() {
+        return this.midstate != null ? this.midstate : this.slots.read(this.slot, this.version);
+    }
+
+    private void release(long[] midstate) {
+        if (midstate != this.midstate) {
+            Arrays.fill(midstate, 0L);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof GCHmacKey)) return false;
+        GCHmacKey other = (GCHmacKey) o;
+        if (!this.hmac.getAlgorithm().equals(other.hmac.getAlgorithm())) {
+            return false;
+        }
+        if (this.slots != null && this.slots == other.slots && this.slot == other.slot) {
+            return this.version == other.version;
+        }
+        long[] midstate = getMidstate();
+        try {
+            long[] otherMidstate = other.getMidstate();
+            try {
+                return Arrays.equals(midstate, otherMidstate);
+            } finally {
+                other.release(otherMidstate);
+            }
+        } finally {
+            release(midstate);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        long[] midstate = getMidstate();
+        try {
+            return Arrays.hashCode(midstate);
+        } finally {
+            release(midstate);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "GCHmacKey{" +
+                "algorithm='" + hmac.getAlgorithm() + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security.crypto.otp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Precomputed HMAC keys held outside the Java heap. The midstates of every key
+ * occupy a fixed width slot in direct buffers that are allocated a page at a
+ * time as slots are used, so millions of resident keys neither cost heap
+ * objects nor sit in memory the garbage collector copies around.
+ *
+ * A key is referenced by the slot number and the slot's version. Keys handed
+ * out by key(long) read their midstates straight from the buffer while
+ * generating a token. Removing a key zeroes its slot and bumps the version,
+ * after which the old reference fails with an IllegalStateException instead
+ * of using whichever key reuses the slot.
+ */
+public final class GCHmacKeySlots {
+    /** returned by put when all slots are in use */
+    public static final long NONE = -1;
+
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int MIDSTATE_LENGTH = 2 * GCHmacEngine.STATE_LENGTH;
+    private static final int LOCK_STRIPES = 256;
+
+    private final GCHmacAlgorithm hmac;
+    private final int capacity;
+    private final LongBuffer[] midstates;
+    // odd while the slot holds a key
+    private final IntBuffer[] versions;
+    private final ReentrantReadWriteLock[] locks;
+    private int[] free = new int[16];
+    private int freeCount;
+    private int allocated;
+    private int size;
+
+    /**
+     * Create an empty set of key slots
+     * @param hmac HMAC algorithm of the keys
+     * @param capacity maximum number of keys
+     */
+    public GCHmacKeySlots(GCHmacAlgorithm hmac, int capacity) {
+        if (hmac == null) {
+            throw new IllegalArgumentException("GCHmacAlgorithm hmac must not be null.");
+        }
+        if (capacity < 1 || capacity > (1 << 28)) {
+            throw new IllegalArgumentException(String.format("int capacity is %s. Must be between 0 and 2^28 + 1.", capacity));
+        }
+        this.hmac = hmac;
+        this.capacity = capacity;
+        int pages = (capacity + PAGE_MASK) >>> PAGE_BITS;
+        this.midstates = new LongBuffer[pages];
+        this.versions = new IntBuffer[pages];
+        this.locks = new ReentrantReadWriteLock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            this.locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Precompute a key into a free slot
+     * @param key raw HMAC key bytes, not retained
+     * @return reference of the key or NONE if all slots are in use
+     */
+    public synchronized long put(byte[] key) {
+        if (key == null) {
+            throw new IllegalArgumentException("byte[] key must not be null.");
+        }
+        int slot;
+        if (this.freeCount > 0) {
+            slot = this.free[--this.freeCount];
+        } else if (this.allocated < this.capacity) {
+            slot = this.allocated++;
+            allocatePage(slot >>> PAGE_BITS);
+        } else {
+            return NONE;
+        }
+        long[] midstate = GCHmacEngine.newInstance(this.hmac).precompute(key);
+        int version;
+        Lock lock = lock(slot).writeLock();
+        lock.lock();
+        try {
+            LongBuffer page = this.midstates[slot >>> PAGE_BITS];
+            int offset = (slot & PAGE_MASK) * MIDSTATE_LENGTH;
+            for (int i = 0; i < MIDSTATE_LENGTH; i++) {
+                page.put(offset + i, midstate[i]);
+            }
+            IntBuffer versions = this.versions[slot >>> PAGE_BITS];
+            version = versions.get(slot & PAGE_MASK) + 1;
+            versions.put(slot & PAGE_MASK, version);
+        } finally {
+            lock.unlock();
+            Arrays.fill(midstate, 0L);
+        }
+        this.size++;
+        return ((long) version << 32) | slot;
+    }
+
+    /**
+     * Get a key held in a slot. The key stays valid until it is removed.
+     * @param ref reference returned by put
+     * @return precomputed key reading its midstates from the slot
+     */
+    public GCHmacKey key(long ref) {
+        int slot = slot(ref);
+        if (ref == NONE || slot < 0 || slot >= this.capacity) {
+            throw new IllegalArgumentException(String.format("long ref is %s. Must be a reference returned by put.", ref));
+        }
+        return new GCHmacKey(this.hmac, this, slot, version(ref));
+    }
+
+    /**
+     * Check if a key is still held
+     * @param ref reference returned by put
+     * @return true if the key was not removed
+     */
+    public boolean contains(long ref) {
+        int slot = slot(ref);
+        if (ref == NONE || slot < 0 || slot >= this.capacity || this.versions[slot >>> PAGE_BITS] == null) {
+            return false;
+        }
+        Lock lock = lock(slot).readLock();
+        lock.lock();
+        try {
+            return this.versions[slot >>> PAGE_BITS].get(slot & PAGE_MASK) == version(ref);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove a key and zero its slot
+     * @param ref reference returned by put
+     * @return true if the key was held, false if it was already removed
+     */
+    public synchronized boolean remove(long ref) {
+        int slot = slot(ref);
+        if (ref == NONE || slot < 0 || slot >= this.allocated) {
+            return false;
+        }
+        Lock lock = lock(slot).writeLock();
+        lock.lock();
+        try {
+            IntBuffer versions = this.versions[slot >>> PAGE_BITS];
+            if (versions.get(slot & PAGE_MASK) != version(ref)) {
+                return false;
+            }
+            zero(slot);
+            versions.put(slot & PAGE_MASK, version(ref) + 1);
+        } finally {
+            lock.unlock();
+        }
+        if (this.freeCount == this.free.length) {
+            this.free = Arrays.copyOf(this.free, this.free.length * 2);
+        }
+        this.free[this.freeCount++] = slot;
+        this.size--;
+        return true;
+    }
+
+    /**
+     * Remove all keys and zero every slot
+     */
+    public synchronized void clear() {
+        for (int slot = 0; slot < this.allocated; slot++) {
+            Lock lock = lock(slot).writeLock();
+            lock.lock();
+            try {
+                IntBuffer versions = this.versions[slot >>> PAGE_BITS];
+                int version = versions.get(slot & PAGE_MASK);
+                if ((version & 1) != 0) {
+                    zero(slot);
+                    versions.put(slot & PAGE_MASK, version + 1);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        this.freeCount = 0;
+        this.free = new int[16];
+        // slots keep their versions, so they are handed out again in order
+        this.allocated = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Get the number of held keys
+     * @return number of keys
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Get the maximum number of keys
+     * @return capacity
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Get the HMAC algorithm of the keys
+     * @return HMAC algorithm
+     */
+    public GCHmacAlgorithm getAlgorithm() {
+        return this.hmac;
+    }
+
+    /**
+     * Get the slot number of a reference, e.g. to index data kept alongside the keys
+     * @param ref reference returned by put
+     * @return slot number
+     */
+    public static int slot(long ref) {
+        return (int) ref;
+    }
+
+    /*
+     * Lock a slot for reading and check that it still holds the referenced key.
+     * The lock must be released by the caller.
+     */
+    Lock lockSlot(int slot, int version) {
+        Lock lock = lock(slot).readLock();
+        lock.lock();
+        if (this.versions[slot >>> PAGE_BITS].get(slot & PAGE_MASK) != version) {
+            lock.unlock();
+            throw new IllegalStateException("The key was removed from its slot.");
+        }
+        return lock;
+    }
+
+    /*
+     * Start an HMAC from the inner midstate of a locked slot
+     */
+    void begin(GCHmacEngine engine, int slot) {
+        engine.begin(this.midstates[slot >>> PAGE_BITS], (slot & PAGE_MASK) * MIDSTATE_LENGTH);
+    }
+
+    /*
+     * Finish an HMAC with the outer midstate of a locked slot
+     */
+    byte[] doFinal(GCHmacEngine engine, int slot) {
+        return engine.doFinal(this.midstates[slot >>> PAGE_BITS], (slot & PAGE_MASK) * MIDSTATE_LENGTH);
+    }
+
+    /*
+     * Copy the midstates of a key onto the heap
+     */
+    long[] read(int slot, int version) {
+        Lock lock = lockSlot(slot, version);
+        try {
+            long[] midstate = new long[MIDSTATE_LENGTH];
+            LongBuffer page = this.midstates[slot >>> PAGE_BITS];
+            int offset = (slot & PAGE_MASK) * MIDSTATE_LENGTH;
+            for (int i = 0; i < MIDSTATE_LENGTH; i++) {
+                midstate[i] = page.get(offset + i);
+            }
+            return midstate;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void allocatePage(int page) {
+        if (this.midstates[page] == null) {
+            // the last page only holds the remaining slots
+            int slots = Math.min(PAGE_SIZE, this.capacity - (page << PAGE_BITS));
+            this.midstates[page] = ByteBuffer.allocateDirect(slots * MIDSTATE_LENGTH * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+            this.versions[page] = ByteBuffer.allocateDirect(slots * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+    }
+
+    private void zero(int slot) {
+        LongBuffer page = this.midstates[slot >>> PAGE_BITS];
+        int offset = (slot & PAGE_MASK) * MIDSTATE_LENGTH;
+        for (int i = 0; i < MIDSTATE_LENGTH; i++) {
+            page.put(offset + i, 0L);
+        }
+    }
+
+    private ReentrantReadWriteLock lock(int slot) {
+        return this.locks[slot & (LOCK_STRIPES - 1)];
+    }
+
+    private static int version(long ref) {
+        return (int) (ref >>> 32);
+    }
+}
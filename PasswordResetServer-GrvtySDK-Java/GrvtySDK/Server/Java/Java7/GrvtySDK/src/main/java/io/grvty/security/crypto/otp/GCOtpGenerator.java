@@ -3,12 +3,16 @@
  */
 package io.grvty.security.crypto.otp;
 
+import io.grvty.security.diagnostics.GSecDiagnosticEvent;
+import io.grvty.security.diagnostics.GSecDiagnosticService;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import javax.crypto.Mac;
 import java.security.GeneralSecurityException;
 import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
 import java.util.Arrays;
 
 /**
@@ -23,6 +27,8 @@ public class GCOtpGenerator {
 
     private final GCHmacAlgorithm hmac;
     private final int digits;
+    private final Provider provider;
+    private final ThreadLocal<GCHmacEngine> engines;
 
     /**
      * The default initializer for the OTP generator. This generator is compliant with
@@ -31,14 +37,34 @@ public class GCOtpGenerator {
      * @param digits the length of the output token
      */
     public GCOtpGenerator(GCHmacAlgorithm hmac, int digits) {
+        this(hmac, digits, resolveProvider(hmac));
+    }
+
+    /**
+     * Initializer for the OTP generator with an already resolved JCA provider.
+     * @param hmac HMAC algorithm to use to generate tokens
+     * @param digits the length of the output token
+     * @param provider the JCA provider of the HMAC algorithm
+     */
+    public GCOtpGenerator(GCHmacAlgorithm hmac, int digits, Provider provider) {
         if (hmac == null) {
             throw new IllegalArgumentException("GCHmacAlgorithm must not be null.");
         }
         if (digits < 5 || digits > 10) {
             throw new IllegalArgumentException(String.format("int digits is %s. must be between 5 and 11.", digits));
         }
+        if (provider == null) {
+            throw new IllegalArgumentException("Provider provider must not be null.");
+        }
         this.hmac = hmac;
         this.digits = digits;
+        this.provider = provider;
+        this.engines = new ThreadLocal<GCHmacEngine>() {
+            @Override
+            protected GCHmacEngine initialValue() {
+                return GCHmacEngine.newInstance(GCOtpGenerator.this.hmac);
+            }
+        };
     }
 
     /**
@@ -55,17 +81,115 @@ public class GCOtpGenerator {
         if (data == null) {
             throw new IllegalArgumentException("data[] data can't be null");
         }
-        if (key.getEncoded().length != this.hmac.getDigestLength()) {
-            throw new IllegalArgumentException(String.format("Key length is %s bytes. Must be %s bytes.", key.getEncoded().length, this.hmac.getDigestLength()));
-        }
         if (data.length < 8){
             throw new IllegalArgumentException(String.format("byte[] data is %s bytes. Must be at least 8 bytes.", data.length));
         }
-        Mac hmac = Mac.getInstance(this.hmac.getAlgorithm());
+        checkKeyLength(key);
+        Mac hmac = Mac.getInstance(this.hmac.getAlgorithm(), this.provider);
         hmac.init(key);
         byte[] hash = hmac.doFinal(data);
 
-        // Converts a generated OTP hash into a token
+        String result = formatOtp(truncate(hash));
+        traceGenerated(-1);
+        return result;
+    }
+
+    /**
+     * Generate an OTP token from a precomputed HMAC key. Only the message
+     * itself is hashed, the padded key blocks are resumed from the key's midstates.
+     * @param key precomputed OTP key
+     * @param data data to hash
+     * @return generated OTP token
+     */
+    public String generateOtp(GCHmacKey key, byte[] data) {
+        if (key == null) {
+            throw new IllegalArgumentException("GCHmacKey key can't be null.");
+        }
+        if (data == null) {
+            throw new IllegalArgumentException("data[] data can't be null");
+        }
+        if (!key.getAlgorithm().getAlgorithm().equals(this.hmac.getAlgorithm())) {
+            throw new IllegalArgumentException(String.format("Key algorithm is %s. Must be %s.", key.getAlgorithm().getAlgorithm(), this.hmac.getAlgorithm()));
+        }
+        if (data.length < 8){
+            throw new IllegalArgumentException(String.format("byte[] data is %s bytes. Must be at least 8 bytes.", data.length));
+        }
+        String result = formatOtp(truncate(key.hmac(this.engines.get(), data)));
+        traceGenerated(-1);
+        return result;
+    }
+
+    /**
+     * Generate the numeric value of a TOTP token without allocating. The
+     * message (big-endian period followed by the unique id) is fed straight
+     * into the calling thread's reused HMAC engine buffer.
+     * @param key precomputed OTP key
+     * @param period TOTP time period
+     * @param uniqueId unique account id
+     * @return numeric OTP token value, see formatOtp(int) for its text form
+     */
+    public int generateOtpValue(GCHmacKey key, long period, byte[] uniqueId) {
+        if (key == null) {
+            throw new IllegalArgumentException("GCHmacKey key can't be null.");
+        }
+        if (uniqueId == null) {
+            throw new IllegalArgumentException("byte[] uniqueId can't be null");
+        }
+        if (!key.getAlgorithm().getAlgorithm().equals(this.hmac.getAlgorithm())) {
+            throw new IllegalArgumentException(String.format("Key algorithm is %s. Must be %s.", key.getAlgorithm().getAlgorithm(), this.hmac.getAlgorithm()));
+        }
+        int result = truncate(key.hmac(this.engines.get(), period, uniqueId));
+        traceGenerated(period);
+        return result;
+    }
+
+    /**
+     * Convert a numeric OTP token value into its text form, left padded with "0"
+     * @param token numeric OTP token value
+     * @return OTP token
+     */
+    public String formatOtp(int token) {
+        if (token < 0) {
+            throw new IllegalArgumentException(String.format("int token is %s. Must be non-negative.", token));
+        }
+        char[] result = new char[this.digits];
+        for (int i = this.digits - 1; i >= 0; i--) {
+            result[i] = (char) ('0' + token % 10);
+            token /= 10;
+        }
+        return new String(result);
+    }
+
+    /**
+     * Get the HMAC algorithm used to generate tokens
+     * @return HMAC algorithm
+     */
+    public GCHmacAlgorithm getHmacAlgorithm() {
+        return this.hmac;
+    }
+
+    /**
+     * Get the number of digits that the OTP generator will return
+     * @return length of OTP token
+     */
+    public int getDigits() {
+        return this.digits;
+    }
+
+    /*
+     * Report a generated token. The token, the key and the message are never logged.
+     */
+    private void traceGenerated(long period) {
+        if (log.isTraceEnabled()) {
+            log.trace(String.format("OTP(alg=%s, tLen=%s, period=%s) generated", this.hmac, this.digits, period));
+        }
+        GSecDiagnosticService.event(GSecDiagnosticEvent.TOKEN_GENERATED, period, this.digits);
+    }
+
+    /*
+     * Converts a generated OTP hash into a numeric token (RFC 4226 dynamic truncation)
+     */
+    private int truncate(byte[] hash) {
         if (hash.length != this.hmac.getDigestLength()) {
             throw new IllegalArgumentException("Invalid TOTP hash length");
         }
@@ -74,21 +198,38 @@ public class GCOtpGenerator {
                 ((hash[offset + 1] & 0xff) << 16) |
                 ((hash[offset + 2] & 0xff) << 8) |
                 (hash[offset + 3] & 0xff);
-        int token = hashTruncated % DIGITS_POWER[this.digits];
-        String result = Integer.toString(token);
-        // left pad with "0" if shorter than desired length
-        while (result.length() < this.digits) {
-            result = "0" + result;
+        // a 10 digit token is the whole 31 bit truncated hash
+        return this.digits < DIGITS_POWER.length ? hashTruncated % DIGITS_POWER[this.digits] : hashTruncated;
+    }
+
+    /*
+     * Keys must be as long as the HMAC digest
+     */
+    private void checkKeyLength(Key key) {
+        byte[] encoded = key.getEncoded();
+        if (encoded == null) {
+            throw new IllegalArgumentException("Key key does not support encoding.");
+        }
+        int length = encoded.length;
+        Arrays.fill(encoded, (byte) 0);
+        if (length != this.hmac.getDigestLength()) {
+            throw new IllegalArgumentException(String.format("Key length is %s bytes. Must be %s bytes.", length, this.hmac.getDigestLength()));
         }
-        log.trace(String.format("OTP(alg=%s, tLen=%s, key=%s, data=%s)=%s", this.hmac, this.digits, key, Arrays.toString(data), result));
-        return result;
     }
 
     /**
-     * Get the number of digits that the OTP generator will return
-     * @return length of OTP token
+     * Look up the JCA provider that supplies the given HMAC algorithm.
+     * @param hmac HMAC algorithm
+     * @return the preferred provider for the algorithm
      */
-    public int getDigits() {
-        return this.digits;
+    public static Provider resolveProvider(GCHmacAlgorithm hmac) {
+        if (hmac == null) {
+            throw new IllegalArgumentException("GCHmacAlgorithm must not be null.");
+        }
+        try {
+            return Mac.getInstance(hmac.getAlgorithm()).getProvider();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(String.format("HMAC algorithm %s is not available.", hmac.getAlgorithm()), e);
+        }
     }
 }
@@ -0,0 +1,127 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security.crypto.otp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses user provided OTP tokens. The length check, the digit check and the
+ * conversion to the numeric token value are done in a single pass without
+ * regular expressions and without creating Strings, so tokens can be read
+ * straight from character or network buffers.
+ */
+public class GCOtpTokenParser {
+    /** the token has the wrong length or contains a character other than 0-9 */
+    public static final int INVALID = -1;
+    /** the token is well formed but larger than any truncated HMAC value, it can never match */
+    public static final int UNMATCHABLE = -2;
+
+    // prevent the class from being instantiated
+    private GCOtpTokenParser() {}
+
+    /**
+     * Parse a token
+     * @param token user provided token
+     * @param digits required token length
+     * @return numeric token value, INVALID or UNMATCHABLE
+     */
+    public static int parse(CharSequence token, int digits) {
+        if (token == null || token.length() != digits) {
+            return INVALID;
+        }
+        long value = 0;
+        for (int i = 0; i < digits; i++) {
+            int digit = token.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+        }
+        return toValue(value);
+    }
+
+    /**
+     * Parse a token held in a character array
+     * @param token characters of the user provided token
+     * @param offset start of the token
+     * @param length number of characters of the token
+     * @param digits required token length
+     * @return numeric token value, INVALID or UNMATCHABLE
+     */
+    public static int parse(char[] token, int offset, int length, int digits) {
+        if (token == null || length != digits) {
+            return INVALID;
+        }
+        checkBounds(token.length, offset, length);
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int digit = token[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+        }
+        return toValue(value);
+    }
+
+    /**
+     * Parse an ASCII encoded token held in a byte array
+     * @param token bytes of the user provided token
+     * @param offset start of the token
+     * @param length number of bytes of the token
+     * @param digits required token length
+     * @return numeric token value, INVALID or UNMATCHABLE
+     */
+    public static int parse(byte[] token, int offset, int length, int digits) {
+        if (token == null || length != digits) {
+            return INVALID;
+        }
+        checkBounds(token.length, offset, length);
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int digit = token[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+        }
+        return toValue(value);
+    }
+
+    /**
+     * Parse an ASCII encoded token from the remaining bytes of a buffer. The
+     * position of the buffer is not changed.
+     * @param token buffer holding the user provided token between its position and limit
+     * @param digits required token length
+     * @return numeric token value, INVALID or UNMATCHABLE
+     */
+    public static int parse(ByteBuffer token, int digits) {
+        if (token == null || token.remaining() != digits) {
+            return INVALID;
+        }
+        long value = 0;
+        int position = token.position();
+        for (int i = position; i < position + digits; i++) {
+            int digit = token.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+        }
+        return toValue(value);
+    }
+
+    /*
+     * Truncated HMAC values are 31 bit, larger tokens can never match
+     */
+    private static int toValue(long value) {
+        return value > Integer.MAX_VALUE ? UNMATCHABLE : (int) value;
+    }
+
+    private static void checkBounds(int arrayLength, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > arrayLength - length) {
+            throw new IndexOutOfBoundsException(String.format("offset=%s, length=%s, array length=%s", offset, length, arrayLength));
+        }
+    }
+}
@@ -3,6 +3,8 @@
  */
 package io.grvty.security.crypto.otp;
 
+import io.grvty.security.diagnostics.GSecDiagnosticEvent;
+import io.grvty.security.diagnostics.GSecDiagnosticService;
 import io.grvty.security.utils.time.GSecTime;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -59,11 +61,26 @@ public class GCTotpCounter {
         } else {
             period = (adjustedTime - (this.periodLength - 1)) / this.periodLength;
         }
-        log.trace(String.format("TOTPCount(time=%s, t0=%s, x=%s)=%s", seconds, this.initialTime, this.periodLength, period));
+        if (log.isTraceEnabled()) {
+            log.trace(String.format("TOTPCount(time=%s, t0=%s, x=%s)=%s", seconds, this.initialTime, this.periodLength, period));
+        }
+        GSecDiagnosticService.event(GSecDiagnosticEvent.TOTP_COUNT, seconds, period);
         return period;
     }
 
     public long getPeriodLength() {
         return periodLength;
     }
+
+    /**
+     * Get the configured initial time
+     * @return initial time in seconds since epoch
+     */
+    public long getInitialTime() {
+        return initialTime;
+    }
+
+    GSecTime getClock() {
+        return clock;
+    }
 }
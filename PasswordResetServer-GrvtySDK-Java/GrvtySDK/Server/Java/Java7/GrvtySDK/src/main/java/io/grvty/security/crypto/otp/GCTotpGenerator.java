@@ -9,7 +9,6 @@ import org.apache.commons.logging.LogFactory;
 import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.Key;
-import java.util.Arrays;
 
 /**
  * Generate TOTP tokens. This token generator complies with RFC 6238.
@@ -42,10 +41,46 @@ public class GCTotpGenerator {
             throw new IllegalArgumentException(String.format("byte[] data is %s bytes. Must be at least 8 bytes.", data.length));
         }
         String token = generator.generateOtp(key, data);
-        log.trace(String.format("Token:%s generated for key:%s\tdata:%s", token, key, Arrays.toString(data)));
+        if (log.isTraceEnabled()) {
+            log.trace(String.format("Token generated for data of %s bytes", data.length));
+        }
+        return token;
+    }
+
+    /**
+     * Generate OTP token given a precomputed key and data (time period + unique user id)
+     * @param key precomputed (device secret ^ app secret)
+     * @param data (time period + unique user id)
+     * @return otp token
+     */
+    public String generateOtpToken(GCHmacKey key, byte[] data) {
+        if (key == null) {
+            throw new IllegalArgumentException("GCHmacKey key can't be null.");
+        }
+        if (data == null) {
+            throw new IllegalArgumentException("data[] data can't be null");
+        }
+        if (data.length < 8) {
+            throw new IllegalArgumentException(String.format("byte[] data is %s bytes. Must be at least 8 bytes.", data.length));
+        }
+        String token = generator.generateOtp(key, data);
+        if (log.isTraceEnabled()) {
+            log.trace(String.format("Token generated for data of %s bytes", data.length));
+        }
         return token;
     }
 
+    /**
+     * Generate the numeric value of an OTP token without allocating
+     * @param key precomputed (device secret ^ app secret)
+     * @param period time period
+     * @param uniqueId unique user id
+     * @return numeric otp token value
+     */
+    public int generateOtpValue(GCHmacKey key, long period, byte[] uniqueId) {
+        return generator.generateOtpValue(key, period, uniqueId);
+    }
+
     public String generateOtpToken(Key key) {
         if (key == null) {
             throw new IllegalArgumentException("Key key can't be null.");
@@ -53,7 +88,9 @@ public class GCTotpGenerator {
         try {
             long period = totpCounter.totpCount();
             String token = generator.generateOtp(key, periodToBytes(period));
-            log.trace(String.format("Token:%s generated for key:%s\tperiod:%s", token, key, period));
+            if (log.isTraceEnabled()) {
+                log.trace(String.format("Token generated for period:%s", period));
+            }
             return token;
         } catch (GeneralSecurityException e) {
             e.printStackTrace();
@@ -69,6 +106,23 @@ public class GCTotpGenerator {
         return this.generator.getDigits();
     }
 
+    /**
+     * Convert a numeric OTP token value into its text form
+     * @param token numeric OTP token value
+     * @return OTP token
+     */
+    public String formatOtp(int token) {
+        return this.generator.formatOtp(token);
+    }
+
+    /**
+     * Get the HMAC algorithm used to generate tokens
+     * @return HMAC algorithm
+     */
+    public GCHmacAlgorithm getHmacAlgorithm() {
+        return this.generator.getHmacAlgorithm();
+    }
+
     private byte[] periodToBytes(long period) {
         return ByteBuffer.allocate(8).putLong(period).array();
     }
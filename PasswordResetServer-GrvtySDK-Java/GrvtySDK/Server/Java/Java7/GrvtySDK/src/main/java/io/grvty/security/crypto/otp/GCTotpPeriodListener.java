@@ -0,0 +1,15 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security.crypto.otp;
+
+/**
+ * The interface for receiving TOTP period changes from a GCTotpTicker
+ */
+public interface GCTotpPeriodListener {
+    /**
+     * Called on the ticker thread when a new time period starts. Must not block.
+     * @param period the new current time period
+     */
+    void periodChanged(long period);
+}
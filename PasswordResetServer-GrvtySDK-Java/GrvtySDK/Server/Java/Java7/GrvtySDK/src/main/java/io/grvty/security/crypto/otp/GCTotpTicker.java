@@ -0,0 +1,127 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security.crypto.otp;
+
+import io.grvty.security.utils.time.GSecTime;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A TOTP counter that computes the current period only at period boundaries.
+ * A daemon thread wakes up when the next period starts, publishes it and
+ * notifies the registered listeners; totpCount() is a single volatile read.
+ * The thread also wakes up at least once a second, so the published period
+ * follows jumps of the clock. Right after a boundary the previous period may
+ * be returned for a few milliseconds, which the validation window absorbs.
+ */
+public final class GCTotpTicker extends GCTotpCounter {
+    private static Log log = LogFactory.getLog(GCTotpTicker.class);
+    private static final long MAX_SLEEP_MILLIS = 1000;
+
+    private final CopyOnWriteArrayList<GCTotpPeriodListener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler;
+    private final Runnable tick;
+    private volatile long period;
+
+    /**
+     * Create a ticker and start its thread
+     * @param initialTime initial time (other than January 1, 1970). must be at least 0
+     * @param periodLength the length of a time period. must be a positive integer
+     * @param clock source of the current time, null for the system time
+     */
+    public GCTotpTicker(long initialTime, long periodLength, GSecTime clock) {
+        super(initialTime, periodLength, clock);
+        this.period = super.totpCount();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "grvty-totp-ticker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.tick = new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        };
+        schedule();
+    }
+
+    /**
+     * Get the current TOTP time period as published by the ticker thread
+     * @return time period
+     */
+    @Override
+    public long totpCount() {
+        return this.period;
+    }
+
+    /**
+     * Register a listener for period changes
+     * @param listener listener to notify
+     */
+    public void addPeriodListener(GCTotpPeriodListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("GCTotpPeriodListener listener must not be null");
+        }
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Remove a registered listener
+     * @param listener listener to remove
+     */
+    public void removePeriodListener(GCTotpPeriodListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Stop the ticker thread. The last published period is returned from then on.
+     */
+    public void stop() {
+        this.scheduler.shutdownNow();
+    }
+
+    private void tick() {
+        try {
+            long current = super.totpCount();
+            if (current != this.period) {
+                this.period = current;
+                for (GCTotpPeriodListener listener : this.listeners) {
+                    try {
+                        listener.periodChanged(current);
+                    } catch (RuntimeException e) {
+                        log.error("period listener failed", e);
+                    }
+                }
+            }
+        } finally {
+            schedule();
+        }
+    }
+
+    /*
+     * Wake up at the next period boundary, or in a second at the latest
+     */
+    private void schedule() {
+        long seconds = getClock().currentTimeSeconds();
+        long boundary = getInitialTime() + (totpCount(seconds) + 1) * getPeriodLength();
+        long delay = (boundary - seconds) * 1000 - System.currentTimeMillis() % 1000;
+        delay = Math.max(1, Math.min(delay, MAX_SLEEP_MILLIS));
+        try {
+            this.scheduler.schedule(this.tick, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // stopped
+        }
+    }
+}
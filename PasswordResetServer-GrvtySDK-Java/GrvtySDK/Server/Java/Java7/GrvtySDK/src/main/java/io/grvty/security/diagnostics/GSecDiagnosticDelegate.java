@@ -0,0 +1,19 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security.diagnostics;
+
+/**
+ * The interface for receiving diagnostic events. Events are delivered
+ * synchronously on the validating thread, implementations should be cheap
+ * and must not block.
+ */
+public interface GSecDiagnosticDelegate {
+    /**
+     * Handle diagnostic event
+     * @param event type of the event
+     * @param value first value of the event, see GSecDiagnosticEvent
+     * @param detail second value of the event, see GSecDiagnosticEvent
+     */
+    void diagnosticEvent(GSecDiagnosticEvent event, long value, long detail);
+}
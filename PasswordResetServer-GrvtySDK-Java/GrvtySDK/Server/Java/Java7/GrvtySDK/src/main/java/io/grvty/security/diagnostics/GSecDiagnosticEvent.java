@@ -0,0 +1,36 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security.diagnostics;
+
+/**
+ * Diagnostic events emitted on the validation path. Each event carries two
+ * primitive values whose meaning is documented per event. Events never carry
+ * tokens or key material.
+ */
+public enum GSecDiagnosticEvent {
+    /** a time period was computed. value: seconds since epoch, detail: time period */
+    TOTP_COUNT,
+    /** a token was generated. value: time period or -1 if unknown, detail: token length */
+    TOKEN_GENERATED,
+    /** a token was rejected before validation. value: required token length, detail: 0 */
+    TOKEN_MALFORMED,
+    /** a device key was checked against a token. value: time period the window is centered on, detail: 1 if matched, 0 otherwise */
+    DEVICE_CHECKED,
+    /** the devices of an account were checked. value: number of devices checked, fewer than registered if one matched early, detail: 0 */
+    DEVICES_FOUND,
+    /** a token was looked up in the token index instead of checking the devices. value: time period, detail: 1 if a device matched, 0 otherwise */
+    TOKEN_INDEXED,
+    /** an attempt was rejected because its account made too many attempts. value: time period, detail: 0 */
+    TOKEN_THROTTLED,
+    /** a token was rejected because it already matched no device in this period. value: time period, detail: 0 */
+    TOKEN_KNOWN_INVALID,
+    /** a token was rejected because it was already used. value: time period, detail: 0 */
+    TOKEN_REPLAYED,
+    /** an account was validated. value: time period, detail: 1 if a device matched, 0 otherwise */
+    TOKEN_VALIDATED,
+    /** an attempt was handed to the data layer. value: time period, detail: 1 if the attempt was valid and stored, 0 otherwise */
+    ATTEMPT_RECORDED,
+    /** a batch of attempts was stored by the attempt recorder. value: number of attempts, detail: microseconds the sink took */
+    ATTEMPTS_FLUSHED
+}
@@ -0,0 +1,60 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty.security.diagnostics;
+
+/**
+ * The central switchboard to dispatch diagnostic events. When no delegate is
+ * set emitting an event costs a single volatile read and nothing is allocated.
+ */
+public class GSecDiagnosticService {
+    private static volatile GSecDiagnosticDelegate diagnosticDelegate;
+
+    // prevent the class from being instantiated
+    private GSecDiagnosticService() {}
+
+    /**
+     * Set the delegate that is going to receive the diagnostic events.
+     * @param delegate object that implements the GSecDiagnosticDelegate interface.
+     */
+    public static void setDiagnosticDelegate(GSecDiagnosticDelegate delegate) {
+        diagnosticDelegate = delegate;
+    }
+
+    /**
+     * Remove the registered diagnostic delegate
+     */
+    public static void removeDiagnosticDelegate() {
+        diagnosticDelegate = null;
+    }
+
+    /**
+     * Get the currently set diagnostic delegate
+     * @return current delegate or null if none is set
+     */
+    public static GSecDiagnosticDelegate getDiagnosticDelegate() {
+        return diagnosticDelegate;
+    }
+
+    /**
+     * Check if a delegate is set. Callers only need this to skip work that is
+     * done just to compute event values.
+     * @return true if events are delivered
+     */
+    public static boolean isEnabled() {
+        return diagnosticDelegate != null;
+    }
+
+    /**
+     * Dispatch an event to the current delegate, if any
+     * @param event type of the event
+     * @param value first value of the event
+     * @param detail second value of the event
+     */
+    public static void event(GSecDiagnosticEvent event, long value, long detail) {
+        GSecDiagnosticDelegate delegate = diagnosticDelegate;
+        if (delegate != null) {
+            delegate.diagnosticEvent(event, value, detail);
+        }
+    }
+}
@@ -1,33 +1,92 @@
 /*
  * Created by Jaime Chon on 3/5/16.
-        The getCurrentSecond method does not check if the time value in milliseconds returned by
-
-the operating system changed since the last call. Attackers can find a way to fix the
-
-system's time value, for example abusing vulnerabilities in the operating system or
-
-virtualization environment of the server. Old tokens can be reused and brute-force attacks
-
-can be facilitated if the server time can be fixed to a known value.
-// TODO: Verify that time moves forward. Use only secure protocols for time synchronization with remote trusted servers. Detect and report inconsistencies.
-NTP MiTM attack using Delorean
-http://www.en.pentester.es/2015/10/delorean.html
-
-Bypassing WordPress Login Pages with WPBiff
-https://blog.gaborszathmari.me/2015/11/11/bypassing-wordpress-login-pages-with-wpbiff/
-https://blog.gaborszathmari.me/2015/11/11/bypassing-wordpress-login-pages-with-wpbiff/tripelover-crontab/
-https://blog.gaborszathmari.me/2015/11/11/tricking-google-authenticator-totp-with-ntp/
-https://bugzilla.redhat.com/show_bug.cgi?id=1271076
+ *
+ * Attackers that can set the server time, for example through an NTP
+ * man-in-the-middle or a vulnerable operating system or virtualization
+ * environment, can reuse old tokens, and brute-force attacks get easier if
+ * the time can be fixed to a known value. Regressions and stalls are reported
+ * as security alerts, but a clock that is moved forward can not be detected
+ * here. Use only secure protocols for time synchronization with remote
+ * trusted servers.
+ *
+ * NTP MiTM attack using Delorean
+ * http://www.en.pentester.es/2015/10/delorean.html
+ *
+ * Bypassing WordPress Login Pages with WPBiff
+ * https://blog.gaborszathmari.me/2015/11/11/bypassing-wordpress-login-pages-with-wpbiff/
+ * https://blog.gaborszathmari.me/2015/11/11/bypassing-wordpress-login-pages-with-wpbiff/tripelover-crontab/
+ * https://blog.gaborszathmari.me/2015/11/11/tricking-google-authenticator-totp-with-ntp/
+ * https://bugzilla.redhat.com/show_bug.cgi?id=1271076
  */
 package io.grvty.security.utils.time;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A monotonic view of the system time. Every reading is checked against the
+ * highest time seen so far, which is kept in an AtomicLong and only moved
+ * forward with compare-and-set, so concurrent readers neither block nor raise
+ * false alerts. A clock that goes backwards is reported once as
+ * systemTimeRegression and the mark is moved back to the reading. The reading
+ * itself is returned, so a clock that was stepped forward and corrected does not
+ * pin the time to a future period. A clock that stands still while the monotonic
+ * nanosecond timer keeps running is reported once as systemTimeStall.
+ *
+ * In coarse mode a single daemon ticker thread reads the clock at a fixed rate
+ * and callers get the cached seconds from a volatile read.
+ */
 public class GSecTime {
     private static final long MILLIS_IN_SECONDS = 1000;  // # of milliseconds in a second
+    private static final long STALL_NANOS = TimeUnit.SECONDS.toNanos(2);  // time without progress before a stall is reported
 
-    private long lastKnownTime;
+    private final AtomicLong lastKnownTime;  // high-water mark in milliseconds
+    private volatile long lastAdvanceNanos;  // System.nanoTime() when the high-water mark last moved
+    private volatile boolean stallReported;
+    private final ScheduledExecutorService ticker;  // null unless in coarse mode
+    private volatile long cachedSeconds;
 
     public GSecTime() {
-        lastKnownTime = System.currentTimeMillis();
+        this(null);
+    }
+
+    private GSecTime(ScheduledExecutorService ticker) {
+        this.lastKnownTime = new AtomicLong(systemTimeMillis());
+        this.lastAdvanceNanos = System.nanoTime();
+        this.ticker = ticker;
+        this.cachedSeconds = this.lastKnownTime.get() / MILLIS_IN_SECONDS;
+    }
+
+    /**
+     * Create a clock in coarse mode. A daemon thread reads the system time every
+     * tickMillis milliseconds, currentTimeSeconds() returns the last reading and
+     * may lag the system time by up to one tick.
+     * @param tickMillis interval between clock readings in milliseconds, between 1 and 1000
+     * @return coarse clock, stop it with stop() when it is no longer used
+     */
+    public static GSecTime newCoarseInstance(long tickMillis) {
+        if (tickMillis < 1 || tickMillis > MILLIS_IN_SECONDS) {
+            throw new IllegalArgumentException(String.format("long tickMillis is %s. Must be between 0 and 1001.", tickMillis));
+        }
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "grvty-time-ticker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final GSecTime time = new GSecTime(ticker);
+        ticker.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                time.cachedSeconds = time.readClock() / MILLIS_IN_SECONDS;
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        return time;
     }
 
     /**
@@ -35,20 +94,77 @@ public class GSecTime {
      * @return seconds since epoch (January 1, 1970)
      */
     public long currentTimeSeconds() {
-        // Get the current time in seconds since Epoch time (January 1, 1970)
-        long milliSeconds = System.currentTimeMillis();
-        /* TODO
-        should be ">=", but can't do this without a major rework, since calls will
-        need to be batched.
-        This will also be a major issue when dealing with multiple threads. E.g.
-        two validations might need to be performed at the same time.
-         */
-        if (lastKnownTime > milliSeconds) {
-//        if (lastKnownTime >= milliSeconds) {
-            GSecTimeAlert.systemTimeRegression();
-        } else {
-            lastKnownTime = milliSeconds;
+        if (this.ticker != null) {
+            return this.cachedSeconds;
+        }
+        return readClock() / MILLIS_IN_SECONDS;
+    }
+
+    /**
+     * Check if the clock is in coarse mode
+     * @return true if the time is read by a ticker thread
+     */
+    public boolean isCoarse() {
+        return this.ticker != null;
+    }
+
+    /**
+     * Stop the ticker thread of a coarse clock. The clock keeps returning the
+     * last reading. Has no effect on other clocks.
+     */
+    public void stop() {
+        if (this.ticker != null) {
+            this.ticker.shutdownNow();
+        }
+    }
+
+    /**
+     * Read the system time
+     * @return milliseconds since epoch (January 1, 1970)
+     */
+    protected long systemTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /*
+     * Read the system time in milliseconds and move the high-water mark.
+     * The mark is read before the clock, so a reading below it can only be
+     * caused by the clock going backwards and never by a concurrent reader.
+     */
+    private long readClock() {
+        long known = this.lastKnownTime.get();
+        long milliSeconds = systemTimeMillis();
+        if (milliSeconds < known) {
+            // only the reader that moves the mark back reports the regression
+            if (this.lastKnownTime.compareAndSet(known, milliSeconds)) {
+                GSecTimeAlert.systemTimeRegression();
+            }
+            return milliSeconds;
+        }
+        if (milliSeconds == known) {
+            checkStall();
+            return milliSeconds;
+        }
+        while (!this.lastKnownTime.compareAndSet(known, milliSeconds)) {
+            known = this.lastKnownTime.get();
+            if (known >= milliSeconds) {
+                // a concurrent reader moved the mark further
+                return milliSeconds;
+            }
+        }
+        this.lastAdvanceNanos = System.nanoTime();
+        this.stallReported = false;
+        return milliSeconds;
+    }
+
+    /*
+     * Report once per stall if the system time did not change although
+     * the monotonic timer shows that time has passed
+     */
+    private void checkStall() {
+        if (!this.stallReported && System.nanoTime() - this.lastAdvanceNanos > STALL_NANOS) {
+            this.stallReported = true;
+            GSecTimeAlert.systemTimeStall();
         }
-        return milliSeconds / MILLIS_IN_SECONDS;
     }
 }
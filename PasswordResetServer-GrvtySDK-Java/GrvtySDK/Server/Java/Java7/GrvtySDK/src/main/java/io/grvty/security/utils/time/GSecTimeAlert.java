@@ -31,6 +31,6 @@ class GSecTimeAlert {
      * convenience method to dispatch a TOTP security alert
      */
     private static void sendSecurityAlert(GSecAlert alert) {
-        GSecAlertService.getSecurityAlertDelegate().securityAlert(alert);
+        GSecAlertService.sendSecurityAlert(alert);
     }
 }
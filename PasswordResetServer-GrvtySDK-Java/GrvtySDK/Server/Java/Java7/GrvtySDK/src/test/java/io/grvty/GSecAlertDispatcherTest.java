@@ -0,0 +1,88 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty;
+
+import io.grvty.security.alerts.GSecAlert;
+import io.grvty.security.alerts.GSecAlertDelegate;
+import io.grvty.security.alerts.GSecAlertDispatcher;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GSecAlertDispatcherTest {
+
+    @Test
+    public void testCoalescing() throws InterruptedException {
+        final AtomicInteger delivered = new AtomicInteger();
+        GSecAlertDispatcher dispatcher = new GSecAlertDispatcher(new GSecAlertDelegate() {
+            @Override
+            public void securityAlert(GSecAlert alert) {
+                delivered.incrementAndGet();
+            }
+        }, 16, 60000, GSecAlertDispatcher.OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 100; i++) {
+            dispatcher.securityAlert(new GSecAlert("CRITICAL", "io.grvty.test", "systemTimeRegression", "systemTimeRegression"));
+        }
+        dispatcher.securityAlert(new GSecAlert("CRITICAL", "io.grvty.test", "systemTimeStall", "systemTimeStall"));
+        dispatcher.shutdown(5000);
+        assertEquals(2, delivered.get());
+        assertEquals(101, dispatcher.getReceivedCount());
+        assertEquals(99, dispatcher.getCoalescedCount());
+    }
+
+    @Test
+    public void testSuppressedCountIsFlushedWhenTheWindowExpires() throws InterruptedException {
+        final List<String> descriptions = new CopyOnWriteArrayList<>();
+        GSecAlertDispatcher dispatcher = new GSecAlertDispatcher(new GSecAlertDelegate() {
+            @Override
+            public void securityAlert(GSecAlert alert) {
+                descriptions.add(alert.getDescription());
+            }
+        }, 16, 100, GSecAlertDispatcher.OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 5; i++) {
+            dispatcher.securityAlert(new GSecAlert("CRITICAL", "io.grvty.test", "systemTimeRegression", "systemTimeRegression"));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (descriptions.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("The suppressed count is reported without another alert.", 2, descriptions.size());
+        assertEquals("systemTimeRegression (4 similar alerts suppressed)", descriptions.get(1));
+
+        Thread.sleep(300);
+        assertEquals("An expired window without suppressed alerts reports nothing.", 2, descriptions.size());
+        dispatcher.securityAlert(new GSecAlert("CRITICAL", "io.grvty.test", "systemTimeRegression", "systemTimeRegression"));
+        dispatcher.shutdown(5000);
+        assertEquals(3, descriptions.size());
+        assertEquals("systemTimeRegression", descriptions.get(2));
+    }
+
+    @Test
+    public void testSlowDelegateDoesNotBlock() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        GSecAlertDispatcher dispatcher = new GSecAlertDispatcher(new GSecAlertDelegate() {
+            @Override
+            public void securityAlert(GSecAlert alert) {
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {}
+            }
+        }, 4, 0, GSecAlertDispatcher.OverflowPolicy.DROP_NEWEST);
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            dispatcher.securityAlert(new GSecAlert("CRITICAL", "io.grvty.test", "alert" + i, "alert"));
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertTrue(dispatcher.getDroppedCount() >= 95);
+        release.countDown();
+        dispatcher.shutdown(5000);
+        assertEquals(100, dispatcher.getDeliveredCount() + dispatcher.getDroppedCount());
+    }
+}
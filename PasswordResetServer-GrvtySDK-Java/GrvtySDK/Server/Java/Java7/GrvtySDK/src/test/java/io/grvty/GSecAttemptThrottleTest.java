@@ -0,0 +1,131 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty;
+
+import io.grvty.security.GSecAttemptThrottle;
+import io.grvty.security.alerts.GSecAlert;
+import io.grvty.security.alerts.GSecAlertDelegate;
+import io.grvty.security.alerts.GSecAlertService;
+import io.grvty.security.crypto.Utilities;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GSecAttemptThrottleTest {
+
+    @After
+    public void tearDown() {
+        GSecAlertService.removeSecurityAlertDelegate();
+    }
+
+    @Test
+    public void testThrottleAndAlertOnce() {
+        final AtomicInteger alerts = new AtomicInteger();
+        GSecAlertService.setSecurityAlertDelegate(new GSecAlertDelegate() {
+            @Override
+            public void securityAlert(GSecAlert alert) {
+                assertEquals("otpAttemptsThrottled", alert.getAlert());
+                alerts.incrementAndGet();
+            }
+        });
+        GSecAttemptThrottle throttle = new GSecAttemptThrottle(5, 1000, 1000);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(throttle.tryAcquire(1, 100 + i));
+        }
+        assertFalse(throttle.tryAcquire(1, 200));
+        assertFalse(throttle.tryAcquire(1, 300));
+        assertTrue("Other accounts are not affected.", throttle.tryAcquire(2, 300));
+        assertEquals(1, alerts.get());
+        assertEquals(2, throttle.getThrottled());
+    }
+
+    @Test
+    public void testSlidingWindow() {
+        GSecAttemptThrottle throttle = new GSecAttemptThrottle(4, 1000, 1000);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(throttle.tryAcquire(1, 900));
+        }
+        // the previous window still weighs 3/4 at 1250 ms
+        assertTrue(throttle.tryAcquire(1, 1250));
+        assertFalse(throttle.tryAcquire(1, 1250));
+        // 4 * 1/4 + 2 attempts at 1750 ms
+        assertTrue(throttle.tryAcquire(1, 1750));
+        assertFalse(throttle.tryAcquire(1, 1750));
+        // counters older than the previous window are dropped
+        assertTrue(throttle.tryAcquire(1, 5000));
+        assertEquals(1, throttle.size());
+    }
+
+    @Test
+    public void testExpiryIsPerStripe() {
+        GSecAttemptThrottle throttle = new GSecAttemptThrottle(4, 1000, 1000);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(throttle.tryAcquire(i, 900));
+        }
+        assertTrue(throttle.tryAcquire(0, 5000));
+        int size = throttle.size();
+        assertTrue("An attempt only expires the stripe it touches.", size > 0 && size < 100);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(throttle.tryAcquire(i, 5000));
+        }
+        assertEquals(100, throttle.size());
+    }
+
+    @Test
+    public void testFullTableDoesNotAdmitUntrackedAttempts() {
+        final List<String> alerts = new ArrayList<>();
+        GSecAlertService.setSecurityAlertDelegate(new GSecAlertDelegate() {
+            @Override
+            public void securityAlert(GSecAlert alert) {
+                alerts.add(alert.getAlert());
+            }
+        });
+        // one counter per stripe
+        GSecAttemptThrottle throttle = new GSecAttemptThrottle(3, 1000, 64);
+        long victim = Utilities.hash64("user_1234567890".getBytes());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(throttle.tryAcquire(victim, 100));
+        }
+        assertFalse(throttle.tryAcquire(victim, 100));
+        int admitted = 0;
+        for (long account = 1; account <= 10000; account++) {
+            if (throttle.tryAcquire(account, 200)) {
+                admitted++;
+            }
+            assertFalse("Filling the table must not reset the counter of an account under attack.", throttle.tryAcquire(victim, 200));
+        }
+        assertTrue(throttle.size() <= 64);
+        assertTrue("Accounts without attempts replace each other.", admitted > 9000);
+        assertTrue("Accounts that find no room are rejected.", admitted < 10000);
+        assertTrue(alerts.contains("otpThrottleFull"));
+        assertEquals(10001 + 10000 - admitted, throttle.getThrottled());
+    }
+
+    @Test
+    public void testFullTableKeepsBusyAccounts() {
+        GSecAttemptThrottle throttle = new GSecAttemptThrottle(3, 1000, 1024);
+        for (long account = 0; account < 1024; account++) {
+            for (int i = 0; i < 3; i++) {
+                throttle.tryAcquire(account, 100);
+            }
+        }
+        int rejected = 0;
+        for (long account = 1024; account < 2048; account++) {
+            if (!throttle.tryAcquire(account, 200)) {
+                rejected++;
+            }
+        }
+        assertTrue("A table full of busy accounts fails closed.", rejected > 0);
+        for (long account = 0; account < 1024; account++) {
+            if (throttle.tryAcquire(account, 300)) {
+                fail("The counter of a busy account was evicted.");
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Created by agent on 10/18/26.
+ */
+package io.grvty;
+
+import io.grvty.sdk.totp.GDataTotp;
+import io.grvty.security.GSecKeyCache;
+import io.grvty.security.GSecOtpValidator;
+import io.grvty.security.GSecSecretKey;
+import io.grvty.security.GSecTotpKey;
+import io.grvty.security.crypto.GSecTotpCounter;
+import io.grvty.security.crypto.Utilities;
+import io.grvty.security.crypto.otp.GCHmacAlgorithm;
+import io.grvty.security.crypto.otp.GCHmacKey;
+import io.grvty.security.crypto.otp.GCOtpGenerator;
+import io.grvty.security.crypto.otp.GCTotpCounter;
+import io.grvty.security.crypto.otp.GCTotpGenerator;
+import org.junit.Test;
+
+import static io.grvty.sdk.totp.GDataTotp.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GSecKeyCacheTest {
+    private static final byte[] APP_SECRET = "supersecretapplicationserverkey!".getBytes();
+
+    private final GCTotpGenerator generator = new GCTotpGenerator(new GCOtpGenerator(GCHmacAlgorithm.HmacSHA256, 8), new GCTotpCounter(0, 30));
+
+    private static byte[] rawKey(int i) {
+        return String.format("%032d", i).getBytes();
+    }
+
+    private static GSecTotpKey newKey(int i, byte[] unique) {
+        byte[] rawKey = rawKey(i);
+        return new GSecTotpKey(new GSecSecretKey(rawKey, GCHmacAlgorithm.HmacSHA256.getAlgorithm()), unique,
+                GCHmacKey.newInstance(GCHmacAlgorithm.HmacSHA256, rawKey(i)));
+    }
+
+    private int expectedToken(int i, long period, byte[] unique) {
+        return this.generator.generateOtpValue(GCHmacKey.newInstance(GCHmacAlgorithm.HmacSHA256, rawKey(i)), period, unique);
+    }
+
+    @Test
+    public void testEvictedKeyIsZeroedOnRelease() {
+        GSecKeyCache cache = new GSecKeyCache(1, 300);
+        byte[] unique = "user_1".getBytes();
+        GSecTotpKey first = newKey(1, unique);
+        cache.put(Utilities.secureKey(APP_SECRET, rawKey(1)), unique, first);
+        GSecTotpKey cached = cache.get(Utilities.secureKey(APP_SECRET, rawKey(1)), unique);
+        assertSame(first, cached);
+
+        // evicts the first key while it is held twice
+        cache.put(Utilities.secureKey(APP_SECRET, rawKey(2)), unique, newKey(2, unique));
+        assertNull(cache.get(Utilities.secureKey(APP_SECRET, rawKey(1)), unique));
+        assertEquals("An evicted key in use keeps working.", expectedToken(1, 100, unique),
+                this.generator.generateOtpValue(first.getHmacKey(GCHmacAlgorithm.HmacSHA256), 100, unique));
+        first.release();
+        assertFalse(((GSecSecretKey) first.getKey()).isDestroyed());
+        cached.release();
+        assertTrue("The last user zeroes an evicted key.", ((GSecSecretKey) first.getKey()).isDestroyed());
+        cached.release();
+
+        GSecTotpKey unused = newKey(3, unique);
+        unused.retire();
+        assertTrue("A key without users is zeroed when it is retired.", ((GSecSecretKey) unused.getKey()).isDestroyed());
+    }
+
+    @Test
+    public void testEvictionUnderConcurrentValidation() throws InterruptedException {
+        final GDataTotp data = new GDataTotp(APP_SECRET, GCHmacAlgorithm.HmacSHA256, new GSecKeyCache(2, 300));
+        final GSecOtpValidator validator = new GSecOtpValidator(this.generator, new GSecTotpCounter(1, 1));
+        final byte[] unique = "user_1234567890".getBytes();
+        final int devices = 8;
+        final int[] tokens = new int[devices];
+        final List<GTKeyInterface> keys = new ArrayList<>();
+        for (int i = 0; i < devices; i++) {
+            tokens[i] = expectedToken(i, 100, unique);
+            final byte[] wrappedKey = Utilities.secureKey(APP_SECRET, rawKey(i));
+            keys.add(new GTKeyInterface() {
+                @Override
+                public byte[] getUniqueVal() {
+                    return unique;
+                }
+
+                @Override
+                public byte[] getOtpKey() {
+                    return wrappedKey;
+                }
+            });
+        }
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int seed = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int n = 0; n < 2000; n++) {
+                        int i = (n * 3 + seed) % devices;
+                        GSecTotpKey device = data.unwrapDevice(keys.get(i));
+                        try {
+                            // every other device evicts keys the other threads are using
+                            if (validator.matchOtpToken(device, tokens[i], 100) != 100
+                                    || validator.matchOtpToken(device, tokens[(i + 1) % devices] ^ 1, 100) != GSecOtpValidator.NO_MATCH) {
+                                failures.incrementAndGet();
+                            }
+                        } catch (RuntimeException e) {
+                            failures.incrementAndGet();
+                        } finally {
+                            device.release();
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("Evicting keys never changes a validation.", 0, failures.get());
+        assertEquals(2, data.getKeyCache().size());
+    }
+}
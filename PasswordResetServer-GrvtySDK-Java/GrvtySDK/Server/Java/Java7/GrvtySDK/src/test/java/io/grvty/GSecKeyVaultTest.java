@@ -0,0 +1,140 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty;
+
+import io.grvty.security.GSecKeyVault;
+import io.grvty.security.GSecTokenCache;
+import io.grvty.security.GSecTokenIndex;
+import io.grvty.security.GSecTotpKey;
+import io.grvty.security.crypto.GSecTotpCounter;
+import io.grvty.security.crypto.Utilities;
+import io.grvty.security.crypto.otp.GCHmacAlgorithm;
+import io.grvty.security.crypto.otp.GCHmacKey;
+import io.grvty.security.crypto.otp.GCOtpGenerator;
+import io.grvty.security.crypto.otp.GCTotpCounter;
+import io.grvty.security.crypto.otp.GCTotpGenerator;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GSecKeyVaultTest {
+    private static final byte[] APP_SECRET = "supersecretapplicationserverkey!".getBytes();
+
+    private final GCOtpGenerator generator = new GCOtpGenerator(GCHmacAlgorithm.HmacSHA256, 8);
+
+    private static byte[] rawKey(int i) {
+        return String.format("%032d", i).getBytes();
+    }
+
+    @Test
+    public void testTokensMatchHeapKeys() {
+        GSecKeyVault vault = new GSecKeyVault(GCHmacAlgorithm.HmacSHA256, 100, 32);
+        byte[] unique = "user_1234567890".getBytes();
+        for (int i = 0; i < 10; i++) {
+            byte[] wrapped = Utilities.secureKey(APP_SECRET, rawKey(i));
+            GSecTotpKey stored = vault.put(wrapped, unique, rawKey(i));
+            assertNotNull(stored);
+            assertNull("The vault has no Key object.", stored.getKey());
+            GCHmacKey heap = GCHmacKey.newInstance(GCHmacAlgorithm.HmacSHA256, rawKey(i));
+            GCHmacKey vaulted = vault.get(wrapped, unique).getHmacKey(GCHmacAlgorithm.HmacSHA256);
+            assertEquals(this.generator.generateOtpValue(heap, 100, unique), this.generator.generateOtpValue(vaulted, 100, unique));
+            assertEquals(heap, vaulted);
+            assertEquals(heap.hashCode(), vaulted.hashCode());
+            assertEquals(heap.fingerprint(), vaulted.fingerprint());
+        }
+        assertEquals(10, vault.size());
+        assertNull("Other unique ids are not found.", vault.get(Utilities.secureKey(APP_SECRET, rawKey(0)), "user_0987654321".getBytes()));
+    }
+
+    @Test
+    public void testRemovedKeyFails() {
+        GSecKeyVault vault = new GSecKeyVault(GCHmacAlgorithm.HmacSHA256, 100, 32);
+        byte[] unique = "user_1234567890".getBytes();
+        byte[] wrapped = Utilities.secureKey(APP_SECRET, rawKey(1));
+        GCHmacKey key = vault.put(wrapped, unique, rawKey(1)).getHmacKey(GCHmacAlgorithm.HmacSHA256);
+        GCHmacKey copy = key.copy();
+        assertTrue(vault.remove(wrapped, unique));
+        assertFalse(vault.remove(wrapped, unique));
+        assertNull(vault.get(wrapped, unique));
+        // the slot is reused by another device
+        assertNotNull(vault.put(Utilities.secureKey(APP_SECRET, rawKey(2)), unique, rawKey(2)));
+        try {
+            this.generator.generateOtpValue(key, 100, unique);
+            fail("A removed key must not generate tokens.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals("Heap copies are independent of the vault.",
+                this.generator.generateOtpValue(GCHmacKey.newInstance(GCHmacAlgorithm.HmacSHA256, rawKey(1)), 100, unique),
+                this.generator.generateOtpValue(copy, 100, unique));
+    }
+
+    @Test
+    public void testFullAndClear() {
+        GSecKeyVault vault = new GSecKeyVault(GCHmacAlgorithm.HmacSHA256, 3, 8);
+        byte[] unique = "user_1".getBytes();
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(vault.put(Utilities.secureKey(APP_SECRET, rawKey(i)), unique, rawKey(i)));
+        }
+        assertNull("The vault is full.", vault.put(Utilities.secureKey(APP_SECRET, rawKey(3)), unique, rawKey(3)));
+        assertNull("The unique id is too long.", vault.put(Utilities.secureKey(APP_SECRET, rawKey(4)), "user_1234567890".getBytes(), rawKey(4)));
+        vault.clear();
+        assertEquals(0, vault.size());
+        assertNull(vault.get(Utilities.secureKey(APP_SECRET, rawKey(0)), unique));
+        assertNotNull(vault.put(Utilities.secureKey(APP_SECRET, rawKey(3)), unique, rawKey(3)));
+    }
+
+    @Test
+    public void testTokenCacheDropsRemovedKeys() {
+        GSecKeyVault vault = new GSecKeyVault(GCHmacAlgorithm.HmacSHA256, 100, 32);
+        GSecTokenCache cache = new GSecTokenCache(3, 10);
+        vault.addRemovalListener(cache);
+        GCTotpGenerator totpGenerator = new GCTotpGenerator(this.generator, new GCTotpCounter(0, 30));
+        byte[] unique = "user_1234567890".getBytes();
+        byte[] wrapped = Utilities.secureKey(APP_SECRET, rawKey(1));
+        GCHmacKey key = vault.put(wrapped, unique, rawKey(1)).getHmacKey(GCHmacAlgorithm.HmacSHA256);
+        GSecTokenCache.Device device = cache.device(key, unique);
+        device.put(100, 12345678);
+        assertSame("Handles of one vault slot share the device.", device,
+                cache.device(vault.get(wrapped, unique).getHmacKey(GCHmacAlgorithm.HmacSHA256), unique));
+
+        assertTrue(vault.remove(wrapped, unique));
+        assertEquals("A removed key is dropped from the cache.", 0, cache.size());
+        assertNull(cache.device(key, unique));
+        // the slot is reused by the next device
+        GCHmacKey next = vault.put(Utilities.secureKey(APP_SECRET, rawKey(2)), unique, rawKey(2)).getHmacKey(GCHmacAlgorithm.HmacSHA256);
+        assertEquals(GSecTokenCache.MISS, cache.device(next, unique).get(100));
+        vault.clear();
+        assertEquals(0, cache.size());
+        cache.prewarm(101, totpGenerator);
+    }
+
+    @Test
+    public void testTokenIndexDropsRemovedKeys() {
+        final GSecKeyVault vault = new GSecKeyVault(GCHmacAlgorithm.HmacSHA256, 100, 32);
+        GCTotpGenerator totpGenerator = new GCTotpGenerator(this.generator, new GCTotpCounter(0, 30));
+        GSecTokenIndex index = new GSecTokenIndex(totpGenerator, new GSecTotpCounter(1, 1), 2, 10);
+        vault.addRemovalListener(index);
+        final byte[] unique = "user_1234567890".getBytes();
+        GSecTokenIndex.Devices devices = new GSecTokenIndex.Devices() {
+            @Override
+            public int size() {
+                return 4;
+            }
+
+            @Override
+            public GSecTotpKey device(int i) {
+                byte[] wrapped = Utilities.secureKey(APP_SECRET, rawKey(i));
+                GSecTotpKey stored = vault.get(wrapped, unique);
+                return stored != null ? stored : vault.put(wrapped, unique, rawKey(i));
+            }
+        };
+        int token = totpGenerator.generateOtpValue(GCHmacKey.newInstance(GCHmacAlgorithm.HmacSHA256, rawKey(3)), 100, unique);
+        assertEquals(100, index.match(42, 1, token, 100, devices));
+        assertTrue(vault.remove(Utilities.secureKey(APP_SECRET, rawKey(0)), unique));
+        assertEquals("An index holding a removed key is dropped.", 0, index.size());
+        assertEquals("The index is rebuilt on the next lookup.", 100, index.match(42, 1, token, 101, devices));
+        assertEquals(1, index.size());
+    }
+}
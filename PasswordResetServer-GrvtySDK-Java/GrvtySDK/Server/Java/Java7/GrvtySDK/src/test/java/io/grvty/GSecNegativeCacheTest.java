@@ -0,0 +1,37 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty;
+
+import io.grvty.security.GSecNegativeCache;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GSecNegativeCacheTest {
+
+    @Test
+    public void testKnownInvalidWithinPeriod() {
+        GSecNegativeCache cache = new GSecNegativeCache(1000);
+        assertFalse(cache.isKnownInvalid(42, 46119246, 100));
+        cache.markInvalid(42, 46119246, 100);
+        assertTrue(cache.isKnownInvalid(42, 46119246, 100));
+        assertFalse("Other tokens are not affected.", cache.isKnownInvalid(42, 46119247, 100));
+        assertFalse("Other accounts are not affected.", cache.isKnownInvalid(43, 46119246, 100));
+    }
+
+    @Test
+    public void testExpiryAtPeriodChange() {
+        GSecNegativeCache cache = new GSecNegativeCache(1000);
+        for (int i = 0; i < 100; i++) {
+            cache.markInvalid(i, 12345678, 100);
+        }
+        assertEquals(100, cache.size());
+        assertFalse(cache.isKnownInvalid(0, 12345678, 101));
+        int size = cache.size();
+        assertTrue("A request only expires the stripe it touches.", size > 0 && size < 100);
+        cache.periodChanged(101);
+        assertEquals(0, cache.size());
+        assertFalse(cache.isKnownInvalid(1, 12345678, 101));
+    }
+}
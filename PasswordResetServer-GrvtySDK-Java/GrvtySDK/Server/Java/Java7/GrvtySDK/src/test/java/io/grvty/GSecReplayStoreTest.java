@@ -0,0 +1,54 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty;
+
+import io.grvty.security.GSecReplayStore;
+import io.grvty.security.crypto.GSecTotpCounter;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GSecReplayStoreTest {
+
+    @Test
+    public void testReplayRejectedWithinWindow() {
+        GSecReplayStore store = new GSecReplayStore(new GSecTotpCounter(1, 1), 1000);
+        long account = 42;
+        assertFalse(store.isUsed(account, 46119246, 100));
+        assertTrue(store.markUsed(account, 46119246, 101, 100));
+        assertTrue(store.isUsed(account, 46119246, 100));
+        assertFalse(store.markUsed(account, 46119246, 101, 100));
+        assertFalse("Other accounts are not affected.", store.isUsed(account + 1, 46119246, 100));
+        assertTrue(store.isUsed(account, 46119246, 102));
+    }
+
+    @Test
+    public void testExpiry() {
+        GSecReplayStore store = new GSecReplayStore(new GSecTotpCounter(1, 1), 1000);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(store.markUsed(i, 12345678, 100, 100));
+        }
+        assertEquals(100, store.size());
+        assertFalse(store.isUsed(0, 12345678, 102));
+        int size = store.size();
+        assertTrue("A request only expires the stripe it touches.", size > 0 && size < 100);
+        store.periodChanged(102);
+        assertEquals(0, store.size());
+        assertTrue(store.markUsed(0, 12345678, 102, 102));
+    }
+
+    @Test
+    public void testFullStoreRejectsTokens() {
+        GSecReplayStore store = new GSecReplayStore(new GSecTotpCounter(1, 1), 64);
+        int remembered = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (store.markUsed(i, 12345678, 100, 100)) {
+                remembered++;
+                assertTrue(store.isUsed(i, 12345678, 100));
+            }
+        }
+        assertEquals("Tokens that cannot be remembered are refused.", store.size(), remembered);
+        assertTrue(remembered <= 64);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty;
+
+import io.grvty.security.alerts.GSecAlert;
+import io.grvty.security.alerts.GSecAlertDelegate;
+import io.grvty.security.alerts.GSecAlertService;
+import io.grvty.security.crypto.otp.GCTotpPeriodListener;
+import io.grvty.security.crypto.otp.GCTotpTicker;
+import io.grvty.security.utils.time.GSecTime;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GSecTimeTest {
+
+    @Test
+    public void testNoFalseRegressionUnderConcurrency() throws InterruptedException {
+        final AtomicInteger alerts = new AtomicInteger();
+        GSecAlertService.setSecurityAlertDelegate(new GSecAlertDelegate() {
+            @Override
+            public void securityAlert(GSecAlert alert) {
+                alerts.incrementAndGet();
+            }
+        });
+        final AtomicInteger backwards = new AtomicInteger();
+        final GSecTime time = new GSecTime();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long last = 0;
+                    for (int j = 0; j < 200000; j++) {
+                        long now = time.currentTimeSeconds();
+                        if (now < last) {
+                            backwards.incrementAndGet();
+                        }
+                        last = now;
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, backwards.get());
+        assertEquals(0, alerts.get());
+    }
+
+    @Test
+    public void testClockStepForwardAndBack() {
+        final AtomicInteger alerts = new AtomicInteger();
+        GSecAlertService.setSecurityAlertDelegate(new GSecAlertDelegate() {
+            @Override
+            public void securityAlert(GSecAlert alert) {
+                alerts.incrementAndGet();
+            }
+        });
+        final long[] millis = {3000000};
+        GSecTime time = new GSecTime() {
+            @Override
+            protected long systemTimeMillis() {
+                return millis[0];
+            }
+        };
+        assertEquals(3000, time.currentTimeSeconds());
+        millis[0] = 9000000;
+        assertEquals(9000, time.currentTimeSeconds());
+        millis[0] = 3001000;
+        assertEquals("A corrected clock is not pinned to the future.", 3001, time.currentTimeSeconds());
+        assertEquals(1, alerts.get());
+        millis[0] = 3002000;
+        assertEquals(3002, time.currentTimeSeconds());
+        assertEquals("The regression is reported once.", 1, alerts.get());
+    }
+
+    @Test
+    public void testCoarseTime()throws InterruptedException {
+        GSecTime time = GSecTime.newCoarseInstance(10);
+        try {
+            assertTrue(time.isCoarse());
+            Thread.sleep(50);
+            long system = System.currentTimeMillis() / 1000;
+            assertTrue(Math.abs(system - time.currentTimeSeconds()) <= 1);
+        } finally {
+            time.stop();
+        }
+    }
+
+    @Test
+    public void testTotpTickerPublishesPeriod() throws InterruptedException {
+        final long[] seconds = {3000};
+        GSecTime clock = new GSecTime() {
+            @Override
+            public long currentTimeSeconds() {
+                synchronized (seconds) {
+                    return seconds[0];
+                }
+            }
+        };
+        final BlockingQueue<Long> periods = new LinkedBlockingQueue<>();
+        GCTotpTicker ticker = new GCTotpTicker(0, 30, clock);
+        try {
+            ticker.addPeriodListener(new GCTotpPeriodListener() {
+                @Override
+                public void periodChanged(long period) {
+                    periods.add(period);
+                }
+            });
+            assertEquals(100, ticker.totpCount());
+            synchronized (seconds) {
+                seconds[0] = 3030;
+            }
+            assertEquals(Long.valueOf(101), periods.poll(5, TimeUnit.SECONDS));
+            assertEquals(101, ticker.totpCount());
+        } finally {
+            ticker.stop();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty;
+
+import io.grvty.security.GSecStripedTable;
+import io.grvty.security.GSecTokenIndex;
+import io.grvty.security.GSecTotpKey;
+import io.grvty.security.crypto.GSecTotpCounter;
+import io.grvty.security.crypto.otp.GCHmacAlgorithm;
+import io.grvty.security.crypto.otp.GCOtpGenerator;
+import io.grvty.security.crypto.otp.GCTotpCounter;
+import io.grvty.security.crypto.otp.GCTotpGenerator;
+import org.junit.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.*;
+
+public class GSecTokenIndexTest {
+    private final GCTotpGenerator generator = new GCTotpGenerator(new GCOtpGenerator(GCHmacAlgorithm.HmacSHA256, 8), new GCTotpCounter(0, 30));
+    private final GSecTotpCounter window = new GSecTotpCounter(1, 1);
+
+    private static GSecTokenIndex.Devices devices(final int count, final int seed) {
+        return new GSecTokenIndex.Devices() {
+            @Override
+            public int size() {
+                return count;
+            }
+
+            @Override
+            public GSecTotpKey device(int index) {
+                byte[] key = String.format("%032d", seed * 100000 + index).getBytes();
+                return new GSecTotpKey(new SecretKeySpec(key, GCHmacAlgorithm.HmacSHA256.getAlgorithm()), ("device_" + index).getBytes());
+            }
+        };
+    }
+
+    private int token(GSecTokenIndex.Devices devices, int index, long period) {
+        GSecTotpKey device = devices.device(index);
+        return this.generator.generateOtpValue(device.getHmacKey(GCHmacAlgorithm.HmacSHA256), period, device.getUnique());
+    }
+
+    @Test
+    public void testMatchesEveryDeviceAndPeriod() {
+        GSecTokenIndex index = new GSecTokenIndex(this.generator, this.window, 2, 10);
+        GSecTokenIndex.Devices devices = devices(50, 1);
+        for (int i = 0; i < 50; i += 7) {
+            for (long period = 99; period <= 101; period++) {
+                assertEquals(period, index.match(42, 1, token(devices, i, period), 100, devices));
+            }
+        }
+        assertEquals(GSecTokenIndex.NO_MATCH, index.match(42, 1, token(devices, 3, 98), 100, devices));
+        assertEquals(GSecTokenIndex.NO_MATCH, index.match(42, 1, token(devices, 3, 102), 100, devices));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testMovesWithThePeriod() {
+        GSecTokenIndex index = new GSecTokenIndex(this.generator, this.window, 2, 10);
+        GSecTokenIndex.Devices devices = devices(20, 2);
+        int old = token(devices, 5, 99);
+        int next = token(devices, 5, 102);
+        assertEquals(99, index.match(42, 1, old, 100, devices));
+        assertEquals(GSecTokenIndex.NO_MATCH, index.match(42, 1, next, 100, devices));
+        assertEquals(GSecTokenIndex.NO_MATCH, index.match(42, 1, old, 101, devices));
+        assertEquals(102, index.match(42, 1, next, 101, devices));
+        assertEquals(101, index.match(42, 1, token(devices, 19, 101), 101, devices));
+        assertEquals("Moving back recomputes the older periods.", 99, index.match(42, 1, old, 100, devices));
+    }
+
+    @Test
+    public void testRebuiltWhenDevicesChange() {
+        GSecTokenIndex index = new GSecTokenIndex(this.generator, this.window, 2, 10);
+        GSecTokenIndex.Devices before = devices(10, 3);
+        GSecTokenIndex.Devices after = devices(12, 4);
+        int removed = token(before, 0, 100);
+        int added = token(after, 11, 100);
+        assertEquals(100, index.match(42, 1, removed, 100, before));
+        assertEquals(100, index.match(42, 2, added, 100, after));
+        assertEquals(GSecTokenIndex.NO_MATCH, index.match(42, 2, removed, 100, after));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testFullAndExpiry() {
+        GSecTokenIndex index = new GSecTokenIndex(this.generator, this.window, 2, 2);
+        GSecTokenIndex.Devices devices = devices(4, 5);
+        int token = token(devices, 1, 100);
+        assertEquals(100, index.match(1, 1, token, 100, devices));
+        assertEquals(100, index.match(2, 1, token, 100, devices));
+        assertEquals(GSecStripedTable.ABSENT, index.match(3, 1, token, 100, devices));
+        index.periodChanged(102);
+        assertEquals("Accounts not validated for a whole window are dropped.", 0, index.size());
+        assertEquals(GSecTokenIndex.NO_MATCH, index.match(3, 1, token, 102, devices));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testIdleAccountsExpireWhenFull() {
+        GSecTokenIndex index = new GSecTokenIndex(this.generator, this.window, 2, 2);
+        GSecTokenIndex.Devices devices = devices(4, 5);
+        assertEquals(100, index.match(1, 1, token(devices, 1, 100), 100, devices));
+        assertEquals(100, index.match(2, 1, token(devices, 1, 100), 100, devices));
+        assertEquals(102, index.match(1, 1, token(devices, 1, 102), 102, devices));
+        assertEquals("Lookups do not sweep while there is room.", 2, index.size());
+        assertEquals(102, index.match(3, 1, token(devices, 1, 102), 102, devices));
+        assertEquals("The idle account makes room.", 2, index.size());
+        assertEquals(GSecStripedTable.ABSENT, index.match(4, 1, token(devices, 1, 102), 102, devices));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty;
+
+import io.grvty.sdk.totp.GTMappedAccountStore;
+import io.grvty.security.crypto.Utilities;
+import org.junit.Test;
+
+import static io.grvty.sdk.totp.GDataTotp.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GTMappedAccountStoreTest {
+    private static final byte[] APP_SECRET = "supersecretapplicationserverkey!".getBytes();
+
+    private static byte[] wrappedKey(int i) {
+        return Utilities.secureKey(APP_SECRET, String.format("%032d", i).getBytes());
+    }
+
+    private static File newFile() throws IOException {
+        File file = File.createTempFile("accounts", ".store");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void testKeysSurviveReopen() throws IOException {
+        File file = newFile();
+        GTMappedAccountStore store = new GTMappedAccountStore(file, 100, 32, 32, 3);
+        for (int i = 0; i < 30; i++) {
+            assertTrue(store.addKey(("user_" + (i % 10)).getBytes(), wrappedKey(i)));
+        }
+        assertNull(store.getAccount("user_10".getBytes()));
+        store.close();
+
+        store = new GTMappedAccountStore(file, 100, 32, 32, 3);
+        try {
+            assertEquals(30, store.size());
+            assertEquals("Closing checkpoints every key.", 0, store.getRecovered());
+            List<GTKeyInterface> keys = store.getAccount("user_3".getBytes()).getKeys();
+            assertEquals(3, keys.size());
+            assertArrayEquals("The newest key comes first.", wrappedKey(23), keys.get(0).getOtpKey());
+            assertArrayEquals(wrappedKey(13), keys.get(1).getOtpKey());
+            assertArrayEquals(wrappedKey(3), keys.get(2).getOtpKey());
+            assertArrayEquals("user_3".getBytes(), keys.get(2).getUniqueVal());
+        } finally {
+            store.close();
+        }
+        try {
+            new GTMappedAccountStore(file, 200, 32, 32, 3);
+            fail("A store must be opened with the parameters it was created with.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRecoversAfterCrash() throws IOException {
+        File file = newFile();
+        GTMappedAccountStore store = new GTMappedAccountStore(file, 200, 32, 32, 3);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(store.addKey(("user_" + (i % 7)).getBytes(), wrappedKey(i)));
+        }
+        // not closed, the keys after the last checkpoint are recovered from the log
+        GTMappedAccountStore reopened = new GTMappedAccountStore(file, 200, 32, 32, 3);
+        try {
+            assertEquals(100, reopened.size());
+            assertEquals(100 - 64, reopened.getRecovered());
+            assertEquals(15, reopened.getAccount("user_0".getBytes()).getKeys().size());
+            assertArrayEquals(wrappedKey(98), reopened.getAccount("user_0".getBytes()).getKeys().get(0).getOtpKey());
+        } finally {
+            reopened.close();
+        }
+        store.close();
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws IOException {
+        File file = newFile();
+        GTMappedAccountStore store = new GTMappedAccountStore(file, 10, 16, 32, 3);
+        assertTrue(store.addKey("user_1".getBytes(), wrappedKey(1)));
+        assertTrue(store.addKey("user_1".getBytes(), wrappedKey(2)));
+        // crash before a checkpoint with the second record only partly on disk:
+        // 64 byte header, 32 index entries of 16 bytes, 64 byte records
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(64 + 32 * 16 + 64 + 16 + 16);
+            raf.write(0xff);
+        } finally {
+            raf.close();
+        }
+        GTMappedAccountStore reopened = new GTMappedAccountStore(file, 10, 16, 32, 3);
+        try {
+            assertEquals(1, reopened.size());
+            assertEquals(1, reopened.getRecovered());
+            List<GTKeyInterface> keys = reopened.getAccount("user_1".getBytes()).getKeys();
+            assertEquals(1, keys.size());
+            assertArrayEquals(wrappedKey(1), keys.get(0).getOtpKey());
+            assertTrue("The torn record is overwritten.", reopened.addKey("user_1".getBytes(), wrappedKey(3)));
+            assertArrayEquals(wrappedKey(3), reopened.getAccount("user_1".getBytes()).getKeys().get(0).getOtpKey());
+            assertEquals(2, reopened.getAccount("user_1".getBytes()).getKeys().size());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testFullStoreAndReplays() throws IOException {
+        GTMappedAccountStore store = new GTMappedAccountStore(newFile(), 2, 16, 32, 3);
+        try {
+            assertTrue(store.addKey("user_1".getBytes(), wrappedKey(1)));
+            assertTrue(store.addKey("user_2".getBytes(), wrappedKey(2)));
+            assertFalse("The store is full.", store.addKey("user_1".getBytes(), wrappedKey(3)));
+            GTMappedAccountStore.Account user1 = store.getAccount("user_1".getBytes());
+            GTMappedAccountStore.Account user2 = store.getAccount("user_2".getBytes());
+            assertTrue(user1.addOtpToken(100, "12345678", true));
+            assertFalse("Token attacks allowed.", user1.addOtpToken(101, "12345678", true));
+            assertTrue("Tokens are remembered per account.", user2.addOtpToken(101, "12345678", true));
+            assertTrue(user1.addOtpToken(101, "87654321", false));
+            assertTrue("Tokens expire after the replay periods.", user1.addOtpToken(104, "12345678", true));
+            Iterator<GTKeyInterface> keys = user1.iterateKeys();
+            assertArrayEquals(wrappedKey(1), keys.next().getOtpKey());
+            assertFalse(keys.hasNext());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testReplaysSurviveReopen() throws IOException {
+        File file = newFile();
+        // 2 records index 4 accounts, so the ring holds 4 tokens
+        GTMappedAccountStore store = new GTMappedAccountStore(file, 2, 16, 32, 3);
+        assertTrue(store.addKey("user_1".getBytes(), wrappedKey(1)));
+        GTMappedAccountStore.Account user1 = store.getAccount("user_1".getBytes());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(user1.addOtpToken(100, String.format("%08d", i), true));
+        }
+        assertFalse("Tokens that cannot be persisted are refused.", user1.addOtpToken(100, "87654321", true));
+        // not closed, accepted tokens are on disk before they are accepted
+        GTMappedAccountStore reopened = new GTMappedAccountStore(file, 2, 16, 32, 3);
+        try {
+            GTMappedAccountStore.Account account = reopened.getAccount("user_1".getBytes());
+            assertFalse("Token attacks allowed after a restart.", account.addOtpToken(101, "00000003", true));
+            assertFalse("The ring is still full.", account.addOtpToken(103, "87654321", true));
+            assertTrue("Expired slots are reused.", account.addOtpToken(104, "87654321", true));
+            assertTrue("Tokens expire after the replay periods.", account.addOtpToken(104, "00000000", true));
+            assertFalse(account.addOtpToken(105, "87654321", true));
+        } finally {
+            reopened.close();
+        }
+        store.close();
+    }
+}
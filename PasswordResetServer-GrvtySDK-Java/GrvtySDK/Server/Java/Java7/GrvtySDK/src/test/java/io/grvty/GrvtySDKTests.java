@@ -3,24 +3,44 @@
  */
 package io.grvty;
 
+import io.grvty.sdk.totp.GTInMemoryAccount;
+import io.grvty.sdk.totp.TotpAttempt;
+import io.grvty.sdk.totp.TotpAttemptLog;
 import io.grvty.sdk.totp.TotpValidator;
+import io.grvty.security.GSecDeviceHints;
+import io.grvty.security.GSecDriftStore;
+import io.grvty.security.GSecOtpValidator;
+import io.grvty.security.GSecTokenCache;
+import io.grvty.security.GSecTotpKey;
 import io.grvty.security.alerts.GSecAlert;
 import io.grvty.security.alerts.GSecAlertDelegate;
+import io.grvty.security.crypto.GSecTotpCounter;
 import io.grvty.security.crypto.Utilities;
 import io.grvty.security.crypto.otp.GCHmacAlgorithm;
+import io.grvty.security.crypto.otp.GCHmacKey;
 import io.grvty.security.crypto.otp.GCOtpGenerator;
 import io.grvty.security.crypto.otp.GCTotpCounter;
 import io.grvty.security.crypto.otp.GCTotpGenerator;
+import io.grvty.security.diagnostics.GSecDiagnosticDelegate;
+import io.grvty.security.diagnostics.GSecDiagnosticEvent;
+import io.grvty.security.diagnostics.GSecDiagnosticService;
 import static io.grvty.sdk.totp.GDataTotp.*;
 
 import io.grvty.security.utils.time.GSecTime;
+import org.junit.Before;
 import org.junit.Test;
 
 import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -109,6 +129,49 @@ public class GrvtySDKTests {
         }
     }
 
+    private class StreamingAccount extends Account implements GTStreamingAccountInterface {
+        private int fetched;
+        private boolean closed;
+
+        StreamingAccount(String username) {
+            super(username);
+        }
+
+        @Override
+        public Iterator<GTKeyInterface> iterateKeys() {
+            return new KeyCursor(getKeys().iterator());
+        }
+
+        private class KeyCursor implements Iterator<GTKeyInterface>, AutoCloseable {
+            private final Iterator<GTKeyInterface> rows;
+
+            KeyCursor(Iterator<GTKeyInterface> rows) {
+                this.rows = rows;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return this.rows.hasNext();
+            }
+
+            @Override
+            public GTKeyInterface next() {
+                StreamingAccount.this.fetched++;
+                return this.rows.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+                StreamingAccount.this.closed = true;
+            }
+        }
+    }
+
     private class Database {
         private Map<String, Account> data;
 
@@ -142,12 +205,30 @@ public class GrvtySDKTests {
         }
     }
 
+    private byte[] appSecret;
+    private Key key;
+    private GCTotpCounter totpCounter;
+    private GCTotpGenerator generator;
+
 //    @Rule
 //    public final ExpectedException exception = ExpectedException.none();
 
+    @Before
+    public void setUp() {
+        this.appSecret = "supersecretapplicationserverkey!".getBytes();
+        GrvtyTotpSDK.setGrvtySecurityAlertDelegate(new GSecAlertDelegate() {
+            @Override
+            public void securityAlert(GSecAlert alert) {
+                log.error(alert);
+            }
+        });
+        this.key = new SecretKeySpec("12345678901234567890123456789012".getBytes(), GCHmacAlgorithm.HmacSHA256.getAlgorithm());
+        this.totpCounter = new GCTotpCounter(0, 30);
+        this.generator = new GCTotpGenerator(new GCOtpGenerator(GCHmacAlgorithm.HmacSHA256, 8), this.totpCounter);
+    }
+
     @Test
     public void testGrvtySDK() {
-        byte[] appSecret = "supersecretapplicationserverkey!".getBytes();
         Database database = new Database();
         GrvtyTotpSDK sdk = new GrvtyTotpSDK(appSecret);
         TotpValidator totpValidator;
@@ -164,26 +245,15 @@ public class GrvtySDKTests {
 //        assertTrue("1", exception);
 //        exception = false;
 
-        GrvtyTotpSDK.setGrvtySecurityAlertDelegate(new GSecAlertDelegate() {
-            @Override
-            public void securityAlert(GSecAlert alert) {
-                log.error(alert);
-            }
-        });
         totpValidator = sdk.build();
 
         // create new account "user 1"
         String username1 = "user_1234567890";
         database.addAccount(username1);
         Account user1 = database.getAccount(username1);
-        Key key = new SecretKeySpec("12345678901234567890123456789012".getBytes(), GCHmacAlgorithm.HmacSHA256.getAlgorithm());
         user1.addTotpKey(totpValidator.wrapKey(key.getEncoded()));
 
-        GCTotpCounter totpCounter = new GCTotpCounter(0, 30);
-        GCTotpGenerator generator = new GCTotpGenerator(new GCOtpGenerator(GCHmacAlgorithm.HmacSHA256, 8), totpCounter);
-        byte[] period = Utilities.join("user_1234567890".getBytes(), periodToBytes(totpCounter.totpCount()));
-
-        String token = generateToken(generator, key, period);
+        String token = currentToken(key, "user_1234567890");
         boolean valid = validateToken(totpValidator, user1, token);
         assertTrue("GrvtySDK is wrong.", valid);
 
@@ -191,6 +261,432 @@ public class GrvtySDKTests {
         assertFalse("Token attacks allowed.", valid);
     }
 
+    @Test
+    public void testGrvtySDKBatch() {
+        Database database = new Database();
+        TotpValidator totpValidator = new GrvtyTotpSDK(appSecret).build();
+
+        String username1 = "user_1234567890";
+        database.addAccount(username1);
+        Account user1 = database.getAccount(username1);
+        user1.addTotpKey(totpValidator.wrapKey(key.getEncoded()));
+        String username2 = "user_0987654321";
+        database.addAccount(username2);
+        Account user2 = database.getAccount(username2);
+        user2.addTotpKey(totpValidator.wrapKey("09876543210987654321098765432109".getBytes()));
+
+        String token = currentToken(key, username1);
+
+        List<TotpAttempt> attempts = Arrays.asList(
+                new TotpAttempt(user1, token),
+                new TotpAttempt(user2, token),
+                new TotpAttempt(user1, "1234"),
+                new TotpAttempt(user1, token));
+        boolean[] valid = totpValidator.validateOtpTokens(attempts);
+        assertEquals(Arrays.toString(new boolean[]{true, false, false, false}), Arrays.toString(valid));
+        assertEquals("Malformed tokens must not be recorded.", 2, user1.tokens.size());
+        assertEquals(1, user2.tokens.size());
+    }
+
+    @Test
+    public void testGrvtySDKBatchGuards() throws Exception {
+        String username = "user_1234567890";
+        String token = currentToken(key, username);
+        for (int attemptQueueSize : new int[]{0, 16}) {
+            GrvtyTotpSDK sdk = new GrvtyTotpSDK(appSecret);
+            sdk.setReplayStoreSize(100);
+            sdk.setCoalesceValidations(true);
+            sdk.setMaxAttempts(3);
+            sdk.setAttemptQueueSize(attemptQueueSize);
+            TotpValidator totpValidator = sdk.build();
+            // a data layer without replay protection of its own
+            Account user = new Account(username) {
+                @Override
+                public boolean addOtpToken(long period, String token, boolean valid) {
+                    super.addOtpToken(period, token, valid);
+                    return true;
+                }
+            };
+            user.addTotpKey(totpValidator.wrapKey(key.getEncoded()));
+            try {
+                boolean[] valid = totpValidator.validateOtpTokens(Arrays.asList(
+                        new TotpAttempt(user, token),
+                        new TotpAttempt(user, token),
+                        new TotpAttempt(user, "00000000")));
+                assertEquals("The replay store rejects the second use.", Arrays.toString(new boolean[]{true, false, false}), Arrays.toString(valid));
+                assertFalse("Batches and single validations share the replay store.", totpValidator.validateOtpToken(user, token));
+            } finally {
+                totpValidator.shutdown(1000);
+            }
+            assertEquals("Every attempt is recorded.", 4, user.tokens.size());
+        }
+    }
+
+    @Test
+    public void testGrvtySDKDeviceHints() throws GeneralSecurityException {
+        Database database = new Database();
+        GrvtyTotpSDK sdk = new GrvtyTotpSDK(appSecret);
+        sdk.setDeviceHintsSize(100);
+        TotpValidator totpValidator = sdk.build();
+
+        String username = "user_1234567890";
+        database.addAccount(username);
+        Account user = database.getAccount(username);
+        user.addTotpKey(totpValidator.wrapKey("09876543210987654321098765432109".getBytes()));
+        user.addTotpKey(totpValidator.wrapKey("11111111111111111111111111111111".getBytes()));
+        user.addTotpKey(totpValidator.wrapKey(key.getEncoded()));
+
+        long count = totpCounter.totpCount();
+        String token = generateToken(generator, key, Utilities.join(username.getBytes(), periodToBytes(count)));
+        String nextToken = generateToken(generator, key, Utilities.join(username.getBytes(), periodToBytes(count + 1)));
+
+        GSecDeviceHints hints = totpValidator.getDeviceHints();
+        assertTrue("GrvtySDK is wrong.", totpValidator.validateOtpToken(user, token));
+        assertEquals(0, hints.getHits());
+        assertEquals(1, hints.getMisses());
+        assertTrue("GrvtySDK is wrong.", totpValidator.validateOtpToken(user, nextToken));
+        assertEquals(1, hints.getHits());
+        assertEquals("The hinted device is checked before the two others.", 2, hints.getDevicesSkipped());
+        assertEquals(0.5, hints.getHitRate(), 0);
+    }
+
+    @Test
+    public void testGrvtySDKNegativeCacheFollowsDevices() throws GeneralSecurityException {
+        GrvtyTotpSDK sdk = new GrvtyTotpSDK(appSecret);
+        sdk.setNegativeCacheSize(100);
+        TotpValidator totpValidator = sdk.build();
+
+        String username = "user_1234567890";
+        Account user = new Account(username);
+        user.addTotpKey(totpValidator.wrapKey("09876543210987654321098765432109".getBytes()));
+        String token = currentToken(key, username);
+
+        assertFalse(totpValidator.validateOtpToken(user, token));
+        // replacing the device keeps the number of devices
+        user.keys.clear();
+        user.addTotpKey(totpValidator.wrapKey(key.getEncoded()));
+        assertTrue("A token rejected for the old device is checked against the new one.", totpValidator.validateOtpToken(user, token));
+    }
+
+    @Test
+    public void testGrvtySDKThrottleBeforeFetch() throws GeneralSecurityException {
+        GrvtyTotpSDK sdk = new GrvtyTotpSDK(appSecret);
+        sdk.setMaxAttempts(2);
+        TotpValidator totpValidator = sdk.build();
+
+        final int[] fetched = new int[1];
+        GTInMemoryAccount user = new GTInMemoryAccount("user_1234567890".getBytes()) {
+            @Override
+            public synchronized List<GTKeyInterface> getKeys() {
+                fetched[0]++;
+                return super.getKeys();
+            }
+        };
+        user.addKey(totpValidator.wrapKey("12345678901234567890123456789012".getBytes()));
+        assertFalse(totpValidator.validateOtpToken(user, "00000000"));
+        assertFalse(totpValidator.validateOtpToken(user, "00000001"));
+        assertEquals(2, fetched[0]);
+        assertFalse(totpValidator.validateOtpToken(user, "00000002"));
+        boolean[] valid = totpValidator.validateOtpTokens(Arrays.asList(new TotpAttempt(user, "00000003"), new TotpAttempt(user, "00000004")));
+        assertEquals(Arrays.toString(new boolean[]{false, false}), Arrays.toString(valid));
+        assertEquals("Throttled attempts must not fetch the keys.", 2, fetched[0]);
+        assertEquals("Throttled attempts are still recorded.", 5, user.getAttemptCount());
+    }
+
+    @Test
+    public void testGrvtySDKStreamingKeys() throws GeneralSecurityException {
+        TotpValidator totpValidator = new GrvtyTotpSDK(appSecret).build();
+
+        String username = "user_1234567890";
+        StreamingAccount user = new StreamingAccount(username);
+        user.addTotpKey(totpValidator.wrapKey(key.getEncoded()));
+        for (int i = 0; i < 4; i++) {
+            user.addTotpKey(totpValidator.wrapKey(String.format("%032d", i).getBytes()));
+        }
+
+        String token = currentToken(key, username);
+
+        assertTrue("GrvtySDK is wrong.", totpValidator.validateOtpToken(user, token));
+        assertEquals("Devices after the matching one must not be fetched.", 1, user.fetched);
+        assertTrue(user.closed);
+
+        user.fetched = 0;
+        user.closed = false;
+        assertFalse(totpValidator.validateOtpToken(user, "00000000"));
+        assertEquals(5, user.fetched);
+        assertTrue(user.closed);
+    }
+
+    @Test
+    public void testGrvtySDKStreamingKeysAreNotPrefetched() throws Exception {
+        GrvtyTotpSDK sdk = new GrvtyTotpSDK(appSecret);
+        sdk.setDeviceHintsSize(100);
+        sdk.setFanOutThreshold(2);
+        sdk.setTokenIndexThreshold(2);
+        sdk.setNegativeCacheSize(100);
+        TotpValidator totpValidator = sdk.build();
+
+        String username = "user_1234567890";
+        StreamingAccount user = new StreamingAccount(username);
+        user.addTotpKey(totpValidator.wrapKey(key.getEncoded()));
+        for (int i = 0; i < 4; i++) {
+            user.addTotpKey(totpValidator.wrapKey(String.format("%032d", i).getBytes()));
+        }
+
+        String token = currentToken(key, username);
+        try {
+            assertTrue("GrvtySDK is wrong.", totpValidator.validateOtpToken(user, token));
+            assertEquals("Whole account features must not fetch every device.", 1, user.fetched);
+            assertTrue(user.closed);
+            assertEquals(0, totpValidator.getTokenIndex().size());
+        } finally {
+            totpValidator.shutdown(1000);
+        }
+    }
+
+    @Test
+    public void testGrvtySDKAsync() throws Exception {
+        TotpValidator totpValidator = new GrvtyTotpSDK(appSecret).build();
+        ExecutorService database = Executors.newSingleThreadExecutor();
+        try {
+            GTInMemoryAccount user1 = new GTInMemoryAccount("user_1234567890".getBytes(), database);
+            user1.addKey(totpValidator.wrapKey(key.getEncoded()));
+
+            String token = currentToken(key, "user_1234567890");
+
+            assertTrue("GrvtySDK is wrong.", totpValidator.validateOtpTokenAsync(user1, token).get(10, TimeUnit.SECONDS));
+            assertFalse("Token attacks allowed.", totpValidator.validateOtpTokenAsync(user1, token).get(10, TimeUnit.SECONDS));
+            assertFalse(totpValidator.validateOtpTokenAsync(user1, "1234").get(10, TimeUnit.SECONDS));
+            assertEquals(2, user1.getAttemptCount());
+        } finally {
+            database.shutdown();
+        }
+    }
+
+    @Test
+    public void testAttemptRecorder() throws InterruptedException {
+        GrvtyTotpSDK sdk = new GrvtyTotpSDK(appSecret);
+        sdk.setAttemptQueueSize(16);
+        TotpValidator totpValidator = sdk.build();
+        GTInMemoryAccount user1 = new GTInMemoryAccount("user_1234567890".getBytes());
+        user1.addKey(totpValidator.wrapKey(key.getEncoded()));
+
+        String token = currentToken(key, "user_1234567890");
+
+        try {
+            assertFalse(validateToken(totpValidator, user1, "12345678"));
+            assertTrue("GrvtySDK is wrong.", validateToken(totpValidator, user1, token));
+            assertFalse("Token attacks allowed.", validateToken(totpValidator, user1, token));
+        } finally {
+            // stops the recorder thread once the queued attempts are stored
+            totpValidator.shutdown(10000);
+        }
+        assertEquals(3, user1.getAttemptCount());
+        assertEquals(3, totpValidator.getAttemptRecorder().getRecordedCount());
+    }
+
+    @Test
+    public void testShutdown() throws IOException, InterruptedException {
+        File file = File.createTempFile("attempts", ".log");
+        file.deleteOnExit();
+        GrvtyTotpSDK sdk = new GrvtyTotpSDK(appSecret);
+        sdk.setAttemptQueueSize(16);
+        sdk.setAttemptLog(file);
+        sdk.setPeriodTicker(true);
+        sdk.setClockTickMillis(100);
+        sdk.setAsyncValidationThreads(1);
+        TotpValidator totpValidator = sdk.build();
+        GTInMemoryAccount user1 = new GTInMemoryAccount("user_1234567890".getBytes());
+        GTInMemoryAccount user2 = new GTInMemoryAccount("user_0987654321".getBytes());
+        user1.addKey(totpValidator.wrapKey(key.getEncoded()));
+        user2.addKey(totpValidator.wrapKey(key.getEncoded()));
+
+        long period = totpCounter.totpCount();
+        String token = generateToken(generator, key, Utilities.join("user_1234567890".getBytes(), periodToBytes(period)));
+        assertTrue("GrvtySDK is wrong.", validateToken(totpValidator, user1, token));
+        assertFalse("Token attacks allowed.", validateToken(totpValidator, user1, token));
+        totpValidator.shutdown(10000);
+
+        List<TotpAttemptLog.Entry> entries = TotpAttemptLog.read(file);
+        assertEquals("Queued attempts are stored on shutdown.", 2, entries.size());
+        assertTrue(entries.get(0).isValid());
+        assertFalse(entries.get(1).isValid());
+        if (totpCounter.totpCount() == period) {
+            token = generateToken(generator, key, Utilities.join("user_0987654321".getBytes(), periodToBytes(period)));
+            assertFalse("The attempt log is closed.", validateToken(totpValidator, user2, token));
+        }
+    }
+
+    @Test
+    public void testTokenCache() {
+        GSecTokenCache tokenCache = new GSecTokenCache(3, 2);
+        GSecOtpValidator validator = new GSecOtpValidator(generator, new GSecTotpCounter(1, 1), tokenCache);
+        byte[] unique = "user_1234567890".getBytes();
+        GCHmacKey hmacKey = GCHmacKey.newInstance(GCHmacAlgorithm.HmacSHA256, "12345678901234567890123456789012".getBytes());
+        GSecTotpKey device = new GSecTotpKey(null, unique, hmacKey);
+
+        assertEquals(100, validator.matchOtpToken(device, generator.generateOtpValue(hmacKey, 100, unique), 100));
+        assertEquals(1, tokenCache.size());
+        GSecTokenCache.Device cached = tokenCache.device(hmacKey, unique);
+        assertEquals("Tokens are cached up to the match.", generator.generateOtpValue(hmacKey, 100, unique), cached.get(100));
+        assertEquals(GSecTokenCache.MISS, cached.get(101));
+
+        assertEquals(101, validator.matchOtpToken(device, generator.generateOtpValue(hmacKey, 101, unique), 101));
+        assertEquals("A token that left the window never validates.",
+                GSecOtpValidator.NO_MATCH, validator.matchOtpToken(device, generator.generateOtpValue(hmacKey, 99, unique), 101));
+        assertEquals("Slots are reused strictly by period.", GSecTokenCache.MISS, cached.get(99));
+
+        tokenCache.prewarm(103, generator);
+        assertEquals(generator.generateOtpValue(hmacKey, 103, unique), cached.get(103));
+        tokenCache.expire(103);
+        assertEquals("Warmed tokens do not keep a device cached.", 0, tokenCache.size());
+
+        for (int i = 0; i < 3; i++) {
+            GCHmacKey other = GCHmacKey.newInstance(GCHmacAlgorithm.HmacSHA256, String.format("%032d", i).getBytes());
+            assertEquals("A full cache still validates.", 200,
+                    validator.matchOtpToken(new GSecTotpKey(null, unique, other), generator.generateOtpValue(other, 200, unique), 200));
+        }
+        assertEquals(2, tokenCache.size());
+        assertNull(tokenCache.device(hmacKey, unique));
+        tokenCache.clear();
+        assertEquals(0, tokenCache.size());
+    }
+
+    @Test
+    public void testTokenCachePrewarmWhileExpiring() throws InterruptedException {
+        final byte[] unique = "user_1234567890".getBytes();
+        int devices = 256;
+        GCHmacKey[] keys = new GCHmacKey[devices];
+        for (int i = 0; i < devices; i++) {
+            keys[i] = GCHmacKey.newInstance(GCHmacAlgorithm.HmacSHA256, String.format("%032d", i).getBytes());
+        }
+        int failures = 0;
+        for (int round = 0; round < 100; round++) {
+            final GSecTokenCache tokenCache = new GSecTokenCache(3, devices);
+            final long period = 100 + round;
+            GSecTokenCache.Device[] cached = new GSecTokenCache.Device[devices];
+            for (int i = 0; i < devices; i++) {
+                cached[i] = tokenCache.device(keys[i], unique);
+                cached[i].put(period, generator.generateOtpValue(keys[i], period, unique));
+            }
+            // the ticker warms the next period while a validation drops every device
+            final CountDownLatch warming = new CountDownLatch(1);
+            Thread ticker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    warming.countDown();
+                    tokenCache.prewarm(period + 1, generator);
+                }
+            });
+            ticker.start();
+            warming.await();
+            tokenCache.expire(period + 1);
+            ticker.join();
+            for (int i = 0; i < devices; i++) {
+                int token = cached[i].get(period + 1);
+                if (token != GSecTokenCache.MISS && token != generator.generateOtpValue(keys[i], period + 1, unique)) {
+                    failures++;
+                }
+            }
+        }
+        assertEquals("Tokens are never computed with a zeroed key.", 0, failures);
+    }
+
+    @Test
+    public void testDriftStore() {
+        final int[] hmacs = new int[1];
+        GCTotpGenerator generator = new GCTotpGenerator(new GCOtpGenerator(GCHmacAlgorithm.HmacSHA256, 8), new GCTotpCounter(0, 30)) {
+            @Override
+            public int generateOtpValue(GCHmacKey key, long period, byte[] uniqueId) {
+                hmacs[0]++;
+                return super.generateOtpValue(key, period, uniqueId);
+            }
+        };
+        GSecDriftStore driftStore = new GSecDriftStore(1);
+        GSecOtpValidator validator = new GSecOtpValidator(generator, new GSecTotpCounter(2, 2), null, driftStore);
+        byte[] unique = "user_1234567890".getBytes();
+        GCHmacKey hmacKey = GCHmacKey.newInstance(GCHmacAlgorithm.HmacSHA256, "12345678901234567890123456789012".getBytes());
+        GSecTotpKey device = new GSecTotpKey(null, unique, hmacKey);
+        long fingerprint = device.getFingerprint(GCHmacAlgorithm.HmacSHA256);
+        int[] tokens = new int[4];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = generator.generateOtpValue(hmacKey, 98 + i, unique);
+        }
+        assertEquals(0, driftStore.get(fingerprint));
+
+        // offsets are checked 0, +1, +2, -1, -2 until the device's drift is known
+        hmacs[0] = 0;
+        assertEquals(98, validator.matchOtpToken(device, tokens[0], 100));
+        assertEquals(5, hmacs[0]);
+        assertEquals(-2, driftStore.get(fingerprint));
+        hmacs[0] = 0;
+        assertEquals(99, validator.matchOtpToken(device, tokens[1], 101));
+        assertEquals("The learned offset is checked first.", 1, hmacs[0]);
+
+        // the learned offset swaps places with offset 0
+        hmacs[0] = 0;
+        assertEquals(101, validator.matchOtpToken(device, tokens[3], 101));
+        assertEquals(5, hmacs[0]);
+        assertEquals(0, driftStore.get(fingerprint));
+
+        driftStore.put(fingerprint, 3);
+        hmacs[0] = 0;
+        assertEquals(GSecOtpValidator.NO_MATCH, validator.matchOtpToken(device, tokens[3], 98));
+        assertEquals("An offset outside the window is never checked.", 5, hmacs[0]);
+
+        // devices sharing a slot only lose their hint
+        driftStore.put(fingerprint ^ (1L << 40), -1);
+        assertEquals(0, driftStore.get(fingerprint));
+        assertEquals(-1, driftStore.get(fingerprint ^ (1L << 40)));
+        try {
+            driftStore.put(fingerprint, 128);
+            fail("Offsets that do not fit in a byte allowed.");
+        } catch (IllegalArgumentException ignored) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDiagnosticDelegate() throws GeneralSecurityException {
+        TotpValidator totpValidator = new GrvtyTotpSDK(appSecret).build();
+        String username = "user_1234567890";
+        Account user = new Account(username);
+        user.addTotpKey(totpValidator.wrapKey(key.getEncoded()));
+        String token = currentToken(key, username);
+
+        final List<GSecDiagnosticEvent> events = new ArrayList<>();
+        final List<Long> values = new ArrayList<>();
+        GrvtyTotpSDK.setGrvtyDiagnosticDelegate(new GSecDiagnosticDelegate() {
+            @Override
+            public void diagnosticEvent(GSecDiagnosticEvent event, long value, long detail) {
+                events.add(event);
+                values.add(value);
+                values.add(detail);
+            }
+        });
+        try {
+            assertTrue(GSecDiagnosticService.isEnabled());
+            assertFalse(totpValidator.validateOtpToken(user, "1234"));
+            assertTrue("GrvtySDK is wrong.", totpValidator.validateOtpToken(user, token));
+        } finally {
+            GrvtyTotpSDK.setGrvtyDiagnosticDelegate(null);
+        }
+        assertTrue(events.contains(GSecDiagnosticEvent.TOKEN_MALFORMED));
+        assertTrue(events.contains(GSecDiagnosticEvent.TOKEN_GENERATED));
+        assertTrue(events.contains(GSecDiagnosticEvent.DEVICE_CHECKED));
+        assertTrue(events.contains(GSecDiagnosticEvent.TOKEN_VALIDATED));
+        assertFalse("Events never carry tokens.", values.contains(Long.parseLong(token)));
+
+        int delivered = events.size();
+        assertFalse(GSecDiagnosticService.isEnabled());
+        assertFalse(totpValidator.validateOtpToken(user, "1234"));
+        assertEquals("A removed delegate receives no events.", delivered, events.size());
+    }
+
+    private String currentToken(Key key, String username) {
+        return generateToken(this.generator, key, Utilities.join(username.getBytes(), periodToBytes(this.totpCounter.totpCount())));
+    }
+
     private String generateToken(GCTotpGenerator generator, Key key, byte[] data) {
         String token = null;
         try {
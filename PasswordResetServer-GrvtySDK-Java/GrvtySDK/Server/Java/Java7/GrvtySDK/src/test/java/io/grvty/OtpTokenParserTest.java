@@ -0,0 +1,45 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty;
+
+import io.grvty.security.crypto.otp.GCOtpTokenParser;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class OtpTokenParserTest {
+
+    @Test
+    public void testValidTokens() {
+        assertEquals(46119246, GCOtpTokenParser.parse("46119246", 8));
+        assertEquals(7081804, GCOtpTokenParser.parse("07081804", 8));
+        assertEquals(7081804, GCOtpTokenParser.parse("07081804".toCharArray(), 0, 8, 8));
+        assertEquals(7081804, GCOtpTokenParser.parse("xx07081804".getBytes(), 2, 8, 8));
+        assertEquals(Integer.MAX_VALUE, GCOtpTokenParser.parse("2147483647", 10));
+    }
+
+    @Test
+    public void testInvalidTokens() {
+        assertEquals(GCOtpTokenParser.INVALID, GCOtpTokenParser.parse((String) null, 8));
+        assertEquals(GCOtpTokenParser.INVALID, GCOtpTokenParser.parse("", 8));
+        assertEquals(GCOtpTokenParser.INVALID, GCOtpTokenParser.parse("4611924", 8));
+        assertEquals(GCOtpTokenParser.INVALID, GCOtpTokenParser.parse("461192466", 8));
+        assertEquals(GCOtpTokenParser.INVALID, GCOtpTokenParser.parse("4611 246", 8));
+        assertEquals(GCOtpTokenParser.INVALID, GCOtpTokenParser.parse("-4611924", 8));
+        assertEquals(GCOtpTokenParser.INVALID, GCOtpTokenParser.parse("4611924\u0660", 8));
+        assertEquals(GCOtpTokenParser.INVALID, GCOtpTokenParser.parse("4611924a".getBytes(), 0, 8, 8));
+        assertEquals(GCOtpTokenParser.UNMATCHABLE, GCOtpTokenParser.parse("2147483648", 10));
+        assertEquals(GCOtpTokenParser.UNMATCHABLE, GCOtpTokenParser.parse("9999999999", 10));
+    }
+
+    @Test
+    public void testByteBufferPositionUnchanged() {
+        ByteBuffer buffer = ByteBuffer.wrap("token=90693936".getBytes());
+        buffer.position(6);
+        assertEquals(90693936, GCOtpTokenParser.parse(buffer, 8));
+        assertEquals(6, buffer.position());
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty;
+
+import io.grvty.sdk.totp.GTInMemoryAccount;
+import io.grvty.sdk.totp.TotpAttemptLog;
+import io.grvty.sdk.totp.TotpAttemptRecorder;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class TotpAttemptRecorderTest {
+    private static File newFile() throws IOException {
+        File file = File.createTempFile("attempts", ".log");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void testValidAttemptsUseTheDataLayer() throws InterruptedException {
+        TotpAttemptRecorder recorder = new TotpAttemptRecorder(TotpAttemptRecorder.ACCOUNTS, 100, 10);
+        GTInMemoryAccount account = new GTInMemoryAccount("user_1234567890".getBytes());
+        assertTrue(recorder.record(account, 100, "1234", false));
+        assertTrue(recorder.record(account, 100, "12345678", true));
+        assertFalse("Token attacks allowed.", recorder.record(account, 100, "12345678", true));
+        recorder.shutdown(10000);
+        assertEquals(3, account.getAttemptCount());
+        assertEquals(3, recorder.getRecordedCount());
+        assertEquals(0, recorder.getQueueSize());
+        assertTrue(recorder.getFlushCount() >= 2);
+        assertTrue(recorder.getMaxFlushMicros() >= recorder.getLastFlushMicros());
+        assertFalse("Attempts after shutdown are stored by the caller.", recorder.record(account, 100, "12345678", true));
+        assertEquals(4, account.getAttemptCount());
+    }
+
+    @Test
+    public void testBatchesShareOneWrite() throws InterruptedException {
+        TotpAttemptRecorder recorder = new TotpAttemptRecorder(new TotpAttemptRecorder.Sink() {
+            @Override
+            public void write(List<TotpAttemptRecorder.Attempt> attempts, boolean[] accepted) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < accepted.length; i++) {
+                    accepted[i] = true;
+                }
+            }
+        }, 100, 100);
+        GTInMemoryAccount account = new GTInMemoryAccount("user_1".getBytes());
+        TotpAttemptRecorder.Attempt[] attempts = new TotpAttemptRecorder.Attempt[50];
+        for (int i = 0; i < attempts.length; i++) {
+            attempts[i] = recorder.submit(account, 100, String.format("%08d", i), true);
+        }
+        for (TotpAttemptRecorder.Attempt attempt : attempts) {
+            assertTrue(recorder.await(attempt));
+        }
+        recorder.shutdown(10000);
+        assertEquals(50, recorder.getRecordedCount());
+        assertEquals(0, recorder.getOverflowCount());
+        assertTrue("Attempts queued during a write share the next one.", recorder.getFlushCount() < 50);
+    }
+
+    @Test
+    public void testFullQueueIsStoredByTheCaller() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        TotpAttemptRecorder recorder = new TotpAttemptRecorder(new TotpAttemptRecorder.Sink() {
+            @Override
+            public void write(List<TotpAttemptRecorder.Attempt> attempts, boolean[] accepted) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < accepted.length; i++) {
+                    accepted[i] = true;
+                }
+            }
+        }, 1, 10);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ignored) {
+                    // released early
+                }
+                release.countDown();
+            }
+        }).start();
+        GTInMemoryAccount account = new GTInMemoryAccount("user_1".getBytes());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(recorder.record(account, 100, "1234", false));
+        }
+        assertTrue(recorder.record(account, 100, "12345678", true));
+        recorder.shutdown(10000);
+        assertEquals(4, recorder.getRecordedCount());
+        assertTrue(recorder.getOverflowCount() >= 1);
+        assertEquals(0, recorder.getFailedCount());
+    }
+
+    @Test
+    public void testFailingSinkRejectsValidAttempts() throws InterruptedException {
+        TotpAttemptRecorder recorder = new TotpAttemptRecorder(new TotpAttemptRecorder.Sink() {
+            @Override
+            public void write(List<TotpAttemptRecorder.Attempt> attempts, boolean[] accepted) throws IOException {
+                throw new IOException("disk full");
+            }
+        }, 10, 10);
+        GTInMemoryAccount account = new GTInMemoryAccount("user_1".getBytes());
+        assertFalse(recorder.record(account, 100, "12345678", true));
+        assertTrue(recorder.record(account, 100, "1234", false));
+        recorder.shutdown(10000);
+        assertEquals(2, recorder.getFailedCount());
+    }
+
+    @Test
+    public void testLogIsReadBackAndTornTailCut() throws IOException, InterruptedException {
+        File file = newFile();
+        TotpAttemptLog attemptLog = new TotpAttemptLog(file, 2, 1000);
+        TotpAttemptRecorder recorder = new TotpAttemptRecorder(attemptLog, 100, 10);
+        GTInMemoryAccount account = new GTInMemoryAccount("user_1234567890".getBytes());
+        assertTrue(recorder.record(account, 100, "1234", false));
+        assertTrue(recorder.record(account, 101, "12345678", true));
+        recorder.shutdown(10000);
+        attemptLog.close();
+        assertEquals("The log does not call the data layer.", 0, account.getAttemptCount());
+
+        List<TotpAttemptLog.Entry> entries = TotpAttemptLog.read(file);
+        assertEquals(2, entries.size());
+        assertEquals(100, entries.get(0).getPeriod());
+        assertFalse(entries.get(0).isValid());
+        assertEquals("1234", entries.get(0).getToken());
+        assertEquals(101, entries.get(1).getPeriod());
+        assertTrue(entries.get(1).isValid());
+        assertArrayEquals("user_1234567890".getBytes(), entries.get(1).getUniqueVal());
+
+        long length = file.length();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length - 3);
+        } finally {
+            raf.close();
+        }
+        attemptLog = new TotpAttemptLog(file, 2, 1000);
+        assertTrue("The torn record is cut off.", attemptLog.size() < length - 3);
+        recorder = new TotpAttemptRecorder(attemptLog, 100, 10);
+        assertTrue(recorder.record(account, 102, "87654321", true));
+        recorder.shutdown(10000);
+        attemptLog.close();
+        entries = TotpAttemptLog.read(file);
+        assertEquals(2, entries.size());
+        assertEquals("87654321", entries.get(1).getToken());
+    }
+
+    @Test
+    public void testLogRejectsReplaysAcrossRestarts() throws IOException, InterruptedException {
+        File file = newFile();
+        TotpAttemptLog attemptLog = new TotpAttemptLog(file, 2, 1000);
+        TotpAttemptRecorder recorder = new TotpAttemptRecorder(attemptLog, 100, 10);
+        GTInMemoryAccount account = new GTInMemoryAccount("user_1234567890".getBytes());
+        GTInMemoryAccount other = new GTInMemoryAccount("user_0987654321".getBytes());
+        assertTrue(recorder.record(account, 100, "12345678", true));
+        assertFalse("Token attacks allowed.", recorder.record(account, 101, "12345678", true));
+        assertTrue("Tokens are remembered per account.", recorder.record(other, 101, "12345678", true));
+        recorder.shutdown(10000);
+        attemptLog.close();
+
+        attemptLog = new TotpAttemptLog(file, 2, 1000);
+        recorder = new TotpAttemptRecorder(attemptLog, 100, 10);
+        assertFalse("Accepted tokens survive a restart.", recorder.record(account, 102, "12345678", true));
+        assertTrue("Tokens expire after the replay periods.", recorder.record(account, 103, "12345678", true));
+        recorder.shutdown(10000);
+        attemptLog.close();
+        List<TotpAttemptLog.Entry> entries = TotpAttemptLog.read(file);
+        assertEquals(5, entries.size());
+        assertFalse("A rejected replay is logged as not accepted.", entries.get(1).isValid());
+        assertTrue(entries.get(4).isValid());
+    }
+
+    @Test
+    public void testFullLogRejectsValidAttempts() throws IOException, InterruptedException {
+        TotpAttemptLog attemptLog = new TotpAttemptLog(newFile(), 2, 64);
+        TotpAttemptRecorder recorder = new TotpAttemptRecorder(attemptLog, 100, 10);
+        int accepted = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (recorder.record(new GTInMemoryAccount(("user_" + i).getBytes()), 100, "12345678", true)) {
+                accepted++;
+            }
+        }
+        recorder.shutdown(10000);
+        attemptLog.close();
+        assertTrue("Tokens that cannot be remembered are refused.", accepted > 0 && accepted <= 64);
+    }
+
+    @Test
+    public void testExpiredTokensMakeRoom() throws IOException, InterruptedException {
+        TotpAttemptLog attemptLog = new TotpAttemptLog(newFile(), 2, 64);
+        TotpAttemptRecorder recorder = new TotpAttemptRecorder(attemptLog, 100, 10);
+        for (int i = 0; i < 1000; i++) {
+            recorder.record(new GTInMemoryAccount(("user_" + i).getBytes()), 100, "12345678", true);
+        }
+        int accepted = 0;
+        for (int i = 0; i < 16; i++) {
+            if (recorder.record(new GTInMemoryAccount(("other_" + i).getBytes()), 103, "12345678", true)) {
+                accepted++;
+            }
+        }
+        recorder.shutdown(10000);
+        attemptLog.close();
+        assertTrue("Tokens whose replay periods are over are forgotten.", accepted >= 8);
+    }
+
+    @Test
+    public void testShutdownTimeoutCompletesQueuedAttempts() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        TotpAttemptRecorder recorder = new TotpAttemptRecorder(new TotpAttemptRecorder.Sink() {
+            @Override
+            public void write(List<TotpAttemptRecorder.Attempt> attempts, boolean[] accepted) {
+                // ignores interrupts like a sink blocked in the data layer
+                while (true) {
+                    try {
+                        release.await();
+                        break;
+                    } catch (InterruptedException ignored) {
+                        // keep blocking
+                    }
+                }
+                for (int i = 0; i < accepted.length; i++) {
+                    accepted[i] = true;
+                }
+            }
+        }, 100, 1);
+        GTInMemoryAccount account = new GTInMemoryAccount("user_1".getBytes());
+        TotpAttemptRecorder.Attempt[] attempts = new TotpAttemptRecorder.Attempt[5];
+        for (int i = 0; i < attempts.length; i++) {
+            attempts[i] = recorder.submit(account, 100, String.format("%08d", i), true);
+        }
+        Thread.sleep(50);
+        recorder.shutdown(100);
+        long start = System.nanoTime();
+        for (int i = 1; i < attempts.length; i++) {
+            assertFalse("Stranded attempts are not accepted.", recorder.await(attempts[i]));
+        }
+        assertTrue("Stranded attempts do not block.", System.nanoTime() - start < 1000000000L);
+        assertEquals(4, recorder.getFailedCount());
+        release.countDown();
+        assertTrue(recorder.await(attempts[0]));
+    }
+
+    @Test
+    public void testAwaitIsBounded() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        TotpAttemptRecorder recorder = new TotpAttemptRecorder(new TotpAttemptRecorder.Sink() {
+            @Override
+            public void write(List<TotpAttemptRecorder.Attempt> attempts, boolean[] accepted) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < accepted.length; i++) {
+                    accepted[i] = true;
+                }
+            }
+        }, 10, 10, 100);
+        GTInMemoryAccount account = new GTInMemoryAccount("user_1".getBytes());
+        assertFalse("An attempt that is not stored in time is not accepted.", recorder.record(account, 100, "12345678", true));
+        assertEquals(1, recorder.getTimedOutCount());
+        release.countDown();
+        recorder.shutdown(10000);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty;
+
+import io.grvty.sdk.totp.TotpFanOut;
+import io.grvty.sdk.totp.TotpValidator;
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class TotpFanOutTest {
+
+    @Test
+    public void testFindStopsAtMatch() {
+        ExecutorService executor = TotpValidator.newValidationExecutor(3, 16);
+        try {
+            TotpFanOut fanOut = new TotpFanOut(executor, 2, 4);
+            for (int match = 0; match < 100; match += 7) {
+                final int expected = match;
+                final AtomicIntegerArray probed = new AtomicIntegerArray(100);
+                int found = fanOut.find(100, new TotpFanOut.Probe() {
+                    @Override
+                    public boolean probe(int index) {
+                        probed.incrementAndGet(index);
+                        return index == expected;
+                    }
+                });
+                assertEquals(expected, found);
+                for (int i = 0; i < 100; i++) {
+                    assertTrue("Every element is probed at most once.", probed.get(i) <= 1);
+                }
+            }
+            assertEquals(-1, fanOut.find(100, new TotpFanOut.Probe() {
+                @Override
+                public boolean probe(int index) {
+                    return false;
+                }
+            }));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSaturatedExecutorSearchesSerially() {
+        TotpFanOut fanOut = new TotpFanOut(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        }, 2, 4);
+        final int[] probes = new int[1];
+        assertEquals(9, fanOut.find(20, new TotpFanOut.Probe() {
+            @Override
+            public boolean probe(int index) {
+                probes[0]++;
+                return index == 9;
+            }
+        }));
+        assertEquals(10, probes[0]);
+        assertEquals(0, fanOut.getHelpers());
+    }
+
+    @Test
+    public void testProbeFailureReachesCaller() {
+        ExecutorService executor = TotpValidator.newValidationExecutor(3, 16);
+        try {
+            TotpFanOut fanOut = new TotpFanOut(executor, 2, 4);
+            try {
+                fanOut.find(1000, new TotpFanOut.Probe() {
+                    @Override
+                    public boolean probe(int index) {
+                        if (index == 500) {
+                            throw new IllegalStateException("failed");
+                        }
+                        return false;
+                    }
+                });
+                fail("The failure must reach the caller.");
+            } catch (IllegalStateException e) {
+                assertEquals("failed", e.getMessage());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
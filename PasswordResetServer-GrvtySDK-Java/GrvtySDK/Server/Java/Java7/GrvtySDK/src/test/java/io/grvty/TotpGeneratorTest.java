@@ -3,8 +3,14 @@
  */
 package io.grvty;
 
+import io.grvty.security.GSecOtpValidator;
+import io.grvty.security.GSecTotpKey;
+import io.grvty.security.crypto.GSecTotpCounter;
+import io.grvty.security.crypto.Utilities;
 import io.grvty.security.crypto.otp.GCHmacAlgorithm;
+import io.grvty.security.crypto.otp.GCHmacKey;
 import io.grvty.security.crypto.otp.GCOtpGenerator;
+import io.grvty.security.crypto.otp.GCOtpTokenParser;
 import io.grvty.security.crypto.otp.GCTotpCounter;
 import io.grvty.security.crypto.otp.GCTotpGenerator;
 import io.grvty.security.utils.time.GSecTime;
@@ -13,6 +19,8 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.util.Arrays;
 import java.util.Collection;
@@ -70,6 +78,75 @@ public class TotpGeneratorTest {
         assertTrue("TotpGenerator generated the wrong token.", expectedResult.equals(token));
     }
 
+    @Test
+    public void testTotpGeneratorPrecomputedKey() {
+        GCTotpCounter totpCounter = new GCTotpCounter(t0, x, new GSecTimeConstant(time));
+        GCTotpGenerator generator = new GCTotpGenerator(new GCOtpGenerator(hmacAlgorithm, digits), totpCounter);
+        byte[] period = ByteBuffer.allocate(8).putLong(totpCounter.totpCount()).array();
+        String token = generator.generateOtpToken(GCHmacKey.newInstance(hmacAlgorithm, key), period);
+        assertTrue("TotpGenerator generated the wrong token from a precomputed key.", expectedResult.equals(token));
+    }
+
+    @Test
+    public void testPrecomputedKeyMatchesMac() throws GeneralSecurityException {
+        GCOtpGenerator generator = new GCOtpGenerator(hmacAlgorithm, digits);
+        GCHmacKey hmacKey = GCHmacKey.newInstance(hmacAlgorithm, key);
+        // cover messages that end in, span and fill whole hash blocks
+        for (int length = 8; length <= 300; length++) {
+            byte[] data = new byte[length];
+            for (int i = 0; i < length; i++) {
+                data[i] = (byte) (i * 31 + length);
+            }
+            assertEquals("Precomputed key disagrees with Mac for length " + length, generator.generateOtp(key, data), generator.generateOtp(hmacKey, data));
+        }
+    }
+
+    @Test
+    public void testNumericTokenMatchesText() throws GeneralSecurityException {
+        GCOtpGenerator otpGenerator = new GCOtpGenerator(hmacAlgorithm, digits);
+        GCTotpGenerator generator = new GCTotpGenerator(otpGenerator, new GCTotpCounter(t0, x, new GSecTimeConstant(time)));
+        GSecOtpValidator validator = new GSecOtpValidator(generator, new GSecTotpCounter(1, 1));
+        byte[] unique = "user_1234567890".getBytes();
+        GSecTotpKey totpKey = new GSecTotpKey(key, unique);
+        GCHmacKey hmacKey = GCHmacKey.newInstance(hmacAlgorithm, key);
+        long period = new GCTotpCounter(t0, x, new GSecTimeConstant(time)).totpCount();
+
+        int value = generator.generateOtpValue(hmacKey, period, unique);
+        String token = otpGenerator.generateOtp(key, Utilities.join(unique, ByteBuffer.allocate(8).putLong(period).array()));
+        assertEquals("The numeric token disagrees with the text token.", token, generator.formatOtp(value));
+        assertEquals(value, GCOtpTokenParser.parse(token, digits));
+        assertTrue(Utilities.isEqualConstantTime(value, value));
+        assertFalse(Utilities.isEqualConstantTime(value, value ^ (1 << 30)));
+
+        assertEquals(period, validator.matchOtpToken(totpKey, value, period));
+        assertTrue(validator.validateOtpToken(totpKey, token, period));
+        assertEquals("The window is checked with numeric tokens.", period + 1,
+                validator.matchOtpToken(totpKey, generator.generateOtpValue(hmacKey, period + 1, unique), period));
+        assertEquals(GSecOtpValidator.NO_MATCH, validator.matchOtpToken(totpKey, generator.generateOtpValue(hmacKey, period + 2, unique), period));
+        assertFalse("Tokens longer than the digits never match.", validator.validateOtpToken(totpKey, token + "0", period));
+    }
+
+    @Test
+    public void testKeysDoNotLeakBetweenCalls() throws GeneralSecurityException {
+        GCOtpGenerator generator = new GCOtpGenerator(hmacAlgorithm, digits, GCOtpGenerator.resolveProvider(hmacAlgorithm));
+        byte[] secret = key.getEncoded();
+        secret[0] ^= 1;
+        Key other = new SecretKeySpec(secret, hmacAlgorithm.getAlgorithm());
+        byte[] data = ByteBuffer.allocate(8).putLong(new GCTotpCounter(t0, x, new GSecTimeConstant(time)).totpCount()).array();
+        String otherToken = generator.generateOtp(GCHmacKey.newInstance(hmacAlgorithm, other), data);
+        // alternate keys on one thread, every call must use its own key
+        for (int i = 0; i < 4; i++) {
+            assertEquals(expectedResult, generator.generateOtp(key, data));
+            assertEquals(otherToken, generator.generateOtp(other, data));
+        }
+        try {
+            generator.generateOtp(new SecretKeySpec(Arrays.copyOf(secret, secret.length - 1), hmacAlgorithm.getAlgorithm()), data);
+            fail("Short keys allowed.");
+        } catch (IllegalArgumentException ignored) {
+            // expected
+        }
+    }
+
     private class GSecTimeConstant extends GSecTime {
         long seconds;
 
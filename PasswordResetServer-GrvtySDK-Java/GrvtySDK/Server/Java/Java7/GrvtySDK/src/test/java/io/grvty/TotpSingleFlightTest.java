@@ -0,0 +1,141 @@
+/*
+ * Created by agent on 10/17/26.
+ */
+package io.grvty;
+
+import io.grvty.sdk.totp.TotpSingleFlight;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TotpSingleFlightTest {
+    private static final byte[] ACCOUNT = "user_1234567890".getBytes();
+
+    @Test
+    public void testConcurrentCallsShareOneComputation() throws InterruptedException {
+        final TotpSingleFlight singleFlight = new TotpSingleFlight(16);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger computations = new AtomicInteger();
+        final AtomicInteger wrongResults = new AtomicInteger();
+        final TotpSingleFlight.Call call = new TotpSingleFlight.Call() {
+            @Override
+            public long call() {
+                computations.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 42;
+            }
+        };
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    if (singleFlight.call(1, ACCOUNT, 12345678, 100, call) != 42) {
+                        wrongResults.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+            if (i == 0) {
+                assertTrue(started.await(10, TimeUnit.SECONDS));
+            }
+        }
+        while (singleFlight.getJoined() < 7) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, computations.get());
+        assertEquals(0, wrongResults.get());
+        assertEquals(8, singleFlight.getCalls());
+    }
+
+    @Test
+    public void testCollidingAccountsDoNotShareResults() throws InterruptedException {
+        final TotpSingleFlight singleFlight = new TotpSingleFlight(16);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                singleFlight.call(1, ACCOUNT, 12345678, 100, new TotpSingleFlight.Call() {
+                    @Override
+                    public long call() {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return 100;
+                    }
+                });
+            }
+        });
+        thread.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        // same hash and token, different account
+        assertEquals(-1, singleFlight.call(1, "user_0987654321".getBytes(), 12345678, 100, new TotpSingleFlight.Call() {
+            @Override
+            public long call() {
+                return -1;
+            }
+        }));
+        assertEquals(0, singleFlight.getJoined());
+        release.countDown();
+        thread.join();
+    }
+
+    @Test
+    public void testCompletedCallsAreNotReused() {
+        TotpSingleFlight singleFlight = new TotpSingleFlight(16);
+        final AtomicInteger computations = new AtomicInteger();
+        TotpSingleFlight.Call call = new TotpSingleFlight.Call() {
+            @Override
+            public long call() {
+                return computations.incrementAndGet();
+            }
+        };
+        assertEquals(1, singleFlight.call(1, ACCOUNT, 12345678, 100, call));
+        assertEquals(2, singleFlight.call(1, ACCOUNT, 12345678, 100, call));
+        assertEquals(3, singleFlight.call(1, ACCOUNT, 12345679, 100, call));
+        assertEquals(0, singleFlight.getJoined());
+    }
+
+    @Test
+    public void testFailedCallIsNotShared() {
+        TotpSingleFlight singleFlight = new TotpSingleFlight(16);
+        try {
+            singleFlight.call(1, ACCOUNT, 12345678, 100, new TotpSingleFlight.Call() {
+                @Override
+                public long call() {
+                    throw new IllegalStateException("failed");
+                }
+            });
+            fail("The failure must reach the caller.");
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertEquals(7, singleFlight.call(1, ACCOUNT, 12345678, 100, new TotpSingleFlight.Call() {
+            @Override
+            public long call() {
+                return 7;
+            }
+        }));
+    }
+}